@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.csource.common.Base64;
+import org.csource.common.Base64Codec;
+import org.csource.fastdfs.ProtoCommon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base64 against Base64Codec on the 27 chars of a FastDFS filename.
+ * the setup checks both codecs give the same output on random input before measuring.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark {
+    private static final Base64 base64 = new Base64('-', '_', '.', 0);
+
+    private String remote_filename;
+    private byte[] fields;
+    private byte[] decodeBuff;
+    private char[] encodeBuff;
+
+    @Setup
+    public void setup() throws Exception {
+        verify();
+
+        this.remote_filename = "M00/00/00/wKgBaFl3dkSAexCOAAAAADPZ7Eg743.jpg";
+        this.fields = base64.decodeAuto(this.remote_filename.substring(ProtoCommon.FDFS_FILE_PATH_LEN,
+            ProtoCommon.FDFS_FILE_PATH_LEN + ProtoCommon.FDFS_FILENAME_BASE64_LENGTH));
+        this.decodeBuff = new byte[this.fields.length];
+        this.encodeBuff = new char[Base64Codec.encodedLength(this.fields.length)];
+    }
+
+    /**
+     * compare the output with Base64 bit for bit
+     */
+    private static void verify() throws Exception {
+        Random random = new Random(20081016L);
+        for (int n = 0; n < 100000; n++) {
+            byte[] bs = new byte[random.nextInt(64)];
+            random.nextBytes(bs);
+
+            //Base64.encode always pads with '='
+            String expect = base64.encode(bs).replace('=', '.');
+            String encoded = Base64Codec.FDFS.encode(bs);
+            if (!expect.equals(encoded)) {
+                throw new IllegalStateException("encode mismatch: " + expect + " != " + encoded);
+            }
+
+            //the padded and the unpadded form, only the pad chars are stripped
+            String unpadded = encoded;
+            while (unpadded.endsWith(".")) {
+                unpadded = unpadded.substring(0, unpadded.length() - 1);
+            }
+            String[] inputs = new String[]{encoded, unpadded};
+            for (String input : inputs) {
+                byte[] decoded = Base64Codec.FDFS.decode(input);
+                if (!Arrays.equals(base64.decodeAuto(input), decoded) || !Arrays.equals(bs, decoded)) {
+                    throw new IllegalStateException("decode mismatch at n=" + n + ": " + input);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] legacyDecodeFilename() {
+        return base64.decodeAuto(this.remote_filename.substring(ProtoCommon.FDFS_FILE_PATH_LEN,
+            ProtoCommon.FDFS_FILE_PATH_LEN + ProtoCommon.FDFS_FILENAME_BASE64_LENGTH));
+    }
+
+    @Benchmark
+    public byte[] decodeFilename() {
+        Base64Codec.FDFS.decode(this.remote_filename, ProtoCommon.FDFS_FILE_PATH_LEN,
+            ProtoCommon.FDFS_FILENAME_BASE64_LENGTH, this.decodeBuff, 0);
+        return this.decodeBuff;
+    }
+
+    @Benchmark
+    public String legacyEncode() throws Exception {
+        return base64.encode(this.fields);
+    }
+
+    @Benchmark
+    public char[] encode() {
+        Base64Codec.FDFS.encode(this.fields, 0, this.fields.length, this.encodeBuff, 0, false);
+        return this.encodeBuff;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.csource.common.Base64;
+import org.csource.fastdfs.FileIdInfo;
+import org.csource.fastdfs.FileInfo;
+import org.csource.fastdfs.ProtoCommon;
+import org.csource.fastdfs.StorageClient1;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * file id decoding: the substring + Base64.decodeAuto path of get_file_info and
+ * split_file_id against FileIdInfo.
+ * run with -prof gc to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileIdDecodeBenchmark {
+    private static final Base64 base64 = new Base64('-', '_', '.', 0);
+
+    private String file_id;
+    private String remote_filename;
+    private FileIdInfo info;
+
+    @Setup
+    public void setup() {
+        this.file_id = "group1/M00/00/00/wKgBaFl3dkSAexCOAAAAADPZ7Eg743.jpg";
+        this.remote_filename = this.file_id.substring(this.file_id.indexOf('/') + 1);
+        this.info = new FileIdInfo();
+        if (!this.info.parse(this.file_id)) {
+            throw new IllegalStateException("invalid file id: " + this.file_id);
+        }
+    }
+
+    /**
+     * the decoding of StorageClient.get_file_info before FileIdInfo
+     */
+    @Benchmark
+    public FileInfo legacyGetFileInfo() {
+        String[] parts = new String[2];
+        StorageClient1.split_file_id(this.file_id, parts);
+        byte[] buff = base64.decodeAuto(parts[1].substring(ProtoCommon.FDFS_FILE_PATH_LEN,
+            ProtoCommon.FDFS_FILE_PATH_LEN + ProtoCommon.FDFS_FILENAME_BASE64_LENGTH));
+
+        long file_size = ProtoCommon.buff2long(buff, 4 * 2);
+        FileInfo fileInfo = new FileInfo(file_size, 0, 0, ProtoCommon.getIpAddress(buff, 0));
+        fileInfo.setCreateTimestamp(ProtoCommon.buff2int(buff, 4));
+        if ((file_size >> 63) != 0) {
+            file_size &= 0xFFFFFFFFL;
+            fileInfo.setFileSize(file_size);
+        }
+        fileInfo.setCrc32(ProtoCommon.buff2int(buff, 4 * 4));
+        return fileInfo;
+    }
+
+    /**
+     * FileIdInfo into primitive fields, no allocation
+     */
+    @Benchmark
+    public void parseFileId(Blackhole bh) {
+        this.info.parse(this.file_id);
+        bh.consume(this.info.getGroupNameLength());
+        bh.consume(this.info.getStorePathIndex());
+        bh.consume(this.info.getSourceIp());
+        bh.consume(this.info.getCreateTimestamp());
+        bh.consume(this.info.getFileSize());
+        bh.consume(this.info.getCrc32());
+    }
+
+    /**
+     * FileIdInfo creating the same FileInfo object as get_file_info
+     */
+    @Benchmark
+    public FileInfo parseToFileInfo() {
+        this.info.parseFilename(this.remote_filename);
+        return this.info.toFileInfo();
+    }
+
+    @Benchmark
+    public String[] legacySplitFileId() {
+        String[] parts = new String[2];
+        StorageClient1.split_file_id(this.file_id, parts);
+        return parts;
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.benchmark;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.MetadataCodec;
+import org.csource.fastdfs.MetadataVisitor;
+import org.csource.fastdfs.ProtoCommon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * metadata packing and splitting: the String path of ProtoCommon.split_metadata and
+ * pack_metadata against MetadataCodec on the bytes of the protocol body.
+ * run with -prof gc to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataBenchmark {
+    @Param({"4", "32"})
+    private int itemCount;
+
+    @Param({"UTF-8", "ISO8859-1"})
+    private String charsetName;
+
+    private Charset charset;
+    private NameValuePair[] meta_list;
+    private byte[] body;
+    private byte[] encodeBuff;
+
+    @Setup
+    public void setup() throws Exception {
+        this.charset = Charset.forName(this.charsetName);
+        this.meta_list = new NameValuePair[this.itemCount];
+        for (int i = 0; i < this.itemCount; i++) {
+            this.meta_list[i] = new NameValuePair("name" + i, "value-" + i + "-" + Integer.toHexString(i * 7919));
+        }
+        this.body = ProtoCommon.pack_metadata(this.meta_list).getBytes(this.charsetName);
+        this.encodeBuff = new byte[MetadataCodec.maxEncodedLength(this.meta_list, this.charset)];
+
+        NameValuePair[] decoded = MetadataCodec.decode(this.body, 0, this.body.length, this.charset);
+        NameValuePair[] split = ProtoCommon.split_metadata(new String(this.body, this.charsetName));
+        if (decoded.length != split.length) {
+            throw new IllegalStateException("decoded " + decoded.length + " items, expect " + split.length);
+        }
+        for (int i = 0; i < split.length; i++) {
+            if (!decoded[i].getName().equals(split[i].getName()) || !decoded[i].getValue().equals(split[i].getValue())) {
+                throw new IllegalStateException("item " + i + " is different");
+            }
+        }
+        int len = MetadataCodec.encode(this.meta_list, this.charset, this.encodeBuff, 0);
+        if (len != this.body.length) {
+            throw new IllegalStateException("encoded " + len + " bytes, expect " + this.body.length);
+        }
+    }
+
+    /**
+     * the decoding of get_metadata before MetadataCodec
+     */
+    @Benchmark
+    public NameValuePair[] splitMetadata() throws Exception {
+        return ProtoCommon.split_metadata(new String(this.body, this.charsetName));
+    }
+
+    @Benchmark
+    public NameValuePair[] codecDecode() {
+        return MetadataCodec.decode(this.body, 0, this.body.length, this.charset);
+    }
+
+    @Benchmark
+    public void codecVisit(final Blackhole bh) {
+        MetadataCodec.visit(this.body, 0, this.body.length, this.charset, new MetadataVisitor() {
+            public boolean visit(String name, String value) {
+                bh.consume(name);
+                bh.consume(value);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * the encoding of set_metadata before MetadataCodec
+     */
+    @Benchmark
+    public byte[] packMetadata() throws Exception {
+        return ProtoCommon.pack_metadata(this.meta_list).getBytes(this.charsetName);
+    }
+
+    @Benchmark
+    public int codecEncode() {
+        return MetadataCodec.encode(this.meta_list, this.charset, this.encodeBuff, 0);
+    }
+}
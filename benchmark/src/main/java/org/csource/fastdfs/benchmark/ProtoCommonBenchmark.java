@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.csource.fastdfs.ProtoCommon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * the protocol helpers of ProtoCommon called by every request: header packing, header and
+ * package receiving from an in-memory stream, and the big endian integer conversions.
+ * run with -prof gc to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtoCommonBenchmark {
+    @Param({"0", "1024", "65536"})
+    private int bodyLength;
+
+    private byte[] header;
+    private ByteArrayInputStream headerStream;
+    private ByteArrayInputStream packageStream;
+    private byte[] longBuff;
+    private long value;
+
+    @Setup
+    public void setup() throws IOException {
+        this.header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_RESP, this.bodyLength, (byte)0);
+        this.headerStream = new ByteArrayInputStream(this.header);
+
+        byte[] body = new byte[this.bodyLength];
+        new Random(1).nextBytes(body);
+        byte[] pkg = new byte[this.header.length + body.length];
+        System.arraycopy(this.header, 0, pkg, 0, this.header.length);
+        System.arraycopy(body, 0, pkg, this.header.length, body.length);
+        this.packageStream = new ByteArrayInputStream(pkg);
+
+        this.value = 0x0123456789ABCDEFL;
+        this.longBuff = ProtoCommon.long2buff(this.value);
+        if (ProtoCommon.buff2long(this.longBuff, 0) != this.value) {
+            throw new IllegalStateException("long2buff and buff2long are not symmetric");
+        }
+    }
+
+    @Benchmark
+    public byte[] packHeader() throws IOException {
+        return ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, this.bodyLength, (byte)0);
+    }
+
+    @Benchmark
+    public ProtoCommon.RecvHeaderInfo recvHeader() throws IOException {
+        this.headerStream.reset();
+        return ProtoCommon.recvHeader(this.headerStream, ProtoCommon.STORAGE_PROTO_CMD_RESP, this.bodyLength);
+    }
+
+    @Benchmark
+    public ProtoCommon.RecvPackageInfo recvPackage() throws IOException {
+        this.packageStream.reset();
+        return ProtoCommon.recvPackage(this.packageStream, ProtoCommon.STORAGE_PROTO_CMD_RESP, this.bodyLength);
+    }
+
+    @Benchmark
+    public byte[] long2buff() {
+        return ProtoCommon.long2buff(this.value);
+    }
+
+    @Benchmark
+    public long buff2long() {
+        return ProtoCommon.buff2long(this.longBuff, 0);
+    }
+
+    @Benchmark
+    public int buff2int() {
+        return ProtoCommon.buff2int(this.longBuff, 4);
+    }
+}
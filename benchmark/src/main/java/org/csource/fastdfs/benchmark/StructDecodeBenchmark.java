@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.csource.fastdfs.ClientGlobal;
+import org.csource.fastdfs.ProtoCommon;
+import org.csource.fastdfs.ProtoStructDecoder;
+import org.csource.fastdfs.StructStorageStat;
+import org.csource.fastdfs.StructStorageStatView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * decoding the list storage response of TrackerClient.listStorages and reading status and free MB,
+ * the reflection decoder against the factory decoder and the lazy views.
+ * run with -prof gc to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructDecodeBenchmark {
+    @Param({"8", "64"})
+    private int storageCount;
+
+    private byte[] body;
+    private StructStorageStatView view;
+
+    @Setup
+    public void setup() throws Exception {
+        ClientGlobal.setG_charset("ISO8859-1");
+
+        int size = StructStorageStat.getFieldsTotalSize();
+        this.body = new byte[size * this.storageCount];
+        Random random = new Random(1);
+        for (int i = 0; i < this.storageCount; i++) {
+            int offset = i * size;
+            this.body[offset] = ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE;
+            for (int k = 1; k < size; k++) {
+                this.body[offset + k] = (byte)('0' + random.nextInt(10));
+            }
+        }
+        this.view = new StructStorageStatView();
+
+        StructStorageStat[] stats = this.reflection();
+        StructStorageStatView[] views = this.lazyViews();
+        for (int i = 0; i < this.storageCount; i++) {
+            if (stats[i].getFreeMB() != views[i].getFreeMB() || !stats[i].getIpAddr().equals(views[i].getIpAddr())) {
+                throw new IllegalStateException("view of storage " + i + " is different");
+            }
+        }
+    }
+
+    private StructStorageStat[] reflection() throws Exception {
+        return new ProtoStructDecoder<StructStorageStat>().decode(this.body, StructStorageStat.class,
+            StructStorageStat.getFieldsTotalSize());
+    }
+
+    private StructStorageStatView[] lazyViews() throws Exception {
+        return new ProtoStructDecoder<StructStorageStatView>().decode(this.body, StructStorageStatView.FACTORY,
+            StructStorageStat.getFieldsTotalSize());
+    }
+
+    /**
+     * Class.newInstance and all fields decoded, the decoding of listStorages before the factory
+     */
+    @Benchmark
+    public void reflectionDecode(Blackhole bh) throws Exception {
+        for (StructStorageStat stat : this.reflection()) {
+            bh.consume(stat.getStatus());
+            bh.consume(stat.getFreeMB());
+        }
+    }
+
+    /**
+     * all fields decoded, the current listStorages
+     */
+    @Benchmark
+    public void factoryDecode(Blackhole bh) throws Exception {
+        StructStorageStat[] stats = new ProtoStructDecoder<StructStorageStat>().decode(this.body,
+            StructStorageStat.FACTORY, StructStorageStat.getFieldsTotalSize());
+        for (StructStorageStat stat : stats) {
+            bh.consume(stat.getStatus());
+            bh.consume(stat.getFreeMB());
+        }
+    }
+
+    /**
+     * listStorages with StructStorageStatView.FACTORY
+     */
+    @Benchmark
+    public void lazyViews(Blackhole bh) throws Exception {
+        for (StructStorageStatView stat : this.lazyViews()) {
+            bh.consume(stat.getStatus());
+            bh.consume(stat.getFreeMB());
+        }
+    }
+
+    /**
+     * one view walking all records of the body
+     */
+    @Benchmark
+    public void flyweightView(Blackhole bh) {
+        int size = StructStorageStat.getFieldsTotalSize();
+        for (int offset = 0; offset < this.body.length; offset += size) {
+            this.view.setFields(this.body, offset);
+            bh.consume(this.view.getStatus());
+            bh.consume(this.view.getFreeMB());
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.common;
+
+import java.util.Arrays;
+
+/**
+ * table driven base64 codec working on byte[] and CharSequence regions without intermediate strings.
+ * the output is the same as Base64 without line separators (line length 0) and Base64.decodeAuto
+ * for well-formed input: chars not in the alphabet are ignored, the missing pad chars are implied
+ * and decoding stops at the first pad char. encode pads with the pad char of the alphabet,
+ * Base64.encode always pads with '='.
+ * this class is thread safe.
+ * @version Version 1.0
+ */
+public class Base64Codec {
+    /**
+     * the alphabet of FastDFS filenames
+     */
+    public static final Base64Codec FDFS = new Base64Codec('-', '_', '.');
+
+    private static final int IGNORE = -1;
+    private static final int PAD = -2;
+
+    private final char[] valueToChar = new char[64];
+    private final int[] charToValue = new int[256];
+    private final char chPad;
+
+    /**
+     * Constructor
+     * @param chPlus the char of value 62
+     * @param chSplash the char of value 63
+     * @param chPad the pad char
+     */
+    public Base64Codec(char chPlus, char chSplash, char chPad) {
+        int index = 0;
+        for (char c = 'A'; c <= 'Z'; c++) {
+            this.valueToChar[index++] = c;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            this.valueToChar[index++] = c;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            this.valueToChar[index++] = c;
+        }
+        this.valueToChar[index++] = chPlus;
+        this.valueToChar[index] = chSplash;
+
+        Arrays.fill(this.charToValue, IGNORE);
+        for (int i = 0; i < 64; i++) {
+            this.charToValue[this.valueToChar[i]] = i;
+        }
+        this.charToValue[chPad] = PAD;
+        this.chPad = chPad;
+    }
+
+    /**
+     * @param len the bytes to encode
+     * @return the encoded chars including pad chars
+     */
+    public static int encodedLength(int len) {
+        return ((len + 2) / 3) * 4;
+    }
+
+    /**
+     * @param len the chars to decode
+     * @return the max decoded bytes
+     */
+    public static int maxDecodedLength(int len) {
+        return (len / 4) * 3 + (len % 4 == 0 ? 0 : (len % 4) - 1);
+    }
+
+    /**
+     * encode the bytes to the char array
+     * @param src the source bytes
+     * @param off the start offset of the source
+     * @param len the bytes to encode
+     * @param dst the dest char array, at least encodedLength(len) chars from dstOff
+     * @param dstOff the start offset of the dest
+     * @param pad if append pad chars
+     * @return the chars written
+     */
+    public int encode(byte[] src, int off, int len, char[] dst, int dstOff, boolean pad) {
+        final char[] table = this.valueToChar;
+        int end = off + (len / 3) * 3;
+        int j = dstOff;
+        int i;
+        for (i = off; i < end; i += 3) {
+            int combined = ((src[i] & 0xFF) << 16) | ((src[i + 1] & 0xFF) << 8) | (src[i + 2] & 0xFF);
+            dst[j++] = table[combined >>> 18];
+            dst[j++] = table[(combined >>> 12) & 0x3F];
+            dst[j++] = table[(combined >>> 6) & 0x3F];
+            dst[j++] = table[combined & 0x3F];
+        }
+
+        int leftover = off + len - i;
+        if (leftover == 1) {
+            int combined = (src[i] & 0xFF) << 16;
+            dst[j++] = table[combined >>> 18];
+            dst[j++] = table[(combined >>> 12) & 0x3F];
+            if (pad) {
+                dst[j++] = this.chPad;
+                dst[j++] = this.chPad;
+            }
+        } else if (leftover == 2) {
+            int combined = ((src[i] & 0xFF) << 16) | ((src[i + 1] & 0xFF) << 8);
+            dst[j++] = table[combined >>> 18];
+            dst[j++] = table[(combined >>> 12) & 0x3F];
+            dst[j++] = table[(combined >>> 6) & 0x3F];
+            if (pad) {
+                dst[j++] = this.chPad;
+            }
+        }
+
+        return j - dstOff;
+    }
+
+    /**
+     * encode the bytes with pad chars
+     * @param src the source bytes
+     * @param off the start offset of the source
+     * @param len the bytes to encode
+     * @return the encoded string
+     */
+    public String encode(byte[] src, int off, int len) {
+        char[] chars = new char[encodedLength(len)];
+        return new String(chars, 0, this.encode(src, off, len, chars, 0, true));
+    }
+
+    /**
+     * encode the bytes with pad chars
+     * @param src the source bytes
+     * @return the encoded string
+     */
+    public String encode(byte[] src) {
+        return this.encode(src, 0, src.length);
+    }
+
+    /**
+     * decode the chars to the byte array, the pad chars can be omitted
+     * @param src the source chars
+     * @param off the start offset of the source
+     * @param len the chars to decode
+     * @param dst the dest byte array, at least maxDecodedLength(len) bytes from dstOff
+     * @param dstOff the start offset of the dest
+     * @return the bytes written
+     */
+    public int decode(CharSequence src, int off, int len, byte[] dst, int dstOff) {
+        final int[] table = this.charToValue;
+        int end = off + len;
+        int combined = 0;
+        int cycle = 0;
+        int j = dstOff;
+        for (int i = off; i < end; i++) {
+            char c = src.charAt(i);
+            int value = c <= 255 ? table[c] : IGNORE;
+            if (value < 0) {
+                if (value == PAD) {
+                    break;
+                }
+                continue;
+            }
+
+            combined = (combined << 6) | value;
+            if (++cycle == 4) {
+                dst[j++] = (byte)(combined >> 16);
+                dst[j++] = (byte)(combined >> 8);
+                dst[j++] = (byte)combined;
+                combined = 0;
+                cycle = 0;
+            }
+        }
+
+        if (cycle == 2) {
+            dst[j++] = (byte)(combined >> 4);
+        } else if (cycle == 3) {
+            dst[j++] = (byte)(combined >> 10);
+            dst[j++] = (byte)(combined >> 2);
+        }
+
+        return j - dstOff;
+    }
+
+    /**
+     * decode the chars, the pad chars can be omitted, the same as Base64.decodeAuto
+     * @param src the source chars
+     * @return the decoded bytes
+     */
+    public byte[] decode(CharSequence src) {
+        byte[] buff = new byte[maxDecodedLength(src.length())];
+        int len = this.decode(src, 0, src.length(), buff, 0);
+        if (len == buff.length) {
+            return buff;
+        }
+        return Arrays.copyOf(buff, len);
+    }
+}
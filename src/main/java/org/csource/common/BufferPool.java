@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.common;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * pool of same size byte arrays, reuse large transfer buffers across calls
+ * @version Version 1.0
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final int maxIdle;
+    private final ConcurrentLinkedQueue<byte[]> idleBuffers;
+    private final AtomicInteger idleCount;
+    private final AtomicLong allocateCount;
+
+    /**
+     * Constructor
+     * @param bufferSize the size of each buffer
+     * @param maxIdle max buffers kept in the pool
+     */
+    public BufferPool(int bufferSize, int maxIdle) {
+        this.bufferSize = bufferSize;
+        this.maxIdle = maxIdle;
+        this.idleBuffers = new ConcurrentLinkedQueue<byte[]>();
+        this.idleCount = new AtomicInteger(0);
+        this.allocateCount = new AtomicLong(0);
+    }
+
+    /**
+     * @return the size of each buffer
+     */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * @return max buffers kept in the pool
+     */
+    public int getMaxIdle() {
+        return this.maxIdle;
+    }
+
+    /**
+     * @return the count of the buffers in the pool
+     */
+    public int getIdleCount() {
+        return this.idleCount.get();
+    }
+
+    /**
+     * @return the count of the buffers allocated because the pool was empty
+     */
+    public long getAllocateCount() {
+        return this.allocateCount.get();
+    }
+
+    /**
+     * take a buffer from the pool, allocate one when the pool is empty
+     * @return the buffer
+     */
+    public byte[] acquire() {
+        byte[] buff = this.idleBuffers.poll();
+        if (buff == null) {
+            this.allocateCount.incrementAndGet();
+            return new byte[this.bufferSize];
+        }
+
+        this.idleCount.decrementAndGet();
+        return buff;
+    }
+
+    /**
+     * give the buffer back to the pool
+     * @param buff the buffer from acquire()
+     */
+    public void release(byte[] buff) {
+        if (buff == null || buff.length != this.bufferSize) {
+            return;
+        }
+
+        if (this.idleCount.incrementAndGet() > this.maxIdle) {
+            this.idleCount.decrementAndGet();
+            return;
+        }
+        this.idleBuffers.offer(buff);
+    }
+}
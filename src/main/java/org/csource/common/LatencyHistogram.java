@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock-free log-linear histogram of latencies in microseconds. with precision bits p, values below
+ * 2^(p+1) are exact, larger values are kept in 2^p sub buckets per power of 2, so the relative error
+ * is below 1/2^p. values above MAX_VALUE (about 19 hours) are clamped.
+ */
+public class LatencyHistogram {
+    public static final long MAX_VALUE = (1L << 36) - 1;
+    public static final int DEFAULT_PRECISION_BITS = 6;  //error below 1.6%, 16KB
+
+    private final int subBucketBits;
+    private final int subBuckets;
+    private final int linearBuckets;
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * @param precisionBits the sub bucket bits from 1 to 10, the memory is about 2^(p+3) * (36 - p) bytes
+     */
+    public LatencyHistogram(int precisionBits) {
+        if (precisionBits < 1 || precisionBits > 10) {
+            throw new IllegalArgumentException("invalid precision bits: " + precisionBits);
+        }
+        this.subBucketBits = precisionBits;
+        this.subBuckets = 1 << precisionBits;
+        this.linearBuckets = 2 * this.subBuckets;
+        this.counts = new AtomicLongArray(this.linearBuckets + (36 - precisionBits - 1) * this.subBuckets);
+    }
+
+    /**
+     * @param value the latency in microseconds
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+
+        this.counts.incrementAndGet(this.indexOf(value));
+        this.totalCount.incrementAndGet();
+        this.totalValue.addAndGet(value);
+        long max;
+        while ((max = this.maxValue.get()) < value && !this.maxValue.compareAndSet(max, value)) {
+        }
+    }
+
+    /**
+     * record the latency of a request sent at a fixed interval, correcting the coordinated omission:
+     * the requests which should have been sent while this one was stalled are recorded with the
+     * latencies they would have seen
+     * @param value the latency in microseconds
+     * @param expectedInterval the interval between the requests in microseconds, 0 for no correction
+     */
+    public void recordCorrected(long value, long expectedInterval) {
+        this.record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+
+        for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+            this.record(missed);
+        }
+    }
+
+    /**
+     * add the values of the other histogram of the same precision
+     */
+    public void add(LatencyHistogram other) {
+        if (other.subBucketBits != this.subBucketBits) {
+            throw new IllegalArgumentException("precision bits " + other.subBucketBits + " != " + this.subBucketBits);
+        }
+
+        for (int i = 0; i < this.counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                this.counts.addAndGet(i, count);
+            }
+        }
+        this.totalCount.addAndGet(other.totalCount.get());
+        this.totalValue.addAndGet(other.totalValue.get());
+        long max;
+        long otherMax = other.maxValue.get();
+        while ((max = this.maxValue.get()) < otherMax && !this.maxValue.compareAndSet(max, otherMax)) {
+        }
+    }
+
+    public int getPrecisionBits() {
+        return this.subBucketBits;
+    }
+
+    public long getTotalCount() {
+        return this.totalCount.get();
+    }
+
+    /**
+     * @return the sum of the values in microseconds
+     */
+    public long getTotalValue() {
+        return this.totalValue.get();
+    }
+
+    public long getMaxValue() {
+        return this.maxValue.get();
+    }
+
+    public double getMean() {
+        long count = this.totalCount.get();
+        return count == 0 ? 0 : (double)this.totalValue.get() / count;
+    }
+
+    /**
+     * @param percentile the percentile, such as 99.9
+     * @return the highest value of the bucket at the percentile, 0 when empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = this.totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(this.highestValueOf(i), this.maxValue.get());
+            }
+        }
+        return this.maxValue.get();
+    }
+
+    /**
+     * @return the count of the values not greater than the value, rounded to the bucket
+     */
+    public long getCountAtOrBelow(long value) {
+        if (value < 0) {
+            return 0;
+        }
+
+        int last = this.indexOf(Math.min(value, MAX_VALUE));
+        if (this.highestValueOf(last) > value) {
+            last--;
+        }
+        long count = 0;
+        for (int i = 0; i <= last; i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+
+    int indexOf(long value) {
+        if (value < this.linearBuckets) {
+            return (int)value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - this.subBucketBits;
+        return this.linearBuckets + (shift - 1) * this.subBuckets + (int)((value >> shift) - this.subBuckets);
+    }
+
+    long highestValueOf(int index) {
+        if (index < this.linearBuckets) {
+            return index;
+        }
+
+        int shift = (index - this.linearBuckets) / this.subBuckets + 1;
+        long sub = (index - this.linearBuckets) % this.subBuckets + this.subBuckets;
+        return ((sub + 1) << shift) - 1;
+    }
+}
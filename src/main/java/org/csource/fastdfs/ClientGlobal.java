@@ -10,7 +10,9 @@ package org.csource.fastdfs;
 
 import java.net.*;
 import java.io.*;
+import java.nio.charset.Charset;
 
+import org.csource.common.BufferPool;
 import org.csource.common.IniFileReader;
 import org.csource.common.MyException;
 
@@ -30,6 +32,39 @@ public class ClientGlobal {
 
     public static final int DEFAULT_CONNECT_TIMEOUT = 5;  //second
     public static final int DEFAULT_NETWORK_TIMEOUT = 30; //second
+    public static final int DEFAULT_DOWNLOAD_BUFFER_SIZE = 256; //KB
+    public static final int DOWNLOAD_BUFFER_POOL_MAX_IDLE = 64;
+
+    public static int g_download_buffer_size = DEFAULT_DOWNLOAD_BUFFER_SIZE * 1024; //byte
+    public static int g_download_buffer_pool_max_idle = DOWNLOAD_BUFFER_POOL_MAX_IDLE;
+    public static DownloadCache g_download_cache;  //null for no cache
+    public static MappedFileCache g_disk_cache;    //null for no disk cache
+    public static MetadataCache g_metadata_cache;  //null for no cache
+    public static NegativeCache g_negative_cache;  //null for no cache
+    public static boolean g_coalesce_requests = false;  //if share in-flight requests of the same file
+    public static OperationListener g_operation_listener;  //null for no listener
+    public static ClientMetrics g_client_metrics;  //null for no metrics
+
+    private static BufferPool g_download_buffer_pool;
+    private static volatile ResolvedCharset g_charset_object;
+
+    /**
+     * the Charset object looked up from g_charset
+     */
+    private static class ResolvedCharset {
+        final String name;
+        final Charset charset;
+
+        ResolvedCharset(String name) throws UnsupportedEncodingException {
+            this.name = name;
+            try {
+                this.charset = Charset.forName(name);
+            } catch (IllegalArgumentException ex) {
+                //IllegalCharsetNameException, UnsupportedCharsetException or null name
+                throw new UnsupportedEncodingException("invalid charset: " + name);
+            }
+        }
+    }
 
     private ClientGlobal() {
     }
@@ -63,6 +98,7 @@ public class ClientGlobal {
         if (g_charset == null || g_charset.length() == 0) {
             g_charset = "ISO8859-1";
         }
+        getCharset();  //fail fast on an invalid charset
         //跟踪器的地址
         szTrackerServers = iniReader.getValues("tracker_server");
         if (szTrackerServers == null) {
@@ -83,6 +119,74 @@ public class ClientGlobal {
         //组
         g_tracker_group = new TrackerGroup(tracker_servers);
 
+        g_download_buffer_size = iniReader.getIntValue("download_buffer_size", DEFAULT_DOWNLOAD_BUFFER_SIZE);
+        if (g_download_buffer_size <= 0) {
+            g_download_buffer_size = DEFAULT_DOWNLOAD_BUFFER_SIZE;
+        }
+        //KB to byte
+        g_download_buffer_size *= 1024;
+
+        g_download_buffer_pool_max_idle = iniReader.getIntValue("download_buffer_pool_max_idle",
+            DOWNLOAD_BUFFER_POOL_MAX_IDLE);
+        if (g_download_buffer_pool_max_idle < 0) {
+            g_download_buffer_pool_max_idle = DOWNLOAD_BUFFER_POOL_MAX_IDLE;
+        }
+
+        //MB, 0 for no download cache
+        int download_cache_size = iniReader.getIntValue("download_cache_size", 0);
+        if (download_cache_size > 0) {
+            g_download_cache = new DownloadCache(download_cache_size * 1024L * 1024L);
+        } else {
+            g_download_cache = null;
+        }
+
+        //MB, 0 for no disk cache
+        int disk_cache_size = iniReader.getIntValue("disk_cache_size", 0);
+        String disk_cache_path = iniReader.getStrValue("disk_cache_path");
+        if (g_disk_cache != null) {
+            g_disk_cache.close();  //unlock the path before opening it again
+            g_disk_cache = null;
+        }
+        if (disk_cache_size > 0) {
+            if (disk_cache_path == null || disk_cache_path.length() == 0) {
+                throw new MyException("item \"disk_cache_path\" in " + conf_filename + " not found");
+            }
+            g_disk_cache = new MappedFileCache(disk_cache_path, disk_cache_size * 1024L * 1024L);
+        } else {
+            g_disk_cache = null;
+        }
+
+        //0 for no metadata cache
+        int metadata_cache_size = iniReader.getIntValue("metadata_cache_size", 0);
+        if (metadata_cache_size > 0) {
+            int metadata_cache_ttl = iniReader.getIntValue("metadata_cache_ttl", MetadataCache.DEFAULT_TTL);
+            g_metadata_cache = new MetadataCache(metadata_cache_size, metadata_cache_ttl * 1000L);
+        } else {
+            g_metadata_cache = null;
+        }
+
+        //0 for no negative cache
+        int negative_cache_size = iniReader.getIntValue("negative_cache_size", 0);
+        if (negative_cache_size > 0) {
+            long negative_cache_ttl = iniReader.getIntValue("negative_cache_ttl", NegativeCache.DEFAULT_TTL) * 1000L;
+            if (iniReader.getBoolValue("negative_cache_filter", false)) {
+                g_negative_cache = new NegativeCache(negative_cache_size,
+                    NegativeCache.DEFAULT_FALSE_POSITIVE_RATE, negative_cache_ttl);
+            } else {
+                g_negative_cache = new NegativeCache(negative_cache_size, negative_cache_ttl);
+            }
+        } else {
+            g_negative_cache = null;
+        }
+
+        g_coalesce_requests = iniReader.getBoolValue("coalesce_requests", false);
+
+        if (iniReader.getBoolValue("client_metrics", false)) {
+            g_client_metrics = new ClientMetrics();
+        } else {
+            g_client_metrics = null;
+        }
+
         g_tracker_http_port = iniReader.getIntValue("http.tracker_http_port", 80);
         g_anti_steal_token = iniReader.getBoolValue("http.anti_steal_token", false);
         if (g_anti_steal_token) {
@@ -97,10 +201,7 @@ public class ClientGlobal {
      * @return connected Socket object
      */
     public static Socket getSocket(String ip_addr, int port) throws IOException {
-        Socket sock = new Socket();
-        sock.setSoTimeout(ClientGlobal.g_network_timeout);
-        sock.connect(new InetSocketAddress(ip_addr, port), ClientGlobal.g_connect_timeout);
-        return sock;
+        return getSocket(new InetSocketAddress(ip_addr, port));
     }
 
     /**
@@ -111,10 +212,60 @@ public class ClientGlobal {
     public static Socket getSocket(InetSocketAddress addr) throws IOException {
         Socket sock = new Socket();
         sock.setSoTimeout(ClientGlobal.g_network_timeout);
-        sock.connect(addr, ClientGlobal.g_connect_timeout);
+        connect(sock, addr);
         return sock;
     }
 
+    /**
+     * connect the socket with g_connect_timeout, the connect time is recorded to the client metrics
+     * and the flight events
+     * @param sock the socket
+     * @param addr the server address
+     */
+    static void connect(Socket sock, InetSocketAddress addr) throws IOException {
+        Object event = FlightEvents.begin(FlightEvents.CONNECT);
+        long startTime = System.nanoTime();
+        boolean success = false;
+        try {
+            sock.connect(addr, ClientGlobal.g_connect_timeout);
+            success = true;
+        } finally {
+            RequestTiming.connectCompleted(event, addr, startTime, success);
+        }
+    }
+
+    /**
+     * get the pool of download buffers, the buffer size is g_download_buffer_size
+     * and the max idle buffers is g_download_buffer_pool_max_idle
+     * @return the buffer pool
+     */
+    public static BufferPool getDownloadBufferPool() {
+        BufferPool pool = g_download_buffer_pool;
+        if (pool == null || pool.getBufferSize() != g_download_buffer_size
+            || pool.getMaxIdle() != g_download_buffer_pool_max_idle) {
+            pool = new BufferPool(g_download_buffer_size, g_download_buffer_pool_max_idle);
+            g_download_buffer_pool = pool;
+        }
+
+        return pool;
+    }
+
+    /**
+     * get the Charset object of g_charset, the lookup is done once until g_charset changed
+     * @return the Charset object
+     * @throws UnsupportedEncodingException if g_charset is not a supported charset
+     */
+    public static Charset getCharset() throws UnsupportedEncodingException {
+        String charsetName = g_charset;
+        ResolvedCharset resolved = g_charset_object;
+        if (resolved == null || !resolved.name.equals(charsetName)) {
+            resolved = new ResolvedCharset(charsetName);
+            g_charset_object = resolved;
+        }
+
+        return resolved.charset;
+    }
+
     public static int getG_connect_timeout() {
         return g_connect_timeout;
     }
@@ -167,6 +318,78 @@ public class ClientGlobal {
         ClientGlobal.g_secret_key = secret_key;
     }
 
+    public static int getG_download_buffer_size() {
+        return g_download_buffer_size;
+    }
+
+    public static void setG_download_buffer_size(int download_buffer_size) {
+        ClientGlobal.g_download_buffer_size = download_buffer_size;
+    }
+
+    public static int getG_download_buffer_pool_max_idle() {
+        return g_download_buffer_pool_max_idle;
+    }
+
+    public static void setG_download_buffer_pool_max_idle(int download_buffer_pool_max_idle) {
+        ClientGlobal.g_download_buffer_pool_max_idle = download_buffer_pool_max_idle;
+    }
+
+    public static DownloadCache getG_download_cache() {
+        return g_download_cache;
+    }
+
+    public static void setG_download_cache(DownloadCache download_cache) {
+        ClientGlobal.g_download_cache = download_cache;
+    }
+
+    public static MappedFileCache getG_disk_cache() {
+        return g_disk_cache;
+    }
+
+    public static void setG_disk_cache(MappedFileCache disk_cache) {
+        ClientGlobal.g_disk_cache = disk_cache;
+    }
+
+    public static MetadataCache getG_metadata_cache() {
+        return g_metadata_cache;
+    }
+
+    public static void setG_metadata_cache(MetadataCache metadata_cache) {
+        ClientGlobal.g_metadata_cache = metadata_cache;
+    }
+
+    public static NegativeCache getG_negative_cache() {
+        return g_negative_cache;
+    }
+
+    public static void setG_negative_cache(NegativeCache negative_cache) {
+        ClientGlobal.g_negative_cache = negative_cache;
+    }
+
+    public static boolean isG_coalesce_requests() {
+        return g_coalesce_requests;
+    }
+
+    public static void setG_coalesce_requests(boolean coalesce_requests) {
+        ClientGlobal.g_coalesce_requests = coalesce_requests;
+    }
+
+    public static OperationListener getG_operation_listener() {
+        return g_operation_listener;
+    }
+
+    public static void setG_operation_listener(OperationListener operation_listener) {
+        ClientGlobal.g_operation_listener = operation_listener;
+    }
+
+    public static ClientMetrics getG_client_metrics() {
+        return g_client_metrics;
+    }
+
+    public static void setG_client_metrics(ClientMetrics client_metrics) {
+        ClientGlobal.g_client_metrics = client_metrics;
+    }
+
     public static TrackerGroup getG_tracker_group() {
         return g_tracker_group;
     }
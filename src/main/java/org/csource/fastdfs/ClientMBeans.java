@@ -0,0 +1,641 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.csource.common.LatencyHistogram;
+
+/**
+ * JMX MBeans to inspect and tune the client live, registered in the domain org.csource.fastdfs:
+ * <ul>
+ * <li>type=Settings: the timeouts, the download buffer and the switches of ClientGlobal, writable</li>
+ * <li>type=BufferPool: the download buffer pool and the in-flight requests shared by the callers</li>
+ * <li>type=Cache,name=download|disk|metadata|negative: the caches of ClientGlobal</li>
+ * <li>type=Tracker,address=host:port: the connects to each address of ClientGlobal.g_tracker_group</li>
+ * <li>type=Server,address=host:port: the requests and the connects to each server of
+ * ClientGlobal.g_client_metrics</li>
+ * </ul>
+ * the MBeans read ClientGlobal on each call, so a replaced cache is shown at once.
+ * call refresh() to register the servers connected since and to follow a replaced g_tracker_group.
+ * <pre>
+ * ClientMBeans mbeans = new ClientMBeans();
+ * mbeans.register();
+ * ...
+ * mbeans.close();
+ * </pre>
+ */
+public class ClientMBeans implements Closeable {
+    public static final String DOMAIN = "org.csource.fastdfs";
+
+    public static final int CACHE_DOWNLOAD = 0;
+    public static final int CACHE_DISK = 1;
+    public static final int CACHE_METADATA = 2;
+    public static final int CACHE_NEGATIVE = 3;
+    public static final String[] CACHE_NAMES = {"download", "disk", "metadata", "negative"};
+
+    public interface SettingsMBean {
+        /**
+         * @return the connect timeout in milliseconds
+         */
+        int getConnectTimeout();
+
+        void setConnectTimeout(int connectTimeout);
+
+        /**
+         * @return the network timeout in milliseconds
+         */
+        int getNetworkTimeout();
+
+        void setNetworkTimeout(int networkTimeout);
+
+        String getCharset();
+
+        void setCharset(String charset);
+
+        /**
+         * @return the download buffer size in bytes
+         */
+        int getDownloadBufferSize();
+
+        void setDownloadBufferSize(int downloadBufferSize);
+
+        int getDownloadBufferPoolMaxIdle();
+
+        void setDownloadBufferPoolMaxIdle(int maxIdle);
+
+        boolean isCoalesceRequests();
+
+        void setCoalesceRequests(boolean coalesceRequests);
+
+        /**
+         * @return if ClientGlobal.g_client_metrics is set
+         */
+        boolean isClientMetrics();
+
+        /**
+         * @param clientMetrics true to create ClientGlobal.g_client_metrics, false to remove it
+         */
+        void setClientMetrics(boolean clientMetrics);
+
+        String[] getTrackerServers();
+    }
+
+    public interface BufferPoolMBean {
+        int getBufferSize();
+
+        int getMaxIdle();
+
+        int getIdleCount();
+
+        long getAllocateCount();
+
+        int getInflightCount();
+    }
+
+    public interface CacheMBean {
+        boolean isEnabled();
+
+        long getHitCount();
+
+        long getMissCount();
+
+        /**
+         * @return hits / (hits + misses), NaN before the first lookup
+         */
+        double getHitRatio();
+
+        /**
+         * @return the count of the cached files, -1 for the negative cache
+         */
+        int getFileCount();
+
+        /**
+         * @return the bytes of the cached files, -1 for the metadata and the negative cache
+         */
+        long getTotalBytes();
+
+        /**
+         * @return the count of the evicted files, -1 for the metadata and the negative cache
+         */
+        long getEvictionCount();
+
+        /**
+         * remove all entries, the disk cache is kept
+         */
+        void clear();
+    }
+
+    public interface TrackerMBean {
+        String getAddress();
+
+        /**
+         * @return if the address is the one TrackerGroup connects first
+         */
+        boolean isCurrent();
+
+        long getConnectCount();
+
+        long getFailCount();
+
+        /**
+         * @return the time of the last failed connect in milliseconds, 0 for never failed
+         */
+        long getLastFailTime();
+    }
+
+    public interface ServerMBean {
+        String getAddress();
+
+        long getRequestCount();
+
+        long getErrorCount();
+
+        long getBytesOut();
+
+        long getBytesIn();
+
+        /**
+         * @return the mean request time in milliseconds
+         */
+        double getMeanLatency();
+
+        /**
+         * @return the 99th percentile of the request time in milliseconds
+         */
+        double getP99Latency();
+
+        long getConnectCount();
+
+        long getConnectFailures();
+
+        /**
+         * @return the mean connect time in milliseconds
+         */
+        double getMeanConnectTime();
+    }
+
+    private static class Settings implements SettingsMBean {
+        public int getConnectTimeout() {
+            return ClientGlobal.g_connect_timeout;
+        }
+
+        public void setConnectTimeout(int connectTimeout) {
+            ClientGlobal.g_connect_timeout = connectTimeout;
+        }
+
+        public int getNetworkTimeout() {
+            return ClientGlobal.g_network_timeout;
+        }
+
+        public void setNetworkTimeout(int networkTimeout) {
+            ClientGlobal.g_network_timeout = networkTimeout;
+        }
+
+        public String getCharset() {
+            return ClientGlobal.g_charset;
+        }
+
+        public void setCharset(String charset) {
+            Charset.forName(charset);  //keep the old charset when the name is invalid
+            ClientGlobal.g_charset = charset;
+        }
+
+        public int getDownloadBufferSize() {
+            return ClientGlobal.g_download_buffer_size;
+        }
+
+        public void setDownloadBufferSize(int downloadBufferSize) {
+            if (downloadBufferSize <= 0) {
+                throw new IllegalArgumentException("invalid download buffer size: " + downloadBufferSize);
+            }
+            ClientGlobal.g_download_buffer_size = downloadBufferSize;
+        }
+
+        public int getDownloadBufferPoolMaxIdle() {
+            return ClientGlobal.g_download_buffer_pool_max_idle;
+        }
+
+        public void setDownloadBufferPoolMaxIdle(int maxIdle) {
+            if (maxIdle < 0) {
+                throw new IllegalArgumentException("invalid max idle: " + maxIdle);
+            }
+            ClientGlobal.g_download_buffer_pool_max_idle = maxIdle;
+        }
+
+        public boolean isCoalesceRequests() {
+            return ClientGlobal.g_coalesce_requests;
+        }
+
+        public void setCoalesceRequests(boolean coalesceRequests) {
+            ClientGlobal.g_coalesce_requests = coalesceRequests;
+        }
+
+        public boolean isClientMetrics() {
+            return ClientGlobal.g_client_metrics != null;
+        }
+
+        public void setClientMetrics(boolean clientMetrics) {
+            if (!clientMetrics) {
+                ClientGlobal.g_client_metrics = null;
+            } else if (ClientGlobal.g_client_metrics == null) {
+                ClientGlobal.g_client_metrics = new ClientMetrics();
+            }
+        }
+
+        public String[] getTrackerServers() {
+            TrackerGroup trackerGroup = ClientGlobal.g_tracker_group;
+            if (trackerGroup == null) {
+                return new String[0];
+            }
+
+            String[] servers = new String[trackerGroup.tracker_servers.length];
+            for (int i = 0; i < servers.length; i++) {
+                servers[i] = addressOf(trackerGroup.tracker_servers[i]);
+            }
+            return servers;
+        }
+    }
+
+    private static class DownloadBufferPool implements BufferPoolMBean {
+        public int getBufferSize() {
+            return ClientGlobal.getDownloadBufferPool().getBufferSize();
+        }
+
+        public int getMaxIdle() {
+            return ClientGlobal.getDownloadBufferPool().getMaxIdle();
+        }
+
+        public int getIdleCount() {
+            return ClientGlobal.getDownloadBufferPool().getIdleCount();
+        }
+
+        public long getAllocateCount() {
+            return ClientGlobal.getDownloadBufferPool().getAllocateCount();
+        }
+
+        public int getInflightCount() {
+            return StorageClient.inflight.getInflightCount();
+        }
+    }
+
+    private static class Cache implements CacheMBean {
+        private final int kind;
+
+        Cache(int kind) {
+            this.kind = kind;
+        }
+
+        public boolean isEnabled() {
+            switch (this.kind) {
+                case CACHE_DOWNLOAD:
+                    return ClientGlobal.g_download_cache != null;
+                case CACHE_DISK:
+                    return ClientGlobal.g_disk_cache != null;
+                case CACHE_METADATA:
+                    return ClientGlobal.g_metadata_cache != null;
+                default:
+                    return ClientGlobal.g_negative_cache != null;
+            }
+        }
+
+        public long getHitCount() {
+            return this.counts()[0];
+        }
+
+        public long getMissCount() {
+            return this.counts()[1];
+        }
+
+        public double getHitRatio() {
+            long[] counts = this.counts();
+            long total = counts[0] + counts[1];
+            return total == 0 ? Double.NaN : (double)counts[0] / total;
+        }
+
+        /**
+         * @return the hit count and the miss count
+         */
+        private long[] counts() {
+            DownloadCache downloadCache;
+            MappedFileCache diskCache;
+            MetadataCache metadataCache;
+            NegativeCache negativeCache;
+            switch (this.kind) {
+                case CACHE_DOWNLOAD:
+                    downloadCache = ClientGlobal.g_download_cache;
+                    if (downloadCache != null) {
+                        return new long[]{downloadCache.getHitCount(), downloadCache.getMissCount()};
+                    }
+                    break;
+                case CACHE_DISK:
+                    diskCache = ClientGlobal.g_disk_cache;
+                    if (diskCache != null) {
+                        return new long[]{diskCache.getHitCount(), diskCache.getMissCount()};
+                    }
+                    break;
+                case CACHE_METADATA:
+                    metadataCache = ClientGlobal.g_metadata_cache;
+                    if (metadataCache != null) {
+                        return new long[]{metadataCache.getHitCount(), metadataCache.getMissCount()};
+                    }
+                    break;
+                default:
+                    negativeCache = ClientGlobal.g_negative_cache;
+                    if (negativeCache != null) {
+                        return new long[]{negativeCache.getHitCount(), negativeCache.getMissCount()};
+                    }
+                    break;
+            }
+            return new long[2];
+        }
+
+        public int getFileCount() {
+            DownloadCache downloadCache = ClientGlobal.g_download_cache;
+            MappedFileCache diskCache = ClientGlobal.g_disk_cache;
+            MetadataCache metadataCache = ClientGlobal.g_metadata_cache;
+            switch (this.kind) {
+                case CACHE_DOWNLOAD:
+                    return downloadCache == null ? 0 : downloadCache.getFileCount();
+                case CACHE_DISK:
+                    return diskCache == null ? 0 : diskCache.getFileCount();
+                case CACHE_METADATA:
+                    return metadataCache == null ? 0 : metadataCache.getFileCount();
+                default:
+                    return -1;
+            }
+        }
+
+        public long getTotalBytes() {
+            DownloadCache downloadCache = ClientGlobal.g_download_cache;
+            MappedFileCache diskCache = ClientGlobal.g_disk_cache;
+            switch (this.kind) {
+                case CACHE_DOWNLOAD:
+                    return downloadCache == null ? 0 : downloadCache.getTotalBytes();
+                case CACHE_DISK:
+                    return diskCache == null ? 0 : diskCache.getTotalBytes();
+                default:
+                    return -1;
+            }
+        }
+
+        public long getEvictionCount() {
+            DownloadCache downloadCache = ClientGlobal.g_download_cache;
+            MappedFileCache diskCache = ClientGlobal.g_disk_cache;
+            switch (this.kind) {
+                case CACHE_DOWNLOAD:
+                    return downloadCache == null ? 0 : downloadCache.getEvictionCount();
+                case CACHE_DISK:
+                    return diskCache == null ? 0 : diskCache.getEvictionCount();
+                default:
+                    return -1;
+            }
+        }
+
+        public void clear() {
+            DownloadCache downloadCache = ClientGlobal.g_download_cache;
+            MetadataCache metadataCache = ClientGlobal.g_metadata_cache;
+            NegativeCache negativeCache = ClientGlobal.g_negative_cache;
+            if (this.kind == CACHE_DOWNLOAD && downloadCache != null) {
+                downloadCache.clear();
+            } else if (this.kind == CACHE_METADATA && metadataCache != null) {
+                metadataCache.clear();
+            } else if (this.kind == CACHE_NEGATIVE && negativeCache != null) {
+                negativeCache.clear();
+            }
+        }
+    }
+
+    private static class Tracker implements TrackerMBean {
+        private final TrackerGroup trackerGroup;
+        private final int serverIndex;
+
+        Tracker(TrackerGroup trackerGroup, int serverIndex) {
+            this.trackerGroup = trackerGroup;
+            this.serverIndex = serverIndex;
+        }
+
+        public String getAddress() {
+            return addressOf(this.trackerGroup.tracker_servers[this.serverIndex]);
+        }
+
+        public boolean isCurrent() {
+            return this.trackerGroup.tracker_server_index == this.serverIndex;
+        }
+
+        public long getConnectCount() {
+            return this.trackerGroup.getConnectCount(this.serverIndex);
+        }
+
+        public long getFailCount() {
+            return this.trackerGroup.getFailCount(this.serverIndex);
+        }
+
+        public long getLastFailTime() {
+            return this.trackerGroup.getLastFailTime(this.serverIndex);
+        }
+    }
+
+    private static class Server implements ServerMBean {
+        private final InetSocketAddress address;
+
+        Server(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        private ClientMetrics.ServerMetrics metrics() {
+            ClientMetrics clientMetrics = ClientGlobal.g_client_metrics;
+            return clientMetrics == null ? null : clientMetrics.getServerMetrics(this.address);
+        }
+
+        public String getAddress() {
+            return addressOf(this.address);
+        }
+
+        public long getRequestCount() {
+            ClientMetrics.ServerMetrics metrics = this.metrics();
+            return metrics == null ? 0 : metrics.getCount();
+        }
+
+        public long getErrorCount() {
+            ClientMetrics.ServerMetrics metrics = this.metrics();
+            return metrics == null ? 0 : metrics.getErrorCount();
+        }
+
+        public long getBytesOut() {
+            ClientMetrics.ServerMetrics metrics = this.metrics();
+            return metrics == null ? 0 : metrics.getBytesOut();
+        }
+
+        public long getBytesIn() {
+            ClientMetrics.ServerMetrics metrics = this.metrics();
+            return metrics == null ? 0 : metrics.getBytesIn();
+        }
+
+        public double getMeanLatency() {
+            ClientMetrics.ServerMetrics metrics = this.metrics();
+            return metrics == null ? 0 : metrics.getLatency().getMean() / 1000.0;
+        }
+
+        public double getP99Latency() {
+            ClientMetrics.ServerMetrics metrics = this.metrics();
+            return metrics == null ? 0 : metrics.getLatency().getValueAtPercentile(99) / 1000.0;
+        }
+
+        public long getConnectCount() {
+            ClientMetrics.ServerMetrics metrics = this.metrics();
+            return metrics == null ? 0 : metrics.getConnectCount();
+        }
+
+        public long getConnectFailures() {
+            ClientMetrics.ServerMetrics metrics = this.metrics();
+            return metrics == null ? 0 : metrics.getConnectFailures();
+        }
+
+        public double getMeanConnectTime() {
+            ClientMetrics.ServerMetrics metrics = this.metrics();
+            if (metrics == null) {
+                return 0;
+            }
+            LatencyHistogram latency = metrics.getConnectLatency();
+            return latency.getTotalCount() == 0 ? 0 : latency.getMean() / 1000.0;
+        }
+    }
+
+    private final MBeanServer mbeanServer;
+    private final List<ObjectName> names;
+    private final List<ObjectName> trackerNames;
+    private final Set<InetSocketAddress> servers;
+    private TrackerGroup trackerGroup;
+
+    /**
+     * register to the platform MBean server
+     */
+    public ClientMBeans() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * @param mbeanServer the MBean server to register to
+     */
+    public ClientMBeans(MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
+        this.names = new ArrayList<ObjectName>();
+        this.trackerNames = new ArrayList<ObjectName>();
+        this.servers = new HashSet<InetSocketAddress>();
+    }
+
+    /**
+     * register the MBeans, do nothing if registered
+     */
+    public synchronized void register() throws JMException {
+        if (!this.names.isEmpty()) {
+            return;
+        }
+
+        this.add(new ObjectName(DOMAIN + ":type=Settings"), new StandardMBean(new Settings(), SettingsMBean.class));
+        this.add(new ObjectName(DOMAIN + ":type=BufferPool"),
+            new StandardMBean(new DownloadBufferPool(), BufferPoolMBean.class));
+        for (int kind = CACHE_DOWNLOAD; kind <= CACHE_NEGATIVE; kind++) {
+            this.add(new ObjectName(DOMAIN + ":type=Cache,name=" + CACHE_NAMES[kind]),
+                new StandardMBean(new Cache(kind), CacheMBean.class));
+        }
+        this.refresh();
+    }
+
+    /**
+     * register the Tracker MBeans again when ClientGlobal.g_tracker_group was replaced,
+     * and the Server MBeans of the servers connected since the last call
+     */
+    public synchronized void refresh() throws JMException {
+        if (this.names.isEmpty()) {
+            return;
+        }
+
+        TrackerGroup currentGroup = ClientGlobal.g_tracker_group;
+        if (currentGroup != this.trackerGroup) {
+            for (ObjectName name : this.trackerNames) {
+                this.remove(name);
+            }
+            this.trackerNames.clear();
+
+            this.trackerGroup = currentGroup;
+            if (currentGroup != null) {
+                for (int i = 0; i < currentGroup.tracker_servers.length; i++) {
+                    ObjectName name = new ObjectName(DOMAIN + ":type=Tracker,address="
+                        + ObjectName.quote(addressOf(currentGroup.tracker_servers[i])));
+                    this.add(name, new StandardMBean(new Tracker(currentGroup, i), TrackerMBean.class));
+                    this.trackerNames.add(name);
+                }
+            }
+        }
+
+        ClientMetrics clientMetrics = ClientGlobal.g_client_metrics;
+        if (clientMetrics == null) {
+            return;
+        }
+        for (ClientMetrics.ServerMetrics metrics : clientMetrics.getServerMetrics()) {
+            InetSocketAddress address = metrics.getAddress();
+            if (this.servers.add(address)) {
+                this.add(new ObjectName(DOMAIN + ":type=Server,address=" + ObjectName.quote(addressOf(address))),
+                    new StandardMBean(new Server(address), ServerMBean.class));
+            }
+        }
+    }
+
+    /**
+     * @return the names of the registered MBeans
+     */
+    public synchronized List<ObjectName> getObjectNames() {
+        return new ArrayList<ObjectName>(this.names);
+    }
+
+    /**
+     * unregister the MBeans
+     */
+    public synchronized void close() {
+        for (ObjectName name : this.names) {
+            try {
+                this.mbeanServer.unregisterMBean(name);
+            } catch (JMException ex) {
+                ex.printStackTrace();
+            }
+        }
+        this.names.clear();
+        this.trackerNames.clear();
+        this.servers.clear();
+        this.trackerGroup = null;
+    }
+
+    private void add(ObjectName name, StandardMBean mbean) throws JMException {
+        this.mbeanServer.registerMBean(mbean, name);
+        this.names.add(name);
+    }
+
+    private void remove(ObjectName name) throws JMException {
+        this.names.remove(name);
+        this.mbeanServer.unregisterMBean(name);
+    }
+
+    private static String addressOf(InetSocketAddress address) {
+        return address.getHostString() + ":" + address.getPort();
+    }
+}
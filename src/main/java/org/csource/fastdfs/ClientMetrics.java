@@ -0,0 +1,363 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.csource.common.LatencyHistogram;
+
+/**
+ * Client side metrics of the requests to the tracker and storage servers, per command and per server.
+ * the latency of a request is split into phases:
+ * <pre>
+ * connection: query the tracker and connect to the storage server
+ * request:    send the request, including the file content of upload
+ * wait:       wait for the response header, the server processing time
+ * transfer:   receive the response body, such as the file content of download
+ * </pre>
+ * the recorders are lock-free, the latencies are in microseconds.
+ * use it as ClientGlobal.g_client_metrics or StorageClient.setClientMetrics
+ */
+public class ClientMetrics {
+    public static final int PHASE_CONNECTION = 0;
+    public static final int PHASE_REQUEST = 1;
+    public static final int PHASE_WAIT = 2;
+    public static final int PHASE_TRANSFER = 3;
+    public static final String[] PHASE_CAPTIONS = {"connection", "request", "wait", "transfer"};
+
+    public static final int PRECISION_BITS = 5;  //error below 3.2%, 8KB per histogram
+
+    /**
+     * the metrics of a command
+     */
+    public static class CommandMetrics {
+        private final byte cmd;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private final AtomicLongArray errnoCounts = new AtomicLongArray(256);
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram(PRECISION_BITS);
+        private final LatencyHistogram[] phases = new LatencyHistogram[PHASE_CAPTIONS.length];
+
+        CommandMetrics(byte cmd) {
+            this.cmd = cmd;
+            for (int i = 0; i < this.phases.length; i++) {
+                this.phases[i] = new LatencyHistogram(PRECISION_BITS);
+            }
+        }
+
+        public byte getCmd() {
+            return this.cmd;
+        }
+
+        /**
+         * @return the caption of ProtoCommon.getCommandCaption
+         */
+        public String getCaption() {
+            return ProtoCommon.getCommandCaption(this.cmd);
+        }
+
+        public long getCount() {
+            return this.count.get();
+        }
+
+        public long getErrorCount() {
+            return this.errorCount.get();
+        }
+
+        /**
+         * @param errno the error code, such as ProtoCommon.ERR_NO_ENOENT
+         * @return the count of the requests failed with the error code
+         */
+        public long getErrorCount(int errno) {
+            return this.errnoCounts.get(errno & 0xFF);
+        }
+
+        /**
+         * @return the error codes and the counts, such as {2: 10, 5: 1}
+         */
+        public long[][] getErrorCounts() {
+            List<long[]> results = new ArrayList<long[]>();
+            for (int i = 1; i < this.errnoCounts.length(); i++) {
+                long n = this.errnoCounts.get(i);
+                if (n > 0) {
+                    results.add(new long[]{i, n});
+                }
+            }
+            return results.toArray(new long[results.size()][]);
+        }
+
+        /**
+         * @return the bytes sent, such as the file content of upload
+         */
+        public long getBytesOut() {
+            return this.bytesOut.get();
+        }
+
+        /**
+         * @return the bytes received, such as the file content of download
+         */
+        public long getBytesIn() {
+            return this.bytesIn.get();
+        }
+
+        public LatencyHistogram getLatency() {
+            return this.latency;
+        }
+
+        /**
+         * @param phase the phase, such as PHASE_WAIT
+         * @return the latency of the phase, the requests failed before the response are not recorded
+         */
+        public LatencyHistogram getPhaseLatency(int phase) {
+            return this.phases[phase];
+        }
+    }
+
+    /**
+     * the metrics of a tracker or storage server
+     */
+    public static class ServerMetrics {
+        private final InetSocketAddress address;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram(PRECISION_BITS);
+        private final AtomicLong connectFailures = new AtomicLong();
+        private final LatencyHistogram connectLatency = new LatencyHistogram(PRECISION_BITS);
+
+        ServerMetrics(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        public InetSocketAddress getAddress() {
+            return this.address;
+        }
+
+        public long getCount() {
+            return this.count.get();
+        }
+
+        public long getErrorCount() {
+            return this.errorCount.get();
+        }
+
+        public long getBytesOut() {
+            return this.bytesOut.get();
+        }
+
+        public long getBytesIn() {
+            return this.bytesIn.get();
+        }
+
+        public LatencyHistogram getLatency() {
+            return this.latency;
+        }
+
+        /**
+         * @return the count of the successful connects
+         */
+        public long getConnectCount() {
+            return this.connectLatency.getTotalCount();
+        }
+
+        public long getConnectFailures() {
+            return this.connectFailures.get();
+        }
+
+        /**
+         * @return the latency of the successful connects
+         */
+        public LatencyHistogram getConnectLatency() {
+            return this.connectLatency;
+        }
+    }
+
+    private final AtomicReferenceArray<CommandMetrics> commands = new AtomicReferenceArray<CommandMetrics>(256);
+    private final ConcurrentMap<InetSocketAddress, ServerMetrics> servers =
+        new ConcurrentHashMap<InetSocketAddress, ServerMetrics>();
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * @return the create time in milliseconds
+     */
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    /**
+     * @param cmd the command, such as ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE
+     * @return the metrics of the command, null if no request
+     */
+    public CommandMetrics getCommandMetrics(byte cmd) {
+        return this.commands.get(cmd & 0xFF);
+    }
+
+    /**
+     * @return the metrics of the commands requested, order by the command
+     */
+    public List<CommandMetrics> getCommandMetrics() {
+        List<CommandMetrics> results = new ArrayList<CommandMetrics>();
+        for (int i = 0; i < this.commands.length(); i++) {
+            CommandMetrics metrics = this.commands.get(i);
+            if (metrics != null) {
+                results.add(metrics);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return the metrics of the server, null if no request
+     */
+    public ServerMetrics getServerMetrics(InetSocketAddress address) {
+        return this.servers.get(address);
+    }
+
+    public List<ServerMetrics> getServerMetrics() {
+        return new ArrayList<ServerMetrics>(this.servers.values());
+    }
+
+    /**
+     * record a request without the phases
+     * @param cmd the command
+     * @param server the server, can be null
+     * @param request_bytes the bytes sent
+     * @param response_bytes the bytes received
+     * @param elapsed_nanos the elapsed time in nanoseconds
+     * @param errno 0 for success
+     */
+    public void record(byte cmd, InetSocketAddress server, long request_bytes, long response_bytes,
+                       long elapsed_nanos, int errno) {
+        long elapsed = elapsed_nanos / 1000;
+        CommandMetrics command = this.commandOf(cmd);
+        command.count.incrementAndGet();
+        command.latency.record(elapsed);
+        if (errno != 0) {
+            command.errorCount.incrementAndGet();
+            command.errnoCounts.incrementAndGet(errno & 0xFF);
+        }
+        if (request_bytes > 0) {
+            command.bytesOut.addAndGet(request_bytes);
+        }
+        if (response_bytes > 0) {
+            command.bytesIn.addAndGet(response_bytes);
+        }
+
+        if (server == null) {
+            return;
+        }
+
+        ServerMetrics serverMetrics = this.serverOf(server);
+        serverMetrics.count.incrementAndGet();
+        serverMetrics.latency.record(elapsed);
+        if (errno != 0) {
+            serverMetrics.errorCount.incrementAndGet();
+        }
+        if (request_bytes > 0) {
+            serverMetrics.bytesOut.addAndGet(request_bytes);
+        }
+        if (response_bytes > 0) {
+            serverMetrics.bytesIn.addAndGet(response_bytes);
+        }
+    }
+
+    void record(byte cmd, RequestTiming timing, long endTime, long request_bytes, long response_bytes, int errno) {
+        this.record(cmd, timing.server, request_bytes, response_bytes, endTime - timing.startTime, errno);
+        if (timing.connectedTime == 0 || timing.waitTime == 0 || timing.receivedTime == 0) {
+            return;
+        }
+
+        LatencyHistogram[] phases = this.commands.get(cmd & 0xFF).phases;
+        phases[PHASE_CONNECTION].record((timing.connectedTime - timing.startTime) / 1000);
+        phases[PHASE_REQUEST].record((timing.waitTime - timing.connectedTime) / 1000);
+        phases[PHASE_WAIT].record((timing.receivedTime - timing.waitTime) / 1000);
+        phases[PHASE_TRANSFER].record((endTime - timing.receivedTime) / 1000);
+    }
+
+    /**
+     * record a socket connect
+     * @param server the server
+     * @param elapsed_nanos the elapsed time in nanoseconds
+     * @param success false for connect fail
+     */
+    public void recordConnect(InetSocketAddress server, long elapsed_nanos, boolean success) {
+        ServerMetrics serverMetrics = this.serverOf(server);
+        if (success) {
+            serverMetrics.connectLatency.record(elapsed_nanos / 1000);
+        } else {
+            serverMetrics.connectFailures.incrementAndGet();
+        }
+    }
+
+    private CommandMetrics commandOf(byte cmd) {
+        int index = cmd & 0xFF;
+        CommandMetrics metrics = this.commands.get(index);
+        if (metrics == null) {
+            this.commands.compareAndSet(index, null, new CommandMetrics(cmd));
+            metrics = this.commands.get(index);
+        }
+        return metrics;
+    }
+
+    private ServerMetrics serverOf(InetSocketAddress server) {
+        ServerMetrics metrics = this.servers.get(server);
+        if (metrics == null) {
+            ServerMetrics created = new ServerMetrics(server);
+            metrics = this.servers.putIfAbsent(server, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the metrics in text, one line per command and per server
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (CommandMetrics command : this.getCommandMetrics()) {
+            LatencyHistogram latency = command.getLatency();
+            sb.append(command.getCaption()).append(": count=").append(command.getCount())
+                .append(", errors=").append(command.getErrorCount())
+                .append(", bytes_out=").append(command.getBytesOut())
+                .append(", bytes_in=").append(command.getBytesIn())
+                .append(", p50_us=").append(latency.getValueAtPercentile(50))
+                .append(", p99_us=").append(latency.getValueAtPercentile(99))
+                .append(", max_us=").append(latency.getMaxValue());
+            for (int i = 0; i < PHASE_CAPTIONS.length; i++) {
+                sb.append(", ").append(PHASE_CAPTIONS[i]).append("_p50_us=")
+                    .append(command.getPhaseLatency(i).getValueAtPercentile(50));
+            }
+            sb.append('\n');
+        }
+        for (ServerMetrics server : this.getServerMetrics()) {
+            sb.append(server.getAddress().getHostString()).append(':')
+                .append(server.getAddress().getPort())
+                .append(": count=").append(server.getCount())
+                .append(", errors=").append(server.getErrorCount())
+                .append(", p99_us=").append(server.getLatency().getValueAtPercentile(99))
+                .append(", connects=").append(server.getConnectCount())
+                .append(", connect_failures=").append(server.getConnectFailures())
+                .append(", connect_p99_us=").append(server.getConnectLatency().getValueAtPercentile(99))
+                .append('\n');
+        }
+        return sb.toString();
+    }
+}
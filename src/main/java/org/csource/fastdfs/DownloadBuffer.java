@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only file content returned without copy. A disk cache hit is a slice of the mapped
+ * segment, the segment is pinned so it is not recycled until this buffer is closed.
+ * Other content is a heap buffer, close() has no effect on it.
+ * The buffer must not be read after it is closed.
+ */
+public class DownloadBuffer implements Closeable {
+    private ByteBuffer buffer;
+    private MappedFileCache cache;
+    private int segment;
+
+    DownloadBuffer(ByteBuffer buffer) {
+        this(buffer, null, -1);
+    }
+
+    DownloadBuffer(ByteBuffer buffer, MappedFileCache cache, int segment) {
+        this.buffer = buffer;
+        this.cache = cache;
+        this.segment = segment;
+    }
+
+    /**
+     * @return the read-only file content, from position 0 to the limit
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * @return true if the content is a slice of the disk cache
+     */
+    public boolean isMapped() {
+        return this.cache != null;
+    }
+
+    /**
+     * release the pinned segment of the disk cache
+     */
+    public void close() {
+        MappedFileCache c;
+        synchronized (this) {
+            c = this.cache;
+            this.cache = null;
+        }
+        if (c != null) {
+            c.unpin(this.segment);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Download file callback interface, receive file content as ByteBuffer slices
+ */
+public interface DownloadByteBufferCallback {
+    /**
+     * recv file content callback function, may be called more than once when the file downloaded.
+     * the slice is a read-only view of a pooled buffer, it is only valid until this function returns.
+     * @param file_size file size
+     * @param data data slice, from position to limit
+     * @return 0 success, return none zero(errno) if fail
+     */
+    public int recv(long file_size, ByteBuffer data);
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory cache of downloaded file content keyed by file id.
+ * Normal files can not be changed after uploaded, so the content is cached until evicted
+ * or the file is deleted by this client. Appender files are never cached.
+ * The cache is evicted by LRU when the total bytes exceed the max size.
+ */
+public class DownloadCache {
+    private final long maxBytes;
+    private final int maxFileSize;
+    private final LinkedHashMap<String, byte[]> entries;
+    private long totalBytes;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Constructor, the max cacheable file size is 1/8 of the max bytes
+     * @param maxBytes max total bytes of cached file content
+     */
+    public DownloadCache(long maxBytes) {
+        this(maxBytes, (int)Math.min(maxBytes / 8, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Constructor
+     * @param maxBytes max total bytes of cached file content
+     * @param maxFileSize files larger than this size are not cached
+     */
+    public DownloadCache(long maxBytes, int maxFileSize) {
+        this.maxBytes = maxBytes;
+        this.maxFileSize = maxFileSize;
+        this.entries = new LinkedHashMap<String, byte[]>(64, 0.75f, true);
+    }
+
+    /**
+     * get the cached file content
+     * @param file_id the file id(including group name and filename)
+     * @return the cached content, must not be modified, return null if not cached
+     */
+    public synchronized byte[] get(String file_id) {
+        byte[] content = this.entries.get(file_id);
+        if (content == null) {
+            this.missCount++;
+        } else {
+            this.hitCount++;
+        }
+        return content;
+    }
+
+    /**
+     * put the file content into the cache, evict the least recently used files if necessary
+     * @param file_id the file id(including group name and filename)
+     * @param content the whole file content, must not be modified after put
+     * @return true if cached
+     */
+    public synchronized boolean put(String file_id, byte[] content) {
+        if (content.length > this.maxFileSize || content.length > this.maxBytes) {
+            return false;
+        }
+
+        byte[] old = this.entries.put(file_id, content);
+        if (old != null) {
+            this.totalBytes -= old.length;
+        }
+        this.totalBytes += content.length;
+
+        Iterator<Map.Entry<String, byte[]>> it = this.entries.entrySet().iterator();
+        while (this.totalBytes > this.maxBytes && it.hasNext()) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            this.totalBytes -= eldest.getValue().length;
+            it.remove();
+            this.evictionCount++;
+        }
+
+        return true;
+    }
+
+    /**
+     * remove the file from the cache
+     * @param file_id the file id(including group name and filename)
+     */
+    public synchronized void remove(String file_id) {
+        byte[] old = this.entries.remove(file_id);
+        if (old != null) {
+            this.totalBytes -= old.length;
+        }
+    }
+
+    /**
+     * remove all files from the cache
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.totalBytes = 0;
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public synchronized long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    public synchronized int getFileCount() {
+        return this.entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * to string
+     * @return string
+     */
+    public synchronized String toString() {
+        return "file_count = " + this.entries.size() + ", " +
+            "total_bytes = " + this.totalBytes + ", " +
+            "hit_count = " + this.hitCount + ", " +
+            "miss_count = " + this.missCount + ", " +
+            "eviction_count = " + this.evictionCount;
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pull mode download stream, reads the file content directly off the storage connection.
+ * The readahead buffer never reads beyond the response body, so the connection stays in sync.
+ * When the stream is closed after the whole body is consumed, the connection is kept by the
+ * storage client for the next request (or quit normally if the stream created it),
+ * otherwise the connection is discarded. The download request is completed when the stream
+ * is closed, so the metrics and the operation listener see the latency and bytes of the body.
+ */
+public class DownloadInputStream extends InputStream {
+    public static final int DEFAULT_READAHEAD_SIZE = 64 * 1024;
+
+    private StorageClient client;
+    private StorageServer storageServer;
+    private InputStream in;
+    private boolean bNewConnection;
+    private long fileSize;
+    private long remainBytes;  //bytes not read from the socket yet
+    private byte[] buff;
+    private int buffPos;
+    private int buffLimit;
+    private byte[] oneByte;    //for read() without readahead
+    private boolean closed;
+
+    private String group_name;
+    private String remote_filename;
+    private long file_offset;
+    private long startTime;
+    private RequestTiming timing;
+    private byte errno;
+
+    /**
+     * Constructor
+     * @param client the storage client which sent the download request
+     * @param storageServer the storage server connection, the response header has been received
+     * @param bNewConnection if the connection is created for this stream only
+     * @param body_len the response body length
+     * @param readahead_size the readahead buffer size, &lt;= 0 for no readahead
+     * @param group_name the group name of the file
+     * @param remote_filename the filename on storage server
+     * @param file_offset the start offset of the file
+     * @param startTime the System.nanoTime() before the download request
+     */
+    protected DownloadInputStream(StorageClient client, StorageServer storageServer, boolean bNewConnection,
+                                  long body_len, int readahead_size, String group_name, String remote_filename,
+                                  long file_offset, long startTime) throws IOException {
+        this.client = client;
+        this.storageServer = storageServer;
+        this.in = storageServer.getSocket().getInputStream();
+        this.bNewConnection = bNewConnection;
+        this.fileSize = body_len;
+        this.remainBytes = body_len;
+        if (readahead_size > 0) {
+            this.buff = new byte[body_len < readahead_size ? (int)body_len : readahead_size];
+        }
+        this.group_name = group_name;
+        this.remote_filename = remote_filename;
+        this.file_offset = file_offset;
+        this.startTime = startTime;
+        this.timing = RequestTiming.detach(client.getClientMetrics(), ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE);
+    }
+
+    /**
+     * @return the total bytes of this stream
+     */
+    public long getFileSize() {
+        return this.fileSize;
+    }
+
+    /**
+     * @return true if all bytes of the stream have been read
+     */
+    public boolean isFullyConsumed() {
+        return this.remainBytes == 0 && this.buffPos == this.buffLimit;
+    }
+
+    public int read() throws IOException {
+        if (!this.closed && this.buffPos < this.buffLimit) {
+            return this.buff[this.buffPos++] & 0xFF;
+        }
+
+        if (this.oneByte == null) {
+            this.oneByte = new byte[1];
+        }
+        int bytes = this.read(this.oneByte, 0, 1);
+        return bytes < 0 ? -1 : (this.oneByte[0] & 0xFF);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        if (this.buffPos < this.buffLimit) {
+            int bytes = this.buffLimit - this.buffPos;
+            if (bytes > len) {
+                bytes = len;
+            }
+            System.arraycopy(this.buff, this.buffPos, b, off, bytes);
+            this.buffPos += bytes;
+            return bytes;
+        }
+
+        if (this.remainBytes == 0) {
+            return -1;
+        }
+
+        //large reads bypass the readahead buffer
+        if (this.buff == null || len >= this.buff.length) {
+            return this.fill(b, off, len);
+        }
+
+        this.buffPos = 0;
+        this.buffLimit = 0;
+        this.buffLimit = this.fill(this.buff, 0, this.buff.length);
+        return this.read(b, off, len);
+    }
+
+    private int fill(byte[] b, int off, int len) throws IOException {
+        int bytes;
+        try {
+            bytes = this.in.read(b, off, this.remainBytes > len ? len : (int)this.remainBytes);
+        } catch (IOException ex) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            throw ex;
+        }
+        if (bytes < 0) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            throw new IOException("recv package size " + (this.fileSize - this.remainBytes) + " != " + this.fileSize);
+        }
+
+        this.remainBytes -= bytes;
+        return bytes;
+    }
+
+    public long skip(long n) throws IOException {
+        if (this.closed) {
+            throw new IOException("stream closed");
+        }
+
+        long skipped = 0;
+        int bytes;
+        byte[] discard = null;
+
+        while (skipped < n) {
+            if (this.buffPos < this.buffLimit) {
+                bytes = this.buffLimit - this.buffPos;
+                if (bytes > n - skipped) {
+                    bytes = (int)(n - skipped);
+                }
+                this.buffPos += bytes;
+            } else {
+                if (this.remainBytes == 0) {
+                    break;
+                }
+                if (discard == null) {
+                    discard = this.buff != null ? this.buff : new byte[2 * 1024];
+                    this.buffPos = this.buffLimit = 0;
+                }
+                bytes = this.fill(discard, 0, n - skipped > discard.length ? discard.length : (int)(n - skipped));
+            }
+            skipped += bytes;
+        }
+
+        return skipped;
+    }
+
+    public int available() throws IOException {
+        if (this.closed) {
+            return 0;
+        }
+
+        int bytes = this.buffLimit - this.buffPos;
+        int socketBytes = this.in.available();
+        return bytes + (this.remainBytes > socketBytes ? socketBytes : (int)this.remainBytes);
+    }
+
+    /**
+     * close the stream, release or discard the storage connection and complete the download request
+     */
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        try {
+            if (this.remainBytes == 0 && !this.bNewConnection) {
+                return;  //the connection is in sync, keep it for the storage client
+            }
+
+            try {
+                this.storageServer.close();
+            } finally {
+                if (this.client.storageServer == this.storageServer) {
+                    this.client.storageServer = null;
+                }
+            }
+        } finally {
+            long recvBytes = this.fileSize - this.remainBytes;
+            RequestTiming.end(this.timing, ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, this.group_name, null,
+                0, recvBytes, this.errno & 0xFF);
+            this.timing = null;
+            this.client.notifyOperationListener(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, this.group_name,
+                this.remote_filename, this.file_offset, 0, recvBytes, this.startTime, this.errno);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import org.csource.common.Base64Codec;
+
+/**
+ * Fields decoded from a file id or remote filename without creating strings or arrays.
+ * The object is reusable, call parse() again to decode another file id.
+ * The remote filename is like M00/00/00/wKgBaFl3dkSAexCOAAAAADPZ7Eg743.jpg, the 27 chars
+ * after the path are the base64 of source ip, create timestamp, file size and crc32.
+ */
+public class FileIdInfo {
+    private final byte[] buff = new byte[20];
+    private int groupNameLength;
+    private int filenameOffset;
+    private int filenameLength;
+    private int storePathIndex;
+    private int sourceIp;
+    private int createTimestamp;
+    private long rawFileSize;
+    private int crc32;
+
+    /**
+     * parse the file id
+     * @param file_id the file id(including group name and filename)
+     * @return true for success, false if the file id is invalid
+     */
+    public boolean parse(CharSequence file_id) {
+        int len = file_id.length();
+        int pos = -1;
+        for (int i = 0; i < len; i++) {
+            if (file_id.charAt(i) == '/') {
+                pos = i;
+                break;
+            }
+        }
+        if (pos <= 0 || pos == len - 1) {
+            return false;
+        }
+
+        this.groupNameLength = pos;
+        return this.parseFilename(file_id, pos + 1);
+    }
+
+    /**
+     * parse the remote filename
+     * @param remote_filename filename on storage server
+     * @return true for success, false if the filename is invalid
+     */
+    public boolean parseFilename(CharSequence remote_filename) {
+        this.groupNameLength = 0;
+        return this.parseFilename(remote_filename, 0);
+    }
+
+    private boolean parseFilename(CharSequence s, int offset) {
+        this.filenameOffset = offset;
+        this.filenameLength = s.length() - offset;
+        if (this.filenameLength < ProtoCommon.NORMAL_LOGIC_FILENAME_LENGTH) {
+            return false;
+        }
+
+        //store path: M + 2 hex chars
+        int high = Character.digit(s.charAt(offset + 1), 16);
+        int low = Character.digit(s.charAt(offset + 2), 16);
+        if (s.charAt(offset) == 'M' && high >= 0 && low >= 0) {
+            this.storePathIndex = (high << 4) | low;
+        } else {
+            this.storePathIndex = -1;
+        }
+
+        //27 chars to 20 bytes, less bytes if there are chars not in the alphabet
+        if (Base64Codec.FDFS.decode(s, offset + ProtoCommon.FDFS_FILE_PATH_LEN,
+            ProtoCommon.FDFS_FILENAME_BASE64_LENGTH, this.buff, 0) != this.buff.length) {
+            return false;
+        }
+
+        this.sourceIp = ProtoCommon.buff2int(this.buff, 0);
+        this.createTimestamp = ProtoCommon.buff2int(this.buff, 4);
+        this.rawFileSize = ProtoCommon.buff2long(this.buff, 8);
+        this.crc32 = ProtoCommon.buff2int(this.buff, 16);
+        return true;
+    }
+
+    /**
+     * @return the length of group name, 0 if parsed by parseFilename
+     */
+    public int getGroupNameLength() {
+        return this.groupNameLength;
+    }
+
+    /**
+     * @return the start index of the remote filename in the parsed chars
+     */
+    public int getFilenameOffset() {
+        return this.filenameOffset;
+    }
+
+    /**
+     * @return the length of the remote filename
+     */
+    public int getFilenameLength() {
+        return this.filenameLength;
+    }
+
+    /**
+     * @return the store path index, such as 0 for M00, -1 if the path is not in this form
+     */
+    public int getStorePathIndex() {
+        return this.storePathIndex;
+    }
+
+    /**
+     * @return the source ip address as big endian int, 0 when the first or last byte is 0 (storage server ID)
+     */
+    public int getSourceIp() {
+        if ((this.sourceIp >>> 24) == 0 || (this.sourceIp & 0xFF) == 0) {
+            return 0;
+        }
+        return this.sourceIp;
+    }
+
+    /**
+     * @return create timestamp in seconds
+     */
+    public int getCreateTimestamp() {
+        return this.createTimestamp;
+    }
+
+    /**
+     * @return the file size field with the appender and trunk flags
+     */
+    public long getRawFileSize() {
+        return this.rawFileSize;
+    }
+
+    /**
+     * @return the file size, only valid when isAppenderFile() and isSlaveFile() return false
+     */
+    public long getFileSize() {
+        if ((this.rawFileSize >> 63) != 0) {
+            return this.rawFileSize & 0xFFFFFFFFL;  //low 32 bits is file size
+        }
+        return this.rawFileSize;
+    }
+
+    /**
+     * @return the crc32 signature
+     */
+    public int getCrc32() {
+        return this.crc32;
+    }
+
+    /**
+     * @return true for appender file
+     */
+    public boolean isAppenderFile() {
+        return (this.rawFileSize & ProtoCommon.APPENDER_FILE_SIZE) != 0;
+    }
+
+    /**
+     * @return true for file stored in trunk file
+     */
+    public boolean isTrunkFile() {
+        return (this.rawFileSize & ProtoCommon.TRUNK_FILE_MARK_SIZE) != 0;
+    }
+
+    /**
+     * @return true for slave file, its size can not be decoded from the filename
+     */
+    public boolean isSlaveFile() {
+        return this.filenameLength > ProtoCommon.TRUNK_LOGIC_FILENAME_LENGTH ||
+            (this.filenameLength > ProtoCommon.NORMAL_LOGIC_FILENAME_LENGTH && !this.isTrunkFile());
+    }
+
+    /**
+     * @return the source ip address, empty string for storage server ID
+     */
+    public String getSourceIpAddr() {
+        int ip = this.getSourceIp();
+        if (ip == 0) {
+            return "";
+        }
+        return (ip >>> 24) + "." + ((ip >> 16) & 0xFF) + "." + ((ip >> 8) & 0xFF) + "." + (ip & 0xFF);
+    }
+
+    /**
+     * create FileInfo object, the same as StorageClient.get_file_info for normal files
+     * @return FileInfo object
+     */
+    public FileInfo toFileInfo() {
+        return new FileInfo(this.getFileSize(), this.createTimestamp, this.crc32, this.getSourceIpAddr());
+    }
+}
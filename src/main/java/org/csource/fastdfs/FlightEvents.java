@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.net.InetSocketAddress;
+
+/**
+ * the Java Flight Recorder events of the requests, one event type per kind.
+ * the events are implemented by JfrEvents which is loaded only when the JVM has jdk.jfr,
+ * so the client still runs on the JVMs before JDK 11. each event type is enabled and disabled
+ * by the JFR settings, such as org.csource.fastdfs.Upload#enabled=false, a disabled event costs
+ * one check per request
+ */
+abstract class FlightEvents {
+    static final int TRACKER_QUERY = 0;
+    static final int CONNECT = 1;
+    static final int UPLOAD = 2;     //upload, append, modify and truncate
+    static final int DOWNLOAD = 3;
+    static final int METADATA = 4;   //get and set metadata, query file info
+    static final int DELETE = 5;
+
+    private static final FlightEvents instance = load();
+
+    /**
+     * @return true if the JVM supports JFR and the events are loaded
+     */
+    static boolean isAvailable() {
+        return instance != null;
+    }
+
+    /**
+     * start the event of the kind when it is enabled
+     * @param kind the event kind, such as UPLOAD
+     * @return the started event, null if disabled
+     */
+    static Object begin(int kind) {
+        return instance == null ? null : instance.start(kind);
+    }
+
+    /**
+     * commit the request event started by begin
+     * @param event the event from begin, null for nothing
+     * @param group_name the group name, null if unknown
+     * @param server the server address, null if not connected
+     * @param errno 0 for success
+     */
+    static void commit(Object event, byte cmd, String group_name, InetSocketAddress server,
+                       long request_bytes, long response_bytes, int errno) {
+        if (event != null) {
+            instance.finishRequest(event, cmd, group_name, server, request_bytes, response_bytes, errno);
+        }
+    }
+
+    /**
+     * commit the connect event started by begin(CONNECT)
+     * @param event the event from begin, null for nothing
+     */
+    static void commitConnect(Object event, InetSocketAddress server, boolean success) {
+        if (event != null) {
+            instance.finishConnect(event, server, success);
+        }
+    }
+
+    /**
+     * @return the event kind of the command
+     */
+    static int kindOf(byte cmd) {
+        switch (cmd) {
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_SLAVE_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE:
+                return UPLOAD;
+            case ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE:
+                return DOWNLOAD;
+            case ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA:
+            case ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA:
+            case ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO:
+                return METADATA;
+            case ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE:
+                return DELETE;
+            default:
+                return TRACKER_QUERY;
+        }
+    }
+
+    abstract Object start(int kind);
+
+    abstract void finishRequest(Object event, byte cmd, String group_name, InetSocketAddress server,
+                                long request_bytes, long response_bytes, int errno);
+
+    abstract void finishConnect(Object event, InetSocketAddress server, boolean success);
+
+    private static FlightEvents load() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (FlightEvents)Class.forName("org.csource.fastdfs.JfrEvents").getDeclaredConstructor().newInstance();
+        } catch (Throwable ex) {
+            return null;  //no JFR in this JVM or the client was built without JfrEvents
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.net.InetSocketAddress;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * the JFR events of FlightEvents, needs JDK 11 or later to compile and run.
+ * loaded by FlightEvents with reflection, the pom excludes it when building on an older JDK
+ */
+class JfrEvents extends FlightEvents {
+    @Category("FastDFS")
+    abstract static class RequestEvent extends Event {
+        @Label("Command")
+        String cmd;
+
+        @Label("Group")
+        String group;
+
+        @Label("Server")
+        String server;
+
+        @Label("Request Bytes")
+        @DataAmount
+        long requestBytes;
+
+        @Label("Response Bytes")
+        @DataAmount
+        long responseBytes;
+
+        @Label("Error Code")
+        @Description("0 for success, such as 2 for file not exist and 5 for IO error")
+        int errno;
+    }
+
+    @Name("org.csource.fastdfs.TrackerQuery")
+    @Label("Tracker Query")
+    @Description("A request to the tracker server, such as querying the storage server to upload")
+    static class TrackerQueryEvent extends RequestEvent {
+    }
+
+    @Name("org.csource.fastdfs.Upload")
+    @Label("Upload")
+    @Description("Uploading, appending, modifying or truncating a file, including the tracker query")
+    static class UploadEvent extends RequestEvent {
+    }
+
+    @Name("org.csource.fastdfs.Download")
+    @Label("Download")
+    @Description("Downloading a file, including the tracker query")
+    static class DownloadEvent extends RequestEvent {
+    }
+
+    @Name("org.csource.fastdfs.Metadata")
+    @Label("Metadata")
+    @Description("Getting or setting the metadata or querying the file info, including the tracker query")
+    static class MetadataEvent extends RequestEvent {
+    }
+
+    @Name("org.csource.fastdfs.Delete")
+    @Label("Delete")
+    @Description("Deleting a file, including the tracker query")
+    static class DeleteEvent extends RequestEvent {
+    }
+
+    @Name("org.csource.fastdfs.Connect")
+    @Label("Connect")
+    @Category("FastDFS")
+    @Description("Connecting to a tracker or storage server")
+    static class ConnectEvent extends Event {
+        @Label("Server")
+        String server;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    Object start(int kind) {
+        Event event;
+        switch (kind) {
+            case TRACKER_QUERY:
+                event = new TrackerQueryEvent();
+                break;
+            case CONNECT:
+                event = new ConnectEvent();
+                break;
+            case UPLOAD:
+                event = new UploadEvent();
+                break;
+            case DOWNLOAD:
+                event = new DownloadEvent();
+                break;
+            case METADATA:
+                event = new MetadataEvent();
+                break;
+            default:
+                event = new DeleteEvent();
+                break;
+        }
+
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    void finishRequest(Object event, byte cmd, String group_name, InetSocketAddress server,
+                       long request_bytes, long response_bytes, int errno) {
+        RequestEvent requestEvent = (RequestEvent)event;
+        requestEvent.end();
+        if (!requestEvent.shouldCommit()) {
+            return;
+        }
+
+        requestEvent.cmd = ProtoCommon.getCommandCaption(cmd);
+        requestEvent.group = group_name;
+        requestEvent.server = server == null ? null : server.getHostString() + ":" + server.getPort();
+        requestEvent.requestBytes = request_bytes;
+        requestEvent.responseBytes = response_bytes;
+        requestEvent.errno = errno;
+        requestEvent.commit();
+    }
+
+    void finishConnect(Object event, InetSocketAddress server, boolean success) {
+        ConnectEvent connectEvent = (ConnectEvent)event;
+        connectEvent.end();
+        if (!connectEvent.shouldCommit()) {
+            return;
+        }
+
+        connectEvent.server = server.getHostString() + ":" + server.getPort();
+        connectEvent.success = success;
+        connectEvent.commit();
+    }
+}
@@ -0,0 +1,543 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Local disk cache tier of downloaded file content, stored off-heap in memory-mapped segment files.
+ * Files are appended to the current segment, when it is full the oldest segment is recycled and
+ * all files in it are evicted. Each record carries the generation of its segment and the CRC32 of
+ * the content, so the index is rebuilt from the segment files at startup and torn or stale
+ * records left by a crash are skipped.
+ * <p>
+ * get() copies the content out of the mapped segment while holding the lock. pin() returns the
+ * content without copy as a read-only slice, its segment is pinned until the DownloadBuffer is closed:
+ * a put which needs to recycle a pinned segment does not cache the file, and close() leaves
+ * pinned segments mapped, so the slice never shows the bytes of another file.
+ * The directory is locked with a lock file, it can not be shared by two caches or two processes.
+ * close() unmaps the segments.
+ */
+public class MappedFileCache implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int SEGMENT_MAGIC = 0x46444653;  //FDFS
+    private static final int RECORD_MAGIC = 0x46444643;   //FDFC
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 4 + 4 + 2;
+    private static final String SEGMENT_FILENAME_PREFIX = "segment-";
+    private static final String SEGMENT_FILENAME_SUFFIX = ".dat";
+    private static final String LOCK_FILENAME = "cache.lock";
+    private static final Charset ID_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * the location of a cached file
+     */
+    private static class Location {
+        int segment;
+        int recordOffset;
+        int bodyOffset;
+        int bodyLength;
+        long generation;
+
+        Location(int segment, int recordOffset, int bodyOffset, int bodyLength, long generation) {
+            this.segment = segment;
+            this.recordOffset = recordOffset;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+            this.generation = generation;
+        }
+    }
+
+    private final File dir;
+    private final int segmentSize;
+    private final MappedByteBuffer[] segments;
+    private final long[] generations;
+    private final int[] pins;  //the open DownloadBuffer slices of each segment
+    private final ArrayList<ArrayList<String>> segmentKeys;
+    private final HashMap<String, Location> index;
+    private RandomAccessFile lockFile;
+    private FileLock lock;
+    private int currentSegment;
+    private int writePosition;
+    private long totalBytes;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * open the cache, the existing segment files in the path are recovered
+     * @param path the directory of segment files
+     * @param maxBytes max disk space of the cache
+     * @param segmentSize the size of each segment file, files larger than it are not cached
+     */
+    public MappedFileCache(String path, long maxBytes, int segmentSize) throws IOException {
+        int segmentCount = (int)(maxBytes / segmentSize);
+        if (segmentCount < 2) {
+            segmentCount = 2;
+        }
+
+        this.dir = new File(path);
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("create directory " + path + " fail");
+        }
+
+        this.segmentSize = segmentSize;
+        this.segments = new MappedByteBuffer[segmentCount];
+        this.generations = new long[segmentCount];
+        this.pins = new int[segmentCount];
+        this.segmentKeys = new ArrayList<ArrayList<String>>(segmentCount);
+        this.index = new HashMap<String, Location>();
+
+        this.lockDirectory();
+        try {
+            for (int i = 0; i < segmentCount; i++) {
+                this.segments[i] = this.mapSegment(i);
+                this.segmentKeys.add(new ArrayList<String>());
+            }
+        } catch (IOException ex) {
+            this.close();
+            throw ex;
+        }
+
+        this.recover();
+    }
+
+    /**
+     * open the cache with default segment size
+     * @param path the directory of segment files
+     * @param maxBytes max disk space of the cache
+     */
+    public MappedFileCache(String path, long maxBytes) throws IOException {
+        this(path, maxBytes, maxBytes / 2 < DEFAULT_SEGMENT_SIZE ? (int)(maxBytes / 2) : DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * lock the directory for this cache, fail if it is used by another cache or process
+     */
+    private void lockDirectory() throws IOException {
+        File f = new File(this.dir, LOCK_FILENAME);
+        this.lockFile = new RandomAccessFile(f, "rw");
+        try {
+            this.lock = this.lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException ex) {
+            this.lock = null;
+        } catch (IOException ex) {
+            this.lockFile.close();
+            this.lockFile = null;
+            throw ex;
+        }
+
+        if (this.lock == null) {
+            this.lockFile.close();
+            this.lockFile = null;
+            throw new IOException("disk cache path " + this.dir.getPath() + " is used by another cache");
+        }
+    }
+
+    private MappedByteBuffer mapSegment(int segment) throws IOException {
+        File f = new File(this.dir, SEGMENT_FILENAME_PREFIX + segment + SEGMENT_FILENAME_SUFFIX);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            if (raf.length() != this.segmentSize) {
+                raf.setLength(0);  //segment size changed, drop the old content
+                raf.setLength(this.segmentSize);
+            }
+
+            //the mapping stays valid after the channel is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * rebuild the index from the segment files
+     */
+    private void recover() {
+        long maxGeneration = 0;
+        this.currentSegment = 0;
+        this.writePosition = SEGMENT_HEADER_SIZE;
+
+        for (int i = 0; i < this.segments.length; i++) {
+            MappedByteBuffer segment = this.segments[i];
+            if (segment.getInt(0) != SEGMENT_MAGIC || segment.getLong(4) <= 0) {
+                this.generations[i] = 0;
+                continue;
+            }
+
+            long generation = segment.getLong(4);
+            this.generations[i] = generation;
+            int position = this.recoverSegment(i, generation);
+            if (generation > maxGeneration) {
+                maxGeneration = generation;
+                this.currentSegment = i;
+                this.writePosition = position;
+            }
+        }
+
+        if (maxGeneration == 0) {
+            this.startSegment(0, 1);
+        }
+    }
+
+    /**
+     * scan the records of the segment and add the valid ones to the index
+     * @return the end position of the valid records
+     */
+    private int recoverSegment(int segmentIndex, long generation) {
+        ByteBuffer segment = this.segments[segmentIndex].duplicate();
+        CRC32 crc32 = new CRC32();
+        int position = SEGMENT_HEADER_SIZE;
+
+        while (position + RECORD_HEADER_SIZE <= this.segmentSize) {
+            int magic = segment.getInt(position);
+            if (magic != RECORD_MAGIC && magic != 0) {
+                break;
+            }
+            if (segment.getLong(position + 4) != generation) {
+                break;  //never written in this generation
+            }
+
+            int bodyLength = segment.getInt(position + 12);
+            int crc = segment.getInt(position + 16);
+            int idLength = segment.getShort(position + 20);
+            int bodyOffset = position + RECORD_HEADER_SIZE + idLength;
+            if (idLength <= 0 || bodyLength < 0 || (long)bodyOffset + bodyLength > this.segmentSize) {
+                break;
+            }
+
+            if (magic == RECORD_MAGIC) {  //0 for removed record
+                byte[] bsId = new byte[idLength];
+                segment.position(position + RECORD_HEADER_SIZE);
+                segment.get(bsId);
+
+                ByteBuffer body = segment.duplicate();
+                body.position(bodyOffset);
+                body.limit(bodyOffset + bodyLength);
+                crc32.reset();
+                byte[] chunk = new byte[bodyLength < 64 * 1024 ? bodyLength : 64 * 1024];
+                while (body.hasRemaining()) {
+                    int bytes = body.remaining() < chunk.length ? body.remaining() : chunk.length;
+                    body.get(chunk, 0, bytes);
+                    crc32.update(chunk, 0, bytes);
+                }
+                if ((int)crc32.getValue() != crc) {
+                    break;  //torn write
+                }
+
+                String file_id = new String(bsId, 0, idLength, ID_CHARSET);
+                Location old = this.index.get(file_id);
+                if (old == null || old.generation < generation) {
+                    if (old != null) {
+                        this.totalBytes -= old.bodyLength;
+                    }
+                    this.index.put(file_id, new Location(segmentIndex, position, bodyOffset, bodyLength, generation));
+                    this.segmentKeys.get(segmentIndex).add(file_id);
+                    this.totalBytes += bodyLength;
+                }
+            }
+
+            position = bodyOffset + bodyLength;
+        }
+
+        return position;
+    }
+
+    /**
+     * recycle the segment, evict all files in it
+     */
+    private void startSegment(int segmentIndex, long generation) {
+        ArrayList<String> keys = this.segmentKeys.get(segmentIndex);
+        for (String file_id : keys) {
+            Location location = this.index.get(file_id);
+            if (location != null && location.segment == segmentIndex) {
+                this.index.remove(file_id);
+                this.totalBytes -= location.bodyLength;
+                this.evictionCount++;
+            }
+        }
+        keys.clear();
+
+        MappedByteBuffer segment = this.segments[segmentIndex];
+        segment.putInt(0, 0);
+        segment.putLong(4, generation);
+        segment.putInt(0, SEGMENT_MAGIC);
+        this.generations[segmentIndex] = generation;
+        this.currentSegment = segmentIndex;
+        this.writePosition = SEGMENT_HEADER_SIZE;
+    }
+
+    /**
+     * get the cached file content
+     * @param file_id the file id(including group name and filename)
+     * @return a copy of the file content, return null if not cached
+     */
+    public byte[] get(String file_id) {
+        return this.get(file_id, 0, 0);
+    }
+
+    /**
+     * get a range of the cached file content
+     * @param file_id the file id(including group name and filename)
+     * @param file_offset the start offset of the file
+     * @param download_bytes the bytes to get, 0 for remain bytes from offset
+     * @return a copy of the content range, return null if not cached or the offset is beyond the file
+     */
+    public synchronized byte[] get(String file_id, long file_offset, long download_bytes) {
+        Location location = this.lock == null ? null : this.index.get(file_id);
+        if (location == null || file_offset > location.bodyLength) {
+            this.missCount++;
+            return null;
+        }
+
+        this.hitCount++;
+        long bytes = location.bodyLength - file_offset;
+        if (download_bytes > 0 && download_bytes < bytes) {
+            bytes = download_bytes;
+        }
+        byte[] content = new byte[(int)bytes];
+        ByteBuffer segment = this.segments[location.segment].duplicate();
+        segment.position(location.bodyOffset + (int)file_offset);
+        segment.get(content);
+        return content;
+    }
+
+    /**
+     * get the cached file content without copy, the DownloadBuffer must be closed after use
+     * @param file_id the file id(including group name and filename)
+     * @return the read-only slice of the mapped segment, return null if not cached
+     */
+    public synchronized DownloadBuffer pin(String file_id) {
+        Location location = this.lock == null ? null : this.index.get(file_id);
+        if (location == null) {
+            this.missCount++;
+            return null;
+        }
+
+        this.hitCount++;
+        ByteBuffer slice = this.segments[location.segment].duplicate();
+        slice.position(location.bodyOffset);
+        slice.limit(location.bodyOffset + location.bodyLength);
+        this.pins[location.segment]++;
+        return new DownloadBuffer(slice.slice().asReadOnlyBuffer(), this, location.segment);
+    }
+
+    synchronized void unpin(int segment) {
+        this.pins[segment]--;
+    }
+
+    /**
+     * @return the count of segments pinned by open DownloadBuffer slices
+     */
+    public synchronized int getPinnedSegmentCount() {
+        int count = 0;
+        for (int pin : this.pins) {
+            if (pin > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * put the file content into the cache
+     * @param file_id the file id(including group name and filename)
+     * @param content the whole file content
+     * @param offset the start offset of the content
+     * @param length the length of the content
+     * @return true if cached, false if the content is too large or the segment to recycle is pinned
+     */
+    public synchronized boolean put(String file_id, byte[] content, int offset, int length) {
+        if (this.lock == null) {
+            return false;
+        }
+
+        byte[] bsId = file_id.getBytes(ID_CHARSET);
+        int recordLength = RECORD_HEADER_SIZE + bsId.length + length;
+        if (recordLength > this.segmentSize - SEGMENT_HEADER_SIZE || bsId.length > Short.MAX_VALUE) {
+            return false;
+        }
+
+        this.removeLocation(file_id);
+        if (this.writePosition + recordLength > this.segmentSize) {
+            int next = (this.currentSegment + 1) % this.segments.length;
+            if (this.pins[next] > 0) {
+                return false;  //the slices of the segment are still read
+            }
+            long generation = this.generations[this.currentSegment] + 1;
+            this.startSegment(next, generation);
+        }
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(content, offset, length);
+
+        int position = this.writePosition;
+        ByteBuffer segment = this.segments[this.currentSegment].duplicate();
+        long generation = this.generations[this.currentSegment];
+        segment.position(position + RECORD_HEADER_SIZE);
+        segment.put(bsId);
+        segment.put(content, offset, length);
+        segment.putLong(position + 4, generation);
+        segment.putInt(position + 12, length);
+        segment.putInt(position + 16, (int)crc32.getValue());
+        segment.putShort(position + 20, (short)bsId.length);
+        segment.putInt(position, RECORD_MAGIC);  //the record is valid after the magic is written
+
+        int bodyOffset = position + RECORD_HEADER_SIZE + bsId.length;
+        this.index.put(file_id, new Location(this.currentSegment, position, bodyOffset, length, generation));
+        this.segmentKeys.get(this.currentSegment).add(file_id);
+        this.totalBytes += length;
+        this.writePosition = bodyOffset + length;
+        return true;
+    }
+
+    /**
+     * remove the file from the cache
+     * @param file_id the file id(including group name and filename)
+     */
+    public synchronized void remove(String file_id) {
+        this.removeLocation(file_id);
+    }
+
+    private void removeLocation(String file_id) {
+        if (this.lock == null) {
+            return;
+        }
+
+        Location location = this.index.remove(file_id);
+        if (location != null) {
+            //mark the record removed, so it is not recovered
+            this.segments[location.segment].putInt(location.recordOffset, 0);
+            this.totalBytes -= location.bodyLength;
+        }
+    }
+
+    /**
+     * flush the segments to disk
+     */
+    public synchronized void flush() {
+        if (this.lock == null) {
+            return;
+        }
+
+        for (MappedByteBuffer segment : this.segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * flush and unmap the segments and unlock the directory, the cache is empty after closed.
+     * the pinned segments are unmapped by GC after their slices are released
+     */
+    public synchronized void close() {
+        for (int i = 0; i < this.segments.length; i++) {
+            if (this.segments[i] != null) {
+                if (this.lock != null) {
+                    this.segments[i].force();
+                }
+                if (this.pins[i] == 0) {
+                    unmap(this.segments[i]);
+                }
+                this.segments[i] = null;
+            }
+        }
+        this.index.clear();
+        this.totalBytes = 0;
+
+        try {
+            if (this.lock != null) {
+                this.lock.release();
+            }
+            if (this.lockFile != null) {
+                this.lockFile.close();
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        this.lock = null;
+        this.lockFile = null;
+    }
+
+    /**
+     * release the mapping now instead of waiting for GC, which keeps the file open.
+     * there is no public API for it, use Unsafe.invokeCleaner on JDK 9 and later,
+     * and the cleaner of DirectBuffer before
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (Exception ex) {
+            //before JDK 9
+        }
+
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception ex) {
+            //unmapped by GC
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    public synchronized int getFileCount() {
+        return this.index.size();
+    }
+
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * to string
+     * @return string
+     */
+    public synchronized String toString() {
+        return "file_count = " + this.index.size() + ", " +
+            "total_bytes = " + this.totalBytes + ", " +
+            "hit_count = " + this.hitCount + ", " +
+            "miss_count = " + this.missCount + ", " +
+            "eviction_count = " + this.evictionCount;
+    }
+}
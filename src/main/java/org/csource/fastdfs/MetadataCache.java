@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.csource.common.NameValuePair;
+
+/**
+ * Bounded cache of file metadata keyed by file id.
+ * The cache is updated by set_metadata of this client with the same OVERWRITE or MERGE
+ * semantics as the storage server, changes by other clients are seen after the TTL expires.
+ * The least recently used entries are evicted when the cache is full.
+ */
+public class MetadataCache {
+    public static final int DEFAULT_TTL = 60;  //second
+
+    private static class Entry {
+        NameValuePair[] meta_list;
+        long expireTime;
+
+        Entry(NameValuePair[] meta_list, long expireTime) {
+            this.meta_list = meta_list;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttl;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Constructor
+     * @param maxEntries max files in the cache
+     * @param ttl time to live of the cached metadata in milliseconds
+     */
+    public MetadataCache(final int maxEntries, long ttl) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return this.size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * get the cached metadata
+     * @param file_id the file id(including group name and filename)
+     * @return a copy of the metadata, return null if not cached or expired
+     */
+    public synchronized NameValuePair[] get(String file_id) {
+        Entry entry = this.entries.get(file_id);
+        if (entry != null && entry.expireTime - System.currentTimeMillis() <= 0) {
+            this.entries.remove(file_id);
+            entry = null;
+        }
+
+        if (entry == null) {
+            this.missCount++;
+            return null;
+        }
+
+        this.hitCount++;
+        return copy(entry.meta_list);
+    }
+
+    /**
+     * put the whole metadata of the file
+     * @param file_id the file id(including group name and filename)
+     * @param meta_list the metadata
+     */
+    public synchronized void put(String file_id, NameValuePair[] meta_list) {
+        this.entries.put(file_id, new Entry(copy(meta_list), System.currentTimeMillis() + this.ttl));
+    }
+
+    /**
+     * apply the metadata set to the storage server,
+     * the file is removed from the cache when an item or its name or value is null,
+     * or when a name appears more than once in the set or in the merged metadata
+     * @param file_id the file id(including group name and filename)
+     * @param meta_list the metadata set
+     * @param op_flag ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE or ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE
+     */
+    public synchronized void update(String file_id, NameValuePair[] meta_list, byte op_flag) {
+        if (meta_list != null && hasNull(meta_list)) {
+            this.entries.remove(file_id);  //the storage server stores a null as "null", read it again
+            return;
+        }
+        if (meta_list != null && hasDuplicate(meta_list)) {
+            this.entries.remove(file_id);  //which duplicate the storage server keeps is not known
+            return;
+        }
+
+        if (op_flag == ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE) {
+            this.put(file_id, meta_list != null ? meta_list : new NameValuePair[0]);
+            return;
+        }
+
+        Entry entry = this.entries.get(file_id);
+        if (entry == null) {
+            return;  //the whole metadata is unknown
+        }
+        if (meta_list == null) {
+            return;
+        }
+        if (hasDuplicate(entry.meta_list)) {
+            this.entries.remove(file_id);
+            return;
+        }
+
+        ArrayList<NameValuePair> merged = new ArrayList<NameValuePair>(entry.meta_list.length + meta_list.length);
+        for (NameValuePair item : entry.meta_list) {
+            merged.add(item);
+        }
+        for (NameValuePair item : meta_list) {
+            int i;
+            for (i = 0; i < merged.size(); i++) {
+                if (merged.get(i).getName().equals(item.getName())) {
+                    break;
+                }
+            }
+
+            NameValuePair newItem = new NameValuePair(item.getName(), item.getValue());
+            if (i < merged.size()) {
+                merged.set(i, newItem);
+            } else {
+                merged.add(newItem);
+            }
+        }
+
+        entry.meta_list = merged.toArray(new NameValuePair[merged.size()]);
+    }
+
+    /**
+     * remove the file from the cache
+     * @param file_id the file id(including group name and filename)
+     */
+    public synchronized void remove(String file_id) {
+        this.entries.remove(file_id);
+    }
+
+    /**
+     * remove all files from the cache
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    public long getTtl() {
+        return this.ttl;
+    }
+
+    public synchronized int getFileCount() {
+        return this.entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    private static boolean hasNull(NameValuePair[] meta_list) {
+        for (NameValuePair item : meta_list) {
+            if (item == null || item.getName() == null || item.getValue() == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasDuplicate(NameValuePair[] meta_list) {
+        for (int i = 1; i < meta_list.length; i++) {
+            for (int k = 0; k < i; k++) {
+                if (meta_list[i].getName().equals(meta_list[k].getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static NameValuePair[] copy(NameValuePair[] meta_list) {
+        NameValuePair[] result = new NameValuePair[meta_list.length];
+        for (int i = 0; i < meta_list.length; i++) {
+            result[i] = new NameValuePair(meta_list[i].getName(), meta_list[i].getValue());
+        }
+        return result;
+    }
+
+    /**
+     * to string
+     * @return string
+     */
+    public synchronized String toString() {
+        return "file_count = " + this.entries.size() + ", " +
+            "hit_count = " + this.hitCount + ", " +
+            "miss_count = " + this.missCount;
+    }
+}
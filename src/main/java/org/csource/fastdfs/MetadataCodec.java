@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.csource.common.NameValuePair;
+
+/**
+ * Metadata codec working on the bytes of the protocol body.
+ * Records are seperated by \u0001 and the name and value by \u0002, the bytes are split
+ * directly when the charset encodes the seperators as single bytes, such as ISO8859-1, UTF-8 and GBK.
+ * The result is the same as ProtoCommon.split_metadata and ProtoCommon.pack_metadata.
+ */
+public class MetadataCodec {
+    private static final byte RECORD_SEPERATOR = 1;
+    private static final byte FIELD_SEPERATOR = 2;
+
+    private MetadataCodec() {
+    }
+
+    /**
+     * check if the seperators are single bytes in the charset
+     */
+    private static boolean isByteSeperated(Charset charset) {
+        byte[] bs = (ProtoCommon.FDFS_RECORD_SEPERATOR + ProtoCommon.FDFS_FIELD_SEPERATOR).getBytes(charset);
+        return bs.length == 2 && bs[0] == RECORD_SEPERATOR && bs[1] == FIELD_SEPERATOR;
+    }
+
+    /**
+     * decode the metadata body
+     * @param buff the body
+     * @param offset the start offset of the metadata
+     * @param length the length of the metadata
+     * @param charset the charset
+     * @return name value pair array
+     */
+    public static NameValuePair[] decode(byte[] buff, int offset, int length, Charset charset) {
+        final ArrayList<NameValuePair> items = new ArrayList<NameValuePair>();
+        visit(buff, offset, length, charset, new MetadataVisitor() {
+            public boolean visit(String name, String value) {
+                items.add(new NameValuePair(name, value));
+                return true;
+            }
+        });
+        return items.toArray(new NameValuePair[items.size()]);
+    }
+
+    /**
+     * visit the metadata items of the body in order
+     * @param buff the body
+     * @param offset the start offset of the metadata
+     * @param length the length of the metadata
+     * @param charset the charset
+     * @param visitor the visitor
+     */
+    public static void visit(byte[] buff, int offset, int length, Charset charset, MetadataVisitor visitor) {
+        if (!isByteSeperated(charset)) {
+            for (NameValuePair item : ProtoCommon.split_metadata(new String(buff, offset, length, charset))) {
+                if (!visitor.visit(item.getName(), item.getValue())) {
+                    return;
+                }
+            }
+            return;
+        }
+
+        //the same as String.split: trailing empty records are removed
+        int end = offset + length;
+        while (end > offset && buff[end - 1] == RECORD_SEPERATOR) {
+            end--;
+        }
+        if (end == offset) {
+            if (length == 0) {
+                visitor.visit("", null);  //"".split() returns one empty record
+            }
+            return;
+        }
+
+        int start = offset;
+        while (start <= end) {
+            int recordEnd = start;
+            int fieldPos = -1;
+            while (recordEnd < end && buff[recordEnd] != RECORD_SEPERATOR) {
+                if (fieldPos < 0 && buff[recordEnd] == FIELD_SEPERATOR) {
+                    fieldPos = recordEnd;
+                }
+                recordEnd++;
+            }
+
+            boolean next;
+            if (fieldPos < 0) {
+                next = visitor.visit(new String(buff, start, recordEnd - start, charset), null);
+            } else {
+                next = visitor.visit(new String(buff, start, fieldPos - start, charset),
+                    new String(buff, fieldPos + 1, recordEnd - fieldPos - 1, charset));
+            }
+            if (!next) {
+                return;
+            }
+
+            start = recordEnd + 1;
+        }
+    }
+
+    /**
+     * @param meta_list the metadata
+     * @param charset the charset
+     * @return the max bytes of the encoded metadata
+     */
+    public static int maxEncodedLength(NameValuePair[] meta_list, Charset charset) {
+        long chars = 0;
+        for (NameValuePair item : meta_list) {
+            chars += String.valueOf(item.getName()).length() + String.valueOf(item.getValue()).length() + 2;
+        }
+
+        long bytes = (long)Math.ceil(chars * (double)charset.newEncoder().maxBytesPerChar());
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("metadata too large: " + chars + " chars");
+        }
+        return (int)bytes;
+    }
+
+    /**
+     * encode the metadata to the buffer
+     * @param meta_list the metadata
+     * @param charset the charset
+     * @param dst the dest buffer, at least maxEncodedLength(meta_list, charset) bytes from offset
+     * @param offset the start offset of the dest
+     * @return the bytes written
+     */
+    public static int encode(NameValuePair[] meta_list, Charset charset, byte[] dst, int offset) {
+        if (!isByteSeperated(charset)) {
+            byte[] bs = ProtoCommon.pack_metadata(meta_list).getBytes(charset);
+            System.arraycopy(bs, 0, dst, offset, bs.length);
+            return bs.length;
+        }
+
+        //the same replacement as String.getBytes
+        CharsetEncoder encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer out = ByteBuffer.wrap(dst, offset, dst.length - offset);
+        for (int i = 0; i < meta_list.length; i++) {
+            if (i > 0) {
+                out.put(RECORD_SEPERATOR);
+            }
+            encodeString(encoder, String.valueOf(meta_list[i].getName()), out);
+            out.put(FIELD_SEPERATOR);
+            encodeString(encoder, String.valueOf(meta_list[i].getValue()), out);
+        }
+
+        return out.position() - offset;
+    }
+
+    /**
+     * encode the metadata
+     * @param meta_list the metadata
+     * @param charset the charset
+     * @return the encoded bytes
+     */
+    public static byte[] encode(NameValuePair[] meta_list, Charset charset) {
+        byte[] buff = new byte[maxEncodedLength(meta_list, charset)];
+        int len = encode(meta_list, charset, buff, 0);
+        return len == buff.length ? buff : Arrays.copyOf(buff, len);
+    }
+
+    private static void encodeString(CharsetEncoder encoder, String s, ByteBuffer out) {
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(s), out, true);
+        encoder.flush(out);
+    }
+}
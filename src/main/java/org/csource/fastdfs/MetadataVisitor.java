@@ -0,0 +1,22 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+/**
+ * Visit metadata items one by one without creating the NameValuePair array
+ */
+public interface MetadataVisitor {
+    /**
+     * called for each metadata item in order
+     * @param name the item name
+     * @param value the item value, null if the item has no field seperator
+     * @return true to continue, false to stop visiting
+     */
+    public boolean visit(String name, String value);
+}
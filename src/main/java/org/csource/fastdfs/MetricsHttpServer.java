@@ -0,0 +1,519 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.List;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.csource.common.BufferPool;
+
+/**
+ * Embedded HTTP endpoint exposing the client metrics and the cluster stats in the Prometheus
+ * text format at /metrics, using the HttpServer of the JDK.
+ * the client metrics are ClientMetrics, the download buffer pool and the caches of ClientGlobal.
+ * the cluster stats are sampled by StorageStatsSampler in a background thread,
+ * so the scrapes never query the tracker server.
+ * the endpoint has no authentication and shows the group names and the storage addresses,
+ * it listens on the loopback address unless another address is given explicitly.
+ * <pre>
+ * MetricsHttpServer server = new MetricsHttpServer(9100);
+ * server.start();
+ * ...
+ * server.close();
+ * </pre>
+ */
+public class MetricsHttpServer implements Closeable {
+    public static final int DEFAULT_CLUSTER_INTERVAL = 30;  //second
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long MB = 1024L * 1024L;
+
+    private final InetSocketAddress address;
+    private final ClientMetrics clientMetrics;
+    private final StorageStatsSampler sampler;
+    private final boolean ownSampler;
+    private HttpServer server;
+
+    /**
+     * listen on the loopback address, export ClientGlobal.g_client_metrics and the cluster stats of
+     * ClientGlobal.g_tracker_group every DEFAULT_CLUSTER_INTERVAL seconds
+     * @param port the listen port, 0 for any free port
+     */
+    public MetricsHttpServer(int port) {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), null, null, DEFAULT_CLUSTER_INTERVAL);
+    }
+
+    /**
+     * @param address the listen address, such as new InetSocketAddress(9100) to listen on all addresses
+     * @param clientMetrics the client metrics, null for ClientGlobal.g_client_metrics
+     * @param trackerGroup the tracker group to sample the cluster stats, null for ClientGlobal.g_tracker_group
+     * @param clusterInterval the interval of sampling the cluster stats in seconds, 0 for no cluster stats
+     */
+    public MetricsHttpServer(InetSocketAddress address, ClientMetrics clientMetrics,
+                             TrackerGroup trackerGroup, int clusterInterval) {
+        this.address = address;
+        this.clientMetrics = clientMetrics;
+        this.sampler = clusterInterval > 0 ? new StorageStatsSampler(trackerGroup, clusterInterval, 2) : null;
+        this.ownSampler = true;
+    }
+
+    /**
+     * export the cluster stats of the sampler shared with the application
+     * @param address the listen address
+     * @param clientMetrics the client metrics, null for ClientGlobal.g_client_metrics
+     * @param sampler the sampler started by the caller, null for no cluster stats
+     */
+    public MetricsHttpServer(InetSocketAddress address, ClientMetrics clientMetrics, StorageStatsSampler sampler) {
+        this.address = address;
+        this.clientMetrics = clientMetrics;
+        this.sampler = sampler;
+        this.ownSampler = false;
+    }
+
+    /**
+     * start listening and sampling the cluster stats
+     */
+    public synchronized void start() throws IOException {
+        if (this.server != null) {
+            return;
+        }
+
+        this.server = HttpServer.create(this.address, 0);
+        this.server.createContext("/metrics", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        this.server.start();
+
+        if (this.ownSampler && this.sampler != null) {
+            this.sampler.start();
+        }
+    }
+
+    /**
+     * stop listening and sampling
+     */
+    public synchronized void close() {
+        if (this.ownSampler && this.sampler != null) {
+            this.sampler.close();
+        }
+        if (this.server != null) {
+            this.server.stop(0);
+            this.server = null;
+        }
+    }
+
+    /**
+     * @return the bound address, such as the port chosen for port 0, null if not started
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return this.server == null ? null : this.server.getAddress();
+    }
+
+    /**
+     * query the cluster stats from the tracker server now
+     * @return true for success, false for fail or no cluster stats
+     */
+    public boolean sampleCluster() {
+        return this.sampler != null && this.sampler.sample();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = this.getMetricsText().getBytes(UTF8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the metrics in the Prometheus text format, can be served by the caller's own http server
+     */
+    public String getMetricsText() {
+        StringBuilder sb = new StringBuilder(16 * 1024);
+        PrometheusWriter writer = new PrometheusWriter(sb);
+        ClientMetrics metrics = this.clientMetrics != null ? this.clientMetrics : ClientGlobal.g_client_metrics;
+        if (metrics != null) {
+            writeClientMetrics(writer, metrics);
+        }
+        writePools(writer);
+        writeCaches(writer);
+        if (this.sampler != null && this.sampler.getLastSampleElapsed() > 0) {
+            writeCluster(writer, this.sampler);
+        }
+        return sb.toString();
+    }
+
+    private static void writeClientMetrics(PrometheusWriter writer, ClientMetrics metrics) {
+        writer.family("fastdfs_client_requests_total", "counter", "Requests sent to the tracker and storage servers.");
+        for (ClientMetrics.CommandMetrics command : metrics.getCommandMetrics()) {
+            writer.sample("fastdfs_client_requests_total", PrometheusWriter.labels("cmd", command.getCaption()),
+                command.getCount());
+        }
+
+        writer.family("fastdfs_client_request_errors_total", "counter", "Failed requests by error code.");
+        for (ClientMetrics.CommandMetrics command : metrics.getCommandMetrics()) {
+            for (long[] item : command.getErrorCounts()) {
+                writer.sample("fastdfs_client_request_errors_total",
+                    PrometheusWriter.labels("cmd", command.getCaption(), "errno", String.valueOf(item[0])), item[1]);
+            }
+        }
+
+        writer.family("fastdfs_client_request_bytes_total", "counter", "File and metadata bytes transferred.");
+        for (ClientMetrics.CommandMetrics command : metrics.getCommandMetrics()) {
+            writer.sample("fastdfs_client_request_bytes_total",
+                PrometheusWriter.labels("cmd", command.getCaption(), "direction", "out"), command.getBytesOut());
+            writer.sample("fastdfs_client_request_bytes_total",
+                PrometheusWriter.labels("cmd", command.getCaption(), "direction", "in"), command.getBytesIn());
+        }
+
+        writer.family("fastdfs_client_request_duration_seconds", "summary", "Request latency.");
+        for (ClientMetrics.CommandMetrics command : metrics.getCommandMetrics()) {
+            writer.summary("fastdfs_client_request_duration_seconds",
+                PrometheusWriter.labelPairs("cmd", command.getCaption()), command.getLatency());
+        }
+
+        writer.family("fastdfs_client_request_phase_duration_seconds", "summary",
+            "Request latency by phase: connection, request, wait and transfer.");
+        for (ClientMetrics.CommandMetrics command : metrics.getCommandMetrics()) {
+            for (int i = 0; i < ClientMetrics.PHASE_CAPTIONS.length; i++) {
+                writer.summary("fastdfs_client_request_phase_duration_seconds",
+                    PrometheusWriter.labelPairs("cmd", command.getCaption(), "phase", ClientMetrics.PHASE_CAPTIONS[i]),
+                    command.getPhaseLatency(i));
+            }
+        }
+
+        writer.family("fastdfs_client_server_requests_total", "counter", "Requests by server.");
+        for (ClientMetrics.ServerMetrics server : metrics.getServerMetrics()) {
+            writer.sample("fastdfs_client_server_requests_total", serverLabels(server), server.getCount());
+        }
+        writer.family("fastdfs_client_server_request_errors_total", "counter", "Failed requests by server.");
+        for (ClientMetrics.ServerMetrics server : metrics.getServerMetrics()) {
+            writer.sample("fastdfs_client_server_request_errors_total", serverLabels(server), server.getErrorCount());
+        }
+        writer.family("fastdfs_client_server_bytes_total", "counter", "File and metadata bytes by server.");
+        for (ClientMetrics.ServerMetrics server : metrics.getServerMetrics()) {
+            String name = serverName(server);
+            writer.sample("fastdfs_client_server_bytes_total",
+                PrometheusWriter.labels("server", name, "direction", "out"), server.getBytesOut());
+            writer.sample("fastdfs_client_server_bytes_total",
+                PrometheusWriter.labels("server", name, "direction", "in"), server.getBytesIn());
+        }
+        writer.family("fastdfs_client_server_request_duration_seconds", "summary", "Request latency by server.");
+        for (ClientMetrics.ServerMetrics server : metrics.getServerMetrics()) {
+            writer.summary("fastdfs_client_server_request_duration_seconds",
+                PrometheusWriter.labelPairs("server", serverName(server)), server.getLatency());
+        }
+        writer.family("fastdfs_client_connects_total", "counter", "Successful connects by server.");
+        for (ClientMetrics.ServerMetrics server : metrics.getServerMetrics()) {
+            writer.sample("fastdfs_client_connects_total", serverLabels(server), server.getConnectCount());
+        }
+        writer.family("fastdfs_client_connect_failures_total", "counter", "Failed connects by server.");
+        for (ClientMetrics.ServerMetrics server : metrics.getServerMetrics()) {
+            writer.sample("fastdfs_client_connect_failures_total", serverLabels(server), server.getConnectFailures());
+        }
+        writer.family("fastdfs_client_connect_duration_seconds", "summary", "Connect latency by server.");
+        for (ClientMetrics.ServerMetrics server : metrics.getServerMetrics()) {
+            writer.summary("fastdfs_client_connect_duration_seconds",
+                PrometheusWriter.labelPairs("server", serverName(server)), server.getConnectLatency());
+        }
+    }
+
+    private static void writePools(PrometheusWriter writer) {
+        BufferPool pool = ClientGlobal.getDownloadBufferPool();
+        writer.family("fastdfs_client_buffer_pool_idle", "gauge", "Idle download buffers in the pool.")
+            .sample("fastdfs_client_buffer_pool_idle", "", pool.getIdleCount());
+        writer.family("fastdfs_client_buffer_pool_max_idle", "gauge", "Max idle download buffers.")
+            .sample("fastdfs_client_buffer_pool_max_idle", "", pool.getMaxIdle());
+        writer.family("fastdfs_client_buffer_pool_allocations_total", "counter",
+            "Download buffers allocated because the pool was empty.")
+            .sample("fastdfs_client_buffer_pool_allocations_total", "", pool.getAllocateCount());
+        writer.family("fastdfs_client_coalesced_inflight", "gauge", "In-flight requests shared by the callers.")
+            .sample("fastdfs_client_coalesced_inflight", "", StorageClient.inflight.getInflightCount());
+    }
+
+    private static void writeCaches(PrometheusWriter writer) {
+        DownloadCache downloadCache = ClientGlobal.g_download_cache;
+        MappedFileCache diskCache = ClientGlobal.g_disk_cache;
+        MetadataCache metadataCache = ClientGlobal.g_metadata_cache;
+        NegativeCache negativeCache = ClientGlobal.g_negative_cache;
+        if (downloadCache == null && diskCache == null && metadataCache == null && negativeCache == null) {
+            return;
+        }
+
+        String download = PrometheusWriter.labels("cache", "download");
+        String disk = PrometheusWriter.labels("cache", "disk");
+        String metadata = PrometheusWriter.labels("cache", "metadata");
+        String negative = PrometheusWriter.labels("cache", "negative");
+
+        writer.family("fastdfs_client_cache_hits_total", "counter", "Cache hits.");
+        if (downloadCache != null) {
+            writer.sample("fastdfs_client_cache_hits_total", download, downloadCache.getHitCount());
+        }
+        if (diskCache != null) {
+            writer.sample("fastdfs_client_cache_hits_total", disk, diskCache.getHitCount());
+        }
+        if (metadataCache != null) {
+            writer.sample("fastdfs_client_cache_hits_total", metadata, metadataCache.getHitCount());
+        }
+        if (negativeCache != null) {
+            writer.sample("fastdfs_client_cache_hits_total", negative, negativeCache.getHitCount());
+        }
+
+        writer.family("fastdfs_client_cache_misses_total", "counter", "Cache misses.");
+        if (downloadCache != null) {
+            writer.sample("fastdfs_client_cache_misses_total", download, downloadCache.getMissCount());
+        }
+        if (diskCache != null) {
+            writer.sample("fastdfs_client_cache_misses_total", disk, diskCache.getMissCount());
+        }
+        if (metadataCache != null) {
+            writer.sample("fastdfs_client_cache_misses_total", metadata, metadataCache.getMissCount());
+        }
+        if (negativeCache != null) {
+            writer.sample("fastdfs_client_cache_misses_total", negative, negativeCache.getMissCount());
+        }
+
+        if (downloadCache != null || diskCache != null) {
+            writer.family("fastdfs_client_cache_evictions_total", "counter", "Files evicted from the cache.");
+            if (downloadCache != null) {
+                writer.sample("fastdfs_client_cache_evictions_total", download, downloadCache.getEvictionCount());
+            }
+            if (diskCache != null) {
+                writer.sample("fastdfs_client_cache_evictions_total", disk, diskCache.getEvictionCount());
+            }
+
+            writer.family("fastdfs_client_cache_bytes", "gauge", "Bytes of the cached files.");
+            if (downloadCache != null) {
+                writer.sample("fastdfs_client_cache_bytes", download, downloadCache.getTotalBytes());
+            }
+            if (diskCache != null) {
+                writer.sample("fastdfs_client_cache_bytes", disk, diskCache.getTotalBytes());
+            }
+        }
+
+        if (downloadCache != null || diskCache != null || metadataCache != null) {
+            writer.family("fastdfs_client_cache_files", "gauge", "Files in the cache.");
+            if (downloadCache != null) {
+                writer.sample("fastdfs_client_cache_files", download, downloadCache.getFileCount());
+            }
+            if (diskCache != null) {
+                writer.sample("fastdfs_client_cache_files", disk, diskCache.getFileCount());
+            }
+            if (metadataCache != null) {
+                writer.sample("fastdfs_client_cache_files", metadata, metadataCache.getFileCount());
+            }
+        }
+    }
+
+    private static void writeCluster(PrometheusWriter writer, StorageStatsSampler sampler) {
+        StructGroupStat[] groups = sampler.getGroups();
+        List<StorageStatsSampler.StorageSeries> storages = sampler.getSeries();
+        writer.family("fastdfs_cluster_sample_success", "gauge", "1 if the last cluster stats sample succeeded.")
+            .sample("fastdfs_cluster_sample_success", "", sampler.isLastSampleSuccess() ? 1 : 0);
+        writer.family("fastdfs_cluster_sample_timestamp_seconds", "gauge", "Time of the cluster stats.")
+            .sample("fastdfs_cluster_sample_timestamp_seconds", "", sampler.getLastSampleTime() / 1000.0);
+        writer.family("fastdfs_cluster_sample_duration_seconds", "gauge", "Time taken by the last sample.")
+            .sample("fastdfs_cluster_sample_duration_seconds", "", sampler.getLastSampleElapsed() / 1000000000.0);
+
+        writer.family("fastdfs_group_disk_total_bytes", "gauge", "Disk space of the group.");
+        for (StructGroupStat group : groups) {
+            writer.sample("fastdfs_group_disk_total_bytes", groupLabels(group), group.getTotalMB() * MB);
+        }
+        writer.family("fastdfs_group_disk_free_bytes", "gauge", "Free disk space of the group.");
+        for (StructGroupStat group : groups) {
+            writer.sample("fastdfs_group_disk_free_bytes", groupLabels(group), group.getFreeMB() * MB);
+        }
+        writer.family("fastdfs_group_trunk_free_bytes", "gauge", "Free trunk space of the group.");
+        for (StructGroupStat group : groups) {
+            writer.sample("fastdfs_group_trunk_free_bytes", groupLabels(group), group.getTrunkFreeMB() * MB);
+        }
+        writer.family("fastdfs_group_storages", "gauge", "Storage servers of the group.");
+        for (StructGroupStat group : groups) {
+            writer.sample("fastdfs_group_storages", groupLabels(group), group.getStorageCount());
+        }
+        writer.family("fastdfs_group_active_storages", "gauge", "Active storage servers of the group.");
+        for (StructGroupStat group : groups) {
+            writer.sample("fastdfs_group_active_storages", groupLabels(group), group.getActiveCount());
+        }
+
+        writer.family("fastdfs_storage_status", "gauge", "Status code of the storage server, 7 for ACTIVE.");
+        for (StorageStatsSampler.StorageSeries series : storages) {
+            StructStorageStat stat = series.getLastStat();
+            writer.sample("fastdfs_storage_status", PrometheusWriter.labels("group", series.getGroupName(),
+                "ip", stat.getIpAddr(), "status", statusLabel(stat.getStatus())),
+                stat.getStatus());
+        }
+        writer.family("fastdfs_storage_disk_total_bytes", "gauge", "Disk space of the storage server.");
+        for (StorageStatsSampler.StorageSeries series : storages) {
+            StructStorageStat stat = series.getLastStat();
+            writer.sample("fastdfs_storage_disk_total_bytes", storageLabels(series.getGroupName(), stat),
+                stat.getTotalMB() * MB);
+        }
+        writer.family("fastdfs_storage_disk_free_bytes", "gauge", "Free disk space of the storage server.");
+        for (StorageStatsSampler.StorageSeries series : storages) {
+            StructStorageStat stat = series.getLastStat();
+            writer.sample("fastdfs_storage_disk_free_bytes", storageLabels(series.getGroupName(), stat),
+                stat.getFreeMB() * MB);
+        }
+
+        writer.family("fastdfs_storage_operations_total", "counter", "Operations on the storage server.");
+        for (StorageStatsSampler.StorageSeries series : storages) {
+            StructStorageStat stat = series.getLastStat();
+            String group = series.getGroupName();
+            writeTotalSuccess(writer, "fastdfs_storage_operations_total", group, stat, "upload",
+                stat.getTotalUploadCount(), stat.getSuccessUploadCount());
+            writeTotalSuccess(writer, "fastdfs_storage_operations_total", group, stat, "append",
+                stat.getTotalAppendCount(), stat.getSuccessAppendCount());
+            writeTotalSuccess(writer, "fastdfs_storage_operations_total", group, stat, "modify",
+                stat.getTotalModifyCount(), stat.getSuccessModifyCount());
+            writeTotalSuccess(writer, "fastdfs_storage_operations_total", group, stat, "truncate",
+                stat.getTotalTruncateCount(), stat.getSuccessTruncateCount());
+            writeTotalSuccess(writer, "fastdfs_storage_operations_total", group, stat, "set_meta",
+                stat.getTotalSetMetaCount(), stat.getSuccessSetMetaCount());
+            writeTotalSuccess(writer, "fastdfs_storage_operations_total", group, stat, "delete",
+                stat.getTotalDeleteCount(), stat.getSuccessDeleteCount());
+            writeTotalSuccess(writer, "fastdfs_storage_operations_total", group, stat, "download",
+                stat.getTotalDownloadCount(), stat.getSuccessDownloadCount());
+            writeTotalSuccess(writer, "fastdfs_storage_operations_total", group, stat, "get_meta",
+                stat.getTotalGetMetaCount(), stat.getSuccessGetMetaCount());
+            writeTotalSuccess(writer, "fastdfs_storage_operations_total", group, stat, "create_link",
+                stat.getTotalCreateLinkCount(), stat.getSuccessCreateLinkCount());
+            writeTotalSuccess(writer, "fastdfs_storage_operations_total", group, stat, "delete_link",
+                stat.getTotalDeleteLinkCount(), stat.getSuccessDeleteLinkCount());
+        }
+
+        writer.family("fastdfs_storage_bytes_total", "counter", "Bytes transferred by the storage server.");
+        for (StorageStatsSampler.StorageSeries series : storages) {
+            StructStorageStat stat = series.getLastStat();
+            String group = series.getGroupName();
+            writeTotalSuccess(writer, "fastdfs_storage_bytes_total", group, stat, "upload",
+                stat.getTotalUploadBytes(), stat.getSuccessUploadBytes());
+            writeTotalSuccess(writer, "fastdfs_storage_bytes_total", group, stat, "append",
+                stat.getTotalAppendBytes(), stat.getSuccessAppendBytes());
+            writeTotalSuccess(writer, "fastdfs_storage_bytes_total", group, stat, "modify",
+                stat.getTotalModifyBytes(), stat.getSuccessModifyBytes());
+            writeTotalSuccess(writer, "fastdfs_storage_bytes_total", group, stat, "download",
+                stat.getTotalDownloadloadBytes(), stat.getSuccessDownloadloadBytes());
+            writeTotalSuccess(writer, "fastdfs_storage_bytes_total", group, stat, "sync_in",
+                stat.getTotalSyncInBytes(), stat.getSuccessSyncInBytes());
+            writeTotalSuccess(writer, "fastdfs_storage_bytes_total", group, stat, "sync_out",
+                stat.getTotalSyncOutBytes(), stat.getSuccessSyncOutBytes());
+        }
+
+        writer.family("fastdfs_storage_file_operations_total", "counter", "File operations on the storage disks.");
+        for (StorageStatsSampler.StorageSeries series : storages) {
+            StructStorageStat stat = series.getLastStat();
+            String group = series.getGroupName();
+            writeTotalSuccess(writer, "fastdfs_storage_file_operations_total", group, stat, "open",
+                stat.getTotalFileOpenCount(), stat.getSuccessFileOpenCount());
+            writeTotalSuccess(writer, "fastdfs_storage_file_operations_total", group, stat, "read",
+                stat.getTotalFileReadCount(), stat.getSuccessFileReadCount());
+            writeTotalSuccess(writer, "fastdfs_storage_file_operations_total", group, stat, "write",
+                stat.getTotalFileWriteCount(), stat.getSuccessFileWriteCount());
+        }
+
+        writer.family("fastdfs_storage_connections", "gauge", "Connections of the storage server.");
+        for (StorageStatsSampler.StorageSeries series : storages) {
+            StructStorageStat stat = series.getLastStat();
+            String group = series.getGroupName();
+            writer.sample("fastdfs_storage_connections", PrometheusWriter.labels("group", group,
+                "ip", stat.getIpAddr(), "state", "current"), stat.getConnectionCurrentCount());
+            writer.sample("fastdfs_storage_connections", PrometheusWriter.labels("group", group,
+                "ip", stat.getIpAddr(), "state", "alloc"), stat.getConnectionAllocCount());
+            writer.sample("fastdfs_storage_connections", PrometheusWriter.labels("group", group,
+                "ip", stat.getIpAddr(), "state", "max"), stat.getConnectionMaxCount());
+        }
+
+        writer.family("fastdfs_storage_last_heartbeat_timestamp_seconds", "gauge",
+            "Last heart beat time of the storage server.");
+        for (StorageStatsSampler.StorageSeries series : storages) {
+            StructStorageStat stat = series.getLastStat();
+            writer.sample("fastdfs_storage_last_heartbeat_timestamp_seconds",
+                storageLabels(series.getGroupName(), stat), seconds(stat.getLastHeartBeatTime()));
+        }
+        writer.family("fastdfs_storage_last_synced_timestamp_seconds", "gauge",
+            "Time of the last file synced to the storage server.");
+        for (StorageStatsSampler.StorageSeries series : storages) {
+            StructStorageStat stat = series.getLastStat();
+            writer.sample("fastdfs_storage_last_synced_timestamp_seconds",
+                storageLabels(series.getGroupName(), stat), seconds(stat.getLastSyncedTimestamp()));
+        }
+        writer.family("fastdfs_storage_sync_lag_seconds", "gauge",
+            "Seconds from the last file synced to the sample time, -1 for never synced.");
+        for (StorageStatsSampler.StorageSeries series : storages) {
+            writer.sample("fastdfs_storage_sync_lag_seconds",
+                storageLabels(series.getGroupName(), series.getLastStat()), series.getSyncLag());
+        }
+    }
+
+    private static void writeTotalSuccess(PrometheusWriter writer, String name, String group,
+                                          StructStorageStat stat, String op, long total, long success) {
+        writer.sample(name, PrometheusWriter.labels("group", group, "ip", stat.getIpAddr(),
+            "op", op, "result", "total"), total);
+        writer.sample(name, PrometheusWriter.labels("group", group, "ip", stat.getIpAddr(),
+            "op", op, "result", "success"), success);
+    }
+
+    private static long seconds(Date date) {
+        return date == null ? 0 : date.getTime() / 1000;
+    }
+
+    /**
+     * the caption of ProtoCommon.getStorageStatusCaption, spelled UNKNOWN for an unknown status
+     */
+    private static String statusLabel(byte status) {
+        String caption = ProtoCommon.getStorageStatusCaption(status);
+        return "UNKOWN".equals(caption) ? "UNKNOWN" : caption;
+    }
+
+    private static String serverName(ClientMetrics.ServerMetrics server) {
+        return server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    private static String serverLabels(ClientMetrics.ServerMetrics server) {
+        return PrometheusWriter.labels("server", serverName(server));
+    }
+
+    private static String groupLabels(StructGroupStat group) {
+        return PrometheusWriter.labels("group", group.getGroupName());
+    }
+
+    private static String storageLabels(String group, StructStorageStat stat) {
+        return PrometheusWriter.labels("group", group, "ip", stat.getIpAddr());
+    }
+}
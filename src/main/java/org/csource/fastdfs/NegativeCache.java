@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short time cache of file ids which not exist (ERR_NO_ENOENT), so repeated lookups
+ * of missing files are answered without network round trip.
+ * The file ids are recorded by download and query_file_info only, get_metadata returns
+ * ERR_NO_ENOENT also for an existing file without metadata.
+ * <p>
+ * In the exact mode the file ids are kept in a bounded map, the oldest are evicted when full.
+ * In the filter mode two rotating bloom filters are used, the memory is fixed to about
+ * 1.2 bytes per expected file id at 1% false positive rate, but a small part of existing
+ * files may be reported missing until the filter rotates, and remove() has no effect:
+ * a file id cached as missing keeps returning ERR_NO_ENOENT for up to the TTL, even after
+ * the file is uploaded, such as a slave file queried before it was uploaded.
+ * Use the exact mode when the files are looked up before they are created.
+ */
+public class NegativeCache {
+    public static final int DEFAULT_TTL = 10;  //second
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private final long ttl;
+    private final int maxEntries;
+
+    //exact mode, file id to expire time
+    private final LinkedHashMap<String, Long> entries;
+
+    //filter mode, the previous and the current generation
+    private long[] currentFilter;
+    private long[] previousFilter;
+    private final int filterBits;
+    private final int hashCount;
+    private int currentCount;
+    private long currentStartTime;
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Constructor of the exact mode
+     * @param maxEntries max file ids in the cache
+     * @param ttl time to live in milliseconds
+     */
+    public NegativeCache(int maxEntries, long ttl) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String, Long>(64, 0.75f, false);
+        this.filterBits = 0;
+        this.hashCount = 0;
+    }
+
+    /**
+     * Constructor of the filter mode
+     * @param expectedEntries expected file ids in a TTL
+     * @param falsePositiveRate the false positive rate, such as 0.01
+     * @param ttl time to live in milliseconds
+     */
+    public NegativeCache(int expectedEntries, double falsePositiveRate, long ttl) {
+        this.maxEntries = expectedEntries;
+        this.ttl = ttl;
+        this.entries = null;
+
+        double ln2 = Math.log(2);
+        long bits = (long)Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (ln2 * ln2));
+        if (bits < 64) {
+            bits = 64;
+        }
+        if (bits > Integer.MAX_VALUE - 63) {
+            bits = Integer.MAX_VALUE - 63;
+        }
+        this.filterBits = (int)bits;
+        this.hashCount = Math.max(1, (int)Math.round((double)bits / expectedEntries * ln2));
+        this.currentFilter = new long[(this.filterBits + 63) / 64];
+        this.previousFilter = new long[this.currentFilter.length];
+        this.currentStartTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return true for the filter mode
+     */
+    public boolean isFilterMode() {
+        return this.entries == null;
+    }
+
+    /**
+     * check if the file is known missing
+     * @param file_id the file id(including group name and filename)
+     * @return true if the file returned ERR_NO_ENOENT within the TTL
+     */
+    public synchronized boolean contains(String file_id) {
+        long now = System.currentTimeMillis();
+        boolean found;
+        if (this.entries == null) {
+            this.rotate(now);
+            long hash = hash64(file_id);
+            found = this.test(this.currentFilter, hash) || this.test(this.previousFilter, hash);
+        } else {
+            Long expireTime = this.entries.get(file_id);
+            if (expireTime != null && expireTime.longValue() - now <= 0) {
+                this.entries.remove(file_id);
+                expireTime = null;
+            }
+            found = expireTime != null;
+        }
+
+        if (found) {
+            this.hitCount++;
+        } else {
+            this.missCount++;
+        }
+        return found;
+    }
+
+    /**
+     * record the file as missing
+     * @param file_id the file id(including group name and filename)
+     */
+    public synchronized void put(String file_id) {
+        long now = System.currentTimeMillis();
+        if (this.entries == null) {
+            this.rotate(now);
+            if (this.currentCount >= this.maxEntries) {
+                this.swapFilters(now);  //keep the false positive rate
+            }
+            this.set(this.currentFilter, hash64(file_id));
+            this.currentCount++;
+            return;
+        }
+
+        this.entries.remove(file_id);
+        this.entries.put(file_id, Long.valueOf(now + this.ttl));
+
+        Iterator<Map.Entry<String, Long>> it = this.entries.entrySet().iterator();
+        while (this.entries.size() > this.maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * remove the file, such as after it is uploaded.
+     * no effect in the filter mode, the file stays missing until its generation expires within the TTL
+     * @param file_id the file id(including group name and filename)
+     */
+    public synchronized void remove(String file_id) {
+        if (this.entries != null) {
+            this.entries.remove(file_id);
+        }
+    }
+
+    /**
+     * remove all file ids
+     */
+    public synchronized void clear() {
+        if (this.entries != null) {
+            this.entries.clear();
+        } else {
+            Arrays.fill(this.currentFilter, 0);
+            Arrays.fill(this.previousFilter, 0);
+            this.currentCount = 0;
+        }
+    }
+
+    public long getTtl() {
+        return this.ttl;
+    }
+
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * each generation lives between TTL/2 and TTL, the generations start at every TTL/2
+     * from the start time of the current one, not at the first call after it,
+     * so the file ids never stay longer than the TTL when the calls are sparse
+     */
+    private void rotate(long now) {
+        if (now - this.currentStartTime >= this.ttl) {
+            Arrays.fill(this.previousFilter, 0);
+            Arrays.fill(this.currentFilter, 0);
+            this.currentCount = 0;
+            this.currentStartTime = now;
+        } else if (now - this.currentStartTime >= this.ttl / 2) {
+            this.swapFilters(this.currentStartTime + this.ttl / 2);
+        }
+    }
+
+    private void swapFilters(long startTime) {
+        long[] filter = this.previousFilter;
+        Arrays.fill(filter, 0);
+        this.previousFilter = this.currentFilter;
+        this.currentFilter = filter;
+        this.currentCount = 0;
+        this.currentStartTime = startTime;
+    }
+
+    private void set(long[] filter, long hash) {
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for (int i = 0; i < this.hashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % this.filterBits;
+            filter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean test(long[] filter, long hash) {
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for (int i = 0; i < this.hashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % this.filterBits;
+            if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64 bits FNV-1a hash of the chars
+     */
+    private static long hash64(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * to string
+     * @return string
+     */
+    public synchronized String toString() {
+        return "mode = " + (this.entries == null ? "filter" : "exact") + ", " +
+            "hit_count = " + this.hitCount + ", " +
+            "miss_count = " + this.missCount;
+    }
+}
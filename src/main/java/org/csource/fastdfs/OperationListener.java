@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+/**
+ * Listen to the requests sent to the storage servers by StorageClient, such as for tracing or metrics.
+ * requests answered by the client caches are not reported.
+ * the listener is called in the calling thread after each request, it should be fast and thread safe
+ */
+public interface OperationListener {
+    /**
+     * called after a request to the storage server completed or failed
+     * @param cmd the command, such as ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE
+     * @param group_name the group name
+     * @param remote_filename the filename on the storage server, the new filename for uploads, null if upload fail
+     * @param file_offset the file offset of download and modify, the truncated size of truncate, 0 for others
+     * @param request_bytes the file bytes sent, such as the file size of upload
+     * @param response_bytes the file bytes received, such as the downloaded bytes
+     * @param elapsed_nanos the elapsed time in nanoseconds, including getting the storage server from tracker
+     * @param errno 0 for success, ProtoCommon.ERR_NO_EIO when an IOException was thrown
+     */
+    public void operationCompleted(byte cmd, String group_name, String remote_filename, long file_offset,
+                                   long request_bytes, long response_bytes, long elapsed_nanos, int errno);
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import org.csource.common.LatencyHistogram;
+
+/**
+ * write metrics in the Prometheus text exposition format 0.0.4
+ */
+class PrometheusWriter {
+    static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final StringBuilder out;
+
+    PrometheusWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    /**
+     * write the HELP and TYPE lines, the samples of the metric must follow
+     * @param type counter, gauge or summary
+     */
+    PrometheusWriter family(String name, String type, String help) {
+        this.out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        this.out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * @param labels the labels from labels(), can be empty
+     */
+    PrometheusWriter sample(String name, String labels, long value) {
+        this.out.append(name).append(labels).append(' ').append(value).append('\n');
+        return this;
+    }
+
+    PrometheusWriter sample(String name, String labels, double value) {
+        this.out.append(name).append(labels).append(' ');
+        if (Double.isNaN(value)) {
+            this.out.append("NaN");
+        } else if (value == (long)value) {
+            this.out.append((long)value);
+        } else {
+            this.out.append(value);
+        }
+        this.out.append('\n');
+        return this;
+    }
+
+    /**
+     * write the quantiles, the sum and the count of the histogram in seconds
+     * @param labels the labels without braces from labelPairs(), can be empty
+     */
+    PrometheusWriter summary(String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.length() == 0 ? "{" : "{" + labels + ",";
+        for (double quantile : QUANTILES) {
+            long value = histogram.getValueAtPercentile(quantile * 100);
+            this.sample(name, prefix + "quantile=\"" + quantile + "\"}", value / 1000000.0);
+        }
+        String braces = labels.length() == 0 ? "" : "{" + labels + "}";
+        this.sample(name + "_sum", braces, histogram.getTotalValue() / 1000000.0);
+        this.sample(name + "_count", braces, histogram.getTotalCount());
+        return this;
+    }
+
+    /**
+     * @param pairs the label names and values, such as "cmd", "UPLOAD_FILE"
+     * @return the labels in braces, such as {cmd="UPLOAD_FILE"}
+     */
+    static String labels(String... pairs) {
+        return "{" + labelPairs(pairs) + "}";
+    }
+
+    /**
+     * @return the labels without braces, such as cmd="UPLOAD_FILE"
+     */
+    static String labelPairs(String... pairs) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < pairs.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(pairs[i]).append("=\"");
+            String value = pairs[i + 1] == null ? "" : pairs[i + 1];
+            for (int k = 0; k < value.length(); k++) {
+                char c = value.charAt(k);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+}
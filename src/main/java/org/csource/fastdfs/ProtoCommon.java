@@ -10,9 +10,13 @@ package org.csource.fastdfs;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 import java.net.Socket;
 
 import org.csource.common.MyException;
@@ -37,6 +41,18 @@ public class ProtoCommon {
         }
     }
 
+    /**
+     * the padded group names of one charset, replaced as a whole when the charset changes
+     */
+    private static class GroupNameCache {
+        final Charset charset;
+        final ConcurrentHashMap<String, byte[]> map = new ConcurrentHashMap<String, byte[]>();
+
+        GroupNameCache(Charset charset) {
+            this.charset = charset;
+        }
+    }
+
     /**
      * receive header info
      */
@@ -114,6 +130,13 @@ public class ProtoCommon {
     public static final int TRACKER_QUERY_STORAGE_STORE_BODY_LEN = FDFS_GROUP_NAME_MAX_LEN
         + FDFS_IPADDR_SIZE + FDFS_PROTO_PKG_LEN_SIZE;
 
+    /**
+     * chunk size to transfer between socket streams and direct ByteBuffer
+     */
+    public static final int BYTE_BUFFER_CHUNK_SIZE = 64 * 1024;
+    private static final int GROUP_NAME_CACHE_MAX_SIZE = 256;
+    private static volatile GroupNameCache groupNameCache = new GroupNameCache(null);
+
     protected static final int PROTO_HEADER_CMD_INDEX = FDFS_PROTO_PKG_LEN_SIZE;
     protected static final int PROTO_HEADER_STATUS_INDEX = FDFS_PROTO_PKG_LEN_SIZE + 1;
 
@@ -166,6 +189,67 @@ public class ProtoCommon {
         }
     }
 
+    public static String getStorageCommandCaption(byte cmd) {
+        switch (cmd) {
+            case STORAGE_PROTO_CMD_UPLOAD_FILE:
+                return "UPLOAD_FILE";
+            case STORAGE_PROTO_CMD_DELETE_FILE:
+                return "DELETE_FILE";
+            case STORAGE_PROTO_CMD_SET_METADATA:
+                return "SET_METADATA";
+            case STORAGE_PROTO_CMD_DOWNLOAD_FILE:
+                return "DOWNLOAD_FILE";
+            case STORAGE_PROTO_CMD_GET_METADATA:
+                return "GET_METADATA";
+            case STORAGE_PROTO_CMD_UPLOAD_SLAVE_FILE:
+                return "UPLOAD_SLAVE_FILE";
+            case STORAGE_PROTO_CMD_QUERY_FILE_INFO:
+                return "QUERY_FILE_INFO";
+            case STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE:
+                return "UPLOAD_APPENDER_FILE";
+            case STORAGE_PROTO_CMD_APPEND_FILE:
+                return "APPEND_FILE";
+            case STORAGE_PROTO_CMD_MODIFY_FILE:
+                return "MODIFY_FILE";
+            case STORAGE_PROTO_CMD_TRUNCATE_FILE:
+                return "TRUNCATE_FILE";
+            default:
+                return "UNKNOWN";
+        }
+    }
+
+    /**
+     * get the caption of the tracker or storage command
+     * @param cmd the command, such as TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ONE
+     * @return the caption, such as QUERY_FETCH_ONE
+     */
+    public static String getCommandCaption(byte cmd) {
+        switch (cmd) {
+            case TRACKER_PROTO_CMD_SERVER_LIST_GROUP:
+                return "LIST_GROUP";
+            case TRACKER_PROTO_CMD_SERVER_LIST_STORAGE:
+                return "LIST_STORAGE";
+            case TRACKER_PROTO_CMD_SERVER_DELETE_STORAGE:
+                return "DELETE_STORAGE";
+            case TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ONE:
+                return "QUERY_STORE_WITHOUT_GROUP_ONE";
+            case TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ONE:
+                return "QUERY_FETCH_ONE";
+            case TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE:
+                return "QUERY_UPDATE";
+            case TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE:
+                return "QUERY_STORE_WITH_GROUP_ONE";
+            case TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ALL:
+                return "QUERY_FETCH_ALL";
+            case TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ALL:
+                return "QUERY_STORE_WITHOUT_GROUP_ALL";
+            case TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL:
+                return "QUERY_STORE_WITH_GROUP_ALL";
+            default:
+                return getStorageCommandCaption(cmd);
+        }
+    }
+
     /**
      * pack header by FastDFS transfer protocol
      * @param cmd which command to send
@@ -198,15 +282,14 @@ public class ProtoCommon {
      */
     public static RecvHeaderInfo recvHeader(InputStream in, byte expect_cmd, long expect_body_len) throws IOException {
         byte[] header;
-        int bytes;
         long pkg_len;
         //十个字节长度的数组
         header = new byte[FDFS_PROTO_PKG_LEN_SIZE + 2];
         //读取十个字节数组长度的内容
-        //如果读取到的长度不到十个字节数组的长度，说明数据不完整 传送错误
-        if ((bytes = in.read(header)) != header.length) {
-            throw new IOException("recv package size " + bytes + " != " + header.length);
-        }
+        //header可能分多次到达，读满十个字节，连接关闭则数据不完整 传送错误
+        RequestTiming.headerWait();
+        recvFully(in, header, header.length);
+        RequestTiming.headerReceived();
         //header中下标为8的值
         if (header[PROTO_HEADER_CMD_INDEX] != expect_cmd) {
             throw new IOException(
@@ -267,6 +350,100 @@ public class ProtoCommon {
         return new RecvPackageInfo((byte)0, body);
     }
 
+    /**
+     * receive exactly len bytes, coalesce short socket reads
+     * @param in input stream
+     * @param buff the buffer to fill from index 0
+     * @param len the bytes to receive
+     */
+    public static void recvFully(InputStream in, byte[] buff, int len) throws IOException {
+        int totalBytes = 0;
+        int bytes;
+
+        while (totalBytes < len) {
+            if ((bytes = in.read(buff, totalBytes, len - totalBytes)) < 0) {
+                throw new IOException("recv package size " + totalBytes + " != " + len);
+            }
+
+            totalBytes += bytes;
+        }
+    }
+
+    /**
+     * receive package body to the buffer, the position of the buffer is advanced as the bytes
+     * arrive, so it shows the received bytes if an exception is thrown
+     * @param in input stream
+     * @param body_len the body length from the header, must not exceed target.remaining()
+     * @param target the buffer to fill, heap or direct
+     */
+    public static void recvBody(InputStream in, long body_len, ByteBuffer target) throws IOException {
+        long remainBytes = body_len;
+        int bytes;
+
+        if (target.hasArray()) {
+            byte[] buff = target.array();
+            while (remainBytes > 0) {
+                if ((bytes = in.read(buff, target.arrayOffset() + target.position(), (int)remainBytes)) < 0) {
+                    throw new IOException("recv package size " + (body_len - remainBytes) + " != " + body_len);
+                }
+
+                target.position(target.position() + bytes);
+                remainBytes -= bytes;
+            }
+            return;
+        }
+
+        byte[] chunk = new byte[body_len > BYTE_BUFFER_CHUNK_SIZE ? BYTE_BUFFER_CHUNK_SIZE : (int)body_len];
+        while (remainBytes > 0) {
+            if ((bytes = in.read(chunk, 0, remainBytes > chunk.length ? chunk.length : (int)remainBytes)) < 0) {
+                throw new IOException("recv package size " + (body_len - remainBytes) + " != " + body_len);
+            }
+
+            target.put(chunk, 0, bytes);
+            remainBytes -= bytes;
+        }
+    }
+
+    /**
+     * receive and discard package body, keep the connection in sync
+     * @param in input stream
+     * @param body_len the body length from the header
+     */
+    public static void skipBody(InputStream in, long body_len) throws IOException {
+        byte[] chunk = new byte[body_len > BYTE_BUFFER_CHUNK_SIZE ? BYTE_BUFFER_CHUNK_SIZE : (int)body_len];
+        long remainBytes = body_len;
+        int bytes;
+
+        while (remainBytes > 0) {
+            if ((bytes = in.read(chunk, 0, remainBytes > chunk.length ? chunk.length : (int)remainBytes)) < 0) {
+                throw new IOException("recv package size " + (body_len - remainBytes) + " != " + body_len);
+            }
+
+            remainBytes -= bytes;
+        }
+    }
+
+    /**
+     * write the remaining bytes of the buffer to output stream, the position of the buffer is advanced
+     * @param out output stream
+     * @param buff the buffer, heap or direct
+     */
+    public static void writeByteBuffer(OutputStream out, ByteBuffer buff) throws IOException {
+        if (buff.hasArray()) {
+            out.write(buff.array(), buff.arrayOffset() + buff.position(), buff.remaining());
+            buff.position(buff.limit());
+            return;
+        }
+
+        byte[] chunk = new byte[buff.remaining() > BYTE_BUFFER_CHUNK_SIZE ? BYTE_BUFFER_CHUNK_SIZE : buff.remaining()];
+        int bytes;
+        while (buff.hasRemaining()) {
+            bytes = buff.remaining() > chunk.length ? chunk.length : buff.remaining();
+            buff.get(chunk, 0, bytes);
+            out.write(chunk, 0, bytes);
+        }
+    }
+
     /**
      * split metadata to name value pair array
      * @param meta_buff metadata
@@ -322,6 +499,35 @@ public class ProtoCommon {
         return sb.toString();
     }
 
+    /**
+     * get the group name bytes padded with 0 to FDFS_GROUP_NAME_MAX_LEN in ClientGlobal.g_charset,
+     * the arrays are cached since there are only a few groups
+     * @param group_name the group name
+     * @return the padded bytes, shared by callers in this package and must not be modified
+     */
+    static byte[] getGroupNameBytes(String group_name) throws UnsupportedEncodingException {
+        Charset charset = ClientGlobal.getCharset();
+        GroupNameCache cache = groupNameCache;
+        if (cache.charset != charset) {
+            cache = new GroupNameCache(charset);
+            groupNameCache = cache;
+        }
+
+        byte[] groupBytes = cache.map.get(group_name);
+        if (groupBytes != null) {
+            return groupBytes;
+        }
+
+        byte[] bs = group_name.getBytes(charset);
+        groupBytes = new byte[FDFS_GROUP_NAME_MAX_LEN];
+        System.arraycopy(bs, 0, groupBytes, 0, bs.length <= groupBytes.length ? bs.length : groupBytes.length);
+        if (cache.map.size() >= GROUP_NAME_CACHE_MAX_SIZE) {
+            cache.map.clear();  //not expected, keep the cache bounded
+        }
+        cache.map.put(group_name, groupBytes);
+        return groupBytes;
+    }
+
     /**
      * send quit command to server and close socket
      * @param sock the Socket object
@@ -452,9 +658,9 @@ public class ProtoCommon {
      */
     public static String getToken(String remote_filename, int ts, String secret_key)
         throws UnsupportedEncodingException, NoSuchAlgorithmException, MyException {
-        byte[] bsFilename = remote_filename.getBytes(ClientGlobal.g_charset);
-        byte[] bsKey = secret_key.getBytes(ClientGlobal.g_charset);
-        byte[] bsTimestamp = (new Integer(ts)).toString().getBytes(ClientGlobal.g_charset);
+        byte[] bsFilename = remote_filename.getBytes(ClientGlobal.getCharset());
+        byte[] bsKey = secret_key.getBytes(ClientGlobal.getCharset());
+        byte[] bsTimestamp = (new Integer(ts)).toString().getBytes(ClientGlobal.getCharset());
 
         byte[] buff = new byte[bsFilename.length + bsKey.length + bsTimestamp.length];
         System.arraycopy(bsFilename, 0, buff, 0, bsFilename.length);
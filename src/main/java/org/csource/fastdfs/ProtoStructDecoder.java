@@ -18,6 +18,16 @@ import java.lang.reflect.Array;
 */
 public class ProtoStructDecoder<T extends StructBase>
 {	
+/**
+* create the struct objects without reflection
+*/
+	public interface Factory<T extends StructBase>
+	{
+		public T newInstance();
+		
+		public T[] newArray(int count);
+	}
+	
 /**
 * Constructor
 */
@@ -47,6 +57,32 @@ public class ProtoStructDecoder<T extends StructBase>
 			offset += fieldsTotalSize;
 		}
 		
+		return results;
+	}
+	
+/**
+* decode byte buffer with the factory
+* @param bs byte buffer, the records of lazy structs such as StructStorageStatView keep a reference of it
+* @param factory the struct factory
+* @param fieldsTotalSize the bytes of one record
+* @return the struct array
+*/
+	public T[] decode(byte[] bs, Factory<T> factory, int fieldsTotalSize) throws IOException
+	{
+		if (bs.length % fieldsTotalSize != 0)
+		{
+			throw new IOException("byte array length: " + bs.length + " is invalid!");
+		}
+		
+		T[] results = factory.newArray(bs.length / fieldsTotalSize);
+		int offset = 0;
+		for (int i=0; i<results.length; i++)
+		{
+			results[i] = factory.newInstance();
+			results[i].setFields(bs, offset);
+			offset += fieldsTotalSize;
+		}
+		
 		return results;
 	}
 }
@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.csource.common.MyException;
+
+/**
+ * Read only random access channel over a file on storage server.
+ * The storage server is queried from the tracker once and the connection is kept
+ * until the channel is closed. The file is read in fixed size blocks cached in a LRU,
+ * sequential reads prefetch the following blocks in the same download request.
+ * This class is not thread safe.
+ */
+public class RemoteFileChannel implements SeekableByteChannel {
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    public static final int DEFAULT_CACHE_BLOCKS = 64;
+    public static final int DEFAULT_PREFETCH_BLOCKS = 4;
+
+    private StorageClient client;
+    private String group_name;
+    private String remote_filename;
+    private long fileSize;
+    private long position;
+    private int blockSize;
+    private int prefetchBlocks;
+    private BlockCache cache;
+    private long lastBlockIndex = -2;
+    private boolean open;
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * LRU of file blocks, evicted arrays are reused for new blocks
+     */
+    private static class BlockCache extends LinkedHashMap<Long, byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        private int maxBlocks;
+        private ArrayList<byte[]> freeBlocks = new ArrayList<byte[]>();
+
+        public BlockCache(int maxBlocks) {
+            super(16, 0.75f, true);
+            this.maxBlocks = maxBlocks;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            if (this.size() > this.maxBlocks) {
+                this.freeBlocks.add(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+
+        public byte[] newBlock(int blockSize) {
+            if (this.freeBlocks.isEmpty()) {
+                return new byte[blockSize];
+            }
+            return this.freeBlocks.remove(this.freeBlocks.size() - 1);
+        }
+    }
+
+    /**
+     * open the channel with default block size, cache blocks and prefetch blocks
+     * @param trackerServer the tracker server, can be null
+     * @param group_name the group name of storage server
+     * @param remote_filename filename on storage server
+     */
+    public RemoteFileChannel(TrackerServer trackerServer, String group_name, String remote_filename)
+        throws IOException, MyException {
+        this(trackerServer, group_name, remote_filename,
+            DEFAULT_BLOCK_SIZE, DEFAULT_CACHE_BLOCKS, DEFAULT_PREFETCH_BLOCKS);
+    }
+
+    /**
+     * open the channel
+     * @param trackerServer the tracker server, can be null
+     * @param group_name the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param block_size the block size to download and cache
+     * @param cache_blocks max blocks in the cache
+     * @param prefetch_blocks blocks to download at once when read sequentially, 1 for no prefetch
+     */
+    public RemoteFileChannel(TrackerServer trackerServer, String group_name, String remote_filename,
+                             int block_size, int cache_blocks, int prefetch_blocks) throws IOException, MyException {
+        if (block_size <= 0 || cache_blocks <= 0 || prefetch_blocks <= 0) {
+            throw new MyException("invalid arguement");
+        }
+
+        TrackerClient tracker = new TrackerClient();
+        StorageServer storageServer = tracker.getFetchStorage(trackerServer, group_name, remote_filename);
+        if (storageServer == null) {
+            throw new MyException("getFetchStorage fail, errno code: " + tracker.getErrorCode());
+        }
+
+        this.client = new StorageClient(trackerServer, storageServer);
+        this.group_name = group_name;
+        this.remote_filename = remote_filename;
+        this.blockSize = block_size;
+        this.prefetchBlocks = prefetch_blocks < cache_blocks ? prefetch_blocks : cache_blocks;
+        this.cache = new BlockCache(cache_blocks);
+
+        try {
+            FileInfo fileInfo = this.client.get_file_info(group_name, remote_filename);
+            if (fileInfo == null) {
+                throw new MyException("get_file_info fail, errno code: " + this.client.getErrorCode());
+            }
+            this.fileSize = fileInfo.getFileSize();
+        } catch (IOException ex) {
+            this.closeStorage();
+            throw ex;
+        } catch (MyException ex) {
+            this.closeStorage();
+            throw ex;
+        }
+
+        this.open = true;
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        this.ensureOpen();
+        if (this.position >= this.fileSize) {
+            return -1;
+        }
+
+        int totalBytes = 0;
+        while (dst.hasRemaining() && this.position < this.fileSize) {
+            long blockIndex = this.position / this.blockSize;
+            int blockOffset = (int)(this.position - blockIndex * this.blockSize);
+            byte[] block = this.getBlock(blockIndex);
+            int bytes = this.blockLength(blockIndex) - blockOffset;
+            if (bytes > dst.remaining()) {
+                bytes = dst.remaining();
+            }
+
+            dst.put(block, blockOffset, bytes);
+            this.position += bytes;
+            totalBytes += bytes;
+        }
+
+        return totalBytes;
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    public long position() throws IOException {
+        this.ensureOpen();
+        return this.position;
+    }
+
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        this.ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("position: " + newPosition + " < 0");
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    public long size() throws IOException {
+        this.ensureOpen();
+        return this.fileSize;
+    }
+
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    public void close() throws IOException {
+        if (!this.open) {
+            return;
+        }
+        this.open = false;
+        this.cache.clear();
+        this.closeStorage();
+    }
+
+    /**
+     * @return reads served from cached blocks
+     */
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * @return reads which download blocks from storage server
+     */
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void closeStorage() throws IOException {
+        if (this.client.storageServer != null) {
+            try {
+                this.client.storageServer.close();
+            } finally {
+                this.client.storageServer = null;
+            }
+        }
+    }
+
+    private int blockLength(long blockIndex) {
+        long remain = this.fileSize - blockIndex * this.blockSize;
+        return remain > this.blockSize ? this.blockSize : (int)remain;
+    }
+
+    private byte[] getBlock(long blockIndex) throws IOException {
+        boolean sequential = blockIndex == this.lastBlockIndex + 1;
+        this.lastBlockIndex = blockIndex;
+
+        byte[] block = this.cache.get(blockIndex);
+        if (block != null) {
+            this.hitCount++;
+            return block;
+        }
+
+        this.missCount++;
+        int count = 1;
+        if (sequential) {
+            long lastIndex = (this.fileSize - 1) / this.blockSize;
+            while (count < this.prefetchBlocks && blockIndex + count <= lastIndex
+                && !this.cache.containsKey(blockIndex + count)) {
+                count++;
+            }
+        }
+
+        this.fetchBlocks(blockIndex, count);
+        return this.cache.get(blockIndex);
+    }
+
+    /**
+     * download count blocks from blockIndex with one request and put them into the cache
+     */
+    private void fetchBlocks(long blockIndex, int count) throws IOException {
+        long offset = blockIndex * this.blockSize;
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            bytes += this.blockLength(blockIndex + i);
+        }
+
+        DownloadInputStream in;
+        try {
+            in = this.client.open_input_stream(this.group_name, this.remote_filename, offset, bytes, 0);
+        } catch (MyException ex) {
+            throw new IOException(ex.getMessage());
+        }
+        if (in == null) {
+            throw new IOException("download file fail, errno code: " + this.client.getErrorCode());
+        }
+
+        try {
+            if (in.getFileSize() != bytes) {
+                throw new IOException("recv package size " + in.getFileSize() + " != " + bytes);
+            }
+
+            for (int i = 0; i < count; i++) {
+                int blockLen = this.blockLength(blockIndex + i);
+                byte[] block = this.cache.newBlock(this.blockSize);
+                int totalBytes = 0;
+                int n;
+                while (totalBytes < blockLen) {
+                    if ((n = in.read(block, totalBytes, blockLen - totalBytes)) < 0) {
+                        throw new IOException("recv package size " + totalBytes + " != " + blockLen);
+                    }
+                    totalBytes += n;
+                }
+                this.cache.put(blockIndex + i, block);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
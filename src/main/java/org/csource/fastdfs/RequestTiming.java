@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.net.InetSocketAddress;
+
+/**
+ * the phase times of the request in the current thread, for ClientMetrics and FlightEvents.
+ * the requests are nested, such as the tracker query in a storage request, so the timings are
+ * kept as a stack, the marks go to the innermost request
+ */
+final class RequestTiming {
+    private static final int MAX_DEPTH = 8;  //drop the requests which were never ended
+    private static final ThreadLocal<RequestTiming> current = new ThreadLocal<RequestTiming>();
+
+    final ClientMetrics metrics;
+    final int kind;        //the FlightEvents kind
+    final Object event;    //the started flight event, null for none
+    final long startTime;
+    long connectedTime;
+    long waitTime;        //start to wait the response header
+    long receivedTime;    //response header received
+    InetSocketAddress server;
+    private final RequestTiming previous;
+    private final int depth;
+
+    private RequestTiming(ClientMetrics metrics, int kind, Object event, long startTime, RequestTiming previous) {
+        this.metrics = metrics;
+        this.kind = kind;
+        this.event = event;
+        this.startTime = startTime;
+        this.previous = previous;
+        this.depth = previous == null ? 1 : previous.depth + 1;
+    }
+
+    /**
+     * start to time a request in the current thread
+     * @param metrics the metrics to record to, null for not recording
+     * @param kind the FlightEvents kind of the request, such as FlightEvents.UPLOAD
+     * @param startTime the System.nanoTime() of the request start
+     */
+    static void begin(ClientMetrics metrics, int kind, long startTime) {
+        Object event = FlightEvents.begin(kind);
+        if (metrics == null && event == null) {
+            return;
+        }
+
+        RequestTiming previous = current.get();
+        if (previous != null && previous.depth >= MAX_DEPTH) {
+            previous = null;
+        }
+        current.set(new RequestTiming(metrics, kind, event, startTime, previous));
+    }
+
+    /**
+     * end the timing of the request begun with the metrics, record it and commit the flight event
+     * @param metrics the metrics passed to begin
+     * @param group_name the group name, null if unknown
+     */
+    static void end(ClientMetrics metrics, byte cmd, String group_name, InetSocketAddress server,
+                    long request_bytes, long response_bytes, int errno) {
+        if (metrics == null && !FlightEvents.isAvailable()) {
+            return;
+        }
+
+        long endTime = System.nanoTime();
+        RequestTiming timing = detach(metrics, cmd);
+        if (timing != null) {
+            timing.record(cmd, group_name, server, endTime, request_bytes, response_bytes, errno);
+        }
+    }
+
+    /**
+     * take the timing of the request begun with the metrics off the current thread,
+     * so the request can be ended later, such as when the download stream is closed
+     * @param metrics the metrics passed to begin
+     * @return the timing, null if not timed
+     */
+    static RequestTiming detach(ClientMetrics metrics, byte cmd) {
+        RequestTiming timing = current.get();
+        if (timing == null || timing.metrics != metrics || timing.kind != FlightEvents.kindOf(cmd)) {
+            return null;
+        }
+
+        current.set(timing.previous);
+        return timing;
+    }
+
+    /**
+     * end the detached timing, record it and commit the flight event
+     * @param timing the timing from detach, null for nothing
+     */
+    static void end(RequestTiming timing, byte cmd, String group_name, InetSocketAddress server,
+                    long request_bytes, long response_bytes, int errno) {
+        if (timing != null) {
+            timing.record(cmd, group_name, server, System.nanoTime(), request_bytes, response_bytes, errno);
+        }
+    }
+
+    private void record(byte cmd, String group_name, InetSocketAddress server, long endTime,
+                        long request_bytes, long response_bytes, int errno) {
+        if (server != null) {
+            this.server = server;
+        }
+        if (this.metrics != null) {
+            this.metrics.record(cmd, this, endTime, request_bytes, response_bytes, errno);
+        }
+        FlightEvents.commit(this.event, cmd, group_name, this.server, request_bytes, response_bytes, errno);
+    }
+
+    /**
+     * mark the connection to the server is ready, including querying the tracker
+     */
+    static void connected(InetSocketAddress server) {
+        RequestTiming timing = current.get();
+        if (timing != null && timing.connectedTime == 0) {
+            timing.connectedTime = System.nanoTime();
+            timing.server = server;
+        }
+    }
+
+    static void headerWait() {
+        RequestTiming timing = current.get();
+        if (timing != null && timing.waitTime == 0) {
+            timing.waitTime = System.nanoTime();
+        }
+    }
+
+    static void headerReceived() {
+        RequestTiming timing = current.get();
+        if (timing != null && timing.receivedTime == 0) {
+            timing.receivedTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * record the time of a socket connect to the metrics of the current request,
+     * or ClientGlobal.g_client_metrics out of requests, and commit the flight event
+     * @param event the flight event from FlightEvents.begin(FlightEvents.CONNECT), null for none
+     * @param startTime the System.nanoTime() before connect
+     */
+    static void connectCompleted(Object event, InetSocketAddress server, long startTime, boolean success) {
+        FlightEvents.commitConnect(event, server, success);
+        RequestTiming timing = current.get();
+        ClientMetrics metrics = timing != null ? timing.metrics : ClientGlobal.g_client_metrics;
+        if (metrics != null) {
+            metrics.recordConnect(server, System.nanoTime() - startTime, success);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.csource.common.MyException;
+
+/**
+ * Coalesce concurrent calls with the same key into one in-flight call.
+ * The first caller runs the request, the others wait for it and receive the same
+ * result, errno or exception, including the runtime exceptions and errors.
+ */
+public class SingleFlight {
+    /**
+     * the request to run once for all concurrent callers
+     */
+    public interface Task<V> {
+        public V call() throws IOException, MyException;
+    }
+
+    /**
+     * the result of a coalesced call
+     */
+    public static class Call<V> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private V value;
+        private byte errno;
+        private Throwable failure;  //the exception or error thrown by the task
+        private boolean shared;
+
+        /**
+         * @return the return value of the task
+         */
+        public V getValue() {
+            return this.value;
+        }
+
+        /**
+         * @return the error code of the client after the task run
+         */
+        public byte getErrno() {
+            return this.errno;
+        }
+
+        /**
+         * @return true if the result is shared from a call of other thread,
+         * the value should be copied before modified
+         */
+        public boolean isShared() {
+            return this.shared;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Call<?>> calls;
+
+    public SingleFlight() {
+        this.calls = new ConcurrentHashMap<String, Call<?>>();
+    }
+
+    /**
+     * run the task, or wait for the in-flight call with the same key
+     * @param key the key of the request
+     * @param client the client to run the task, the errno is taken from it
+     * @param task the request
+     * @return the result of the call
+     */
+    @SuppressWarnings("unchecked")
+    public <V> Call<V> execute(String key, StorageClient client, Task<V> task) throws IOException, MyException {
+        Call<V> call = new Call<V>();
+        Call<V> inflight = (Call<V>)this.calls.putIfAbsent(key, call);
+        if (inflight != null) {
+            return this.await(inflight);
+        }
+
+        try {
+            call.value = task.call();
+            call.errno = client.getErrorCode();
+            return call;
+        } catch (Throwable ex) {
+            call.failure = ex;
+            throw ex;
+        } finally {
+            this.calls.remove(key, call);
+            call.done.countDown();
+        }
+    }
+
+    private <V> Call<V> await(Call<V> inflight) throws IOException, MyException {
+        try {
+            inflight.done.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the in-flight request");
+        }
+
+        Throwable failure = inflight.failure;
+        if (failure instanceof IOException) {
+            throw (IOException)failure;
+        }
+        if (failure instanceof MyException) {
+            throw (MyException)failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error)failure;
+        }
+
+        Call<V> call = new Call<V>();
+        call.value = inflight.value;
+        call.errno = inflight.errno;
+        call.shared = true;
+        return call;
+    }
+
+    /**
+     * @return the count of in-flight calls
+     */
+    public int getInflightCount() {
+        return this.calls.size();
+    }
+}
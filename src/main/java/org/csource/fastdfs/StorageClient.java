@@ -14,9 +14,14 @@ import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.FileInputStream;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.Date;
 import java.net.Socket;
 
+import org.csource.common.BufferPool;
 import org.csource.common.MyException;
 import org.csource.common.NameValuePair;
 import org.csource.common.Base64;
@@ -64,9 +69,78 @@ public class StorageClient {
         }
     }
 
+    /**
+     * Upload file by ByteBuffer, heap or direct
+     *
+     * @author Happy Fish / YuQing
+     * @version Version 1.25
+     */
+    public static class UploadByteBuffer implements UploadCallback {
+        private ByteBuffer fileBuff;
+
+        /**
+         * constructor
+         *
+         * @param fileBuff the file buff for uploading, from position to limit,
+         *                 the position of the buffer is not changed
+         */
+        public UploadByteBuffer(ByteBuffer fileBuff) {
+            super();
+            this.fileBuff = fileBuff;
+        }
+
+        /**
+         * send file content callback function, be called only once when the file uploaded
+         *
+         * @param out output stream for writing file content
+         * @return 0 success, return none zero(errno) if fail
+         */
+        public int send(OutputStream out) throws IOException {
+            ProtoCommon.writeByteBuffer(out, this.fileBuff.duplicate());
+            return 0;
+        }
+    }
+
+    /**
+     * pass the pooled download buffer to DownloadByteBufferCallback as read-only slices
+     */
+    private static class DownloadByteBufferAdapter implements DownloadCallback {
+        private DownloadByteBufferCallback callback;
+        private byte[] wrappedBuff;
+        private ByteBuffer slice;
+
+        public DownloadByteBufferAdapter(DownloadByteBufferCallback callback) {
+            this.callback = callback;
+        }
+
+        public int recv(long file_size, byte[] data, int bytes) {
+            if (data != this.wrappedBuff) {
+                this.wrappedBuff = data;
+                this.slice = ByteBuffer.wrap(data).asReadOnlyBuffer();
+            }
+
+            this.slice.clear();
+            this.slice.limit(bytes);
+            return this.callback.recv(file_size, this.slice);
+        }
+    }
+
     public final static Base64 base64 = new Base64('-', '_', '.', 0);
+    protected final static SingleFlight inflight = new SingleFlight();
+    private final static ThreadLocal<FileIdInfo> fileIdInfo = new ThreadLocal<FileIdInfo>() {
+        protected FileIdInfo initialValue() {
+            return new FileIdInfo();
+        }
+    };
     protected TrackerServer trackerServer;
     protected StorageServer storageServer;
+    protected DownloadCache downloadCache;
+    protected MappedFileCache diskCache;
+    protected MetadataCache metadataCache;
+    protected NegativeCache negativeCache;
+    protected boolean coalesceRequests;
+    protected OperationListener operationListener;
+    protected ClientMetrics clientMetrics;
     protected byte errno;
 
     /**
@@ -75,6 +149,13 @@ public class StorageClient {
     public StorageClient() {
         this.trackerServer = null;
         this.storageServer = null;
+        this.downloadCache = ClientGlobal.g_download_cache;
+        this.diskCache = ClientGlobal.g_disk_cache;
+        this.metadataCache = ClientGlobal.g_metadata_cache;
+        this.negativeCache = ClientGlobal.g_negative_cache;
+        this.coalesceRequests = ClientGlobal.g_coalesce_requests;
+        this.operationListener = ClientGlobal.g_operation_listener;
+        this.clientMetrics = ClientGlobal.g_client_metrics;
     }
 
     /**
@@ -86,6 +167,142 @@ public class StorageClient {
     public StorageClient(TrackerServer trackerServer, StorageServer storageServer) {
         this.trackerServer = trackerServer;
         this.storageServer = storageServer;
+        this.downloadCache = ClientGlobal.g_download_cache;
+        this.diskCache = ClientGlobal.g_disk_cache;
+        this.metadataCache = ClientGlobal.g_metadata_cache;
+        this.negativeCache = ClientGlobal.g_negative_cache;
+        this.coalesceRequests = ClientGlobal.g_coalesce_requests;
+        this.operationListener = ClientGlobal.g_operation_listener;
+        this.clientMetrics = ClientGlobal.g_client_metrics;
+    }
+
+    /**
+     * get the download cache
+     *
+     * @return the download cache, null for no cache
+     */
+    public DownloadCache getDownloadCache() {
+        return this.downloadCache;
+    }
+
+    /**
+     * set the read-through cache of download_file(group_name, remote_filename, ...) returning byte[],
+     * the default is ClientGlobal.g_download_cache
+     *
+     * @param downloadCache the download cache, null for no cache
+     */
+    public void setDownloadCache(DownloadCache downloadCache) {
+        this.downloadCache = downloadCache;
+    }
+
+    /**
+     * get the disk cache
+     *
+     * @return the disk cache, null for no disk cache
+     */
+    public MappedFileCache getDiskCache() {
+        return this.diskCache;
+    }
+
+    /**
+     * set the disk cache tier behind the download cache, the default is ClientGlobal.g_disk_cache
+     *
+     * @param diskCache the disk cache, null for no disk cache
+     */
+    public void setDiskCache(MappedFileCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * get the metadata cache
+     *
+     * @return the metadata cache, null for no cache
+     */
+    public MetadataCache getMetadataCache() {
+        return this.metadataCache;
+    }
+
+    /**
+     * set the cache of get_metadata, the default is ClientGlobal.g_metadata_cache
+     *
+     * @param metadataCache the metadata cache, null for no cache
+     */
+    public void setMetadataCache(MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * get the negative cache
+     *
+     * @return the negative cache, null for no cache
+     */
+    public NegativeCache getNegativeCache() {
+        return this.negativeCache;
+    }
+
+    /**
+     * set the cache of file ids not exist, the default is ClientGlobal.g_negative_cache
+     *
+     * @param negativeCache the negative cache, null for no cache
+     */
+    public void setNegativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+
+    /**
+     * if concurrent download_file, get_metadata and query_file_info of the same file share one request
+     *
+     * @return true for coalesce
+     */
+    public boolean isCoalesceRequests() {
+        return this.coalesceRequests;
+    }
+
+    /**
+     * set if coalesce concurrent requests of the same file, the default is ClientGlobal.g_coalesce_requests
+     *
+     * @param coalesceRequests true for coalesce
+     */
+    public void setCoalesceRequests(boolean coalesceRequests) {
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    /**
+     * get the operation listener
+     *
+     * @return the operation listener, null for no listener
+     */
+    public OperationListener getOperationListener() {
+        return this.operationListener;
+    }
+
+    /**
+     * set the listener called after each request to the storage server, the default is
+     * ClientGlobal.g_operation_listener
+     *
+     * @param operationListener the operation listener, null for no listener
+     */
+    public void setOperationListener(OperationListener operationListener) {
+        this.operationListener = operationListener;
+    }
+
+    /**
+     * get the client metrics
+     *
+     * @return the client metrics, null for no metrics
+     */
+    public ClientMetrics getClientMetrics() {
+        return this.clientMetrics;
+    }
+
+    /**
+     * set the metrics to record the requests to the tracker and storage servers, the default is
+     * ClientGlobal.g_client_metrics
+     *
+     * @param clientMetrics the client metrics, null for no metrics
+     */
+    public void setClientMetrics(ClientMetrics clientMetrics) {
+        this.clientMetrics = clientMetrics;
     }
 
     /**
@@ -249,6 +466,43 @@ public class StorageClient {
             file_buff.length, new UploadBuff(file_buff, 0, file_buff.length), meta_list);
     }
 
+    /**
+     * upload file to storage server (by ByteBuffer)
+     *
+     * @param file_buff     file content from position to limit, heap or direct buffer,
+     *                      the position of the buffer is not changed
+     * @param file_ext_name file ext name, do not include dot(.)
+     * @param meta_list     meta info array
+     * @return 2 elements string array if success:<br>
+     * <ul><li>results[0]: the group name to store the file</li></ul>
+     * <ul><li>results[1]: the new created filename</li></ul>
+     * return null if fail
+     */
+    public String[] upload_file(ByteBuffer file_buff, String file_ext_name,
+                                NameValuePair[] meta_list) throws IOException, MyException {
+        final String group_name = null;
+        return this.upload_file(group_name, file_buff, file_ext_name, meta_list);
+    }
+
+    /**
+     * upload file to storage server (by ByteBuffer)
+     *
+     * @param group_name    the group name to upload file to, can be empty
+     * @param file_buff     file content from position to limit, heap or direct buffer,
+     *                      the position of the buffer is not changed
+     * @param file_ext_name file ext name, do not include dot(.)
+     * @param meta_list     meta info array
+     * @return 2 elements string array if success:<br>
+     * <ul><li>results[0]: the group name to store the file</li></ul>
+     * <ul><li>results[1]: the new created filename</li></ul>
+     * return null if fail
+     */
+    public String[] upload_file(String group_name, ByteBuffer file_buff,
+                                String file_ext_name, NameValuePair[] meta_list) throws IOException, MyException {
+        return this.do_upload_file(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE, group_name, null, null, file_ext_name,
+            file_buff.remaining(), new UploadByteBuffer(file_buff), meta_list);
+    }
+
     /**
      * upload file to storage server (by callback)
      *
@@ -692,7 +946,7 @@ public class StorageClient {
         String new_group_name;
         String remote_filename;
         //是不是新的连接
-        boolean bNewConnection;
+        boolean bNewConnection = false;
         //存储器Socket
         Socket storageSocket;
         //字节数组
@@ -709,20 +963,24 @@ public class StorageClient {
         bUploadSlave = ((group_name != null && group_name.length() > 0) &&
             (master_filename != null && master_filename.length() > 0) &&
             (prefix_name != null));
-        if (bUploadSlave) {
-            bNewConnection = this.newUpdatableStorageConnection(group_name, master_filename);
-        } else {
-            bNewConnection = this.newWritableStorageConnection(group_name);
-        }
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.UPLOAD, startTime);
+        new_group_name = group_name;
+        remote_filename = null;
 
         try {
+            if (bUploadSlave) {
+                bNewConnection = this.newUpdatableStorageConnection(group_name, master_filename);
+            } else {
+                bNewConnection = this.newWritableStorageConnection(group_name);
+            }
             storageSocket = this.storageServer.getSocket();
             //后缀名的长度6个字节
             ext_name_bs = new byte[ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN];
             //用0填满后缀名的字节数组
             Arrays.fill(ext_name_bs, (byte)0);
             if (file_ext_name != null && file_ext_name.length() > 0) {
-                byte[] bs = file_ext_name.getBytes(ClientGlobal.g_charset);
+                byte[] bs = file_ext_name.getBytes(ClientGlobal.getCharset());
                 int ext_name_len = bs.length;
                 if (ext_name_len > ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN) {
                     ext_name_len = ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN;
@@ -733,7 +991,7 @@ public class StorageClient {
             //如果上传的是从文件
             if (bUploadSlave) {
                 //获取主文件的字节数组
-                masterFilenameBytes = master_filename.getBytes(ClientGlobal.g_charset);
+                masterFilenameBytes = master_filename.getBytes(ClientGlobal.getCharset());
                 //size字节数组为16个字节元素
                 sizeBytes = new byte[2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
                 //消息体的长度 16+16+6+主文件的字节数组长度+文件的长度
@@ -776,7 +1034,7 @@ public class StorageClient {
                 //获取前缀文件名
                 byte[] prefix_name_bs = new byte[ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN];
                 //前缀文件名转换为字节数组
-                byte[] bs = prefix_name.getBytes(ClientGlobal.g_charset);
+                byte[] bs = prefix_name.getBytes(ClientGlobal.getCharset());
                 int prefix_name_len = bs.length;
                 Arrays.fill(prefix_name_bs, (byte)0);
                 //只有前16位
@@ -828,6 +1086,12 @@ public class StorageClient {
             results[0] = new_group_name;
             results[1] = remote_filename;
 
+            //the file id may be queried before uploaded, such as a slave file
+            if (this.negativeCache != null) {
+                this.negativeCache.remove(new_group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR
+                    + remote_filename);
+            }
+
             if (meta_list == null || meta_list.length == 0) {
                 return results;
             }
@@ -850,7 +1114,8 @@ public class StorageClient {
 
             return results;
         } catch (IOException ex) {
-            if (!bNewConnection) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
                 try {
                     this.storageServer.close();
                 } catch (IOException ex1) {
@@ -871,6 +1136,7 @@ public class StorageClient {
                     this.storageServer = null;
                 }
             }
+            this.operationCompleted(cmd, new_group_name, remote_filename, 0, file_size, 0, startTime);
         }
     }
 
@@ -886,7 +1152,7 @@ public class StorageClient {
     protected int do_append_file(String group_name, String appender_filename,
                                  long file_size, UploadCallback callback) throws IOException, MyException {
         byte[] header;
-        boolean bNewConnection;
+        boolean bNewConnection = false;
         Socket storageSocket;
         byte[] hexLenBytes;
         byte[] appenderFilenameBytes;
@@ -899,12 +1165,14 @@ public class StorageClient {
             return this.errno;
         }
 
-        bNewConnection = this.newUpdatableStorageConnection(group_name, appender_filename);
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.UPLOAD, startTime);
 
         try {
+            bNewConnection = this.newUpdatableStorageConnection(group_name, appender_filename);
             storageSocket = this.storageServer.getSocket();
 
-            appenderFilenameBytes = appender_filename.getBytes(ClientGlobal.g_charset);
+            appenderFilenameBytes = appender_filename.getBytes(ClientGlobal.getCharset());
             body_len = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + appenderFilenameBytes.length + file_size;
 
             header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE, body_len, (byte)0);
@@ -939,7 +1207,8 @@ public class StorageClient {
 
             return 0;
         } catch (IOException ex) {
-            if (!bNewConnection) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
                 try {
                     this.storageServer.close();
                 } catch (IOException ex1) {
@@ -960,6 +1229,8 @@ public class StorageClient {
                     this.storageServer = null;
                 }
             }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE, group_name, appender_filename,
+                0, file_size, 0, startTime);
         }
     }
 
@@ -977,7 +1248,7 @@ public class StorageClient {
                                  long file_offset, long modify_size, UploadCallback callback)
         throws IOException, MyException {
         byte[] header;
-        boolean bNewConnection;
+        boolean bNewConnection = false;
         Socket storageSocket;
         byte[] hexLenBytes;
         byte[] appenderFilenameBytes;
@@ -990,12 +1261,14 @@ public class StorageClient {
             return this.errno;
         }
 
-        bNewConnection = this.newUpdatableStorageConnection(group_name, appender_filename);
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.UPLOAD, startTime);
 
         try {
+            bNewConnection = this.newUpdatableStorageConnection(group_name, appender_filename);
             storageSocket = this.storageServer.getSocket();
 
-            appenderFilenameBytes = appender_filename.getBytes(ClientGlobal.g_charset);
+            appenderFilenameBytes = appender_filename.getBytes(ClientGlobal.getCharset());
             body_len = 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + appenderFilenameBytes.length + modify_size;
 
             header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE, body_len, (byte)0);
@@ -1034,7 +1307,8 @@ public class StorageClient {
 
             return 0;
         } catch (IOException ex) {
-            if (!bNewConnection) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
                 try {
                     this.storageServer.close();
                 } catch (IOException ex1) {
@@ -1055,6 +1329,8 @@ public class StorageClient {
                     this.storageServer = null;
                 }
             }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE, group_name, appender_filename,
+                file_offset, modify_size, 0, startTime);
         }
     }
 
@@ -1066,10 +1342,28 @@ public class StorageClient {
      * @return 0 for success, none zero for fail (error code)
      */
     public int delete_file(String group_name, String remote_filename) throws IOException, MyException {
-        boolean bNewConnection = this.newUpdatableStorageConnection(group_name, remote_filename);
-        Socket storageSocket = this.storageServer.getSocket();
+        if (this.downloadCache != null || this.diskCache != null) {
+            String file_id = group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR
+                + remote_filename;
+            if (this.downloadCache != null) {
+                this.downloadCache.remove(file_id);
+            }
+            if (this.diskCache != null) {
+                this.diskCache.remove(file_id);
+            }
+        }
+        if (this.metadataCache != null) {
+            this.metadataCache.remove(group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR
+                + remote_filename);
+        }
+
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.DELETE, startTime);
+        boolean bNewConnection = false;
 
         try {
+            bNewConnection = this.newUpdatableStorageConnection(group_name, remote_filename);
+            Socket storageSocket = this.storageServer.getSocket();
             this.send_package(ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE, group_name, remote_filename);
             ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(storageSocket.getInputStream(),
                 ProtoCommon.STORAGE_PROTO_CMD_RESP, 0);
@@ -1077,7 +1371,8 @@ public class StorageClient {
             this.errno = pkgInfo.errno;
             return pkgInfo.errno;
         } catch (IOException ex) {
-            if (!bNewConnection) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
                 try {
                     this.storageServer.close();
                 } catch (IOException ex1) {
@@ -1098,6 +1393,7 @@ public class StorageClient {
                     this.storageServer = null;
                 }
             }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE, group_name, remote_filename, 0, 0, 0, startTime);
         }
     }
 
@@ -1124,7 +1420,7 @@ public class StorageClient {
     public int truncate_file(String group_name, String appender_filename,
                              long truncated_file_size) throws IOException, MyException {
         byte[] header;
-        boolean bNewConnection;
+        boolean bNewConnection = false;
         Socket storageSocket;
         byte[] hexLenBytes;
         byte[] appenderFilenameBytes;
@@ -1137,12 +1433,14 @@ public class StorageClient {
             return this.errno;
         }
 
-        bNewConnection = this.newUpdatableStorageConnection(group_name, appender_filename);
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.UPLOAD, startTime);
 
         try {
+            bNewConnection = this.newUpdatableStorageConnection(group_name, appender_filename);
             storageSocket = this.storageServer.getSocket();
 
-            appenderFilenameBytes = appender_filename.getBytes(ClientGlobal.g_charset);
+            appenderFilenameBytes = appender_filename.getBytes(ClientGlobal.getCharset());
             body_len = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + appenderFilenameBytes.length;
 
             header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE, body_len, (byte)0);
@@ -1169,7 +1467,8 @@ public class StorageClient {
             this.errno = pkgInfo.errno;
             return pkgInfo.errno;
         } catch (IOException ex) {
-            if (!bNewConnection) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
                 try {
                     this.storageServer.close();
                 } catch (IOException ex1) {
@@ -1190,6 +1489,8 @@ public class StorageClient {
                     this.storageServer = null;
                 }
             }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE, group_name, appender_filename,
+                truncated_file_size, 0, 0, startTime);
         }
     }
 
@@ -1218,10 +1519,158 @@ public class StorageClient {
      */
     public byte[] download_file(String group_name, String remote_filename, long file_offset, long download_bytes)
         throws IOException, MyException {
-        boolean bNewConnection = this.newReadableStorageConnection(group_name, remote_filename);
-        Socket storageSocket = this.storageServer.getSocket();
+        String file_id = null;
+        if (this.downloadCache != null || this.diskCache != null) {
+            file_id = group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR + remote_filename;
+        }
+
+        if (this.downloadCache != null) {
+            byte[] content = this.downloadCache.get(file_id);
+            if (content != null && file_offset <= content.length) {
+                long bytes = content.length - file_offset;
+                if (download_bytes > 0 && download_bytes < bytes) {
+                    bytes = download_bytes;
+                }
+                this.errno = 0;
+                return Arrays.copyOfRange(content, (int)file_offset, (int)(file_offset + bytes));
+            }
+        }
+
+        if (this.diskCache != null) {
+            byte[] content = this.diskCache.get(file_id, file_offset, download_bytes);
+            if (content != null) {
+                if (this.downloadCache != null && file_offset == 0 && download_bytes == 0) {
+                    this.downloadCache.put(file_id, content.clone());
+                }
+                this.errno = 0;
+                return content;
+            }
+        }
+
+        return this.coalesced_download(group_name, remote_filename, file_id, file_offset, download_bytes);
+    }
+
+    /**
+     * download file content without copy, a disk cache hit is a slice of the mapped segment,
+     * download from storage server if not cached. the returned buffer must be closed after use,
+     * the segment of the slice is not recycled until then
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @return read-only file content, return null if fail
+     */
+    public DownloadBuffer download_file_buffer(String group_name, String remote_filename)
+        throws IOException, MyException {
+        String file_id = null;
+        if (this.downloadCache != null || this.diskCache != null) {
+            file_id = group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR + remote_filename;
+        }
+
+        if (this.diskCache != null) {
+            DownloadBuffer buffer = this.diskCache.pin(file_id);
+            if (buffer != null) {
+                this.errno = 0;
+                return buffer;
+            }
+        }
+
+        if (this.downloadCache != null) {
+            byte[] content = this.downloadCache.get(file_id);
+            if (content != null) {
+                this.errno = 0;
+                return new DownloadBuffer(ByteBuffer.wrap(content).asReadOnlyBuffer());
+            }
+        }
+
+        byte[] content = this.coalesced_download(group_name, remote_filename, file_id, 0, 0);
+        if (content == null) {
+            return null;
+        }
+        return new DownloadBuffer(ByteBuffer.wrap(content).asReadOnlyBuffer());
+    }
+
+    /**
+     * download file from storage server, share the download with concurrent callers of the same range
+     *
+     * @param file_id the cache key, null for no cache
+     * @return file content/buff, return null if fail
+     */
+    private byte[] coalesced_download(final String group_name, final String remote_filename, final String file_id,
+                                      final long file_offset, final long download_bytes)
+        throws IOException, MyException {
+        if (this.isKnownMissing(group_name, remote_filename)) {
+            return null;
+        }
+
+        if (!this.coalesceRequests) {
+            return this.download_and_cache(group_name, remote_filename, file_id, file_offset, download_bytes);
+        }
+
+        SingleFlight.Call<byte[]> call = inflight.execute(
+            this.coalesceKey("download", group_name, remote_filename) + "/" + file_offset + "/" + download_bytes,
+            this, new SingleFlight.Task<byte[]>() {
+                public byte[] call() throws IOException, MyException {
+                    return download_and_cache(group_name, remote_filename, file_id, file_offset, download_bytes);
+                }
+            });
+
+        this.errno = call.getErrno();
+        byte[] content = call.getValue();
+        if (content != null && call.isShared()) {
+            return content.clone();
+        }
+        return content;
+    }
+
+    /**
+     * check if the file returned ERR_NO_ENOENT recently, set errno to ERR_NO_ENOENT if so
+     */
+    private boolean isKnownMissing(String group_name, String remote_filename) {
+        if (this.negativeCache != null && this.negativeCache.contains(
+            group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR + remote_filename)) {
+            this.errno = ProtoCommon.ERR_NO_ENOENT;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * record the file in the negative cache if the storage server returned ERR_NO_ENOENT
+     */
+    private void recordMissing(String group_name, String remote_filename) {
+        if (this.negativeCache != null && this.errno == ProtoCommon.ERR_NO_ENOENT) {
+            this.negativeCache.put(group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR
+                + remote_filename);
+        }
+    }
+
+    /**
+     * the key of the coalesced request, including the storage server if the client is bound to one
+     */
+    private String coalesceKey(String cmd, String group_name, String remote_filename) {
+        String key = cmd + ":" + group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR + remote_filename;
+        if (this.storageServer != null) {
+            key = this.storageServer.getInetSocketAddress() + "/" + key;
+        }
+        return key;
+    }
+
+    /**
+     * download file from storage server, put the content into the caches if it can be cached
+     *
+     * @param file_id the cache key, null for no cache
+     * @return file content/buff, return null if fail
+     */
+    private byte[] download_and_cache(String group_name, String remote_filename, String file_id,
+                                      long file_offset, long download_bytes) throws IOException, MyException {
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.DOWNLOAD, startTime);
+        long recvBytes = 0;
+        boolean bNewConnection = false;
 
         try {
+            bNewConnection = this.newReadableStorageConnection(group_name, remote_filename);
+            Socket storageSocket = this.storageServer.getSocket();
             ProtoCommon.RecvPackageInfo pkgInfo;
 
             this.send_download_package(group_name, remote_filename, file_offset, download_bytes);
@@ -1231,12 +1680,24 @@ public class StorageClient {
 
             this.errno = pkgInfo.errno;
             if (pkgInfo.errno != 0) {
+                this.recordMissing(group_name, remote_filename);
                 return null;
             }
+            recvBytes = pkgInfo.body.length;
 
+            //only the whole content of files never changed can be cached
+            if (file_id != null && file_offset == 0 && download_bytes == 0 && isImmutableFile(remote_filename)) {
+                if (this.downloadCache != null) {
+                    this.downloadCache.put(file_id, pkgInfo.body.clone());
+                }
+                if (this.diskCache != null) {
+                    this.diskCache.put(file_id, pkgInfo.body, 0, pkgInfo.body.length);
+                }
+            }
             return pkgInfo.body;
         } catch (IOException ex) {
-            if (!bNewConnection) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
                 try {
                     this.storageServer.close();
                 } catch (IOException ex1) {
@@ -1257,6 +1718,8 @@ public class StorageClient {
                     this.storageServer = null;
                 }
             }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, group_name, remote_filename,
+                file_offset, 0, recvBytes, startTime);
         }
     }
 
@@ -1289,9 +1752,18 @@ public class StorageClient {
     public int download_file(String group_name, String remote_filename,
                              long file_offset, long download_bytes,
                              String local_filename) throws IOException, MyException {
-        boolean bNewConnection = this.newReadableStorageConnection(group_name, remote_filename);
-        Socket storageSocket = this.storageServer.getSocket();
+        if (this.isKnownMissing(group_name, remote_filename)) {
+            return this.errno;
+        }
+
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.DOWNLOAD, startTime);
+        long recvBytes = 0;
+        boolean bNewConnection = false;
+
         try {
+            bNewConnection = this.newReadableStorageConnection(group_name, remote_filename);
+            Socket storageSocket = this.storageServer.getSocket();
             ProtoCommon.RecvHeaderInfo header;
             FileOutputStream out = new FileOutputStream(local_filename);
             try {
@@ -1302,25 +1774,32 @@ public class StorageClient {
                 header = ProtoCommon.recvHeader(in, ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
                 this.errno = header.errno;
                 if (header.errno != 0) {
+                    this.recordMissing(group_name, remote_filename);
                     return header.errno;
                 }
 
-                byte[] buff = new byte[256 * 1024];
-                long remainBytes = header.body_len;
-                int bytes;
+                BufferPool bufferPool = ClientGlobal.getDownloadBufferPool();
+                byte[] buff = bufferPool.acquire();
+                try {
+                    long remainBytes = header.body_len;
+                    int bytes;
 
-                //System.out.println("expect_body_len=" + header.body_len);
+                    //System.out.println("expect_body_len=" + header.body_len);
 
-                while (remainBytes > 0) {
-                    if ((bytes = in.read(buff, 0, remainBytes > buff.length ? buff.length : (int)remainBytes)) < 0) {
-                        throw new IOException(
-                            "recv package size " + (header.body_len - remainBytes) + " != " + header.body_len);
-                    }
+                    while (remainBytes > 0) {
+                        if ((bytes = in.read(buff, 0, remainBytes > buff.length ? buff.length : (int)remainBytes)) < 0) {
+                            throw new IOException(
+                                "recv package size " + (header.body_len - remainBytes) + " != " + header.body_len);
+                        }
 
-                    out.write(buff, 0, bytes);
-                    remainBytes -= bytes;
+                        out.write(buff, 0, bytes);
+                        remainBytes -= bytes;
+                        recvBytes += bytes;
 
-                    //System.out.println("totalBytes=" + (header.body_len - remainBytes));
+                        //System.out.println("totalBytes=" + (header.body_len - remainBytes));
+                    }
+                } finally {
+                    bufferPool.release(buff);
                 }
 
                 return 0;
@@ -1337,7 +1816,8 @@ public class StorageClient {
                 }
             }
         } catch (IOException ex) {
-            if (!bNewConnection) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
                 try {
                     this.storageServer.close();
                 } catch (IOException ex1) {
@@ -1358,6 +1838,8 @@ public class StorageClient {
                     this.storageServer = null;
                 }
             }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, group_name, remote_filename,
+                file_offset, 0, recvBytes, startTime);
         }
     }
 
@@ -1390,11 +1872,19 @@ public class StorageClient {
     public int download_file(String group_name, String remote_filename,
                              long file_offset, long download_bytes,
                              DownloadCallback callback) throws IOException, MyException {
+        if (this.isKnownMissing(group_name, remote_filename)) {
+            return this.errno;
+        }
+
         int result;
-        boolean bNewConnection = this.newReadableStorageConnection(group_name, remote_filename);
-        Socket storageSocket = this.storageServer.getSocket();
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.DOWNLOAD, startTime);
+        long recvBytes = 0;
+        boolean bNewConnection = false;
 
         try {
+            bNewConnection = this.newReadableStorageConnection(group_name, remote_filename);
+            Socket storageSocket = this.storageServer.getSocket();
             ProtoCommon.RecvHeaderInfo header;
             this.send_download_package(group_name, remote_filename, file_offset, download_bytes);
 
@@ -1402,33 +1892,40 @@ public class StorageClient {
             header = ProtoCommon.recvHeader(in, ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
             this.errno = header.errno;
             if (header.errno != 0) {
+                this.recordMissing(group_name, remote_filename);
                 return header.errno;
             }
 
-            byte[] buff = new byte[2 * 1024];
-            long remainBytes = header.body_len;
-            int bytes;
+            BufferPool bufferPool = ClientGlobal.getDownloadBufferPool();
+            byte[] buff = bufferPool.acquire();
+            try {
+                long remainBytes = header.body_len;
+                int bytes;
 
-            //System.out.println("expect_body_len=" + header.body_len);
+                //System.out.println("expect_body_len=" + header.body_len);
 
-            while (remainBytes > 0) {
-                if ((bytes = in.read(buff, 0, remainBytes > buff.length ? buff.length : (int)remainBytes)) < 0) {
-                    throw new IOException(
-                        "recv package size " + (header.body_len - remainBytes) + " != " + header.body_len);
-                }
+                while (remainBytes > 0) {
+                    //fill the whole buffer before calling back, short socket reads are coalesced
+                    bytes = remainBytes > buff.length ? buff.length : (int)remainBytes;
+                    ProtoCommon.recvFully(in, buff, bytes);
+                    recvBytes += bytes;
+
+                    if ((result = callback.recv(header.body_len, buff, bytes)) != 0) {
+                        this.errno = (byte)result;
+                        return result;
+                    }
 
-                if ((result = callback.recv(header.body_len, buff, bytes)) != 0) {
-                    this.errno = (byte)result;
-                    return result;
+                    remainBytes -= bytes;
+                    //System.out.println("totalBytes=" + (header.body_len - remainBytes));
                 }
-
-                remainBytes -= bytes;
-                //System.out.println("totalBytes=" + (header.body_len - remainBytes));
+            } finally {
+                bufferPool.release(buff);
             }
 
             return 0;
         } catch (IOException ex) {
-            if (!bNewConnection) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
                 try {
                     this.storageServer.close();
                 } catch (IOException ex1) {
@@ -1449,35 +1946,512 @@ public class StorageClient {
                     this.storageServer = null;
                 }
             }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, group_name, remote_filename,
+                file_offset, 0, recvBytes, startTime);
         }
     }
 
     /**
-     * get all metadata items from storage server
+     * download file from storage server
      *
      * @param group_name      the group name of storage server
      * @param remote_filename filename on storage server
-     * @return meta info array, return null if fail
+     * @param callback        call callback.recv() with read-only slices when data arrive
+     * @return 0 success, return none zero errno if fail
      */
-    public NameValuePair[] get_metadata(String group_name, String remote_filename) throws IOException, MyException {
-        boolean bNewConnection = this.newUpdatableStorageConnection(group_name, remote_filename);
-        Socket storageSocket = this.storageServer.getSocket();
-
-        try {
-            ProtoCommon.RecvPackageInfo pkgInfo;
+    public int download_file(String group_name, String remote_filename,
+                             DownloadByteBufferCallback callback) throws IOException, MyException {
+        final long file_offset = 0;
+        final long download_bytes = 0;
+        return this.download_file(group_name, remote_filename,
+            file_offset, download_bytes, callback);
+    }
+
+    /**
+     * download file from storage server
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param file_offset     the start offset of the file
+     * @param download_bytes  download bytes, 0 for remain bytes from offset
+     * @param callback        call callback.recv() with read-only slices when data arrive
+     * @return 0 success, return none zero errno if fail
+     */
+    public int download_file(String group_name, String remote_filename,
+                             long file_offset, long download_bytes,
+                             DownloadByteBufferCallback callback) throws IOException, MyException {
+        return this.download_file(group_name, remote_filename, file_offset, download_bytes,
+            new DownloadByteBufferAdapter(callback));
+    }
+
+    /**
+     * download file from storage server to the buffer
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param target          the buffer to fill from its position, heap or direct buffer
+     * @return 0 success, return none zero errno if fail,
+     * ERR_NO_ENOSPC when the remaining of the buffer is less than the file size
+     */
+    public int download_file(String group_name, String remote_filename,
+                             ByteBuffer target) throws IOException, MyException {
+        final long file_offset = 0;
+        final long download_bytes = 0;
+        return this.download_file(group_name, remote_filename,
+            file_offset, download_bytes, target);
+    }
+
+    /**
+     * download file from storage server to the buffer
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param file_offset     the start offset of the file
+     * @param download_bytes  download bytes, 0 for remain bytes from offset
+     * @param target          the buffer to fill from its position, heap or direct buffer,
+     *                        the position is advanced by the downloaded bytes
+     * @return 0 success, return none zero errno if fail,
+     * ERR_NO_ENOSPC when the remaining of the buffer is less than the downloaded bytes
+     */
+    public int download_file(String group_name, String remote_filename,
+                             long file_offset, long download_bytes,
+                             ByteBuffer target) throws IOException, MyException {
+        if (this.isKnownMissing(group_name, remote_filename)) {
+            return this.errno;
+        }
+
+        if (!this.checkDownloadCapacity(group_name, remote_filename, file_offset, download_bytes,
+            target.remaining())) {
+            return this.errno;
+        }
+
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.DOWNLOAD, startTime);
+        int startPosition = target.position();
+        boolean bNewConnection = false;
+
+        try {
+            bNewConnection = this.newReadableStorageConnection(group_name, remote_filename);
+            Socket storageSocket = this.storageServer.getSocket();
+            ProtoCommon.RecvHeaderInfo header;
+            this.send_download_package(group_name, remote_filename, file_offset, download_bytes);
+
+            InputStream in = storageSocket.getInputStream();
+            header = ProtoCommon.recvHeader(in, ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
+            this.errno = header.errno;
+            if (header.errno != 0) {
+                this.recordMissing(group_name, remote_filename);
+                return header.errno;
+            }
+
+            //the body is discarded, no bytes are downloaded
+            if (header.body_len > target.remaining()) {
+                ProtoCommon.skipBody(in, header.body_len);
+                this.errno = ProtoCommon.ERR_NO_ENOSPC;
+                return this.errno;
+            }
+
+            ProtoCommon.recvBody(in, header.body_len, target);
+            return 0;
+        } catch (IOException ex) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
+                try {
+                    this.storageServer.close();
+                } catch (IOException ex1) {
+                    ex1.printStackTrace();
+                } finally {
+                    this.storageServer = null;
+                }
+            }
+
+            throw ex;
+        } finally {
+            if (bNewConnection) {
+                try {
+                    this.storageServer.close();
+                } catch (IOException ex1) {
+                    ex1.printStackTrace();
+                } finally {
+                    this.storageServer = null;
+                }
+            }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, group_name, remote_filename,
+                file_offset, 0, target.position() - startPosition, startTime);
+        }
+    }
+
+    /**
+     * download file from storage server to the caller buffer, the buffer can be reused across calls
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param buff            the buffer to fill from index 0
+     * @return downloaded bytes, return -1 if fail (call getErrorCode() for the error code,
+     * ERR_NO_ENOSPC when the buffer is too small)
+     */
+    public int download_file(String group_name, String remote_filename, byte[] buff)
+        throws IOException, MyException {
+        final long file_offset = 0;
+        final long download_bytes = 0;
+        return this.download_file(group_name, remote_filename, file_offset, download_bytes, buff, 0);
+    }
+
+    /**
+     * download file from storage server to the caller buffer, the buffer can be reused across calls
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param file_offset     the start offset of the file
+     * @param download_bytes  download bytes, 0 for remain bytes from offset
+     * @param buff            the buffer to fill
+     * @param buff_offset     the start offset of the buffer
+     * @return downloaded bytes, return -1 if fail (call getErrorCode() for the error code,
+     * ERR_NO_ENOSPC when the buffer is too small)
+     */
+    public int download_file(String group_name, String remote_filename,
+                             long file_offset, long download_bytes,
+                             byte[] buff, int buff_offset) throws IOException, MyException {
+        ByteBuffer target = ByteBuffer.wrap(buff, buff_offset, buff.length - buff_offset);
+        if (this.download_file(group_name, remote_filename, file_offset, download_bytes, target) != 0) {
+            return -1;
+        }
+
+        return target.position() - buff_offset;
+    }
+
+    /**
+     * download file from storage server to the channel
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param channel         the channel to write file content
+     * @return 0 success, return none zero errno if fail
+     */
+    public int download_file(String group_name, String remote_filename,
+                             WritableByteChannel channel) throws IOException, MyException {
+        final long file_offset = 0;
+        final long download_bytes = 0;
+        return this.download_file(group_name, remote_filename,
+            file_offset, download_bytes, channel);
+    }
+
+    /**
+     * download file from storage server to the channel
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param file_offset     the start offset of the file
+     * @param download_bytes  download bytes, 0 for remain bytes from offset
+     * @param channel         the channel to write file content
+     * @return 0 success, return none zero errno if fail
+     */
+    public int download_file(String group_name, String remote_filename,
+                             long file_offset, long download_bytes,
+                             WritableByteChannel channel) throws IOException, MyException {
+        if (this.isKnownMissing(group_name, remote_filename)) {
+            return this.errno;
+        }
+
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.DOWNLOAD, startTime);
+        long recvBytes = 0;
+        boolean bNewConnection = false;
+
+        try {
+            bNewConnection = this.newReadableStorageConnection(group_name, remote_filename);
+            Socket storageSocket = this.storageServer.getSocket();
+            ProtoCommon.RecvHeaderInfo header;
+            this.send_download_package(group_name, remote_filename, file_offset, download_bytes);
+
+            InputStream in = storageSocket.getInputStream();
+            header = ProtoCommon.recvHeader(in, ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
+            this.errno = header.errno;
+            if (header.errno != 0) {
+                this.recordMissing(group_name, remote_filename);
+                return header.errno;
+            }
+
+            BufferPool bufferPool = ClientGlobal.getDownloadBufferPool();
+            byte[] buff = bufferPool.acquire();
+            try {
+                ByteBuffer bb = ByteBuffer.wrap(buff);
+                long remainBytes = header.body_len;
+                int bytes;
+
+                while (remainBytes > 0) {
+                    if ((bytes = in.read(buff, 0, remainBytes > buff.length ? buff.length : (int)remainBytes)) < 0) {
+                        throw new IOException(
+                            "recv package size " + (header.body_len - remainBytes) + " != " + header.body_len);
+                    }
+
+                    bb.clear();
+                    bb.limit(bytes);
+                    while (bb.hasRemaining()) {
+                        channel.write(bb);
+                    }
+                    remainBytes -= bytes;
+                    recvBytes += bytes;
+                }
+            } finally {
+                bufferPool.release(buff);
+            }
+
+            return 0;
+        } catch (IOException ex) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
+                try {
+                    this.storageServer.close();
+                } catch (IOException ex1) {
+                    ex1.printStackTrace();
+                } finally {
+                    this.storageServer = null;
+                }
+            }
+
+            throw ex;
+        } finally {
+            if (bNewConnection) {
+                try {
+                    this.storageServer.close();
+                } catch (IOException ex1) {
+                    ex1.printStackTrace();
+                } finally {
+                    this.storageServer = null;
+                }
+            }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, group_name, remote_filename,
+                file_offset, 0, recvBytes, startTime);
+        }
+    }
+
+    /**
+     * open a pull mode stream to download file from storage server
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param file_offset     the start offset of the file
+     * @param download_bytes  download bytes, 0 for remain bytes from offset
+     * @return the stream to read file content, return null if fail
+     */
+    public DownloadInputStream open_input_stream(String group_name, String remote_filename,
+                                                 long file_offset, long download_bytes)
+        throws IOException, MyException {
+        return this.open_input_stream(group_name, remote_filename, file_offset, download_bytes,
+            DownloadInputStream.DEFAULT_READAHEAD_SIZE);
+    }
+
+    /**
+     * open a pull mode stream to download file from storage server.
+     * the stream reads directly off the storage connection, so the connection of this client
+     * must not be used by other calls until the stream is closed. closing the stream after
+     * reading all bytes keeps the connection, closing it early discards the connection.
+     * the request is reported to the metrics and the operation listener when the stream is closed.
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param file_offset     the start offset of the file
+     * @param download_bytes  download bytes, 0 for remain bytes from offset
+     * @param readahead_size  the readahead buffer size, 0 for no readahead
+     * @return the stream to read file content, return null if fail
+     */
+    public DownloadInputStream open_input_stream(String group_name, String remote_filename,
+                                                 long file_offset, long download_bytes, int readahead_size)
+        throws IOException, MyException {
+        if (this.isKnownMissing(group_name, remote_filename)) {
+            return null;
+        }
+
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.DOWNLOAD, startTime);
+        boolean bNewConnection = false;
+        StorageServer storage = null;
+        boolean bStreamOpened = false;
+
+        try {
+            bNewConnection = this.newReadableStorageConnection(group_name, remote_filename);
+            storage = this.storageServer;
+            Socket storageSocket = storage.getSocket();
+            ProtoCommon.RecvHeaderInfo header;
+            this.send_download_package(group_name, remote_filename, file_offset, download_bytes);
+
+            header = ProtoCommon.recvHeader(storageSocket.getInputStream(), ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
+            this.errno = header.errno;
+            if (header.errno != 0) {
+                this.recordMissing(group_name, remote_filename);
+                return null;
+            }
+
+            //the stream completes the request when it is closed
+            DownloadInputStream stream = new DownloadInputStream(this, storage, bNewConnection,
+                header.body_len, readahead_size, group_name, remote_filename, file_offset, startTime);
+            bStreamOpened = true;
+            return stream;
+        } catch (IOException ex) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
+                try {
+                    this.storageServer.close();
+                } catch (IOException ex1) {
+                    ex1.printStackTrace();
+                } finally {
+                    this.storageServer = null;
+                }
+            }
+
+            throw ex;
+        } finally {
+            if (bNewConnection) {
+                //the stream owns the new connection and closes it
+                if (!bStreamOpened) {
+                    try {
+                        storage.close();
+                    } catch (IOException ex1) {
+                        ex1.printStackTrace();
+                    }
+                }
+                this.storageServer = null;
+            }
+            if (!bStreamOpened) {
+                this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE, group_name, remote_filename,
+                    file_offset, 0, 0, startTime);
+            }
+        }
+    }
+
+    /**
+     * get all metadata items from storage server
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @return meta info array, return null if fail
+     */
+    public NameValuePair[] get_metadata(final String group_name, final String remote_filename)
+        throws IOException, MyException {
+        if (this.metadataCache != null) {
+            NameValuePair[] meta_list = this.metadataCache.get(
+                group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR + remote_filename);
+            if (meta_list != null) {
+                this.errno = 0;
+                return meta_list;
+            }
+        }
+
+        if (this.isKnownMissing(group_name, remote_filename)) {
+            return null;
+        }
+
+        if (!this.coalesceRequests) {
+            return this.do_get_metadata(group_name, remote_filename);
+        }
+
+        SingleFlight.Call<NameValuePair[]> call = inflight.execute(
+            this.coalesceKey("metadata", group_name, remote_filename),
+            this, new SingleFlight.Task<NameValuePair[]>() {
+                public NameValuePair[] call() throws IOException, MyException {
+                    return do_get_metadata(group_name, remote_filename);
+                }
+            });
+
+        this.errno = call.getErrno();
+        NameValuePair[] meta_list = call.getValue();
+        if (meta_list != null && call.isShared()) {
+            NameValuePair[] copy = new NameValuePair[meta_list.length];
+            for (int i = 0; i < meta_list.length; i++) {
+                copy[i] = new NameValuePair(meta_list[i].getName(), meta_list[i].getValue());
+            }
+            return copy;
+        }
+        return meta_list;
+    }
+
+    private NameValuePair[] do_get_metadata(String group_name, String remote_filename)
+        throws IOException, MyException {
+        byte[] body = this.recv_metadata(group_name, remote_filename);
+        if (body == null) {
+            return null;
+        }
+
+        NameValuePair[] meta_list = MetadataCodec.decode(body, 0, body.length,
+            ClientGlobal.getCharset());
+        if (this.metadataCache != null) {
+            this.metadataCache.put(group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR
+                + remote_filename, meta_list);
+        }
+        return meta_list;
+    }
+
+    /**
+     * get metadata items from storage server, the items are passed to the visitor one by one
+     * without creating the NameValuePair array
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param visitor         the visitor of metadata items
+     * @return 0 for success, !=0 fail (error code)
+     */
+    public int get_metadata(String group_name, String remote_filename, MetadataVisitor visitor)
+        throws IOException, MyException {
+        if (this.metadataCache != null) {
+            //the cache keeps the whole array
+            NameValuePair[] meta_list = this.get_metadata(group_name, remote_filename);
+            if (meta_list == null) {
+                return this.errno;
+            }
+            for (NameValuePair item : meta_list) {
+                if (!visitor.visit(item.getName(), item.getValue())) {
+                    break;
+                }
+            }
+            return 0;
+        }
+
+        if (this.isKnownMissing(group_name, remote_filename)) {
+            return this.errno;
+        }
+
+        byte[] body = this.recv_metadata(group_name, remote_filename);
+        if (body == null) {
+            return this.errno;
+        }
+
+        MetadataCodec.visit(body, 0, body.length, ClientGlobal.getCharset(), visitor);
+        return 0;
+    }
+
+    /**
+     * send the get metadata command and receive the metadata body
+     *
+     * @return the metadata body, return null if fail
+     */
+    private byte[] recv_metadata(String group_name, String remote_filename)
+        throws IOException, MyException {
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.METADATA, startTime);
+        long recvBytes = 0;
+        boolean bNewConnection = false;
+
+        try {
+            bNewConnection = this.newUpdatableStorageConnection(group_name, remote_filename);
+            Socket storageSocket = this.storageServer.getSocket();
+            ProtoCommon.RecvPackageInfo pkgInfo;
 
             this.send_package(ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA, group_name, remote_filename);
             pkgInfo = ProtoCommon.recvPackage(storageSocket.getInputStream(),
                 ProtoCommon.STORAGE_PROTO_CMD_RESP, -1);
 
+            //not recorded as missing, ERR_NO_ENOENT may mean the file has no metadata
             this.errno = pkgInfo.errno;
             if (pkgInfo.errno != 0) {
                 return null;
             }
 
-            return ProtoCommon.split_metadata(new String(pkgInfo.body, ClientGlobal.g_charset));
+            recvBytes = pkgInfo.body.length;
+            return pkgInfo.body;
         } catch (IOException ex) {
-            if (!bNewConnection) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
                 try {
                     this.storageServer.close();
                 } catch (IOException ex1) {
@@ -1498,6 +2472,8 @@ public class StorageClient {
                     this.storageServer = null;
                 }
             }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA, group_name, remote_filename,
+                0, 0, recvBytes, startTime);
         }
     }
 
@@ -1516,71 +2492,82 @@ public class StorageClient {
      */
     public int set_metadata(String group_name, String remote_filename,
                             NameValuePair[] meta_list, byte op_flag) throws IOException, MyException {
-        boolean bNewConnection = this.newUpdatableStorageConnection(group_name, remote_filename);
-        Socket storageSocket = this.storageServer.getSocket();
+        if (this.metadataCache == null) {
+            return this.do_set_metadata(group_name, remote_filename, meta_list, op_flag);
+        }
 
+        String file_id = group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR + remote_filename;
+        int result;
         try {
+            result = this.do_set_metadata(group_name, remote_filename, meta_list, op_flag);
+        } catch (IOException ex) {
+            this.metadataCache.remove(file_id);  //unknown if the storage server applied it
+            throw ex;
+        }
+
+        if (result == 0) {
+            this.metadataCache.update(file_id, meta_list, op_flag);
+        }
+        return result;
+    }
+
+    private int do_set_metadata(String group_name, String remote_filename,
+                                NameValuePair[] meta_list, byte op_flag) throws IOException, MyException {
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.METADATA, startTime);
+        long sentBytes = 0;
+        boolean bNewConnection = false;
+
+        try {
+            bNewConnection = this.newUpdatableStorageConnection(group_name, remote_filename);
+            Socket storageSocket = this.storageServer.getSocket();
             //头信息
             byte[] header;
             //组名的字节数组
             byte[] groupBytes;
             //文件名的字节数组
             byte[] filenameBytes;
-            //meta的字节数组
-            byte[] meta_buff;
             byte[] bs;
-            //组的长度
-            int groupLen;
             //字节数组的长度
             byte[] sizeBytes;
+            int metaLen;
             ProtoCommon.RecvPackageInfo pkgInfo;
 
-            if (meta_list == null) {
-                meta_buff = new byte[0];
-            } else {
-                //如果传了meta的信息
-                meta_buff = ProtoCommon.pack_metadata(meta_list).getBytes(ClientGlobal.g_charset);
-            }
+            Charset charset = ClientGlobal.getCharset();
+            filenameBytes = remote_filename.getBytes(charset);
+            //16个字节长度的组的字节数组信息
+            groupBytes = ProtoCommon.getGroupNameBytes(group_name);
+
+            //the metadata is encoded into the package directly after the fixed fields
+            int metaOffset = ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + 2 + 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + 1
+                + groupBytes.length + filenameBytes.length;
+            byte[] wholePkg = new byte[metaOffset +
+                (meta_list == null ? 0 : MetadataCodec.maxEncodedLength(meta_list, charset))];
+            metaLen = meta_list == null ? 0 : MetadataCodec.encode(meta_list, charset, wholePkg, metaOffset);
 
-            filenameBytes = remote_filename.getBytes(ClientGlobal.g_charset);
             sizeBytes = new byte[2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
             Arrays.fill(sizeBytes, (byte)0);
             //转换为大头
             bs = ProtoCommon.long2buff(filenameBytes.length);
             //size数组的前八位是 文件名的长度
             System.arraycopy(bs, 0, sizeBytes, 0, bs.length);
-            bs = ProtoCommon.long2buff(meta_buff.length);
+            bs = ProtoCommon.long2buff(metaLen);
             //接下来的八位是 meta的信息
             System.arraycopy(bs, 0, sizeBytes, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, bs.length);
-            //16个字节长度的数组
-            groupBytes = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
-            bs = group_name.getBytes(ClientGlobal.g_charset);
-
-            Arrays.fill(groupBytes, (byte)0);
-            if (bs.length <= groupBytes.length) {
-                groupLen = bs.length;
-            } else {
-                groupLen = groupBytes.length;
-            }
-            //组的字节数组信息
-            System.arraycopy(bs, 0, groupBytes, 0, groupLen);
             //头的长度13+16+1+groupBytes+filenameBytes+meta_buff+0
             header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA,
                 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + 1 + groupBytes.length
-                    + filenameBytes.length + meta_buff.length, (byte)0);
+                    + filenameBytes.length + metaLen, (byte)0);
             OutputStream out = storageSocket.getOutputStream();
             //整个包的信息 10+16+1+16+
-            byte[] wholePkg = new byte[header.length + sizeBytes.length + 1 + groupBytes.length + filenameBytes.length];
             System.arraycopy(header, 0, wholePkg, 0, header.length);
             System.arraycopy(sizeBytes, 0, wholePkg, header.length, sizeBytes.length);
             wholePkg[header.length + sizeBytes.length] = op_flag;
             System.arraycopy(groupBytes, 0, wholePkg, header.length + sizeBytes.length + 1, groupBytes.length);
             System.arraycopy(filenameBytes, 0, wholePkg, header.length + sizeBytes.length + 1 + groupBytes.length,
                 filenameBytes.length);
-            out.write(wholePkg);
-            if (meta_buff.length > 0) {
-                out.write(meta_buff);
-            }
+            out.write(wholePkg, 0, metaOffset + metaLen);
+            sentBytes = metaLen;
             //返回的信息
             pkgInfo = ProtoCommon.recvPackage(storageSocket.getInputStream(),
                 ProtoCommon.STORAGE_PROTO_CMD_RESP, 0);
@@ -1588,7 +2575,8 @@ public class StorageClient {
             this.errno = pkgInfo.errno;
             return pkgInfo.errno;
         } catch (IOException ex) {
-            if (!bNewConnection) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
                 try {
                     this.storageServer.close();
                 } catch (IOException ex1) {
@@ -1609,6 +2597,8 @@ public class StorageClient {
                     this.storageServer = null;
                 }
             }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA, group_name, remote_filename,
+                0, sentBytes, 0, startTime);
         }
     }
 
@@ -1620,20 +2610,13 @@ public class StorageClient {
      * @return FileInfo object for success, return null for fail
      */
     public FileInfo get_file_info(String group_name, String remote_filename) throws IOException, MyException {
-        if (remote_filename.length() < ProtoCommon.FDFS_FILE_PATH_LEN + ProtoCommon.FDFS_FILENAME_BASE64_LENGTH
-            + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN + 1) {
+        FileIdInfo info = fileIdInfo.get();
+        if (!info.parseFilename(remote_filename)) {
             this.errno = ProtoCommon.ERR_NO_EINVAL;
             return null;
         }
 
-        byte[] buff = base64.decodeAuto(remote_filename.substring(ProtoCommon.FDFS_FILE_PATH_LEN,
-            ProtoCommon.FDFS_FILE_PATH_LEN + ProtoCommon.FDFS_FILENAME_BASE64_LENGTH));
-
-        long file_size = ProtoCommon.buff2long(buff, 4 * 2);
-        if (((remote_filename.length() > ProtoCommon.TRUNK_LOGIC_FILENAME_LENGTH) ||
-            ((remote_filename.length() > ProtoCommon.NORMAL_LOGIC_FILENAME_LENGTH) && (
-                (file_size & ProtoCommon.TRUNK_FILE_MARK_SIZE) == 0))) ||
-            ((file_size & ProtoCommon.APPENDER_FILE_SIZE) != 0)) { //slave file or appender file
+        if (info.isSlaveFile() || info.isAppenderFile()) { //slave file or appender file
             FileInfo fi = this.query_file_info(group_name, remote_filename);
             if (fi == null) {
                 return null;
@@ -1641,15 +2624,7 @@ public class StorageClient {
             return fi;
         }
 
-        FileInfo fileInfo = new FileInfo(file_size, 0, 0, ProtoCommon.getIpAddress(buff, 0));
-        fileInfo.setCreateTimestamp(ProtoCommon.buff2int(buff, 4));
-        if ((file_size >> 63) != 0) {
-            file_size &= 0xFFFFFFFFL;  //low 32 bits is file size
-            fileInfo.setFileSize(file_size);
-        }
-        fileInfo.setCrc32(ProtoCommon.buff2int(buff, 4 * 4));
-
-        return fileInfo;
+        return info.toFileInfo();
     }
 
     /**
@@ -1659,29 +2634,49 @@ public class StorageClient {
      * @param remote_filename filename on storage server
      * @return FileInfo object for success, return null for fail
      */
-    public FileInfo query_file_info(String group_name, String remote_filename) throws IOException, MyException {
-        boolean bNewConnection = this.newUpdatableStorageConnection(group_name, remote_filename);
-        Socket storageSocket = this.storageServer.getSocket();
+    public FileInfo query_file_info(final String group_name, final String remote_filename)
+        throws IOException, MyException {
+        if (this.isKnownMissing(group_name, remote_filename)) {
+            return null;
+        }
+
+        if (!this.coalesceRequests) {
+            return this.do_query_file_info(group_name, remote_filename);
+        }
+
+        SingleFlight.Call<FileInfo> call = inflight.execute(
+            this.coalesceKey("file_info", group_name, remote_filename),
+            this, new SingleFlight.Task<FileInfo>() {
+                public FileInfo call() throws IOException, MyException {
+                    return do_query_file_info(group_name, remote_filename);
+                }
+            });
+
+        this.errno = call.getErrno();
+        FileInfo fileInfo = call.getValue();
+        if (fileInfo != null && call.isShared()) {
+            FileInfo copy = new FileInfo(fileInfo.file_size, 0, fileInfo.crc32, fileInfo.source_ip_addr);
+            copy.create_timestamp = (Date)fileInfo.create_timestamp.clone();
+            return copy;
+        }
+        return fileInfo;
+    }
+
+    private FileInfo do_query_file_info(String group_name, String remote_filename) throws IOException, MyException {
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.METADATA, startTime);
+        boolean bNewConnection = false;
 
         try {
+            bNewConnection = this.newUpdatableStorageConnection(group_name, remote_filename);
+            Socket storageSocket = this.storageServer.getSocket();
             byte[] header;
             byte[] groupBytes;
             byte[] filenameBytes;
-            byte[] bs;
-            int groupLen;
             ProtoCommon.RecvPackageInfo pkgInfo;
 
-            filenameBytes = remote_filename.getBytes(ClientGlobal.g_charset);
-            groupBytes = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
-            bs = group_name.getBytes(ClientGlobal.g_charset);
-
-            Arrays.fill(groupBytes, (byte)0);
-            if (bs.length <= groupBytes.length) {
-                groupLen = bs.length;
-            } else {
-                groupLen = groupBytes.length;
-            }
-            System.arraycopy(bs, 0, groupBytes, 0, groupLen);
+            filenameBytes = remote_filename.getBytes(ClientGlobal.getCharset());
+            groupBytes = ProtoCommon.getGroupNameBytes(group_name);
 
             header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO,
                 +groupBytes.length + filenameBytes.length, (byte)0);
@@ -1699,6 +2694,7 @@ public class StorageClient {
 
             this.errno = pkgInfo.errno;
             if (pkgInfo.errno != 0) {
+                this.recordMissing(group_name, remote_filename);
                 return null;
             }
 
@@ -1709,7 +2705,8 @@ public class StorageClient {
                 ProtoCommon.FDFS_IPADDR_SIZE)).trim();
             return new FileInfo(file_size, create_timestamp, crc32, source_ip_addr);
         } catch (IOException ex) {
-            if (!bNewConnection) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
+            if (!bNewConnection && this.storageServer != null) {
                 try {
                     this.storageServer.close();
                 } catch (IOException ex1) {
@@ -1730,9 +2727,93 @@ public class StorageClient {
                     this.storageServer = null;
                 }
             }
+            this.operationCompleted(ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO, group_name, remote_filename, 0, 0, 0, startTime);
         }
     }
 
+    /**
+     * record the client metrics and call the operation listener after a request to the storage server
+     *
+     * @param start_time the System.nanoTime() before the request
+     */
+    protected void operationCompleted(byte cmd, String group_name, String remote_filename, long file_offset,
+                                      long request_bytes, long response_bytes, long start_time) {
+        RequestTiming.end(this.clientMetrics, cmd, group_name, null, request_bytes, response_bytes, this.errno & 0xFF);
+        this.notifyOperationListener(cmd, group_name, remote_filename, file_offset,
+            request_bytes, response_bytes, start_time, this.errno);
+    }
+
+    /**
+     * call the operation listener if set
+     *
+     * @param start_time the System.nanoTime() before the request
+     * @param errno      the error code of the request
+     */
+    void notifyOperationListener(byte cmd, String group_name, String remote_filename, long file_offset,
+                                 long request_bytes, long response_bytes, long start_time, byte errno) {
+        if (this.operationListener == null) {
+            return;
+        }
+
+        try {
+            this.operationListener.operationCompleted(cmd, group_name, remote_filename, file_offset,
+                request_bytes, response_bytes, System.nanoTime() - start_time, errno);
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * check if the file can not be changed after uploaded, decoded from the filename
+     *
+     * @param remote_filename filename on storage server
+     * @return false for appender file or invalid filename
+     */
+    protected static boolean isImmutableFile(String remote_filename) {
+        if (remote_filename.length() < ProtoCommon.FDFS_FILE_PATH_LEN + ProtoCommon.FDFS_FILENAME_BASE64_LENGTH
+            + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN + 1) {
+            return false;
+        }
+
+        FileIdInfo info = fileIdInfo.get();
+        return info.parseFilename(remote_filename) && !info.isAppenderFile();
+    }
+
+    /**
+     * check the capacity of the caller buffer before download,
+     * the file size is taken from get_file_info when download_bytes does not decide it
+     *
+     * @param group_name      the group name of storage server
+     * @param remote_filename filename on storage server
+     * @param file_offset     the start offset of the file
+     * @param download_bytes  download bytes, 0 for remain bytes from offset
+     * @param capacity        the bytes the caller buffer can hold
+     * @return true if the buffer is large enough, otherwise false and errno is set
+     */
+    protected boolean checkDownloadCapacity(String group_name, String remote_filename,
+                                            long file_offset, long download_bytes, long capacity)
+        throws IOException, MyException {
+        if (download_bytes > 0 && download_bytes <= capacity) {
+            return true;
+        }
+
+        FileInfo fileInfo = this.get_file_info(group_name, remote_filename);
+        if (fileInfo == null) {
+            return false;
+        }
+
+        long expect_bytes = fileInfo.getFileSize() - file_offset;
+        if (download_bytes > 0 && download_bytes < expect_bytes) {
+            expect_bytes = download_bytes;
+        }
+        if (expect_bytes > capacity) {
+            this.errno = ProtoCommon.ERR_NO_ENOSPC;
+            return false;
+        }
+
+        return true;
+    }
+
     /**
      * check storage socket, if null create a new connection
      *
@@ -1741,13 +2822,17 @@ public class StorageClient {
      */
     protected boolean newWritableStorageConnection(String group_name) throws IOException, MyException {
         if (this.storageServer != null) {
+            RequestTiming.connected(this.storageServer.getInetSocketAddress());
             return false;
         } else {
             TrackerClient tracker = new TrackerClient();
+            tracker.setClientMetrics(this.clientMetrics);
             this.storageServer = tracker.getStoreStorage(this.trackerServer, group_name);
             if (this.storageServer == null) {
+                this.errno = tracker.getErrorCode() != 0 ? tracker.getErrorCode() : ProtoCommon.ECONNREFUSED;
                 throw new MyException("getStoreStorage fail, errno code: " + tracker.getErrorCode());
             }
+            RequestTiming.connected(this.storageServer.getInetSocketAddress());
             return true;
         }
     }
@@ -1762,13 +2847,17 @@ public class StorageClient {
     protected boolean newReadableStorageConnection(String group_name, String remote_filename)
         throws IOException, MyException {
         if (this.storageServer != null) {
+            RequestTiming.connected(this.storageServer.getInetSocketAddress());
             return false;
         } else {
             TrackerClient tracker = new TrackerClient();
+            tracker.setClientMetrics(this.clientMetrics);
             this.storageServer = tracker.getFetchStorage(this.trackerServer, group_name, remote_filename);
             if (this.storageServer == null) {
+                this.errno = tracker.getErrorCode() != 0 ? tracker.getErrorCode() : ProtoCommon.ECONNREFUSED;
                 throw new MyException("getStoreStorage fail, errno code: " + tracker.getErrorCode());
             }
+            RequestTiming.connected(this.storageServer.getInetSocketAddress());
             return true;
         }
     }
@@ -1783,13 +2872,17 @@ public class StorageClient {
     protected boolean newUpdatableStorageConnection(String group_name, String remote_filename)
         throws IOException, MyException {
         if (this.storageServer != null) {
+            RequestTiming.connected(this.storageServer.getInetSocketAddress());
             return false;
         } else {
             TrackerClient tracker = new TrackerClient();
+            tracker.setClientMetrics(this.clientMetrics);
             this.storageServer = tracker.getUpdateStorage(this.trackerServer, group_name, remote_filename);
             if (this.storageServer == null) {
+                this.errno = tracker.getErrorCode() != 0 ? tracker.getErrorCode() : ProtoCommon.ECONNREFUSED;
                 throw new MyException("getStoreStorage fail, errno code: " + tracker.getErrorCode());
             }
+            RequestTiming.connected(this.storageServer.getInetSocketAddress());
             return true;
         }
     }
@@ -1805,21 +2898,10 @@ public class StorageClient {
         byte[] header;
         byte[] groupBytes;
         byte[] filenameBytes;
-        byte[] bs;
-        int groupLen;
         //groupBytes 16个字节
-        groupBytes = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
-        bs = group_name.getBytes(ClientGlobal.g_charset);
+        groupBytes = ProtoCommon.getGroupNameBytes(group_name);
         //文件名M01/00/
-        filenameBytes = remote_filename.getBytes(ClientGlobal.g_charset);
-
-        Arrays.fill(groupBytes, (byte)0);
-        if (bs.length <= groupBytes.length) {
-            groupLen = bs.length;
-        } else {
-            groupLen = groupBytes.length;
-        }
-        System.arraycopy(bs, 0, groupBytes, 0, groupLen);
+        filenameBytes = remote_filename.getBytes(ClientGlobal.getCharset());
         // body_len = 16+filenameBytes.length
         header = ProtoCommon.packHeader(cmd, groupBytes.length + filenameBytes.length, (byte)0);
         //10+16+filenameBytes.length
@@ -1850,32 +2932,14 @@ public class StorageClient {
         byte[] groupBytes;
         //文件名字的字节数组 /M00/00/00/ssssss.文件
         byte[] filenameBytes;
-        //传进来的group字节数组
-        byte[] bs;
-        //group的长度
-        int groupLen;
         //大头转换 长度为8的byte数组
         bsOffset = ProtoCommon.long2buff(file_offset);
         //大头转换 长度为8的byte数组
         bsDownBytes = ProtoCommon.long2buff(download_bytes);
-        //长度为16的数组
-        groupBytes = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
-        //将组名转换为字节数组 根据配置文件中设置的格式 group1
-        bs = group_name.getBytes(ClientGlobal.g_charset);
+        //长度为16的group字节数组 根据配置文件中设置的格式 group1 不足的部分填充为0
+        groupBytes = ProtoCommon.getGroupNameBytes(group_name);
         //将文件名转换为字节数组 /M00/00/00/ssssss.文件
-        filenameBytes = remote_filename.getBytes(ClientGlobal.g_charset);
-        //将group数组全部填充为0
-        Arrays.fill(groupBytes, (byte)0);
-        //如果group名字的数组小于最大group名的长度
-        if (bs.length <= groupBytes.length) {
-            //将组的长度 设置为group的字节数组长度
-            groupLen = bs.length;
-        } else {
-            //组的长度最大为 最大组的字节长度
-            groupLen = groupBytes.length;
-        }
-        //将group字节数组中的值copy到 最大长度的group字节数组中
-        System.arraycopy(bs, 0, groupBytes, 0, groupLen);
+        filenameBytes = remote_filename.getBytes(ClientGlobal.getCharset());
         //header的0~7是是pkg的len 8是命令 9是状态码
         header = ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE,
             bsOffset.length + bsDownBytes.length + groupBytes.length + filenameBytes.length, (byte)0);
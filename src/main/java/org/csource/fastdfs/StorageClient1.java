@@ -9,6 +9,8 @@
 package org.csource.fastdfs;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 import org.csource.common.MyException;
 import org.csource.common.NameValuePair;
@@ -122,6 +124,43 @@ public class StorageClient1 extends StorageClient {
         }
     }
 
+    /**
+     * upload file to storage server (by ByteBuffer)
+     * @param file_buff file content from position to limit, heap or direct buffer
+     * @param file_ext_name file ext name, do not include dot(.)
+     * @param meta_list meta info array
+     * @return file id(including group name and filename) if success, <br>
+     *         return null if fail
+     */
+    public String upload_file1(ByteBuffer file_buff, String file_ext_name,
+                               NameValuePair[] meta_list) throws IOException, MyException {
+        String parts[] = this.upload_file(file_buff, file_ext_name, meta_list);
+        if (parts != null) {
+            return parts[0] + SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR + parts[1];
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * upload file to storage server (by ByteBuffer)
+     * @param group_name the group name to upload file to, can be empty
+     * @param file_buff file content from position to limit, heap or direct buffer
+     * @param file_ext_name file ext name, do not include dot(.)
+     * @param meta_list meta info array
+     * @return file id(including group name and filename) if success, <br>
+     *         return null if fail
+     */
+    public String upload_file1(String group_name, ByteBuffer file_buff, String file_ext_name,
+                               NameValuePair[] meta_list) throws IOException, MyException {
+        String parts[] = this.upload_file(group_name, file_buff, file_ext_name, meta_list);
+        if (parts != null) {
+            return parts[0] + SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR + parts[1];
+        } else {
+            return null;
+        }
+    }
+
     /**
      * upload file to storage server (by callback)
      * @param group_name the group name to upload file to, can be empty
@@ -572,6 +611,22 @@ public class StorageClient1 extends StorageClient {
         return this.download_file(parts[0], parts[1], file_offset, download_bytes);
     }
 
+    /**
+     * download file content without copy, a disk cache hit is a slice of the mapped segment,
+     * download from storage server if not cached. the returned buffer must be closed after use
+     * @param file_id the file id(including group name and filename)
+     * @return read-only file content, return null if fail
+     */
+    public DownloadBuffer download_file_buffer1(String file_id) throws IOException, MyException {
+        String[] parts = new String[2];
+        this.errno = this.split_file_id(file_id, parts);
+        if (this.errno != 0) {
+            return null;
+        }
+
+        return this.download_file_buffer(parts[0], parts[1]);
+    }
+
     /**
      * download file from storage server
      * @param file_id the file id(including group name and filename)
@@ -636,6 +691,167 @@ public class StorageClient1 extends StorageClient {
         return this.download_file(parts[0], parts[1], file_offset, download_bytes, callback);
     }
 
+    /**
+     * download file from storage server
+     * @param file_id the file id(including group name and filename)
+     * @param callback the callback object, will call callback.recv() with read-only slices when data arrive
+     * @return 0 success, return none zero errno if fail
+     */
+    public int download_file1(String file_id, DownloadByteBufferCallback callback) throws IOException, MyException {
+        final long file_offset = 0;
+        final long download_bytes = 0;
+
+        return this.download_file1(file_id, file_offset, download_bytes, callback);
+    }
+
+    /**
+     * download file from storage server
+     * @param file_id the file id(including group name and filename)
+     * @param file_offset the start offset of the file
+     * @param download_bytes download bytes, 0 for remain bytes from offset
+     * @param callback the callback object, will call callback.recv() with read-only slices when data arrive
+     * @return 0 success, return none zero errno if fail
+     */
+    public int download_file1(String file_id, long file_offset, long download_bytes,
+                              DownloadByteBufferCallback callback) throws IOException, MyException {
+        String[] parts = new String[2];
+        this.errno = this.split_file_id(file_id, parts);
+        if (this.errno != 0) {
+            return this.errno;
+        }
+
+        return this.download_file(parts[0], parts[1], file_offset, download_bytes, callback);
+    }
+
+    /**
+     * download file from storage server to the buffer
+     * @param file_id the file id(including group name and filename)
+     * @param target the buffer to fill from its position, heap or direct buffer
+     * @return 0 success, return none zero errno if fail
+     */
+    public int download_file1(String file_id, ByteBuffer target) throws IOException, MyException {
+        final long file_offset = 0;
+        final long download_bytes = 0;
+
+        return this.download_file1(file_id, file_offset, download_bytes, target);
+    }
+
+    /**
+     * download file from storage server to the buffer
+     * @param file_id the file id(including group name and filename)
+     * @param file_offset the start offset of the file
+     * @param download_bytes download bytes, 0 for remain bytes from offset
+     * @param target the buffer to fill from its position, heap or direct buffer
+     * @return 0 success, return none zero errno if fail
+     */
+    public int download_file1(String file_id, long file_offset, long download_bytes, ByteBuffer target)
+        throws IOException, MyException {
+        String[] parts = new String[2];
+        this.errno = this.split_file_id(file_id, parts);
+        if (this.errno != 0) {
+            return this.errno;
+        }
+
+        return this.download_file(parts[0], parts[1], file_offset, download_bytes, target);
+    }
+
+    /**
+     * download file from storage server to the caller buffer
+     * @param file_id the file id(including group name and filename)
+     * @param buff the buffer to fill from index 0
+     * @return downloaded bytes, return -1 if fail (call getErrorCode() for the error code)
+     */
+    public int download_file1(String file_id, byte[] buff) throws IOException, MyException {
+        final long file_offset = 0;
+        final long download_bytes = 0;
+
+        return this.download_file1(file_id, file_offset, download_bytes, buff, 0);
+    }
+
+    /**
+     * download file from storage server to the caller buffer
+     * @param file_id the file id(including group name and filename)
+     * @param file_offset the start offset of the file
+     * @param download_bytes download bytes, 0 for remain bytes from offset
+     * @param buff the buffer to fill
+     * @param buff_offset the start offset of the buffer
+     * @return downloaded bytes, return -1 if fail (call getErrorCode() for the error code)
+     */
+    public int download_file1(String file_id, long file_offset, long download_bytes, byte[] buff, int buff_offset)
+        throws IOException, MyException {
+        String[] parts = new String[2];
+        this.errno = this.split_file_id(file_id, parts);
+        if (this.errno != 0) {
+            return -1;
+        }
+
+        return this.download_file(parts[0], parts[1], file_offset, download_bytes, buff, buff_offset);
+    }
+
+    /**
+     * download file from storage server to the channel
+     * @param file_id the file id(including group name and filename)
+     * @param channel the channel to write file content
+     * @return 0 success, return none zero errno if fail
+     */
+    public int download_file1(String file_id, WritableByteChannel channel) throws IOException, MyException {
+        final long file_offset = 0;
+        final long download_bytes = 0;
+
+        return this.download_file1(file_id, file_offset, download_bytes, channel);
+    }
+
+    /**
+     * download file from storage server to the channel
+     * @param file_id the file id(including group name and filename)
+     * @param file_offset the start offset of the file
+     * @param download_bytes download bytes, 0 for remain bytes from offset
+     * @param channel the channel to write file content
+     * @return 0 success, return none zero errno if fail
+     */
+    public int download_file1(String file_id, long file_offset, long download_bytes, WritableByteChannel channel)
+        throws IOException, MyException {
+        String[] parts = new String[2];
+        this.errno = this.split_file_id(file_id, parts);
+        if (this.errno != 0) {
+            return this.errno;
+        }
+
+        return this.download_file(parts[0], parts[1], file_offset, download_bytes, channel);
+    }
+
+    /**
+     * open a pull mode stream to download file from storage server
+     * @param file_id the file id(including group name and filename)
+     * @param file_offset the start offset of the file
+     * @param download_bytes download bytes, 0 for remain bytes from offset
+     * @return the stream to read file content, return null if fail
+     */
+    public DownloadInputStream open_input_stream1(String file_id, long file_offset, long download_bytes)
+        throws IOException, MyException {
+        return this.open_input_stream1(file_id, file_offset, download_bytes,
+            DownloadInputStream.DEFAULT_READAHEAD_SIZE);
+    }
+
+    /**
+     * open a pull mode stream to download file from storage server
+     * @param file_id the file id(including group name and filename)
+     * @param file_offset the start offset of the file
+     * @param download_bytes download bytes, 0 for remain bytes from offset
+     * @param readahead_size the readahead buffer size, 0 for no readahead
+     * @return the stream to read file content, return null if fail
+     */
+    public DownloadInputStream open_input_stream1(String file_id, long file_offset, long download_bytes,
+                                                  int readahead_size) throws IOException, MyException {
+        String[] parts = new String[2];
+        this.errno = this.split_file_id(file_id, parts);
+        if (this.errno != 0) {
+            return null;
+        }
+
+        return this.open_input_stream(parts[0], parts[1], file_offset, download_bytes, readahead_size);
+    }
+
     /**
      * get all metadata items from storage server
      * @param file_id the file id(including group name and filename)
@@ -651,6 +867,22 @@ public class StorageClient1 extends StorageClient {
         return this.get_metadata(parts[0], parts[1]);
     }
 
+    /**
+     * get metadata items from storage server, the items are passed to the visitor one by one
+     * @param file_id the file id(including group name and filename)
+     * @param visitor the visitor of metadata items
+     * @return 0 for success, !=0 fail (error code)
+     */
+    public int get_metadata1(String file_id, MetadataVisitor visitor) throws IOException, MyException {
+        String[] parts = new String[2];
+        this.errno = this.split_file_id(file_id, parts);
+        if (this.errno != 0) {
+            return this.errno;
+        }
+
+        return this.get_metadata(parts[0], parts[1], visitor);
+    }
+
     /**
      * set metadata items to storage server
      * @param file_id the file id(including group name and filename)
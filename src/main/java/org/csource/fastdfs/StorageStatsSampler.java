@@ -0,0 +1,455 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Poll listGroups and listStorages on an interval and keep the last snapshots of the cumulative
+ * counters of each storage server in a ring buffer, turning them into per-second rates,
+ * success ratios and sync lag.
+ * <pre>
+ * StorageStatsSampler sampler = new StorageStatsSampler(10);
+ * sampler.start();
+ * StorageStatsSampler.StorageSeries series = sampler.getSeries("group1", "192.168.0.1");
+ * double uploads = series.getRate(StorageStatsSampler.UPLOAD, false, 60);
+ * double ratio = series.getSuccessRatio(StorageStatsSampler.DOWNLOAD, 60);
+ * </pre>
+ * a counter less than the previous snapshot is taken as a storage server restart.
+ */
+public class StorageStatsSampler implements Closeable {
+    public static final int DEFAULT_CAPACITY = 120;
+
+    /**
+     * the counters, each with the total and the success value
+     */
+    public static final int UPLOAD = 0;
+    public static final int APPEND = 1;
+    public static final int MODIFY = 2;
+    public static final int TRUNCATE = 3;
+    public static final int SET_META = 4;
+    public static final int DELETE = 5;
+    public static final int DOWNLOAD = 6;
+    public static final int GET_META = 7;
+    public static final int CREATE_LINK = 8;
+    public static final int DELETE_LINK = 9;
+    public static final int UPLOAD_BYTES = 10;
+    public static final int APPEND_BYTES = 11;
+    public static final int MODIFY_BYTES = 12;
+    public static final int DOWNLOAD_BYTES = 13;
+    public static final int SYNC_IN_BYTES = 14;
+    public static final int SYNC_OUT_BYTES = 15;
+    public static final int FILE_OPEN = 16;
+    public static final int FILE_READ = 17;
+    public static final int FILE_WRITE = 18;
+    public static final String[] COUNTER_NAMES = {"upload", "append", "modify", "truncate", "set_meta",
+        "delete", "download", "get_meta", "create_link", "delete_link", "upload_bytes", "append_bytes",
+        "modify_bytes", "download_bytes", "sync_in_bytes", "sync_out_bytes", "file_open", "file_read", "file_write"};
+
+    /**
+     * the time series of a storage server
+     */
+    public static class StorageSeries {
+        private final String groupName;
+        private final String ipAddr;
+        private final long[] times;
+        private final long[][] values;     //[sample][counter * 2 + (success ? 1 : 0)]
+        private final long[] syncedTimes;
+        private int head;                  //index of the next sample
+        private int count;
+        private StructStorageStat lastStat;
+
+        StorageSeries(String groupName, String ipAddr, int capacity) {
+            this.groupName = groupName;
+            this.ipAddr = ipAddr;
+            this.times = new long[capacity];
+            this.values = new long[capacity][];
+            this.syncedTimes = new long[capacity];
+        }
+
+        synchronized void add(long time, StructStorageStat stat) {
+            this.times[this.head] = time;
+            this.values[this.head] = countersOf(stat);
+            Date synced = stat.getLastSyncedTimestamp();
+            this.syncedTimes[this.head] = synced == null ? 0 : synced.getTime();
+            this.head = (this.head + 1) % this.times.length;
+            if (this.count < this.times.length) {
+                this.count++;
+            }
+            this.lastStat = stat;
+        }
+
+        public String getGroupName() {
+            return this.groupName;
+        }
+
+        public String getIpAddr() {
+            return this.ipAddr;
+        }
+
+        /**
+         * @return the stat of the last sample
+         */
+        public synchronized StructStorageStat getLastStat() {
+            return this.lastStat;
+        }
+
+        /**
+         * @return the count of the samples kept
+         */
+        public synchronized int size() {
+            return this.count;
+        }
+
+        /**
+         * @return the sample times in milliseconds, the oldest first
+         */
+        public synchronized long[] getTimes() {
+            long[] results = new long[this.count];
+            for (int i = 0; i < this.count; i++) {
+                results[i] = this.times[this.indexOf(i)];
+            }
+            return results;
+        }
+
+        /**
+         * @param counter the counter, such as UPLOAD
+         * @param success true for the success value, false for the total value
+         * @return the cumulative values of the samples, the oldest first
+         */
+        public synchronized long[] getValues(int counter, boolean success) {
+            int field = counter * 2 + (success ? 1 : 0);
+            long[] results = new long[this.count];
+            for (int i = 0; i < this.count; i++) {
+                results[i] = this.values[this.indexOf(i)][field];
+            }
+            return results;
+        }
+
+        /**
+         * @param counter the counter, such as UPLOAD
+         * @param success true for the success value, false for the total value
+         * @return the per-second rates between the samples, the oldest first, one less than the samples
+         */
+        public synchronized double[] getRates(int counter, boolean success) {
+            int field = counter * 2 + (success ? 1 : 0);
+            double[] results = new double[Math.max(this.count - 1, 0)];
+            for (int i = 1; i < this.count; i++) {
+                int prev = this.indexOf(i - 1);
+                int curr = this.indexOf(i);
+                results[i - 1] = rateOf(this.values[prev][field], this.values[curr][field],
+                    this.times[curr] - this.times[prev]);
+            }
+            return results;
+        }
+
+        /**
+         * @param counter the counter, such as UPLOAD
+         * @param success true for the success value, false for the total value
+         * @param window the window in seconds back from the last sample
+         * @return the per-second rate, NaN when less than 2 samples in the window
+         */
+        public synchronized double getRate(int counter, boolean success, int window) {
+            int first = this.firstInWindow(window);
+            if (first < 0) {
+                return Double.NaN;
+            }
+
+            int last = this.count - 1;
+            long elapsed = this.times[this.indexOf(last)] - this.times[this.indexOf(first)];
+            return rateOf(0, this.increaseOf(counter * 2 + (success ? 1 : 0), first, last), elapsed);
+        }
+
+        /**
+         * @param counter the counter, such as DOWNLOAD
+         * @param window the window in seconds back from the last sample
+         * @return the success count / total count in the window, NaN when no request
+         */
+        public synchronized double getSuccessRatio(int counter, int window) {
+            int first = this.firstInWindow(window);
+            if (first < 0) {
+                return Double.NaN;
+            }
+
+            long total = this.increaseOf(counter * 2, first, this.count - 1);
+            long success = this.increaseOf(counter * 2 + 1, first, this.count - 1);
+            return total == 0 ? Double.NaN : Math.min((double)success / total, 1.0);
+        }
+
+        /**
+         * @return seconds from the last synced timestamp to the last sample time,
+         * -1 when not sampled or never synced
+         */
+        public synchronized long getSyncLag() {
+            if (this.count == 0) {
+                return -1;
+            }
+            return syncLagOf(this.times[this.indexOf(this.count - 1)], this.syncedTimes[this.indexOf(this.count - 1)]);
+        }
+
+        /**
+         * @return the sync lag of the samples in seconds, the oldest first, -1 for never synced
+         */
+        public synchronized long[] getSyncLags() {
+            long[] results = new long[this.count];
+            for (int i = 0; i < this.count; i++) {
+                results[i] = syncLagOf(this.times[this.indexOf(i)], this.syncedTimes[this.indexOf(i)]);
+            }
+            return results;
+        }
+
+        private int indexOf(int i) {
+            return (this.head - this.count + i + this.times.length) % this.times.length;
+        }
+
+        /**
+         * @return the position of the oldest sample in the window, -1 when less than 2 samples
+         */
+        private int firstInWindow(int window) {
+            if (this.count < 2) {
+                return -1;
+            }
+
+            long since = this.times[this.indexOf(this.count - 1)] - window * 1000L;
+            int first = this.count - 2;
+            while (first > 0 && this.times[this.indexOf(first - 1)] >= since) {
+                first--;
+            }
+            return first;
+        }
+
+        private long increaseOf(int field, int first, int last) {
+            long increase = 0;
+            for (int i = first + 1; i <= last; i++) {
+                long prev = this.values[this.indexOf(i - 1)][field];
+                long curr = this.values[this.indexOf(i)][field];
+                increase += curr >= prev ? curr - prev : curr;  //restarted
+            }
+            return increase;
+        }
+
+        private static double rateOf(long prev, long curr, long elapsed) {
+            if (elapsed <= 0) {
+                return Double.NaN;
+            }
+            return (curr >= prev ? curr - prev : curr) * 1000.0 / elapsed;
+        }
+
+        private static long syncLagOf(long time, long syncedTime) {
+            return syncedTime <= 0 ? -1 : Math.max(time - syncedTime, 0) / 1000;
+        }
+    }
+
+    private final TrackerGroup trackerGroup;
+    private final int interval;
+    private final int capacity;
+    private ScheduledExecutorService executor;
+    private volatile Map<String, StorageSeries> series = new LinkedHashMap<String, StorageSeries>();
+    private volatile StructGroupStat[] groups = new StructGroupStat[0];
+    private volatile long lastSampleTime;
+    private volatile long lastSampleElapsed;
+    private volatile boolean lastSampleSuccess;
+
+    /**
+     * sample ClientGlobal.g_tracker_group, keep DEFAULT_CAPACITY samples
+     * @param interval the interval in seconds
+     */
+    public StorageStatsSampler(int interval) {
+        this(null, interval, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param trackerGroup the tracker group, null for ClientGlobal.g_tracker_group
+     * @param interval the interval in seconds
+     * @param capacity the samples kept per storage server, at least 2
+     */
+    public StorageStatsSampler(TrackerGroup trackerGroup, int interval, int capacity) {
+        if (interval <= 0 || capacity < 2) {
+            throw new IllegalArgumentException("invalid interval: " + interval + " or capacity: " + capacity);
+        }
+        this.trackerGroup = trackerGroup;
+        this.interval = interval;
+        this.capacity = capacity;
+    }
+
+    public int getInterval() {
+        return this.interval;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * start sampling in a daemon thread
+     */
+    public synchronized void start() {
+        if (this.executor != null) {
+            return;
+        }
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fastdfs-stats-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                sample();
+            }
+        }, 0, this.interval, TimeUnit.SECONDS);
+    }
+
+    public synchronized void close() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * query the stats from the tracker server now, the storage servers not listed are dropped
+     * @return true for success
+     */
+    public synchronized boolean sample() {
+        long startTime = System.nanoTime();
+        TrackerGroup group = this.trackerGroup != null ? this.trackerGroup : ClientGlobal.g_tracker_group;
+        StructGroupStat[] groupStats = null;
+        Map<String, StructStorageStat[]> storageStats = new LinkedHashMap<String, StructStorageStat[]>();
+        boolean success = false;
+        try {
+            TrackerClient tracker = new TrackerClient(group);
+            TrackerServer trackerServer = tracker.getConnection();
+            if (trackerServer != null) {
+                try {
+                    groupStats = tracker.listGroups(trackerServer);
+                    success = groupStats != null;
+                    for (int i = 0; success && i < groupStats.length; i++) {
+                        StructStorageStat[] stats = tracker.listStorages(trackerServer, groupStats[i].getGroupName());
+                        if (stats == null) {
+                            success = false;
+                        } else {
+                            storageStats.put(groupStats[i].getGroupName(), stats);
+                        }
+                    }
+                } finally {
+                    trackerServer.close();
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+
+        this.lastSampleElapsed = System.nanoTime() - startTime;
+        this.lastSampleSuccess = success;
+        if (!success) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, StorageSeries> current = this.series;
+        Map<String, StorageSeries> results = new LinkedHashMap<String, StorageSeries>();
+        for (Map.Entry<String, StructStorageStat[]> entry : storageStats.entrySet()) {
+            for (StructStorageStat stat : entry.getValue()) {
+                String key = keyOf(entry.getKey(), stat.getIpAddr());
+                StorageSeries item = current.get(key);
+                if (item == null) {
+                    item = new StorageSeries(entry.getKey(), stat.getIpAddr(), this.capacity);
+                }
+                item.add(now, stat);
+                results.put(key, item);
+            }
+        }
+        this.groups = groupStats;
+        this.series = results;
+        this.lastSampleTime = now;
+        return true;
+    }
+
+    /**
+     * @return the group stats of the last successful sample
+     */
+    public StructGroupStat[] getGroups() {
+        return this.groups;
+    }
+
+    /**
+     * @return the series of the storage servers, in the order of the groups
+     */
+    public List<StorageSeries> getSeries() {
+        return new ArrayList<StorageSeries>(this.series.values());
+    }
+
+    /**
+     * @return the series of the storage server, null if not found
+     */
+    public StorageSeries getSeries(String groupName, String ipAddr) {
+        return this.series.get(keyOf(groupName, ipAddr));
+    }
+
+    /**
+     * @return the time of the last successful sample in milliseconds, 0 for none
+     */
+    public long getLastSampleTime() {
+        return this.lastSampleTime;
+    }
+
+    /**
+     * @return the elapsed time of the last sample in nanoseconds
+     */
+    public long getLastSampleElapsed() {
+        return this.lastSampleElapsed;
+    }
+
+    public boolean isLastSampleSuccess() {
+        return this.lastSampleSuccess;
+    }
+
+    private static String keyOf(String groupName, String ipAddr) {
+        return groupName + "/" + ipAddr;
+    }
+
+    static long[] countersOf(StructStorageStat stat) {
+        return new long[]{
+            stat.getTotalUploadCount(), stat.getSuccessUploadCount(),
+            stat.getTotalAppendCount(), stat.getSuccessAppendCount(),
+            stat.getTotalModifyCount(), stat.getSuccessModifyCount(),
+            stat.getTotalTruncateCount(), stat.getSuccessTruncateCount(),
+            stat.getTotalSetMetaCount(), stat.getSuccessSetMetaCount(),
+            stat.getTotalDeleteCount(), stat.getSuccessDeleteCount(),
+            stat.getTotalDownloadCount(), stat.getSuccessDownloadCount(),
+            stat.getTotalGetMetaCount(), stat.getSuccessGetMetaCount(),
+            stat.getTotalCreateLinkCount(), stat.getSuccessCreateLinkCount(),
+            stat.getTotalDeleteLinkCount(), stat.getSuccessDeleteLinkCount(),
+            stat.getTotalUploadBytes(), stat.getSuccessUploadBytes(),
+            stat.getTotalAppendBytes(), stat.getSuccessAppendBytes(),
+            stat.getTotalModifyBytes(), stat.getSuccessModifyBytes(),
+            stat.getTotalDownloadloadBytes(), stat.getSuccessDownloadloadBytes(),
+            stat.getTotalSyncInBytes(), stat.getSuccessSyncInBytes(),
+            stat.getTotalSyncOutBytes(), stat.getSuccessSyncOutBytes(),
+            stat.getTotalFileOpenCount(), stat.getSuccessFileOpenCount(),
+            stat.getTotalFileReadCount(), stat.getSuccessFileReadCount(),
+            stat.getTotalFileWriteCount(), stat.getSuccessFileWriteCount()
+        };
+    }
+}
@@ -43,7 +43,7 @@ public abstract class StructBase
 	{
 		try
 		{
-			return (new String(bs, offset + filedInfo.offset, filedInfo.size, ClientGlobal.g_charset)).trim();
+			return (new String(bs, offset + filedInfo.offset, filedInfo.size, ClientGlobal.getCharset())).trim();
 		}
 		catch(UnsupportedEncodingException ex)
 		{
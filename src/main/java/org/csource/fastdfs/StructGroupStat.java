@@ -72,6 +72,22 @@ public class StructGroupStat extends StructBase
 				
 		fieldsTotalSize = offset;
 	}
+
+/**
+* the factory used by TrackerClient to decode StructGroupStat without reflection
+*/
+	public static final ProtoStructDecoder.Factory<StructGroupStat> FACTORY = new ProtoStructDecoder.Factory<StructGroupStat>()
+	{
+		public StructGroupStat newInstance()
+		{
+			return new StructGroupStat();
+		}
+		
+		public StructGroupStat[] newArray(int count)
+		{
+			return new StructGroupStat[count];
+		}
+	};
 	
 	protected String groupName;  //name of this group
 	protected long totalMB;      //total disk storage in MB
@@ -0,0 +1,166 @@
+/**
+* Copyright (C) 2008 Happy Fish / YuQing
+*
+* FastDFS Java Client may be copied only under the terms of the GNU Lesser
+* General Public License (LGPL).
+* Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+*/
+
+package org.csource.fastdfs;
+
+/**
+* lazy view of the group stat, the fields of StructGroupStat are decoded from the response body
+* only when the getter is called. all views of one response share the body.
+* a view can be moved to another record by setFields, so one object can walk all records.
+*/
+public class StructGroupStatView extends StructBase
+{
+/**
+* the factory used by TrackerClient to create the views
+*/
+	public static final ProtoStructDecoder.Factory<StructGroupStatView> FACTORY = new ProtoStructDecoder.Factory<StructGroupStatView>()
+	{
+		public StructGroupStatView newInstance()
+		{
+			return new StructGroupStatView();
+		}
+		
+		public StructGroupStatView[] newArray(int count)
+		{
+			return new StructGroupStatView[count];
+		}
+	};
+	
+	protected byte[] bs;
+	protected int offset;
+	
+/**
+* get group name
+* @return group name
+*/
+	public String getGroupName()
+	{
+		return stringValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_GROUP_NAME]);
+	}
+
+/**
+* get total disk space in MB
+* @return total disk space in MB
+*/
+	public long getTotalMB()
+	{
+		return longValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_TOTAL_MB]);
+	}
+
+/**
+* get free disk space in MB
+* @return free disk space in MB
+*/
+	public long getFreeMB()
+	{
+		return longValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_FREE_MB]);
+	}
+
+/**
+* get trunk free space in MB
+* @return trunk free space in MB
+*/
+	public long getTrunkFreeMB()
+	{
+		return longValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_TRUNK_FREE_MB]);
+	}
+
+/**
+* get storage server count in this group
+* @return storage server count in this group
+*/
+	public int getStorageCount()
+	{
+		return intValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_STORAGE_COUNT]);
+	}
+
+/**
+* get active storage server count in this group
+* @return active storage server count in this group
+*/
+	public int getActiveCount()
+	{
+		return intValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_ACTIVE_COUNT]);
+	}
+
+/**
+* get storage server port
+* @return storage server port
+*/
+	public int getStoragePort()
+	{
+		return intValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_STORAGE_PORT]);
+	}
+
+/**
+* get storage server HTTP port
+* @return storage server HTTP port
+*/
+	public int getStorageHttpPort()
+	{
+		return intValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_STORAGE_HTTP_PORT]);
+	}
+
+/**
+* get current storage server index to upload file
+* @return current storage server index to upload file
+*/
+	public int getCurrentWriteServer()
+	{
+		return intValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_CURRENT_WRITE_SERVER]);
+	}
+
+/**
+* get store base path count of each storage server
+* @return store base path count of each storage server
+*/
+	public int getStorePathCount()
+	{
+		return intValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_STORE_PATH_COUNT]);
+	}
+
+/**
+* get sub dir count per store path
+* @return sub dir count per store path
+*/
+	public int getSubdirCountPerPath()
+	{
+		return intValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_SUBDIR_COUNT_PER_PATH]);
+	}
+
+/**
+* get current trunk file id
+* @return current trunk file id
+*/
+	public int getCurrentTrunkFileId()
+	{
+		return intValue(this.bs, this.offset, StructGroupStat.fieldsArray[StructGroupStat.FIELD_INDEX_CURRENT_TRUNK_FILE_ID]);
+	}
+
+/**
+* set the record to view, only the reference of the byte array is kept
+* @param bs byte array
+* @param offset start offset
+*/
+	public void setFields(byte[] bs, int offset)
+	{
+		this.bs = bs;
+		this.offset = offset;
+	}
+
+/**
+* decode all fields
+* @return StructGroupStat object
+*/
+	public StructGroupStat toStat()
+	{
+		StructGroupStat stat = new StructGroupStat();
+		stat.setFields(this.bs, this.offset);
+		return stat;
+	}
+}
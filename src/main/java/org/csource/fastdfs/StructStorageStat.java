@@ -277,6 +277,22 @@ public class StructStorageStat extends StructBase
 		
 		fieldsTotalSize = offset;
 	}
+
+/**
+* the factory used by TrackerClient to decode StructStorageStat without reflection
+*/
+	public static final ProtoStructDecoder.Factory<StructStorageStat> FACTORY = new ProtoStructDecoder.Factory<StructStorageStat>()
+	{
+		public StructStorageStat newInstance()
+		{
+			return new StructStorageStat();
+		}
+		
+		public StructStorageStat[] newArray(int count)
+		{
+			return new StructStorageStat[count];
+		}
+	};
 	
 	protected byte status;
 	protected String id;
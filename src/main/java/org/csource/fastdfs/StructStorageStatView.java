@@ -0,0 +1,618 @@
+/**
+* Copyright (C) 2008 Happy Fish / YuQing
+*
+* FastDFS Java Client may be copied only under the terms of the GNU Lesser
+* General Public License (LGPL).
+* Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+*/
+
+package org.csource.fastdfs;
+
+import java.util.Date;
+
+/**
+* lazy view of the storage server stat, the fields of StructStorageStat are decoded from the response body
+* only when the getter is called. all views of one response share the body.
+* a view can be moved to another record by setFields, so one object can walk all records.
+*/
+public class StructStorageStatView extends StructBase
+{
+/**
+* the factory used by TrackerClient to create the views
+*/
+	public static final ProtoStructDecoder.Factory<StructStorageStatView> FACTORY = new ProtoStructDecoder.Factory<StructStorageStatView>()
+	{
+		public StructStorageStatView newInstance()
+		{
+			return new StructStorageStatView();
+		}
+		
+		public StructStorageStatView[] newArray(int count)
+		{
+			return new StructStorageStatView[count];
+		}
+	};
+	
+	protected byte[] bs;
+	protected int offset;
+	
+/**
+* get storage status
+* @return storage status
+*/
+	public byte getStatus()
+	{
+		return byteValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_STATUS]);
+	}
+
+/**
+* get storage server id
+* @return storage server id
+*/
+	public String getId()
+	{
+		return stringValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_ID]);
+	}
+
+/**
+* get storage server ip address
+* @return storage server ip address
+*/
+	public String getIpAddr()
+	{
+		return stringValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_IP_ADDR]);
+	}
+
+/**
+* get source storage ip address
+* @return source storage ip address
+*/
+	public String getSrcIpAddr()
+	{
+		return stringValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SRC_IP_ADDR]);
+	}
+
+/**
+* get the domain name of the storage server
+* @return the domain name of the storage server
+*/
+	public String getDomainName()
+	{
+		return stringValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_DOMAIN_NAME]);
+	}
+
+/**
+* get storage version
+* @return storage version
+*/
+	public String getVersion()
+	{
+		return stringValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_VERSION]);
+	}
+
+/**
+* get total disk space in MB
+* @return total disk space in MB
+*/
+	public long getTotalMB()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_MB]);
+	}
+
+/**
+* get free disk space in MB
+* @return free disk space in MB
+*/
+	public long getFreeMB()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_FREE_MB]);
+	}
+
+/**
+* get storage server upload priority
+* @return storage server upload priority
+*/
+	public int getUploadPriority()
+	{
+		return intValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_UPLOAD_PRIORITY]);
+	}
+
+/**
+* get storage server join time
+* @return storage server join time
+*/
+	public Date getJoinTime()
+	{
+		return dateValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_JOIN_TIME]);
+	}
+
+/**
+* get storage server up time
+* @return storage server up time
+*/
+	public Date getUpTime()
+	{
+		return dateValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_UP_TIME]);
+	}
+
+/**
+* get store base path count of each storage server
+* @return store base path count of each storage server
+*/
+	public int getStorePathCount()
+	{
+		return intValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_STORE_PATH_COUNT]);
+	}
+
+/**
+* get sub dir count per store path
+* @return sub dir count per store path
+*/
+	public int getSubdirCountPerPath()
+	{
+		return intValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUBDIR_COUNT_PER_PATH]);
+	}
+
+/**
+* get storage server port
+* @return storage server port
+*/
+	public int getStoragePort()
+	{
+		return intValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_STORAGE_PORT]);
+	}
+
+/**
+* get storage server HTTP port
+* @return storage server HTTP port
+*/
+	public int getStorageHttpPort()
+	{
+		return intValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_STORAGE_HTTP_PORT]);
+	}
+
+/**
+* get current write path index
+* @return current write path index
+*/
+	public int getCurrentWritePath()
+	{
+		return intValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_CURRENT_WRITE_PATH]);
+	}
+
+/**
+* get total upload file count
+* @return total upload file count
+*/
+	public long getTotalUploadCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_UPLOAD_COUNT]);
+	}
+
+/**
+* get success upload file count
+* @return success upload file count
+*/
+	public long getSuccessUploadCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_UPLOAD_COUNT]);
+	}
+
+/**
+* get total append count
+* @return total append count
+*/
+	public long getTotalAppendCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_APPEND_COUNT]);
+	}
+
+/**
+* get success append count
+* @return success append count
+*/
+	public long getSuccessAppendCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_APPEND_COUNT]);
+	}
+
+/**
+* get total modify count
+* @return total modify count
+*/
+	public long getTotalModifyCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_MODIFY_COUNT]);
+	}
+
+/**
+* get success modify count
+* @return success modify count
+*/
+	public long getSuccessModifyCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_MODIFY_COUNT]);
+	}
+
+/**
+* get total truncate count
+* @return total truncate count
+*/
+	public long getTotalTruncateCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_TRUNCATE_COUNT]);
+	}
+
+/**
+* get success truncate count
+* @return success truncate count
+*/
+	public long getSuccessTruncateCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_TRUNCATE_COUNT]);
+	}
+
+/**
+* get total set meta data count
+* @return total set meta data count
+*/
+	public long getTotalSetMetaCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_SET_META_COUNT]);
+	}
+
+/**
+* get success set meta data count
+* @return success set meta data count
+*/
+	public long getSuccessSetMetaCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_SET_META_COUNT]);
+	}
+
+/**
+* get total delete file count
+* @return total delete file count
+*/
+	public long getTotalDeleteCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_DELETE_COUNT]);
+	}
+
+/**
+* get success delete file count
+* @return success delete file count
+*/
+	public long getSuccessDeleteCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_DELETE_COUNT]);
+	}
+
+/**
+* get total download file count
+* @return total download file count
+*/
+	public long getTotalDownloadCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_DOWNLOAD_COUNT]);
+	}
+
+/**
+* get success download file count
+* @return success download file count
+*/
+	public long getSuccessDownloadCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_DOWNLOAD_COUNT]);
+	}
+
+/**
+* get total get metadata count
+* @return total get metadata count
+*/
+	public long getTotalGetMetaCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_GET_META_COUNT]);
+	}
+
+/**
+* get success get metadata count
+* @return success get metadata count
+*/
+	public long getSuccessGetMetaCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_GET_META_COUNT]);
+	}
+
+/**
+* get total create linke count
+* @return total create linke count
+*/
+	public long getTotalCreateLinkCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_CREATE_LINK_COUNT]);
+	}
+
+/**
+* get success create linke count
+* @return success create linke count
+*/
+	public long getSuccessCreateLinkCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_CREATE_LINK_COUNT]);
+	}
+
+/**
+* get total delete link count
+* @return total delete link count
+*/
+	public long getTotalDeleteLinkCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_DELETE_LINK_COUNT]);
+	}
+
+/**
+* get success delete link count
+* @return success delete link count
+*/
+	public long getSuccessDeleteLinkCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_DELETE_LINK_COUNT]);
+	}
+
+/**
+* get total upload file bytes
+* @return total upload file bytes
+*/
+	public long getTotalUploadBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_UPLOAD_BYTES]);
+	}
+
+/**
+* get success upload file bytes
+* @return success upload file bytes
+*/
+	public long getSuccessUploadBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_UPLOAD_BYTES]);
+	}
+
+/**
+* get total append bytes
+* @return total append bytes
+*/
+	public long getTotalAppendBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_APPEND_BYTES]);
+	}
+
+/**
+* get success append bytes
+* @return success append bytes
+*/
+	public long getSuccessAppendBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_APPEND_BYTES]);
+	}
+
+/**
+* get total modify bytes
+* @return total modify bytes
+*/
+	public long getTotalModifyBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_MODIFY_BYTES]);
+	}
+
+/**
+* get success modify bytes
+* @return success modify bytes
+*/
+	public long getSuccessModifyBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_MODIFY_BYTES]);
+	}
+
+/**
+* get total download file bytes
+* @return total download file bytes
+*/
+	public long getTotalDownloadloadBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_DOWNLOAD_BYTES]);
+	}
+
+/**
+* get success download file bytes
+* @return success download file bytes
+*/
+	public long getSuccessDownloadloadBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_DOWNLOAD_BYTES]);
+	}
+
+/**
+* get total sync in bytes
+* @return total sync in bytes
+*/
+	public long getTotalSyncInBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_SYNC_IN_BYTES]);
+	}
+
+/**
+* get success sync in bytes
+* @return success sync in bytes
+*/
+	public long getSuccessSyncInBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_SYNC_IN_BYTES]);
+	}
+
+/**
+* get total sync out bytes
+* @return total sync out bytes
+*/
+	public long getTotalSyncOutBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_SYNC_OUT_BYTES]);
+	}
+
+/**
+* get success sync out bytes
+* @return success sync out bytes
+*/
+	public long getSuccessSyncOutBytes()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_SYNC_OUT_BYTES]);
+	}
+
+/**
+* get total file opened count
+* @return total file opened bytes
+*/
+	public long getTotalFileOpenCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_FILE_OPEN_COUNT]);
+	}
+
+/**
+* get success file opened count
+* @return success file opened count
+*/
+	public long getSuccessFileOpenCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_FILE_OPEN_COUNT]);
+	}
+
+/**
+* get total file read count
+* @return total file read bytes
+*/
+	public long getTotalFileReadCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_FILE_READ_COUNT]);
+	}
+
+/**
+* get success file read count
+* @return success file read count
+*/
+	public long getSuccessFileReadCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_FILE_READ_COUNT]);
+	}
+
+/**
+* get total file write count
+* @return total file write bytes
+*/
+	public long getTotalFileWriteCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_TOTAL_FILE_WRITE_COUNT]);
+	}
+
+/**
+* get success file write count
+* @return success file write count
+*/
+	public long getSuccessFileWriteCount()
+	{
+		return longValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_SUCCESS_FILE_WRITE_COUNT]);
+	}
+
+/**
+* get last source update timestamp
+* @return last source update timestamp
+*/
+	public Date getLastSourceUpdate()
+	{
+		return dateValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_LAST_SOURCE_UPDATE]);
+	}
+
+/**
+* get last synced update timestamp
+* @return last synced update timestamp
+*/
+	public Date getLastSyncUpdate()
+	{
+		return dateValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_LAST_SYNC_UPDATE]);
+	}
+
+/**
+* get last synced timestamp
+* @return last synced timestamp
+*/
+	public Date getLastSyncedTimestamp()
+	{
+		return dateValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_LAST_SYNCED_TIMESTAMP]);
+	}
+
+/**
+* get last heart beat timestamp
+* @return last heart beat timestamp
+*/
+	public Date getLastHeartBeatTime()
+	{
+		return dateValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_LAST_HEART_BEAT_TIME]);
+	}
+
+/**
+* if the trunk server
+* @return true for the trunk server, otherwise false
+*/
+	public boolean isTrunkServer()
+	{
+		return booleanValue(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_IF_TRUNK_FILE]);
+	}
+
+/**
+* get connection alloc count
+* @return connection alloc count
+*/
+	public int getConnectionAllocCount()
+	{
+		return int32Value(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_CONNECTION_ALLOC_COUNT]);
+	}
+
+/**
+* get connection current count
+* @return connection current count
+*/
+	public int getConnectionCurrentCount()
+	{
+		return int32Value(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_CONNECTION_CURRENT_COUNT]);
+	}
+
+/**
+* get connection max count
+* @return connection max count
+*/
+	public int getConnectionMaxCount()
+	{
+		return int32Value(this.bs, this.offset, StructStorageStat.fieldsArray[StructStorageStat.FIELD_INDEX_CONNECTION_MAX_COUNT]);
+	}
+
+/**
+* set the record to view, only the reference of the byte array is kept
+* @param bs byte array
+* @param offset start offset
+*/
+	public void setFields(byte[] bs, int offset)
+	{
+		this.bs = bs;
+		this.offset = offset;
+	}
+
+/**
+* decode all fields
+* @return StructStorageStat object
+*/
+	public StructStorageStat toStat()
+	{
+		StructStorageStat stat = new StructStorageStat();
+		stat.setFields(this.bs, this.offset);
+		return stat;
+	}
+}
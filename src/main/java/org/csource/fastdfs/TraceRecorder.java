@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Record the requests to the storage servers as a trace, one line per request separated by tab:
+ * <pre>
+ * time_us cmd group file offset request_bytes response_bytes elapsed_us errno
+ * </pre>
+ * time_us is the start time from the creation of the recorder, cmd is the caption of
+ * ProtoCommon.getStorageCommandCaption, file is the hash of the file id, - for none.
+ * the file content and the metadata are not recorded.
+ * use it as ClientGlobal.g_operation_listener or StorageClient.setOperationListener,
+ * replay the trace with org.csource.fastdfs.test.TestReplay
+ */
+public class TraceRecorder implements OperationListener, Closeable {
+    public static final String HEADER = "time_us\tcmd\tgroup\tfile\toffset\trequest_bytes\tresponse_bytes\telapsed_us\terrno";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> digest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    };
+
+    private final Writer writer;
+    private final byte[] salt;
+    private final long startTime;
+    private final StringBuilder line = new StringBuilder(128);
+    private boolean closed;
+
+    /**
+     * @param filename the trace filename, overwritten if exists
+     * @param salt     the salt of the file id hash, keep it secret so that the file ids can not be guessed
+     */
+    public TraceRecorder(String filename, String salt) throws IOException {
+        this(new OutputStreamWriter(new FileOutputStream(filename), "UTF-8"), salt);
+    }
+
+    /**
+     * @param writer the trace writer, closed by close()
+     * @param salt   the salt of the file id hash, can be null
+     */
+    public TraceRecorder(Writer writer, String salt) throws IOException {
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, 64 * 1024);
+        this.salt = (salt == null ? "" : salt).getBytes(Charset.forName("UTF-8"));
+        this.startTime = System.nanoTime();
+        this.writer.write("# start " + System.currentTimeMillis() + "\n");
+        this.writer.write(HEADER + "\n");
+    }
+
+    public void operationCompleted(byte cmd, String group_name, String remote_filename, long file_offset,
+                                   long request_bytes, long response_bytes, long elapsed_nanos, int errno) {
+        long time = (System.nanoTime() - elapsed_nanos - this.startTime) / 1000;
+        String file = remote_filename == null ? "-" : hashFileId(this.salt, group_name, remote_filename);
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+
+            this.line.setLength(0);
+            this.line.append(time).append('\t').append(ProtoCommon.getStorageCommandCaption(cmd)).append('\t')
+                .append(group_name).append('\t').append(file).append('\t').append(file_offset).append('\t')
+                .append(request_bytes).append('\t').append(response_bytes).append('\t')
+                .append(elapsed_nanos / 1000).append('\t').append(errno).append('\n');
+            try {
+                this.writer.append(this.line);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                this.closed = true;  //stop recording, do not fail the requests
+            }
+        }
+    }
+
+    /**
+     * write the buffered lines
+     */
+    public synchronized void flush() throws IOException {
+        if (!this.closed) {
+            this.writer.flush();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        this.closed = true;
+        this.writer.close();
+    }
+
+    /**
+     * @param salt            the salt
+     * @param group_name      the group name
+     * @param remote_filename filename on storage server
+     * @return the first 64 bits of SHA-256(salt + file id) in hex
+     */
+    public static String hashFileId(byte[] salt, String group_name, String remote_filename) {
+        MessageDigest md = digest.get();
+        md.reset();
+        md.update(salt);
+        md.update((group_name + StorageClient1.SPLIT_GROUP_NAME_AND_FILENAME_SEPERATOR + remote_filename)
+            .getBytes(Charset.forName("UTF-8")));
+        byte[] hash = md.digest();
+        char[] chars = new char[16];
+        for (int i = 0; i < 8; i++) {
+            chars[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0x0F];
+            chars[2 * i + 1] = HEX_DIGITS[hash[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+}
@@ -10,7 +10,6 @@ package org.csource.fastdfs;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
 import java.net.Socket;
 
 /**
@@ -20,6 +19,7 @@ import java.net.Socket;
  */
 public class TrackerClient {
     protected TrackerGroup tracker_group;
+    protected ClientMetrics clientMetrics;
     protected byte errno;
 
     /**
@@ -27,6 +27,7 @@ public class TrackerClient {
      */
     public TrackerClient() {
         this.tracker_group = ClientGlobal.g_tracker_group;
+        this.clientMetrics = ClientGlobal.g_client_metrics;
     }
 
     /**
@@ -35,6 +36,24 @@ public class TrackerClient {
      */
     public TrackerClient(TrackerGroup tracker_group) {
         this.tracker_group = tracker_group;
+        this.clientMetrics = ClientGlobal.g_client_metrics;
+    }
+
+    /**
+     * get the client metrics
+     * @return the client metrics, null for no metrics
+     */
+    public ClientMetrics getClientMetrics() {
+        return this.clientMetrics;
+    }
+
+    /**
+     * set the metrics to record the requests to the tracker servers, the default is
+     * ClientGlobal.g_client_metrics
+     * @param clientMetrics the client metrics, null for no metrics
+     */
+    public void setClientMetrics(ClientMetrics clientMetrics) {
+        this.clientMetrics = clientMetrics;
     }
 
     /**
@@ -80,51 +99,42 @@ public class TrackerClient {
         boolean bNewConnection;
         byte store_path;
         Socket trackerSocket;
+        long recvBytes = 0;
 
+        if (groupName == null || groupName.length() == 0) {
+            //查询组名
+            cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ONE;
+            out_len = 0;
+        } else {
+            //根据组名查询
+            cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE;
+            //组名的最大长度为16
+            out_len = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+        }
+
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.TRACKER_QUERY, startTime);
         if (trackerServer == null) {
             trackerServer = getConnection();
             if (trackerServer == null) {
+                RequestTiming.end(this.clientMetrics, cmd, groupName, null, 0, 0, ProtoCommon.ECONNREFUSED);
                 return null;
             }
             bNewConnection = true;
         } else {
             bNewConnection = false;
         }
-        //跟踪器的连接
-        trackerSocket = trackerServer.getSocket();
-        OutputStream out = trackerSocket.getOutputStream();
+        RequestTiming.connected(trackerServer.getInetSocketAddress());
 
         try {
-            if (groupName == null || groupName.length() == 0) {
-                //查询组名
-                cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ONE;
-                out_len = 0;
-            } else {
-                //根据组名查询
-                cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE;
-                //组名的最大长度为16
-                out_len = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
-            }
+            trackerSocket = trackerServer.getSocket();
+            OutputStream out = trackerSocket.getOutputStream();
             //封装header信息
             header = ProtoCommon.packHeader(cmd, out_len, (byte)0);
             out.write(header);
 
             if (groupName != null && groupName.length() > 0) {
-                byte[] bGroupName;
-                byte[] bs;
-                int group_len;
-
-                bs = groupName.getBytes(ClientGlobal.g_charset);
-                bGroupName = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
-
-                if (bs.length <= ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
-                    group_len = bs.length;
-                } else {
-                    group_len = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
-                }
-                Arrays.fill(bGroupName, (byte)0);
-                System.arraycopy(bs, 0, bGroupName, 0, group_len);
-                out.write(bGroupName);
+                out.write(ProtoCommon.getGroupNameBytes(groupName));
             }
 
             ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(trackerSocket.getInputStream(),
@@ -134,6 +144,7 @@ public class TrackerClient {
             if (pkgInfo.errno != 0) {
                 return null;
             }
+            recvBytes = pkgInfo.body.length;
 
             ip_addr = new String(pkgInfo.body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, ProtoCommon.FDFS_IPADDR_SIZE - 1)
                 .trim();
@@ -141,9 +152,8 @@ public class TrackerClient {
             port = (int)ProtoCommon.buff2long(pkgInfo.body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN
                 + ProtoCommon.FDFS_IPADDR_SIZE - 1);
             store_path = pkgInfo.body[ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN - 1];
-
-            return new StorageServer(ip_addr, port, store_path);
         } catch (IOException ex) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
             if (!bNewConnection) {
                 try {
                     trackerServer.close();
@@ -161,7 +171,11 @@ public class TrackerClient {
                     ex1.printStackTrace();
                 }
             }
+            RequestTiming.end(this.clientMetrics, cmd, groupName, null, out_len, recvBytes, this.errno & 0xFF);
         }
+
+        //connect to the storage server out of the tracker request
+        return new StorageServer(ip_addr, port, store_path);
     }
 
     /**
@@ -178,47 +192,40 @@ public class TrackerClient {
         int out_len;
         boolean bNewConnection;
         Socket trackerSocket;
+        long recvBytes = 0;
+        ServerInfo[] servers;
+        byte store_path;
 
+        if (groupName == null || groupName.length() == 0) {
+            cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ALL;
+            out_len = 0;
+        } else {
+            cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL;
+            out_len = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+        }
+
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.TRACKER_QUERY, startTime);
         if (trackerServer == null) {
             trackerServer = getConnection();
             if (trackerServer == null) {
+                RequestTiming.end(this.clientMetrics, cmd, groupName, null, 0, 0, ProtoCommon.ECONNREFUSED);
                 return null;
             }
             bNewConnection = true;
         } else {
             bNewConnection = false;
         }
-
-        trackerSocket = trackerServer.getSocket();
-        OutputStream out = trackerSocket.getOutputStream();
+        RequestTiming.connected(trackerServer.getInetSocketAddress());
 
         try {
-            if (groupName == null || groupName.length() == 0) {
-                cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ALL;
-                out_len = 0;
-            } else {
-                cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL;
-                out_len = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
-            }
+            trackerSocket = trackerServer.getSocket();
+            OutputStream out = trackerSocket.getOutputStream();
             header = ProtoCommon.packHeader(cmd, out_len, (byte)0);
             out.write(header);
 
             if (groupName != null && groupName.length() > 0) {
-                byte[] bGroupName;
-                byte[] bs;
-                int group_len;
-
-                bs = groupName.getBytes(ClientGlobal.g_charset);
-                bGroupName = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
-
-                if (bs.length <= ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
-                    group_len = bs.length;
-                } else {
-                    group_len = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
-                }
-                Arrays.fill(bGroupName, (byte)0);
-                System.arraycopy(bs, 0, bGroupName, 0, group_len);
-                out.write(bGroupName);
+                out.write(ProtoCommon.getGroupNameBytes(groupName));
             }
 
             ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(trackerSocket.getInputStream(),
@@ -227,6 +234,7 @@ public class TrackerClient {
             if (pkgInfo.errno != 0) {
                 return null;
             }
+            recvBytes = pkgInfo.body.length;
 
             if (pkgInfo.body.length < ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN) {
                 this.errno = ProtoCommon.ERR_NO_EINVAL;
@@ -247,8 +255,8 @@ public class TrackerClient {
                 return null;
             }
 
-            StorageServer[] results = new StorageServer[serverCount];
-            byte store_path = pkgInfo.body[pkgInfo.body.length - 1];
+            servers = new ServerInfo[serverCount];
+            store_path = pkgInfo.body[pkgInfo.body.length - 1];
             int offset = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
 
             for (int i = 0; i < serverCount; i++) {
@@ -258,11 +266,10 @@ public class TrackerClient {
                 port = (int)ProtoCommon.buff2long(pkgInfo.body, offset);
                 offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
 
-                results[i] = new StorageServer(ip_addr, port, store_path);
+                servers[i] = new ServerInfo(ip_addr, port);
             }
-
-            return results;
         } catch (IOException ex) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
             if (!bNewConnection) {
                 try {
                     trackerServer.close();
@@ -280,7 +287,15 @@ public class TrackerClient {
                     ex1.printStackTrace();
                 }
             }
+            RequestTiming.end(this.clientMetrics, cmd, groupName, null, out_len, recvBytes, this.errno & 0xFF);
+        }
+
+        //connect to the storage servers out of the tracker request
+        StorageServer[] results = new StorageServer[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            results[i] = new StorageServer(servers[i].getIpAddr(), servers[i].getPort(), store_path);
         }
+        return results;
     }
 
     /**
@@ -346,37 +361,32 @@ public class TrackerClient {
         byte[] header;
         byte[] bFileName;
         byte[] bGroupName;
-        byte[] bs;
-        int len;
         String ip_addr;
         int port;
         boolean bNewConnection;
         Socket trackerSocket;
+        long sentBytes = 0;
+        long recvBytes = 0;
 
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.TRACKER_QUERY, startTime);
         if (trackerServer == null) {
             trackerServer = getConnection();
             if (trackerServer == null) {
+                RequestTiming.end(this.clientMetrics, cmd, groupName, null, 0, 0, ProtoCommon.ECONNREFUSED);
                 return null;
             }
             bNewConnection = true;
         } else {
             bNewConnection = false;
         }
-        trackerSocket = trackerServer.getSocket();
-        OutputStream out = trackerSocket.getOutputStream();
+        RequestTiming.connected(trackerServer.getInetSocketAddress());
 
         try {
-            bs = groupName.getBytes(ClientGlobal.g_charset);
-            bGroupName = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
-            bFileName = filename.getBytes(ClientGlobal.g_charset);
-
-            if (bs.length <= ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
-                len = bs.length;
-            } else {
-                len = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
-            }
-            Arrays.fill(bGroupName, (byte)0);
-            System.arraycopy(bs, 0, bGroupName, 0, len);
+            trackerSocket = trackerServer.getSocket();
+            OutputStream out = trackerSocket.getOutputStream();
+            bGroupName = ProtoCommon.getGroupNameBytes(groupName);
+            bFileName = filename.getBytes(ClientGlobal.getCharset());
 
             header = ProtoCommon.packHeader(cmd, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + bFileName.length, (byte)0);
             byte[] wholePkg = new byte[header.length + bGroupName.length + bFileName.length];
@@ -384,6 +394,7 @@ public class TrackerClient {
             System.arraycopy(bGroupName, 0, wholePkg, header.length, bGroupName.length);
             System.arraycopy(bFileName, 0, wholePkg, header.length + bGroupName.length, bFileName.length);
             out.write(wholePkg);
+            sentBytes = bGroupName.length + bFileName.length;
 
             ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(trackerSocket.getInputStream(),
                 ProtoCommon.TRACKER_PROTO_CMD_RESP, -1);
@@ -391,6 +402,7 @@ public class TrackerClient {
             if (pkgInfo.errno != 0) {
                 return null;
             }
+            recvBytes = pkgInfo.body.length;
 
             if (pkgInfo.body.length < ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN) {
                 throw new IOException("Invalid body length: " + pkgInfo.body.length);
@@ -421,6 +433,7 @@ public class TrackerClient {
 
             return servers;
         } catch (IOException ex) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
             if (!bNewConnection) {
                 try {
                     trackerServer.close();
@@ -438,6 +451,7 @@ public class TrackerClient {
                     ex1.printStackTrace();
                 }
             }
+            RequestTiming.end(this.clientMetrics, cmd, groupName, null, sentBytes, recvBytes, this.errno & 0xFF);
         }
     }
 
@@ -479,6 +493,17 @@ public class TrackerClient {
      * @return group stat array, return null if fail
      */
     public StructGroupStat[] listGroups(TrackerServer trackerServer) throws IOException {
+        return this.listGroups(trackerServer, StructGroupStat.FACTORY);
+    }
+
+    /**
+     * list groups
+     * @param trackerServer the tracker server
+     * @param factory the struct factory, such as StructGroupStatView.FACTORY for lazy decoding
+     * @return group stat array, return null if fail
+     */
+    public <T extends StructBase> T[] listGroups(TrackerServer trackerServer,
+                                                 ProtoStructDecoder.Factory<T> factory) throws IOException {
         byte[] header;
         String ip_addr;
         int port;
@@ -487,22 +512,28 @@ public class TrackerClient {
         boolean bNewConnection;
         byte store_path;
         Socket trackerSocket;
+        long recvBytes = 0;
+
+        cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_GROUP;
 
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.TRACKER_QUERY, startTime);
         if (trackerServer == null) {
             trackerServer = getConnection();
             if (trackerServer == null) {
+                RequestTiming.end(this.clientMetrics, cmd, null, null, 0, 0, ProtoCommon.ECONNREFUSED);
                 return null;
             }
             bNewConnection = true;
         } else {
             bNewConnection = false;
         }
-
-        trackerSocket = trackerServer.getSocket();
-        OutputStream out = trackerSocket.getOutputStream();
+        RequestTiming.connected(trackerServer.getInetSocketAddress());
 
         try {
-            header = ProtoCommon.packHeader(ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_GROUP, 0, (byte)0);
+            trackerSocket = trackerServer.getSocket();
+            OutputStream out = trackerSocket.getOutputStream();
+            header = ProtoCommon.packHeader(cmd, 0, (byte)0);
             out.write(header);
 
             ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(trackerSocket.getInputStream(),
@@ -511,10 +542,12 @@ public class TrackerClient {
             if (pkgInfo.errno != 0) {
                 return null;
             }
+            recvBytes = pkgInfo.body.length;
 
-            ProtoStructDecoder<StructGroupStat> decoder = new ProtoStructDecoder<StructGroupStat>();
-            return decoder.decode(pkgInfo.body, StructGroupStat.class, StructGroupStat.getFieldsTotalSize());
+            ProtoStructDecoder<T> decoder = new ProtoStructDecoder<T>();
+            return decoder.decode(pkgInfo.body, factory, StructGroupStat.getFieldsTotalSize());
         } catch (IOException ex) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
             if (!bNewConnection) {
                 try {
                     trackerServer.close();
@@ -536,6 +569,7 @@ public class TrackerClient {
                     ex1.printStackTrace();
                 }
             }
+            RequestTiming.end(this.clientMetrics, cmd, null, null, 0, recvBytes, this.errno & 0xFF);
         }
     }
 
@@ -559,41 +593,51 @@ public class TrackerClient {
      */
     public StructStorageStat[] listStorages(TrackerServer trackerServer,
                                             String groupName, String storageIpAddr) throws IOException {
+        return this.listStorages(trackerServer, groupName, storageIpAddr, StructStorageStat.FACTORY);
+    }
+
+    /**
+     * query storage server stat info of the group
+     * @param trackerServer the tracker server
+     *	@param groupName the group name of storage server
+     * @param storageIpAddr the storage server ip address, can be null or empty
+     * @param factory the struct factory, such as StructStorageStatView.FACTORY for lazy decoding
+     * @return storage server stat array, return null if fail
+     */
+    public <T extends StructBase> T[] listStorages(TrackerServer trackerServer, String groupName,
+                                                   String storageIpAddr, ProtoStructDecoder.Factory<T> factory)
+        throws IOException {
         byte[] header;
         byte[] bGroupName;
-        byte[] bs;
-        int len;
         boolean bNewConnection;
         Socket trackerSocket;
+        long sentBytes = 0;
+        long recvBytes = 0;
+        final byte cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_STORAGE;
 
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.TRACKER_QUERY, startTime);
         if (trackerServer == null) {
             trackerServer = getConnection();
             if (trackerServer == null) {
+                RequestTiming.end(this.clientMetrics, cmd, groupName, null, 0, 0, ProtoCommon.ECONNREFUSED);
                 return null;
             }
             bNewConnection = true;
         } else {
             bNewConnection = false;
         }
-        trackerSocket = trackerServer.getSocket();
-        OutputStream out = trackerSocket.getOutputStream();
+        RequestTiming.connected(trackerServer.getInetSocketAddress());
 
         try {
-            bs = groupName.getBytes(ClientGlobal.g_charset);
-            bGroupName = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
-
-            if (bs.length <= ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
-                len = bs.length;
-            } else {
-                len = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
-            }
-            Arrays.fill(bGroupName, (byte)0);
-            System.arraycopy(bs, 0, bGroupName, 0, len);
+            trackerSocket = trackerServer.getSocket();
+            OutputStream out = trackerSocket.getOutputStream();
+            bGroupName = ProtoCommon.getGroupNameBytes(groupName);
 
             int ipAddrLen;
             byte[] bIpAddr;
             if (storageIpAddr != null && storageIpAddr.length() > 0) {
-                bIpAddr = storageIpAddr.getBytes(ClientGlobal.g_charset);
+                bIpAddr = storageIpAddr.getBytes(ClientGlobal.getCharset());
                 if (bIpAddr.length < ProtoCommon.FDFS_IPADDR_SIZE) {
                     ipAddrLen = bIpAddr.length;
                 } else {
@@ -604,8 +648,7 @@ public class TrackerClient {
                 ipAddrLen = 0;
             }
 
-            header = ProtoCommon.packHeader(ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_STORAGE,
-                ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ipAddrLen, (byte)0);
+            header = ProtoCommon.packHeader(cmd, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ipAddrLen, (byte)0);
             byte[] wholePkg = new byte[header.length + bGroupName.length + ipAddrLen];
             System.arraycopy(header, 0, wholePkg, 0, header.length);
             System.arraycopy(bGroupName, 0, wholePkg, header.length, bGroupName.length);
@@ -613,6 +656,7 @@ public class TrackerClient {
                 System.arraycopy(bIpAddr, 0, wholePkg, header.length + bGroupName.length, ipAddrLen);
             }
             out.write(wholePkg);
+            sentBytes = bGroupName.length + ipAddrLen;
 
             ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(trackerSocket.getInputStream(),
                 ProtoCommon.TRACKER_PROTO_CMD_RESP, -1);
@@ -620,10 +664,12 @@ public class TrackerClient {
             if (pkgInfo.errno != 0) {
                 return null;
             }
+            recvBytes = pkgInfo.body.length;
 
-            ProtoStructDecoder<StructStorageStat> decoder = new ProtoStructDecoder<StructStorageStat>();
-            return decoder.decode(pkgInfo.body, StructStorageStat.class, StructStorageStat.getFieldsTotalSize());
+            ProtoStructDecoder<T> decoder = new ProtoStructDecoder<T>();
+            return decoder.decode(pkgInfo.body, factory, StructStorageStat.getFieldsTotalSize());
         } catch (IOException ex) {
+            this.errno = ProtoCommon.ERR_NO_EIO;
             if (!bNewConnection) {
                 try {
                     trackerServer.close();
@@ -645,6 +691,7 @@ public class TrackerClient {
                     ex1.printStackTrace();
                 }
             }
+            RequestTiming.end(this.clientMetrics, cmd, groupName, null, sentBytes, recvBytes, this.errno & 0xFF);
         }
     }
 
@@ -659,44 +706,41 @@ public class TrackerClient {
                                   String groupName, String storageIpAddr) throws IOException {
         byte[] header;
         byte[] bGroupName;
-        byte[] bs;
-        int len;
         Socket trackerSocket;
+        final byte cmd = ProtoCommon.TRACKER_PROTO_CMD_SERVER_DELETE_STORAGE;
 
-        trackerSocket = trackerServer.getSocket();
-        OutputStream out = trackerSocket.getOutputStream();
+        long startTime = System.nanoTime();
+        RequestTiming.begin(this.clientMetrics, FlightEvents.TRACKER_QUERY, startTime);
+        RequestTiming.connected(trackerServer.getInetSocketAddress());
+        this.errno = ProtoCommon.ERR_NO_EIO;
+        try {
+            trackerSocket = trackerServer.getSocket();
+            OutputStream out = trackerSocket.getOutputStream();
 
-        bs = groupName.getBytes(ClientGlobal.g_charset);
-        bGroupName = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN];
+            bGroupName = ProtoCommon.getGroupNameBytes(groupName);
 
-        if (bs.length <= ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
-            len = bs.length;
-        } else {
-            len = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
-        }
-        Arrays.fill(bGroupName, (byte)0);
-        System.arraycopy(bs, 0, bGroupName, 0, len);
+            int ipAddrLen;
+            byte[] bIpAddr = storageIpAddr.getBytes(ClientGlobal.getCharset());
+            if (bIpAddr.length < ProtoCommon.FDFS_IPADDR_SIZE) {
+                ipAddrLen = bIpAddr.length;
+            } else {
+                ipAddrLen = ProtoCommon.FDFS_IPADDR_SIZE - 1;
+            }
 
-        int ipAddrLen;
-        byte[] bIpAddr = storageIpAddr.getBytes(ClientGlobal.g_charset);
-        if (bIpAddr.length < ProtoCommon.FDFS_IPADDR_SIZE) {
-            ipAddrLen = bIpAddr.length;
-        } else {
-            ipAddrLen = ProtoCommon.FDFS_IPADDR_SIZE - 1;
-        }
+            header = ProtoCommon.packHeader(cmd, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ipAddrLen, (byte)0);
+            byte[] wholePkg = new byte[header.length + bGroupName.length + ipAddrLen];
+            System.arraycopy(header, 0, wholePkg, 0, header.length);
+            System.arraycopy(bGroupName, 0, wholePkg, header.length, bGroupName.length);
+            System.arraycopy(bIpAddr, 0, wholePkg, header.length + bGroupName.length, ipAddrLen);
+            out.write(wholePkg);
 
-        header = ProtoCommon.packHeader(ProtoCommon.TRACKER_PROTO_CMD_SERVER_DELETE_STORAGE,
-            ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ipAddrLen, (byte)0);
-        byte[] wholePkg = new byte[header.length + bGroupName.length + ipAddrLen];
-        System.arraycopy(header, 0, wholePkg, 0, header.length);
-        System.arraycopy(bGroupName, 0, wholePkg, header.length, bGroupName.length);
-        System.arraycopy(bIpAddr, 0, wholePkg, header.length + bGroupName.length, ipAddrLen);
-        out.write(wholePkg);
-
-        ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(trackerSocket.getInputStream(),
-            ProtoCommon.TRACKER_PROTO_CMD_RESP, 0);
-        this.errno = pkgInfo.errno;
-        return pkgInfo.errno == 0;
+            ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(trackerSocket.getInputStream(),
+                ProtoCommon.TRACKER_PROTO_CMD_RESP, 0);
+            this.errno = pkgInfo.errno;
+            return pkgInfo.errno == 0;
+        } finally {
+            RequestTiming.end(this.clientMetrics, cmd, groupName, null, 0, 0, this.errno & 0xFF);
+        }
     }
 
     /**
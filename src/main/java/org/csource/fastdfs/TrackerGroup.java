@@ -10,6 +10,7 @@ package org.csource.fastdfs;
 
 import java.io.*;
 import java.net.*;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Tracker server group
@@ -20,6 +21,9 @@ public class TrackerGroup {
     protected Integer lock;
     public int tracker_server_index;
     public InetSocketAddress[] tracker_servers;
+    protected AtomicLongArray connectCounts;
+    protected AtomicLongArray failCounts;
+    protected AtomicLongArray lastFailTimes;
 
     /**
      * Constructor
@@ -29,6 +33,9 @@ public class TrackerGroup {
         this.tracker_servers = tracker_servers;
         this.lock = new Integer(0);
         this.tracker_server_index = 0;
+        this.connectCounts = new AtomicLongArray(tracker_servers.length);
+        this.failCounts = new AtomicLongArray(tracker_servers.length);
+        this.lastFailTimes = new AtomicLongArray(tracker_servers.length);
     }
 
     /**
@@ -40,11 +47,43 @@ public class TrackerGroup {
         //绑定套接字前启用 SO_REUSEADDR 允许在上一个连接处于超时状态时绑定套接字
         sock.setReuseAddress(true);
         sock.setSoTimeout(ClientGlobal.g_network_timeout);
-        //建立连接 三次握手
-        sock.connect(this.tracker_servers[serverIndex], ClientGlobal.g_connect_timeout);
+        this.connectCounts.incrementAndGet(serverIndex);
+        try {
+            //建立连接 三次握手
+            ClientGlobal.connect(sock, this.tracker_servers[serverIndex]);
+        } catch (IOException ex) {
+            this.failCounts.incrementAndGet(serverIndex);
+            this.lastFailTimes.set(serverIndex, System.currentTimeMillis());
+            sock.close();
+            throw ex;
+        }
         return new TrackerServer(sock, this.tracker_servers[serverIndex]);
     }
 
+    /**
+     * @param serverIndex the index of the tracker server
+     * @return the count of the connects to the tracker server
+     */
+    public long getConnectCount(int serverIndex) {
+        return this.connectCounts.get(serverIndex);
+    }
+
+    /**
+     * @param serverIndex the index of the tracker server
+     * @return the count of the failed connects to the tracker server
+     */
+    public long getFailCount(int serverIndex) {
+        return this.failCounts.get(serverIndex);
+    }
+
+    /**
+     * @param serverIndex the index of the tracker server
+     * @return the time of the last failed connect in milliseconds, 0 for never failed
+     */
+    public long getLastFailTime(int serverIndex) {
+        return this.lastFailTimes.get(serverIndex);
+    }
+
     /**
      * return connected tracker server
      * @return connected tracker server, null for fail
@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * latency and fault injection of MockFdfsServer, set by MockFdfsServer.setFaultInjector.
+ * a rule is chosen by the command of the request, the rule of forAll() is used for the commands
+ * without their own rule. the random numbers come from one seeded Random, so a run with one
+ * connection is reproducible.
+ * <pre>
+ *   FaultInjector faults = new FaultInjector(42);
+ *   faults.forCommand(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE)
+ *       .setLatency(FaultInjector.bimodal(FaultInjector.fixed(1), FaultInjector.exponential(200), 0.01))
+ *       .setBandwidth(10 * 1024 * 1024)
+ *       .setError(0.001, ProtoCommon.ERR_NO_EBUSY);
+ *   faults.forAll().setResetProbability(0.0001);
+ *   storage.setFaultInjector(faults);
+ * </pre>
+ */
+public class FaultInjector {
+    /**
+     * latency distribution
+     */
+    public interface Latency {
+        /**
+         * @param random the random source
+         * @return the next latency in milliseconds
+         */
+        public long nextMillis(Random random);
+    }
+
+    /**
+     * the faults of one command, all disabled by default
+     */
+    public static class Rule {
+        private volatile Latency latency;
+        private volatile long bandwidth;
+        private volatile boolean fragmentHeader;
+        private volatile long fragmentPauseMillis = 1;
+        private volatile double resetProbability;
+        private volatile long resetAfterBytes = -1;
+        private volatile double errorProbability;
+        private volatile byte errno;
+
+        /**
+         * @param latency the latency before the request is handled, null for none
+         */
+        public Rule setLatency(Latency latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * @param bytesPerSecond the bandwidth of the request body and the response, 0 for no limit
+         */
+        public Rule setBandwidth(long bytesPerSecond) {
+            this.bandwidth = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * send the response header byte by byte, the client gets partial reads
+         * @param fragmentHeader if fragment the header
+         * @param pauseMillis the pause between the bytes
+         */
+        public Rule setFragmentHeader(boolean fragmentHeader, long pauseMillis) {
+            this.fragmentHeader = fragmentHeader;
+            this.fragmentPauseMillis = pauseMillis;
+            return this;
+        }
+
+        /**
+         * reset the connection instead of the response
+         * @param probability the probability of the requests to reset
+         */
+        public Rule setResetProbability(double probability) {
+            this.resetProbability = probability;
+            return this;
+        }
+
+        /**
+         * @param bytes the response bytes sent before the reset, -1 to reset before the response
+         */
+        public Rule setResetAfterBytes(long bytes) {
+            this.resetAfterBytes = bytes;
+            return this;
+        }
+
+        /**
+         * answer an error code instead of handling the request
+         * @param probability the probability of the requests to fail
+         * @param errno the error code, such as ProtoCommon.ERR_NO_ENOSPC or ERR_NO_EBUSY
+         */
+        public Rule setError(double probability, byte errno) {
+            this.errorProbability = probability;
+            this.errno = errno;
+            return this;
+        }
+
+        public long getBandwidth() {
+            return this.bandwidth;
+        }
+
+        public boolean isFragmentHeader() {
+            return this.fragmentHeader;
+        }
+
+        public long getFragmentPauseMillis() {
+            return this.fragmentPauseMillis;
+        }
+
+        public long getResetAfterBytes() {
+            return this.resetAfterBytes;
+        }
+    }
+
+    private final Random random;
+    private final Rule defaultRule = new Rule();
+    private final Map<Byte, Rule> rules = new ConcurrentHashMap<Byte, Rule>();
+    private final AtomicLong delayCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong resetCount = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param seed the seed of the random numbers
+     */
+    public FaultInjector(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param cmd the request command
+     * @return the rule of the command, created when not exist
+     */
+    public synchronized Rule forCommand(byte cmd) {
+        Rule rule = this.rules.get(cmd);
+        if (rule == null) {
+            rule = new Rule();
+            this.rules.put(cmd, rule);
+        }
+        return rule;
+    }
+
+    /**
+     * @return the rule of the commands without their own rule
+     */
+    public Rule forAll() {
+        return this.defaultRule;
+    }
+
+    /**
+     * remove all rules, forAll() is reset to no fault
+     */
+    public synchronized void clear() {
+        this.rules.clear();
+        this.defaultRule.setLatency(null).setBandwidth(0).setFragmentHeader(false, 1)
+            .setResetProbability(0).setResetAfterBytes(-1).setError(0, (byte)0);
+    }
+
+    public long getDelayCount() {
+        return this.delayCount.get();
+    }
+
+    public long getErrorCount() {
+        return this.errorCount.get();
+    }
+
+    public long getResetCount() {
+        return this.resetCount.get();
+    }
+
+    Rule ruleOf(byte cmd) {
+        Rule rule = this.rules.get(cmd);
+        return rule != null ? rule : this.defaultRule;
+    }
+
+    /**
+     * @return the delay before handling the request, including the time to receive the body in the bandwidth
+     */
+    long nextDelayMillis(Rule rule, long body_len) {
+        long delay = 0;
+        Latency latency = rule.latency;
+        if (latency != null) {
+            delay = Math.max(0, latency.nextMillis(this.random));
+        }
+        if (rule.bandwidth > 0) {
+            delay += body_len * 1000 / rule.bandwidth;
+        }
+        if (delay > 0) {
+            this.delayCount.incrementAndGet();
+        }
+        return delay;
+    }
+
+    boolean nextReset(Rule rule) {
+        if (rule.resetProbability > 0 && this.random.nextDouble() < rule.resetProbability) {
+            this.resetCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the error code to answer, 0 for handling the request
+     */
+    byte nextError(Rule rule) {
+        if (rule.errorProbability > 0 && this.random.nextDouble() < rule.errorProbability) {
+            this.errorCount.incrementAndGet();
+            return rule.errno;
+        }
+        return 0;
+    }
+
+    /**
+     * @param millis the latency
+     */
+    public static Latency fixed(final long millis) {
+        return new Latency() {
+            public long nextMillis(Random random) {
+                return millis;
+            }
+        };
+    }
+
+    /**
+     * @param minMillis the min latency
+     * @param maxMillis the max latency
+     */
+    public static Latency uniform(final long minMillis, final long maxMillis) {
+        return new Latency() {
+            public long nextMillis(Random random) {
+                return minMillis + (long)(random.nextDouble() * (maxMillis - minMillis));
+            }
+        };
+    }
+
+    /**
+     * @param meanMillis the mean latency
+     */
+    public static Latency exponential(final double meanMillis) {
+        return new Latency() {
+            public long nextMillis(Random random) {
+                return Math.round(-meanMillis * Math.log(1 - random.nextDouble()));
+            }
+        };
+    }
+
+    /**
+     * long tail distribution
+     * @param medianMillis the median latency
+     * @param sigma the standard deviation of the log, such as 0.5
+     */
+    public static Latency lognormal(final double medianMillis, final double sigma) {
+        return new Latency() {
+            public long nextMillis(Random random) {
+                return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+            }
+        };
+    }
+
+    /**
+     * a fast path with a slow path of the given probability, such as a disk miss or a GC pause
+     * @param fast the latency of the fast path
+     * @param slow the latency of the slow path
+     * @param slowProbability the probability of the slow path
+     */
+    public static Latency bimodal(final Latency fast, final Latency slow, final double slowProbability) {
+        return new Latency() {
+            public long nextMillis(Random random) {
+                return random.nextDouble() < slowProbability ? slow.nextMillis(random) : fast.nextMillis(random);
+            }
+        };
+    }
+}
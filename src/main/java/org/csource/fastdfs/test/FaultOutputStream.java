@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.test;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * response stream of one request applying the bandwidth, header fragmentation and
+ * reset of a FaultInjector.Rule
+ */
+class FaultOutputStream extends FilterOutputStream {
+    /**
+     * thrown when the connection should be reset
+     */
+    static class ResetException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ResetException() {
+            super("connection reset by fault injection");
+        }
+    }
+
+    private final FaultInjector.Rule rule;
+    private final int headerLength;
+    private final long resetAfterBytes;
+    private final long startTime;
+    private long written;
+
+    FaultOutputStream(OutputStream out, FaultInjector.Rule rule, int headerLength, boolean reset) {
+        super(out);
+        this.rule = rule;
+        this.headerLength = headerLength;
+        this.resetAfterBytes = reset ? Math.max(0, rule.getResetAfterBytes()) : -1;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    public void write(int b) throws IOException {
+        this.write(new byte[]{(byte)b}, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.resetAfterBytes >= 0 && this.written + len > this.resetAfterBytes) {
+            int allowed = (int)(this.resetAfterBytes - this.written);
+            this.send(b, off, allowed);
+            this.out.flush();
+            throw new ResetException();
+        }
+        this.send(b, off, len);
+    }
+
+    private void send(byte[] b, int off, int len) throws IOException {
+        while (len > 0 && this.rule.isFragmentHeader() && this.written < this.headerLength) {
+            this.out.write(b[off]);
+            this.out.flush();
+            off++;
+            len--;
+            this.written++;
+            pause(this.rule.getFragmentPauseMillis());
+        }
+
+        long bandwidth = this.rule.getBandwidth();
+        if (bandwidth <= 0) {
+            this.out.write(b, off, len);
+            this.written += len;
+            return;
+        }
+
+        int chunk = (int)Math.max(1, Math.min(64 * 1024, bandwidth / 100));  //about 10ms per chunk
+        while (len > 0) {
+            int bytes = Math.min(chunk, len);
+            this.out.write(b, off, bytes);
+            this.out.flush();
+            off += bytes;
+            len -= bytes;
+            this.written += bytes;
+            pause(this.startTime + this.written * 1000 / bandwidth - System.currentTimeMillis());
+        }
+    }
+
+    static void pause(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        }
+    }
+}
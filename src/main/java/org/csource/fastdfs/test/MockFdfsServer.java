@@ -0,0 +1,324 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.csource.fastdfs.ProtoCommon;
+
+/**
+ * in-process server speaking the FastDFS protocol on the loopback address, the base of
+ * MockTrackerServer and MockStorageServer. each connection is served by its own thread,
+ * requests are handled one by one until the client sends FDFS_PROTO_CMD_QUIT or closes the socket.
+ * with a FaultInjector the requests get the latency, bandwidth, fragmented headers, connection
+ * resets and error codes of its rules.
+ */
+public abstract class MockFdfsServer {
+    protected static final int HEADER_LENGTH = ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + 2;
+    protected static final Charset ISO8859_1 = Charset.forName("ISO8859-1");
+
+    private final String name;
+    private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private volatile boolean running;
+    private volatile FaultInjector faultInjector;
+
+    protected MockFdfsServer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * handle one request, the header has been read and the body is not read
+     * @param cmd the command
+     * @param body_len the body length in the header
+     * @param in the input stream of the connection
+     * @param out the output stream of the connection, flushed after the call
+     */
+    protected abstract void handle(byte cmd, long body_len, InputStream in, OutputStream out) throws IOException;
+
+    /**
+     * start listening on the loopback address
+     * @param port the port, 0 for a free port
+     */
+    public synchronized void start(int port) throws IOException {
+        if (this.running) {
+            return;
+        }
+
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, MockFdfsServer.this.name + "-" + this.index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.running = true;
+        this.executor.execute(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    /**
+     * start listening on a free port of the loopback address
+     */
+    public void start() throws IOException {
+        this.start(0);
+    }
+
+    /**
+     * stop listening and close all connections
+     */
+    public synchronized void stop() {
+        if (!this.running) {
+            return;
+        }
+
+        this.running = false;
+        try {
+            this.serverSocket.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        for (Socket sock : this.connections) {
+            try {
+                sock.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        this.executor.shutdown();
+    }
+
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    public String getIpAddr() {
+        return "127.0.0.1";
+    }
+
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    public InetSocketAddress getInetSocketAddress() {
+        return new InetSocketAddress(this.getIpAddr(), this.getPort());
+    }
+
+    public FaultInjector getFaultInjector() {
+        return this.faultInjector;
+    }
+
+    /**
+     * @param faultInjector the faults of the following requests, null for none
+     */
+    public void setFaultInjector(FaultInjector faultInjector) {
+        this.faultInjector = faultInjector;
+    }
+
+    private void acceptLoop() {
+        while (this.running) {
+            final Socket sock;
+            try {
+                sock = this.serverSocket.accept();
+            } catch (IOException ex) {
+                if (this.running) {
+                    ex.printStackTrace();
+                }
+                return;
+            }
+
+            this.connections.add(sock);
+            this.executor.execute(new Runnable() {
+                public void run() {
+                    serve(sock);
+                }
+            });
+        }
+    }
+
+    private void serve(Socket sock) {
+        try {
+            sock.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(sock.getInputStream());
+            OutputStream out = new BufferedOutputStream(sock.getOutputStream());
+            byte[] header = new byte[HEADER_LENGTH];
+            while (this.running) {
+                if (!readHeader(in, header)) {
+                    break;
+                }
+
+                long body_len = ProtoCommon.buff2long(header, 0);
+                byte cmd = header[ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
+                if (cmd == ProtoCommon.FDFS_PROTO_CMD_QUIT) {
+                    break;
+                }
+
+                OutputStream response = out;
+                FaultInjector faults = this.faultInjector;
+                if (faults != null) {
+                    FaultInjector.Rule rule = faults.ruleOf(cmd);
+                    boolean reset = faults.nextReset(rule);
+                    if (reset && rule.getResetAfterBytes() < 0) {
+                        throw new FaultOutputStream.ResetException();
+                    }
+                    byte errno = faults.nextError(rule);
+                    FaultOutputStream.pause(faults.nextDelayMillis(rule, body_len));
+                    response = new FaultOutputStream(out, rule, HEADER_LENGTH, reset);
+                    if (errno != 0) {
+                        ProtoCommon.skipBody(in, body_len);
+                        sendResponse(response, errno, null);
+                        response.flush();
+                        continue;
+                    }
+                }
+
+                if (cmd == ProtoCommon.FDFS_PROTO_CMD_ACTIVE_TEST) {
+                    ProtoCommon.skipBody(in, body_len);
+                    sendResponse(response, (byte)0, null);
+                } else {
+                    this.handle(cmd, body_len, in, response);
+                }
+                response.flush();
+            }
+        } catch (FaultOutputStream.ResetException ex) {
+            try {
+                sock.setSoLinger(true, 0);  //close with RST
+            } catch (SocketException e) {
+                //already closed
+            }
+        } catch (SocketException ex) {
+            //closed by the client or by stop()
+        } catch (IOException ex) {
+            if (this.running) {
+                ex.printStackTrace();
+            }
+        } finally {
+            this.connections.remove(sock);
+            try {
+                sock.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return false when the client closed the connection before the next request
+     */
+    private static boolean readHeader(InputStream in, byte[] header) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return false;
+        }
+
+        header[0] = (byte)first;
+        int totalBytes = 1;
+        while (totalBytes < header.length) {
+            int bytes = in.read(header, totalBytes, header.length - totalBytes);
+            if (bytes < 0) {
+                throw new EOFException("recv header size " + totalBytes + " != " + header.length);
+            }
+            totalBytes += bytes;
+        }
+        return true;
+    }
+
+    /**
+     * read the whole body of the request
+     */
+    protected static byte[] readBody(InputStream in, long body_len) throws IOException {
+        if (body_len < 0 || body_len > Integer.MAX_VALUE) {
+            throw new IOException("invalid body length: " + body_len);
+        }
+
+        byte[] body = new byte[(int)body_len];
+        ProtoCommon.recvFully(in, body, body.length);
+        return body;
+    }
+
+    /**
+     * send the response header and body
+     * @param out the output stream
+     * @param errno the status, the body is not sent when it is not 0
+     * @param body the body, can be null
+     */
+    protected static void sendResponse(OutputStream out, byte errno, byte[] body) throws IOException {
+        int body_len = errno == 0 && body != null ? body.length : 0;
+        out.write(ProtoCommon.packHeader(ProtoCommon.TRACKER_PROTO_CMD_RESP, body_len, errno));
+        if (body_len > 0) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * skip the body of an unsupported command and answer EINVAL
+     */
+    protected static void sendInvalid(InputStream in, OutputStream out, long body_len) throws IOException {
+        ProtoCommon.skipBody(in, body_len);
+        sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+    }
+
+    /**
+     * decode a string field padded with 0
+     */
+    protected static String stringValue(byte[] bs, int offset, int len) {
+        int end = offset;
+        while (end < offset + len && bs[end] != 0) {
+            end++;
+        }
+        return new String(bs, offset, end - offset, ISO8859_1);
+    }
+
+    /**
+     * encode a string field padded with 0
+     */
+    protected static void putString(byte[] bs, int offset, int len, String value) {
+        Arrays.fill(bs, offset, offset + len, (byte)0);
+        if (value != null) {
+            byte[] src = value.getBytes(ISO8859_1);
+            System.arraycopy(src, 0, bs, offset, Math.min(src.length, len));
+        }
+    }
+
+    /**
+     * encode a long field in big endian
+     */
+    protected static void putLong(byte[] bs, int offset, long value) {
+        byte[] src = ProtoCommon.long2buff(value);
+        System.arraycopy(src, 0, bs, offset, src.length);
+    }
+}
@@ -0,0 +1,613 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+
+import org.csource.common.Base64Codec;
+import org.csource.common.MyException;
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.MetadataCodec;
+import org.csource.fastdfs.MetadataVisitor;
+import org.csource.fastdfs.ProtoCommon;
+
+/**
+ * in-memory storage server of one group for tests and benchmarks on a single box.
+ * supports upload (normal, appender and slave), append, modify, truncate, download, delete,
+ * set/get metadata and query file info. the filenames are in the same form as FastDFS,
+ * so StorageClient.get_file_info can decode them.
+ */
+public class MockStorageServer extends MockFdfsServer {
+    /**
+     * the stored file
+     */
+    protected static class StoredFile {
+        protected byte[] content;
+        protected final int createTimestamp;
+        protected final boolean appender;
+        protected byte[] metadata = new byte[0];
+
+        protected StoredFile(byte[] content, boolean appender) {
+            this.content = content;
+            this.createTimestamp = (int)(System.currentTimeMillis() / 1000);
+            this.appender = appender;
+        }
+    }
+
+    private static final int SOURCE_IP = 0x7F000001;  //127.0.0.1
+
+    private final String groupName;
+    private final int storePathCount;
+    private final Map<String, StoredFile> files = new ConcurrentHashMap<String, StoredFile>();
+    private final AtomicInteger fileSequence = new AtomicInteger();
+    private final int joinTime = (int)(System.currentTimeMillis() / 1000);
+
+    private final AtomicLongArray requestCounts = new AtomicLongArray(256);
+
+    protected final AtomicLong totalUploadCount = new AtomicLong();
+    protected final AtomicLong successUploadCount = new AtomicLong();
+    protected final AtomicLong totalAppendCount = new AtomicLong();
+    protected final AtomicLong successAppendCount = new AtomicLong();
+    protected final AtomicLong totalModifyCount = new AtomicLong();
+    protected final AtomicLong successModifyCount = new AtomicLong();
+    protected final AtomicLong totalTruncateCount = new AtomicLong();
+    protected final AtomicLong successTruncateCount = new AtomicLong();
+    protected final AtomicLong totalSetMetaCount = new AtomicLong();
+    protected final AtomicLong successSetMetaCount = new AtomicLong();
+    protected final AtomicLong totalDeleteCount = new AtomicLong();
+    protected final AtomicLong successDeleteCount = new AtomicLong();
+    protected final AtomicLong totalDownloadCount = new AtomicLong();
+    protected final AtomicLong successDownloadCount = new AtomicLong();
+    protected final AtomicLong totalGetMetaCount = new AtomicLong();
+    protected final AtomicLong successGetMetaCount = new AtomicLong();
+    protected final AtomicLong totalUploadBytes = new AtomicLong();
+    protected final AtomicLong successUploadBytes = new AtomicLong();
+    protected final AtomicLong totalAppendBytes = new AtomicLong();
+    protected final AtomicLong successAppendBytes = new AtomicLong();
+    protected final AtomicLong totalModifyBytes = new AtomicLong();
+    protected final AtomicLong successModifyBytes = new AtomicLong();
+    protected final AtomicLong totalDownloadBytes = new AtomicLong();
+    protected final AtomicLong successDownloadBytes = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param groupName the group name
+     */
+    public MockStorageServer(String groupName) {
+        this(groupName, 1);
+    }
+
+    /**
+     * Constructor
+     * @param groupName the group name
+     * @param storePathCount store path count, the uploaded files are in M00 to M(storePathCount - 1)
+     */
+    public MockStorageServer(String groupName, int storePathCount) {
+        super("mock-storage-" + groupName);
+        this.groupName = groupName;
+        this.storePathCount = storePathCount;
+    }
+
+    public String getGroupName() {
+        return this.groupName;
+    }
+
+    public int getStorePathCount() {
+        return this.storePathCount;
+    }
+
+    public int getJoinTime() {
+        return this.joinTime;
+    }
+
+    /**
+     * @return the stored file count
+     */
+    public int getFileCount() {
+        return this.files.size();
+    }
+
+    /**
+     * @return the total bytes of the stored files
+     */
+    public long getStoredBytes() {
+        long bytes = 0;
+        for (StoredFile file : this.files.values()) {
+            bytes += file.content.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * @param cmd the command, such as ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE
+     * @return the count of the requests of the command received
+     */
+    public long getRequestCount(byte cmd) {
+        return this.requestCounts.get(cmd & 0xFF);
+    }
+
+    /**
+     * remove all stored files
+     */
+    public void clear() {
+        this.files.clear();
+    }
+
+    protected void handle(byte cmd, long body_len, InputStream in, OutputStream out) throws IOException {
+        this.requestCounts.incrementAndGet(cmd & 0xFF);
+        switch (cmd) {
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE:
+                this.upload(cmd == ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE, readBody(in, body_len), out);
+                break;
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_SLAVE_FILE:
+                this.uploadSlave(readBody(in, body_len), out);
+                break;
+            case ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE:
+                this.append(readBody(in, body_len), out);
+                break;
+            case ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE:
+                this.modify(readBody(in, body_len), out);
+                break;
+            case ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE:
+                this.truncate(readBody(in, body_len), out);
+                break;
+            case ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE:
+                this.download(readBody(in, body_len), out);
+                break;
+            case ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE:
+                this.delete(readBody(in, body_len), out);
+                break;
+            case ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA:
+                this.setMetadata(readBody(in, body_len), out);
+                break;
+            case ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA:
+                this.getMetadata(readBody(in, body_len), out);
+                break;
+            case ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO:
+                this.queryFileInfo(readBody(in, body_len), out);
+                break;
+            default:
+                sendInvalid(in, out, body_len);
+                break;
+        }
+    }
+
+    /**
+     * body: store path index(1) + file size(8) + ext name(6) + file content
+     */
+    private void upload(boolean appender, byte[] body, OutputStream out) throws IOException {
+        this.totalUploadCount.incrementAndGet();
+        int headLen = 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN;
+        if (body.length < headLen) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        int storePath = body[0] & 0xFF;
+        long file_size = ProtoCommon.buff2long(body, 1);
+        if (storePath >= this.storePathCount || file_size != body.length - headLen) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        this.totalUploadBytes.addAndGet(file_size);
+        String ext_name = stringValue(body, 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN);
+        byte[] content = Arrays.copyOfRange(body, headLen, body.length);
+        String remote_filename = this.genFilename(storePath, content, appender, ext_name);
+        this.files.put(remote_filename, new StoredFile(content, appender));
+
+        this.successUploadCount.incrementAndGet();
+        this.successUploadBytes.addAndGet(file_size);
+        sendResponse(out, (byte)0, this.uploadResult(remote_filename));
+    }
+
+    /**
+     * body: master filename length(8) + file size(8) + prefix name(16) + ext name(6) + master filename + file content
+     */
+    private void uploadSlave(byte[] body, OutputStream out) throws IOException {
+        this.totalUploadCount.incrementAndGet();
+        int headLen = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN
+            + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN;
+        if (body.length < headLen) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        int masterLen = (int)ProtoCommon.buff2long(body, 0);
+        long file_size = ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        if (masterLen <= 0 || headLen + masterLen + file_size != body.length) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        int offset = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        String prefix_name = stringValue(body, offset, ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN);
+        offset += ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN;
+        String ext_name = stringValue(body, offset, ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN);
+        offset += ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN;
+        String master_filename = new String(body, offset, masterLen, ISO8859_1);
+        offset += masterLen;
+
+        this.totalUploadBytes.addAndGet(file_size);
+        if (!this.files.containsKey(master_filename)) {
+            sendResponse(out, ProtoCommon.ERR_NO_ENOENT, null);
+            return;
+        }
+
+        String remote_filename;
+        try {
+            remote_filename = ProtoCommon.genSlaveFilename(master_filename, prefix_name, ext_name);
+        } catch (MyException ex) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+        if (this.files.containsKey(remote_filename)) {
+            sendResponse(out, (byte)17, null);  //EEXIST
+            return;
+        }
+
+        this.files.put(remote_filename, new StoredFile(Arrays.copyOfRange(body, offset, body.length), false));
+        this.successUploadCount.incrementAndGet();
+        this.successUploadBytes.addAndGet(file_size);
+        sendResponse(out, (byte)0, this.uploadResult(remote_filename));
+    }
+
+    /**
+     * body: appender filename length(8) + file size(8) + appender filename + file content
+     */
+    private void append(byte[] body, OutputStream out) throws IOException {
+        this.totalAppendCount.incrementAndGet();
+        int headLen = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        int nameLen = body.length < headLen ? -1 : (int)ProtoCommon.buff2long(body, 0);
+        long file_size = body.length < headLen ? -1 : ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        if (nameLen <= 0 || headLen + nameLen + file_size != body.length) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        this.totalAppendBytes.addAndGet(file_size);
+        StoredFile file = this.files.get(new String(body, headLen, nameLen, ISO8859_1));
+        byte errno = checkAppender(file);
+        if (errno != 0) {
+            sendResponse(out, errno, null);
+            return;
+        }
+
+        synchronized (file) {
+            int oldLen = file.content.length;
+            file.content = Arrays.copyOf(file.content, oldLen + (int)file_size);
+            System.arraycopy(body, headLen + nameLen, file.content, oldLen, (int)file_size);
+        }
+        this.successAppendCount.incrementAndGet();
+        this.successAppendBytes.addAndGet(file_size);
+        sendResponse(out, (byte)0, null);
+    }
+
+    /**
+     * body: appender filename length(8) + file offset(8) + modify size(8) + appender filename + file content
+     */
+    private void modify(byte[] body, OutputStream out) throws IOException {
+        this.totalModifyCount.incrementAndGet();
+        int headLen = 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        if (body.length < headLen) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        int nameLen = (int)ProtoCommon.buff2long(body, 0);
+        long file_offset = ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        long modify_size = ProtoCommon.buff2long(body, 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        if (nameLen <= 0 || file_offset < 0 || headLen + nameLen + modify_size != body.length) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        this.totalModifyBytes.addAndGet(modify_size);
+        StoredFile file = this.files.get(new String(body, headLen, nameLen, ISO8859_1));
+        byte errno = checkAppender(file);
+        if (errno != 0) {
+            sendResponse(out, errno, null);
+            return;
+        }
+
+        synchronized (file) {
+            if (file_offset > file.content.length) {
+                errno = ProtoCommon.ERR_NO_EINVAL;
+            } else {
+                if (file_offset + modify_size > file.content.length) {
+                    file.content = Arrays.copyOf(file.content, (int)(file_offset + modify_size));
+                }
+                System.arraycopy(body, headLen + nameLen, file.content, (int)file_offset, (int)modify_size);
+            }
+        }
+        if (errno == 0) {
+            this.successModifyCount.incrementAndGet();
+            this.successModifyBytes.addAndGet(modify_size);
+        }
+        sendResponse(out, errno, null);
+    }
+
+    /**
+     * body: appender filename length(8) + truncated file size(8) + appender filename
+     */
+    private void truncate(byte[] body, OutputStream out) throws IOException {
+        this.totalTruncateCount.incrementAndGet();
+        int headLen = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        int nameLen = body.length < headLen ? -1 : (int)ProtoCommon.buff2long(body, 0);
+        if (nameLen <= 0 || headLen + nameLen != body.length) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        long truncated_file_size = ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        StoredFile file = this.files.get(new String(body, headLen, nameLen, ISO8859_1));
+        byte errno = checkAppender(file);
+        if (errno == 0) {
+            synchronized (file) {
+                if (truncated_file_size < 0 || truncated_file_size > file.content.length) {
+                    errno = ProtoCommon.ERR_NO_EINVAL;
+                } else {
+                    file.content = Arrays.copyOf(file.content, (int)truncated_file_size);
+                }
+            }
+        }
+        if (errno == 0) {
+            this.successTruncateCount.incrementAndGet();
+        }
+        sendResponse(out, errno, null);
+    }
+
+    /**
+     * body: file offset(8) + download bytes(8) + group name(16) + filename
+     */
+    private void download(byte[] body, OutputStream out) throws IOException {
+        this.totalDownloadCount.incrementAndGet();
+        int headLen = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        if (body.length <= headLen + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        long file_offset = ProtoCommon.buff2long(body, 0);
+        long download_bytes = ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        StoredFile file = this.lookup(body, headLen);
+        if (file == null) {
+            sendResponse(out, ProtoCommon.ERR_NO_ENOENT, null);
+            return;
+        }
+
+        byte[] content = file.content;  //replaced as a whole on update
+        if (file_offset < 0 || file_offset > content.length || download_bytes < 0
+            || file_offset + download_bytes > content.length) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        int len = (int)(download_bytes == 0 ? content.length - file_offset : download_bytes);
+        out.write(ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_RESP, len, (byte)0));
+        out.write(content, (int)file_offset, len);
+        this.successDownloadCount.incrementAndGet();
+        this.totalDownloadBytes.addAndGet(len);
+        this.successDownloadBytes.addAndGet(len);
+    }
+
+    /**
+     * body: group name(16) + filename
+     */
+    private void delete(byte[] body, OutputStream out) throws IOException {
+        this.totalDeleteCount.incrementAndGet();
+        String remote_filename = this.filenameOf(body, 0);
+        if (remote_filename == null) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        if (this.files.remove(remote_filename) == null) {
+            sendResponse(out, ProtoCommon.ERR_NO_ENOENT, null);
+            return;
+        }
+        this.successDeleteCount.incrementAndGet();
+        sendResponse(out, (byte)0, null);
+    }
+
+    /**
+     * body: filename length(8) + metadata length(8) + op flag(1) + group name(16) + filename + metadata
+     */
+    private void setMetadata(byte[] body, OutputStream out) throws IOException {
+        this.totalSetMetaCount.incrementAndGet();
+        int headLen = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + 1 + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+        if (body.length < headLen) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        int nameLen = (int)ProtoCommon.buff2long(body, 0);
+        int metaLen = (int)ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        byte op_flag = body[2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
+        String group_name = stringValue(body, 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + 1,
+            ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+        if (nameLen <= 0 || metaLen < 0 || headLen + nameLen + metaLen != body.length
+            || !group_name.equals(this.groupName)) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        StoredFile file = this.files.get(new String(body, headLen, nameLen, ISO8859_1));
+        if (file == null) {
+            sendResponse(out, ProtoCommon.ERR_NO_ENOENT, null);
+            return;
+        }
+
+        byte[] meta = Arrays.copyOfRange(body, headLen + nameLen, body.length);
+        synchronized (file) {
+            if (op_flag == ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE && file.metadata.length > 0) {
+                file.metadata = mergeMetadata(file.metadata, meta);
+            } else {
+                file.metadata = meta;
+            }
+        }
+        this.successSetMetaCount.incrementAndGet();
+        sendResponse(out, (byte)0, null);
+    }
+
+    /**
+     * body: group name(16) + filename
+     */
+    private void getMetadata(byte[] body, OutputStream out) throws IOException {
+        this.totalGetMetaCount.incrementAndGet();
+        StoredFile file = this.lookup(body, 0);
+        if (file == null) {
+            sendResponse(out, ProtoCommon.ERR_NO_ENOENT, null);
+            return;
+        }
+
+        this.successGetMetaCount.incrementAndGet();
+        sendResponse(out, (byte)0, file.metadata);
+    }
+
+    /**
+     * body: group name(16) + filename, response: file size(8) + create timestamp(8) + crc32(8) + source ip(16)
+     */
+    private void queryFileInfo(byte[] body, OutputStream out) throws IOException {
+        StoredFile file = this.lookup(body, 0);
+        if (file == null) {
+            sendResponse(out, ProtoCommon.ERR_NO_ENOENT, null);
+            return;
+        }
+
+        byte[] content = file.content;
+        CRC32 crc32 = new CRC32();
+        crc32.update(content, 0, content.length);
+        byte[] resp = new byte[3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_IPADDR_SIZE];
+        putLong(resp, 0, content.length);
+        putLong(resp, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, file.createTimestamp);
+        putLong(resp, 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, (int)crc32.getValue());
+        putString(resp, 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, ProtoCommon.FDFS_IPADDR_SIZE, this.getIpAddr());
+        sendResponse(out, (byte)0, resp);
+    }
+
+    private static byte checkAppender(StoredFile file) {
+        if (file == null) {
+            return ProtoCommon.ERR_NO_ENOENT;
+        }
+        return file.appender ? 0 : ProtoCommon.ERR_NO_EINVAL;
+    }
+
+    /**
+     * @return the filename after the group name, null if the group name is not this group
+     */
+    private String filenameOf(byte[] body, int offset) {
+        if (body.length <= offset + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
+            return null;
+        }
+        if (!stringValue(body, offset, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN).equals(this.groupName)) {
+            return null;
+        }
+
+        offset += ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+        return new String(body, offset, body.length - offset, ISO8859_1);
+    }
+
+    private StoredFile lookup(byte[] body, int offset) {
+        String remote_filename = this.filenameOf(body, offset);
+        return remote_filename == null ? null : this.files.get(remote_filename);
+    }
+
+    private byte[] uploadResult(String remote_filename) {
+        byte[] bs = remote_filename.getBytes(ISO8859_1);
+        byte[] resp = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + bs.length];
+        putString(resp, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, this.groupName);
+        System.arraycopy(bs, 0, resp, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, bs.length);
+        return resp;
+    }
+
+    /**
+     * generate the filename like M00/00/2A/fwAAAVn8f0OAAAAAAAAABx7bXok123.jpg, the 27 base64 chars
+     * are source ip, create timestamp, file size (with the appender flag) and crc32.
+     */
+    private String genFilename(int storePath, byte[] content, boolean appender, String ext_name) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(content, 0, content.length);
+        long file_size = appender ? ProtoCommon.APPENDER_FILE_SIZE | content.length : content.length;
+
+        byte[] fields = new byte[20];
+        putLong(fields, 0, ((long)SOURCE_IP << 32) | (System.currentTimeMillis() / 1000));
+        putLong(fields, 8, file_size);
+        System.arraycopy(ProtoCommon.long2buff(crc32.getValue()), 4, fields, 16, 4);
+
+        String filename;
+        do {
+            int seq = this.fileSequence.incrementAndGet();
+            StringBuilder sb = new StringBuilder(64);
+            sb.append(String.format("M%02X/%02X/%02X/", storePath, (seq >> 8) & 0xFF, seq & 0xFF));
+            sb.append(Base64Codec.FDFS.encode(fields, 0, fields.length).substring(0,
+                ProtoCommon.FDFS_FILENAME_BASE64_LENGTH));
+            sb.append(String.format("%03d", ThreadLocalRandom.current().nextInt(1000)));
+            if (ext_name.length() > 0) {
+                sb.append('.').append(ext_name);
+            }
+            filename = sb.toString();
+        } while (this.files.containsKey(filename));
+
+        return filename;
+    }
+
+    /**
+     * merge the metadata in the bytes of the protocol, the new values replace the old ones
+     */
+    private static byte[] mergeMetadata(byte[] oldMeta, byte[] newMeta) {
+        final Map<String, String> merged = new LinkedHashMap<String, String>();
+        MetadataVisitor collector = new MetadataVisitor() {
+            public boolean visit(String name, String value) {
+                merged.put(name, value);
+                return true;
+            }
+        };
+        MetadataCodec.visit(oldMeta, 0, oldMeta.length, ISO8859_1, collector);
+        MetadataCodec.visit(newMeta, 0, newMeta.length, ISO8859_1, collector);
+
+        NameValuePair[] meta_list = new NameValuePair[merged.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : merged.entrySet()) {
+            meta_list[i++] = new NameValuePair(entry.getKey(), entry.getValue());
+        }
+        return MetadataCodec.encode(meta_list, ISO8859_1);
+    }
+
+    /**
+     * fill the counters of the StructStorageStat record
+     */
+    protected void putCounters(byte[] bs, int offset) {
+        AtomicLong[] counters = new AtomicLong[]{
+            this.totalUploadCount, this.successUploadCount, this.totalAppendCount, this.successAppendCount,
+            this.totalModifyCount, this.successModifyCount, this.totalTruncateCount, this.successTruncateCount,
+            this.totalSetMetaCount, this.successSetMetaCount, this.totalDeleteCount, this.successDeleteCount,
+            this.totalDownloadCount, this.successDownloadCount, this.totalGetMetaCount, this.successGetMetaCount,
+            null, null, null, null,  //create link and delete link
+            this.totalUploadBytes, this.successUploadBytes, this.totalAppendBytes, this.successAppendBytes,
+            this.totalModifyBytes, this.successModifyBytes, this.totalDownloadBytes, this.successDownloadBytes
+        };
+        for (AtomicLong counter : counters) {
+            putLong(bs, offset, counter == null ? 0 : counter.get());
+            offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.csource.fastdfs.ClientGlobal;
+import org.csource.fastdfs.ProtoCommon;
+import org.csource.fastdfs.StructGroupStat;
+import org.csource.fastdfs.StructStorageStat;
+import org.csource.fastdfs.TrackerGroup;
+
+/**
+ * in-process tracker server routing the clients to MockStorageServer objects.
+ * supports the QUERY_STORE_*, QUERY_FETCH_*, QUERY_UPDATE, LIST_GROUP and LIST_STORAGE commands.
+ * usage:
+ * <pre>
+ *   MockStorageServer storage = new MockStorageServer("group1");
+ *   storage.start();
+ *   MockTrackerServer tracker = new MockTrackerServer(storage);
+ *   tracker.start();
+ *   tracker.configureClient();
+ * </pre>
+ */
+public class MockTrackerServer extends MockFdfsServer {
+    private static final long TOTAL_MB = 1024 * 1024;
+    private static final String VERSION = "5.11";
+
+    private final List<String> groupNames = new CopyOnWriteArrayList<String>();
+    private final Map<String, List<MockStorageServer>> groups = new ConcurrentHashMap<String, List<MockStorageServer>>();
+    private final AtomicInteger storeIndex = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param storages the storage servers, they should be started before the tracker is queried
+     */
+    public MockTrackerServer(MockStorageServer... storages) {
+        super("mock-tracker");
+        for (MockStorageServer storage : storages) {
+            this.addStorage(storage);
+        }
+    }
+
+    /**
+     * add a storage server to its group
+     * @param storage the storage server
+     */
+    public synchronized void addStorage(MockStorageServer storage) {
+        List<MockStorageServer> servers = this.groups.get(storage.getGroupName());
+        if (servers == null) {
+            servers = new CopyOnWriteArrayList<MockStorageServer>();
+            this.groups.put(storage.getGroupName(), servers);
+            this.groupNames.add(storage.getGroupName());
+        }
+        servers.add(storage);
+    }
+
+    /**
+     * point ClientGlobal to this tracker with the default timeouts and charset,
+     * the settings of ClientGlobal.init are not needed
+     */
+    public void configureClient() {
+        if (ClientGlobal.g_connect_timeout <= 0) {
+            ClientGlobal.g_connect_timeout = ClientGlobal.DEFAULT_CONNECT_TIMEOUT * 1000;
+        }
+        if (ClientGlobal.g_network_timeout <= 0) {
+            ClientGlobal.g_network_timeout = ClientGlobal.DEFAULT_NETWORK_TIMEOUT * 1000;
+        }
+        if (ClientGlobal.g_charset == null) {
+            ClientGlobal.g_charset = "ISO8859-1";
+        }
+        ClientGlobal.g_tracker_group = new TrackerGroup(new InetSocketAddress[]{this.getInetSocketAddress()});
+    }
+
+    protected void handle(byte cmd, long body_len, InputStream in, OutputStream out) throws IOException {
+        switch (cmd) {
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ONE:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ALL:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL:
+                this.queryStore(cmd, readBody(in, body_len), out);
+                break;
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ONE:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ALL:
+                this.queryFetch(cmd, readBody(in, body_len), out);
+                break;
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_GROUP:
+                ProtoCommon.skipBody(in, body_len);
+                this.listGroups(out);
+                break;
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_STORAGE:
+                this.listStorages(readBody(in, body_len), out);
+                break;
+            default:
+                sendInvalid(in, out, body_len);
+                break;
+        }
+    }
+
+    /**
+     * response: group name(16) + (ip(15) + port(8)) * n + store path index(1)
+     */
+    private void queryStore(byte cmd, byte[] body, OutputStream out) throws IOException {
+        boolean withGroup = cmd == ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE
+            || cmd == ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL;
+        boolean all = cmd == ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ALL
+            || cmd == ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL;
+
+        String group_name;
+        if (withGroup) {
+            if (body.length != ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
+                sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+                return;
+            }
+            group_name = stringValue(body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+        } else {
+            if (this.groupNames.isEmpty()) {
+                sendResponse(out, ProtoCommon.ERR_NO_ENOENT, null);
+                return;
+            }
+            int index = (this.storeIndex.getAndIncrement() & Integer.MAX_VALUE) % this.groupNames.size();
+            group_name = this.groupNames.get(index);
+        }
+
+        List<MockStorageServer> servers = this.activeStorages(group_name);
+        if (servers.isEmpty()) {
+            sendResponse(out, ProtoCommon.ERR_NO_ENOENT, null);
+            return;
+        }
+        if (!all) {
+            int index = (this.storeIndex.getAndIncrement() & Integer.MAX_VALUE) % servers.size();
+            servers = servers.subList(index, index + 1);
+        }
+
+        int recordLength = ProtoCommon.FDFS_IPADDR_SIZE - 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        byte[] resp = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + recordLength * servers.size() + 1];
+        putString(resp, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, group_name);
+        int offset = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+        for (MockStorageServer server : servers) {
+            putString(resp, offset, ProtoCommon.FDFS_IPADDR_SIZE - 1, server.getIpAddr());
+            putLong(resp, offset + ProtoCommon.FDFS_IPADDR_SIZE - 1, server.getPort());
+            offset += recordLength;
+        }
+        int storePathCount = servers.get(0).getStorePathCount();
+        resp[offset] = (byte)((this.storeIndex.getAndIncrement() & Integer.MAX_VALUE) % storePathCount);
+        sendResponse(out, (byte)0, resp);
+    }
+
+    /**
+     * body: group name(16) + filename, response: group name(16) + ip(15) + port(8) + ip(15) * (n - 1)
+     */
+    private void queryFetch(byte cmd, byte[] body, OutputStream out) throws IOException {
+        if (body.length <= ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        String group_name = stringValue(body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+        List<MockStorageServer> servers = this.activeStorages(group_name);
+        if (servers.isEmpty()) {
+            sendResponse(out, ProtoCommon.ERR_NO_ENOENT, null);
+            return;
+        }
+
+        int first = (this.storeIndex.getAndIncrement() & Integer.MAX_VALUE) % servers.size();
+        int count = cmd == ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ALL ? servers.size() : 1;
+        byte[] resp = new byte[ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN
+            + (count - 1) * (ProtoCommon.FDFS_IPADDR_SIZE - 1)];
+        MockStorageServer server = servers.get(first);
+        putString(resp, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, group_name);
+        putString(resp, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, ProtoCommon.FDFS_IPADDR_SIZE - 1, server.getIpAddr());
+        putLong(resp, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ProtoCommon.FDFS_IPADDR_SIZE - 1, server.getPort());
+        int offset = ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN;
+        for (int i = 1; i < count; i++) {
+            putString(resp, offset, ProtoCommon.FDFS_IPADDR_SIZE - 1,
+                servers.get((first + i) % servers.size()).getIpAddr());
+            offset += ProtoCommon.FDFS_IPADDR_SIZE - 1;
+        }
+        sendResponse(out, (byte)0, resp);
+    }
+
+    /**
+     * response: StructGroupStat records
+     */
+    private void listGroups(OutputStream out) throws IOException {
+        int size = StructGroupStat.getFieldsTotalSize();
+        byte[] resp = new byte[size * this.groupNames.size()];
+        int offset = 0;
+        for (String group_name : this.groupNames) {
+            List<MockStorageServer> servers = this.groups.get(group_name);
+            List<MockStorageServer> active = this.activeStorages(group_name);
+            MockStorageServer first = servers.get(0);
+
+            int pos = offset;
+            putString(resp, pos, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + 1, group_name);
+            pos += ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + 1;
+            long[] values = new long[]{
+                TOTAL_MB, this.freeMB(first), this.freeMB(first), servers.size(), first.getPort(), 0,
+                active.size(), 0, first.getStorePathCount(), 256, 0
+            };
+            for (long value : values) {
+                putLong(resp, pos, value);
+                pos += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+            }
+            offset += size;
+        }
+        sendResponse(out, (byte)0, resp);
+    }
+
+    /**
+     * body: group name(16) + optional ip, response: StructStorageStat records
+     */
+    private void listStorages(byte[] body, OutputStream out) throws IOException {
+        if (body.length < ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) {
+            sendResponse(out, ProtoCommon.ERR_NO_EINVAL, null);
+            return;
+        }
+
+        String group_name = stringValue(body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+        String ip_addr = body.length > ProtoCommon.FDFS_GROUP_NAME_MAX_LEN ? stringValue(body,
+            ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, body.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN) : null;
+        List<MockStorageServer> servers = this.groups.get(group_name);
+        if (servers == null) {
+            sendResponse(out, ProtoCommon.ERR_NO_ENOENT, null);
+            return;
+        }
+
+        List<MockStorageServer> selected = new ArrayList<MockStorageServer>();
+        for (MockStorageServer server : servers) {
+            if (ip_addr == null || ip_addr.equals(server.getIpAddr())) {
+                selected.add(server);
+            }
+        }
+
+        int size = StructStorageStat.getFieldsTotalSize();
+        byte[] resp = new byte[size * selected.size()];
+        for (int i = 0; i < selected.size(); i++) {
+            this.putStorageStat(resp, i * size, selected.get(i));
+        }
+        sendResponse(out, (byte)0, resp);
+    }
+
+    private void putStorageStat(byte[] bs, int offset, MockStorageServer server) {
+        int start = offset;
+        long now = System.currentTimeMillis() / 1000;
+
+        bs[offset++] = server.isRunning() ? ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE : ProtoCommon.FDFS_STORAGE_STATUS_OFFLINE;
+        String id = server.getIpAddr() + ":" + server.getPort();
+        putString(bs, offset, ProtoCommon.FDFS_STORAGE_ID_MAX_SIZE, id);
+        offset += ProtoCommon.FDFS_STORAGE_ID_MAX_SIZE;
+        putString(bs, offset, ProtoCommon.FDFS_IPADDR_SIZE, server.getIpAddr());
+        offset += ProtoCommon.FDFS_IPADDR_SIZE;
+        offset += ProtoCommon.FDFS_DOMAIN_NAME_MAX_SIZE;  //no domain name
+        offset += ProtoCommon.FDFS_IPADDR_SIZE;  //no source ip address
+        putString(bs, offset, ProtoCommon.FDFS_VERSION_SIZE, VERSION);
+        offset += ProtoCommon.FDFS_VERSION_SIZE;
+
+        long[] values = new long[]{
+            server.getJoinTime(), server.getJoinTime(), TOTAL_MB, this.freeMB(server), 0,
+            server.getStorePathCount(), 256, 0, server.isRunning() ? server.getPort() : 0, 0
+        };
+        for (long value : values) {
+            putLong(bs, offset, value);
+            offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        }
+        offset += 3 * 4;  //connection alloc, current and max count
+
+        server.putCounters(bs, offset);
+        offset += 38 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;  //28 counters and 10 sync/file io counters
+
+        putLong(bs, offset, now);  //last source update
+        offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        putLong(bs, offset, now);  //last sync update
+        offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        putLong(bs, offset, now);  //last synced timestamp
+        offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        putLong(bs, offset, now);  //last heart beat time
+        offset += ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        bs[offset++] = 0;  //not trunk server
+
+        if (offset - start != StructStorageStat.getFieldsTotalSize()) {
+            throw new IllegalStateException("storage stat size " + (offset - start) + " != "
+                + StructStorageStat.getFieldsTotalSize());
+        }
+    }
+
+    private List<MockStorageServer> activeStorages(String group_name) {
+        List<MockStorageServer> active = new ArrayList<MockStorageServer>();
+        List<MockStorageServer> servers = this.groups.get(group_name);
+        if (servers != null) {
+            for (MockStorageServer server : servers) {
+                if (server.isRunning()) {
+                    active.add(server);
+                }
+            }
+        }
+        return active;
+    }
+
+    private long freeMB(MockStorageServer server) {
+        return TOTAL_MB - server.getStoredBytes() / (1024 * 1024);
+    }
+}
@@ -1,312 +1,733 @@
 /**
-* Copyright (C) 2008 Happy Fish / YuQing
-*
-* FastDFS Java Client may be copied only under the terms of the GNU Lesser
-* General Public License (LGPL).
-* Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
-**/
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
 
 package org.csource.fastdfs.test;
 
-import org.csource.fastdfs.*;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-/**
-* load test class
-* @author Happy Fish / YuQing
-* @version Version 1.11
-*/
-public class TestLoad
-{
-	public static java.util.concurrent.ConcurrentLinkedQueue file_ids;
-	public static int total_download_count = 0;
-	public static int success_download_count = 0;
-	public static int fail_download_count = 0;
-	public static int total_upload_count = 0;
-	public static int success_upload_count = 0;
-	public static int upload_thread_count = 0;
-	
-/**
-* discard file content callback class when download file
-* @author Happy Fish / YuQing
-* @version Version 1.0
-*/
-	public static class DownloadFileDiscard implements DownloadCallback
-	{
-		public DownloadFileDiscard()
-		{
-		}
-		
-		public int recv(long file_size, byte[] data, int bytes)
-		{
-			return 0;
-		}
-	}
+import org.csource.common.LatencyHistogram;
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.ClientGlobal;
+import org.csource.fastdfs.DownloadCallback;
+import org.csource.fastdfs.ProtoCommon;
+import org.csource.fastdfs.StorageClient1;
+import org.csource.fastdfs.TraceRecorder;
+import org.csource.fastdfs.TrackerClient;
+import org.csource.fastdfs.TrackerServer;
 
 /**
-* file uploader
-* @author Happy Fish / YuQing
-* @version Version 1.0
-*/
-	public static class Uploader
-	{
-		public TrackerClient tracker;
-		public TrackerServer trackerServer;
-		
-		public Uploader() throws Exception
-		{
-  		this.tracker = new TrackerClient();
-  		this.trackerServer = tracker.getConnection();
-		}
-		
-  	public int uploadFile() throws Exception
-  	{
-  		StorageServer storageServer = null;
-  		StorageClient1 client = new StorageClient1(trackerServer, storageServer);
-  		byte[] file_buff;
-  		String file_id;
-  		
-  		file_buff = new byte[2 * 1024];
-  		java.util.Arrays.fill(file_buff, (byte)65);
-  		
-  		try
-  		{
-	  		file_id = client.upload_file1(file_buff, "txt", null);
-	  		if (file_id == null)
-	  		{
-	  			System.out.println("upload file fail, error code: " + client.getErrorCode());
-	  			return -1;
-	  		}
-	  		
-	  		TestLoad.file_ids.offer(file_id);
-	  		return 0;
-	  	}
-	  	catch(Exception ex)
-	  	{
-	  		System.out.println("upload file fail, error mesg: " + ex.getMessage());
-	  		return -1;
-	  	}
-  	}
-	}
+ * load generator with a configurable operation mix and payload sizes, in closed loop or
+ * open loop (fixed rate) mode, reporting the throughput per second and the latency percentiles
+ * of each operation.
+ * <pre>
+ * usage: TestLoad &lt;config filename | mock&gt; [--option=value ...]
+ *   --threads=16                  worker threads
+ *   --mode=closed                 closed: each thread sends the next request after the response,
+ *                                 open: requests are sent at --rate whether the responses are late or not
+ *   --rate=0                      total requests per second, 0 for no limit in closed mode
+ *   --duration=60                 measured seconds
+ *   --warmup=5                    seconds before measuring
+ *   --mix=upload:30,download:60,delete:5,get_meta:5
+ *                                 weights of upload, download, delete, set_meta and get_meta
+ *   --size=fixed:2k               payload size: fixed:N, uniform:MIN-MAX or lognormal:MEDIAN,SIGMA
+ *   --preload=100                 files uploaded before the run
+ *   --seed=1                      seed of the operations and the sizes
+ *   --format=text                 report format: text, csv or json
+ *   --out=FILE                    report file, stdout by default
+ *   --mock-latency=0              mean latency in ms added by the mock storage server
+ *   --trace=FILE                  record the requests with TraceRecorder, replay them with TestReplay
+ * </pre>
+ * with the config "mock" the load runs against MockTrackerServer and MockStorageServer.
+ * in open loop mode the latency is measured from the time the request should have been sent,
+ * so stalls are not hidden by the coordinated omission, the service time from the time it was
+ * sent is reported too. in closed loop mode with a rate the latency is corrected with the
+ * expected interval. the threads must be enough for rate * latency, otherwise the requests
+ * queue in the threads and the latency grows.
+ *
+ * @author Happy Fish / YuQing
+ * @version Version 1.25
+ */
+public class TestLoad {
+    static final String[] OP_NAMES = {"upload", "download", "delete", "set_meta", "get_meta"};
+    static final int OP_UPLOAD = 0;
+    static final int OP_DOWNLOAD = 1;
+    static final int OP_DELETE = 2;
+    static final int OP_SET_META = 3;
+    static final int OP_GET_META = 4;
 
-/**
-* file downloader
-* @author Happy Fish / YuQing
-* @version Version 1.0
-*/
-	public static class Downloader
-	{
-		public TrackerClient tracker;
-		public TrackerServer trackerServer;
-		public DownloadFileDiscard callback;
-		
-		public Downloader() throws Exception
-		{
-  		this.tracker = new TrackerClient();
-  		this.trackerServer = tracker.getConnection();
-  		this.callback = new DownloadFileDiscard();
-		}
-		
-  	public int downloadFile(String file_id) throws Exception
-  	{
-  		int errno;
-  		StorageServer storageServer = null;
-  		StorageClient1 client = new StorageClient1(trackerServer, storageServer);
-  		
-  		try
-  		{
-				errno = client.download_file1(file_id, this.callback);
-				if (errno != 0)
-				{
-					System.out.println("Download file fail, file_id: " + file_id + ", error no: " + errno);
-				}
-				return errno;
-			}
-			catch(Exception ex)
-	  	{
-	  		System.out.println("Download file fail, error mesg: " + ex.getMessage());
-	  		return -1;
-	  	}
-  	}
-	}
-	
-/**
-* upload file thread
-* @author Happy Fish / YuQing
-* @version Version 1.0
-*/
-	public static class UploadThread extends Thread
-	{
-		private int thread_index;
-		
-		public UploadThread(int index)
-		{
-			this.thread_index = index;
-		}
-		
-	  public void run()
-    {
-    	try
-    	{
-    		TestLoad.upload_thread_count++;
-    		Uploader uploader = new Uploader();
-    		
-    		System.out.println("upload thread " + this.thread_index + " start");
-    		
-				for (int i=0; i<50000; i++)
-				{
-						TestLoad.total_upload_count++;
-    				if (uploader.uploadFile() == 0)
-    				{
-    					TestLoad.success_upload_count++;
-    				}
-    		}
-    	}
-	  	catch(Exception ex)
-	  	{
-	  		ex.printStackTrace();
-	  	}
-	  	finally
-	  	{
-	  		TestLoad.upload_thread_count--;
-	  	}
-	  	
-	  	System.out.println("upload thread " + this.thread_index
-	  	                 + " exit, total_upload_count: " + TestLoad.total_upload_count
-	  	                 + ", success_upload_count: " + TestLoad.success_upload_count
-	  	                 + ", total_download_count: " + TestLoad.total_download_count
-	  	                 + ", success_download_count: " + TestLoad.success_download_count);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9", "p99.99"};
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * command line options
+     */
+    static class Options {
+        String config;
+        int threads = 16;
+        boolean openLoop = false;
+        double rate = 0;
+        int duration = 60;
+        int warmup = 5;
+        String mix = "upload:30,download:60,delete:5,get_meta:5";
+        int[] weights = new int[OP_NAMES.length];
+        String size = "fixed:2k";
+        SizeDistribution sizes;
+        int preload = 100;
+        long seed = 1;
+        String format = "text";
+        String out;
+        double mockLatency = 0;
+        String trace;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            options.config = args[0];
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                int pos = arg.indexOf('=');
+                if (!arg.startsWith("--") || pos < 0) {
+                    throw new IllegalArgumentException("invalid option: " + arg);
+                }
+
+                String key = arg.substring(2, pos);
+                String value = arg.substring(pos + 1);
+                if (key.equals("threads")) {
+                    options.threads = Integer.parseInt(value);
+                } else if (key.equals("mode")) {
+                    if (!value.equals("open") && !value.equals("closed")) {
+                        throw new IllegalArgumentException("invalid mode: " + value);
+                    }
+                    options.openLoop = value.equals("open");
+                } else if (key.equals("rate")) {
+                    options.rate = Double.parseDouble(value);
+                } else if (key.equals("duration")) {
+                    options.duration = Integer.parseInt(value);
+                } else if (key.equals("warmup")) {
+                    options.warmup = Integer.parseInt(value);
+                } else if (key.equals("mix")) {
+                    options.mix = value;
+                } else if (key.equals("size")) {
+                    options.size = value;
+                } else if (key.equals("preload")) {
+                    options.preload = Integer.parseInt(value);
+                } else if (key.equals("seed")) {
+                    options.seed = Long.parseLong(value);
+                } else if (key.equals("format")) {
+                    if (!value.equals("text") && !value.equals("csv") && !value.equals("json")) {
+                        throw new IllegalArgumentException("invalid format: " + value);
+                    }
+                    options.format = value;
+                } else if (key.equals("out")) {
+                    options.out = value;
+                } else if (key.equals("mock-latency")) {
+                    options.mockLatency = Double.parseDouble(value);
+                } else if (key.equals("trace")) {
+                    options.trace = value;
+                } else {
+                    throw new IllegalArgumentException("unkown option: " + key);
+                }
+            }
+
+            if (options.threads <= 0 || options.duration <= 0 || options.warmup < 0) {
+                throw new IllegalArgumentException("threads and duration must be positive");
+            }
+            if (options.openLoop && options.rate <= 0) {
+                throw new IllegalArgumentException("open loop mode needs --rate");
+            }
+            options.parseMix();
+            options.sizes = SizeDistribution.parse(options.size);
+            return options;
+        }
+
+        private void parseMix() {
+            int total = 0;
+            for (String item : this.mix.split(",")) {
+                String[] parts = item.trim().split(":");
+                int index = indexOfOp(parts[0]);
+                if (index < 0 || parts.length != 2) {
+                    throw new IllegalArgumentException("invalid mix item: " + item);
+                }
+                this.weights[index] = Integer.parseInt(parts[1]);
+                total += this.weights[index];
+            }
+            if (total <= 0) {
+                throw new IllegalArgumentException("invalid mix: " + this.mix);
+            }
+        }
+
+        int nextOp(Random random) {
+            int total = 0;
+            for (int weight : this.weights) {
+                total += weight;
+            }
+            int n = random.nextInt(total);
+            for (int i = 0; i < this.weights.length; i++) {
+                if (n < this.weights[i]) {
+                    return i;
+                }
+                n -= this.weights[i];
+            }
+            return OP_UPLOAD;
+        }
     }
-  }
-  
-/**
-* download file thread
-* @author Happy Fish / YuQing
-* @version Version 1.0
-*/
-	public static class DownloadThread extends Thread
-	{
-		private int thread_index;
-		private static Integer counter_lock = new Integer(0);
-		
-		public DownloadThread(int index)
-		{
-			this.thread_index = index;
-		}
-		
-	  public void run()
-    {
-    	try
-    	{
-    		String file_id;
-    		Downloader downloader = new Downloader();
-    		
-    		System.out.println("download thread " + this.thread_index + " start");
-    		
-    		file_id = "";
-				while (TestLoad.upload_thread_count != 0 || file_id != null)
-				{
-					file_id = (String)TestLoad.file_ids.poll();
-					if (file_id == null)
-					{
-						Thread.sleep(10);
-						continue;
-					}
-					
-					synchronized (this.counter_lock)
-					{
-						TestLoad.total_download_count++;
-					}
-    			if (downloader.downloadFile(file_id) == 0)
-    			{
-    				synchronized (this.counter_lock)
-    				{
-    					TestLoad.success_download_count++;
-    				}
-    			}
-    			else
-    			{
-    				TestLoad.fail_download_count++;
-    			}
-    		}
-    		
-    		for (int i=0; i<3 && TestLoad.total_download_count < TestLoad.total_upload_count; i++)
-    		{
-					file_id = (String)TestLoad.file_ids.poll();
-					if (file_id == null)
-					{
-						Thread.sleep(10);
-						continue;
-					}
-					
-					synchronized (this.counter_lock)
-					{
-						TestLoad.total_download_count++;
-					}
-    			if (downloader.downloadFile(file_id) == 0)
-    			{
-    				synchronized (this.counter_lock)
-    				{
-    					TestLoad.success_download_count++;
-    				}
-    			}
-    			else
-    			{
-    				TestLoad.fail_download_count++;
-    			}
-    		}
-    	}
-	  	catch(Exception ex)
-	  	{
-	  		ex.printStackTrace();
-	  	}
-	  	
-	  	System.out.println("download thread " + this.thread_index
-	  	                 + " exit, total_download_count: " + TestLoad.total_download_count
-	  	                 + ", success_download_count: " + TestLoad.success_download_count
-	  	                 + ", fail_download_count: " + TestLoad.fail_download_count);
+
+    private static int indexOfOp(String name) {
+        for (int i = 0; i < OP_NAMES.length; i++) {
+            if (OP_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * payload size distribution
+     */
+    abstract static class SizeDistribution {
+        abstract int next(Random random);
+
+        abstract int max();
+
+        static SizeDistribution parse(String spec) {
+            int pos = spec.indexOf(':');
+            String type = pos < 0 ? "fixed" : spec.substring(0, pos);
+            String value = spec.substring(pos + 1);
+            if (type.equals("fixed")) {
+                final int size = parseSize(value);
+                return new SizeDistribution() {
+                    int next(Random random) {
+                        return size;
+                    }
+
+                    int max() {
+                        return size;
+                    }
+                };
+            } else if (type.equals("uniform")) {
+                String[] parts = value.split("-");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("invalid size: " + spec);
+                }
+                final int min = parseSize(parts[0]);
+                final int max = parseSize(parts[1]);
+                if (min > max) {
+                    throw new IllegalArgumentException("invalid size: " + spec);
+                }
+                return new SizeDistribution() {
+                    int next(Random random) {
+                        return min + random.nextInt(max - min + 1);
+                    }
+
+                    int max() {
+                        return max;
+                    }
+                };
+            } else if (type.equals("lognormal")) {
+                String[] parts = value.split(",");
+                final int median = parseSize(parts[0]);
+                final double sigma = Double.parseDouble(parts[1]);
+                return new SizeDistribution() {
+                    int next(Random random) {
+                        double size = median * Math.exp(sigma * random.nextGaussian());
+                        return (int)Math.max(1, Math.min(MAX_PAYLOAD_SIZE, Math.round(size)));
+                    }
+
+                    int max() {
+                        return (int)Math.min(MAX_PAYLOAD_SIZE, Math.round(median * Math.exp(sigma * 5)));
+                    }
+                };
+            }
+            throw new IllegalArgumentException("invalid size: " + spec);
+        }
+
+        static int parseSize(String value) {
+            String s = value.trim().toLowerCase(Locale.ROOT);
+            int unit = 1;
+            if (s.endsWith("k")) {
+                unit = 1024;
+            } else if (s.endsWith("m")) {
+                unit = 1024 * 1024;
+            }
+            if (unit > 1) {
+                s = s.substring(0, s.length() - 1);
+            }
+            long size = Long.parseLong(s) * unit;
+            if (size < 0 || size > MAX_PAYLOAD_SIZE) {
+                throw new IllegalArgumentException("invalid size: " + value);
+            }
+            return (int)size;
+        }
+    }
+
+    /**
+     * the uploaded file ids, picked randomly by the other operations
+     */
+    static class FilePool {
+        private final List<String> file_ids = new ArrayList<String>();
+
+        synchronized void add(String file_id) {
+            this.file_ids.add(file_id);
+        }
+
+        synchronized String pick(Random random) {
+            return this.file_ids.isEmpty() ? null : this.file_ids.get(random.nextInt(this.file_ids.size()));
+        }
+
+        synchronized String remove(Random random) {
+            if (this.file_ids.isEmpty()) {
+                return null;
+            }
+            int index = random.nextInt(this.file_ids.size());
+            String last = this.file_ids.remove(this.file_ids.size() - 1);
+            if (index == this.file_ids.size()) {
+                return last;
+            }
+            return this.file_ids.set(index, last);
+        }
+
+        synchronized int size() {
+            return this.file_ids.size();
+        }
+    }
+
+    /**
+     * the counters and the latencies of one operation
+     */
+    static class OpStats {
+        final String name;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+
+        OpStats(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * discard file content callback when download file
+     */
+    static class DownloadDiscard implements DownloadCallback {
+        long total;
+
+        public int recv(long file_size, byte[] data, int bytes) {
+            this.total += bytes;
+            return 0;
+        }
+    }
+
+    private final Options options;
+    private final OpStats[] stats = new OpStats[OP_NAMES.length];
+    private final FilePool pool = new FilePool();
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalErrors = new AtomicLong();
+    private final List<long[]> timeline = new ArrayList<long[]>();
+    private final byte[] payload;
+    private volatile long measureStart;
+    private volatile long measureEnd;
+
+    TestLoad(Options options) {
+        this.options = options;
+        for (int i = 0; i < OP_NAMES.length; i++) {
+            this.stats[i] = new OpStats(OP_NAMES[i]);
+        }
+        this.payload = new byte[Math.max(1, options.sizes.max())];
+        new Random(options.seed).nextBytes(this.payload);
+    }
+
+    /**
+     * one worker thread with its own tracker connection
+     */
+    class Worker implements Runnable {
+        private final Random random;
+        private final CountDownLatch done;
+        private final long intervalNanos;
+        private final DownloadDiscard discard = new DownloadDiscard();
+        private TrackerServer trackerServer;
+
+        Worker(int index, CountDownLatch done) {
+            this.random = new Random(options.seed + index + 1);
+            this.done = done;
+            this.intervalNanos = options.rate > 0 ? (long)(options.threads * 1000000000.0 / options.rate) : 0;
+        }
+
+        public void run() {
+            try {
+                this.loop();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            } finally {
+                if (this.trackerServer != null) {
+                    try {
+                        this.trackerServer.close();
+                    } catch (IOException ex) {
+                        //ignore
+                    }
+                }
+                this.done.countDown();
+            }
+        }
+
+        private void loop() throws Exception {
+            long next = System.nanoTime() + (this.intervalNanos > 0 ? (long)(this.random.nextDouble() * this.intervalNanos) : 0);
+            while (true) {
+                long intended = next;
+                if (this.intervalNanos > 0) {
+                    long wait = intended - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+                    }
+                }
+
+                long begin = System.nanoTime();
+                if (begin - measureEnd >= 0) {
+                    break;
+                }
+                if (!options.openLoop || this.intervalNanos == 0) {
+                    intended = begin;
+                }
+
+                int op = options.nextOp(this.random);
+                long[] result = this.execute(op);
+                long end = System.nanoTime();
+                op = (int)result[0];
+                if (begin - measureStart >= 0) {
+                    OpStats opStats = stats[op];
+                    opStats.count.incrementAndGet();
+                    opStats.bytes.addAndGet(result[2]);
+                    totalCount.incrementAndGet();
+                    if (result[1] != 0) {
+                        opStats.errors.incrementAndGet();
+                        totalErrors.incrementAndGet();
+                    }
+                    opStats.serviceTime.record((end - begin) / 1000);
+                    if (options.openLoop) {
+                        opStats.latency.record((end - intended) / 1000);
+                    } else {
+                        opStats.latency.recordCorrected((end - begin) / 1000, this.intervalNanos / 1000);
+                    }
+                }
+
+                if (this.intervalNanos > 0) {
+                    next += this.intervalNanos;
+                    if (!options.openLoop && next - end < 0) {
+                        next = end;  //closed loop does not catch up, the correction accounts for the missed requests
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return {the operation really done, the error code, the transferred bytes}
+         */
+        long[] execute(int op) {
+            String file_id = null;
+            if (op == OP_DELETE) {
+                file_id = pool.remove(this.random);
+            } else if (op != OP_UPLOAD) {
+                file_id = pool.pick(this.random);
+            }
+            if (file_id == null) {
+                op = OP_UPLOAD;
+            }
+
+            try {
+                if (this.trackerServer == null) {
+                    this.trackerServer = new TrackerClient().getConnection();
+                }
+                StorageClient1 client = new StorageClient1(this.trackerServer, null);
+                int errno;
+                long bytes = 0;
+                switch (op) {
+                    case OP_UPLOAD:
+                        int size = options.sizes.next(this.random);
+                        file_id = client.upload_file1(ByteBuffer.wrap(payload, 0, size), "bin", null);
+                        errno = file_id != null ? 0 : nonZero(client.getErrorCode());
+                        if (file_id != null) {
+                            pool.add(file_id);
+                            bytes = size;
+                        }
+                        break;
+                    case OP_DOWNLOAD:
+                        this.discard.total = 0;
+                        errno = client.download_file1(file_id, this.discard);
+                        bytes = this.discard.total;
+                        break;
+                    case OP_DELETE:
+                        errno = client.delete_file1(file_id);
+                        break;
+                    case OP_SET_META:
+                        errno = client.set_metadata1(file_id, new NameValuePair[]{
+                            new NameValuePair("width", String.valueOf(this.random.nextInt(4096))),
+                            new NameValuePair("height", String.valueOf(this.random.nextInt(4096)))},
+                            ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE);
+                        break;
+                    default:
+                        client.get_metadata1(file_id);
+                        errno = client.getErrorCode();
+                        break;
+                }
+                return new long[]{op, errno, bytes};
+            } catch (Exception ex) {
+                if (this.trackerServer != null) {
+                    try {
+                        this.trackerServer.close();
+                    } catch (IOException e) {
+                        //ignore
+                    }
+                    this.trackerServer = null;
+                }
+                return new long[]{op, -1, 0};
+            }
+        }
+    }
+
+    private static int nonZero(int errno) {
+        return errno != 0 ? errno : -1;
+    }
+
+    void preload() throws Exception {
+        Worker worker = new Worker(-1, new CountDownLatch(1));
+        for (int i = 0; i < this.options.preload; i++) {
+            long[] result = worker.execute(OP_UPLOAD);
+            if (result[1] != 0) {
+                throw new IOException("preload upload fail, error code: " + result[1]);
+            }
+        }
+        if (worker.trackerServer != null) {
+            worker.trackerServer.close();
+        }
+    }
+
+    void run() throws Exception {
+        CountDownLatch done = new CountDownLatch(this.options.threads);
+        long now = System.nanoTime();
+        this.measureStart = now + this.options.warmup * 1000000000L;
+        this.measureEnd = this.measureStart + this.options.duration * 1000000000L;
+        for (int i = 0; i < this.options.threads; i++) {
+            Thread thread = new Thread(new Worker(i, done), "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long lastCount = 0;
+        long lastErrors = 0;
+        long second = -this.options.warmup;
+        long tick = now;
+        while (!done.await(Math.max(0, tick + 1000000000L - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            tick += 1000000000L;
+            second++;
+            if (second <= 0) {
+                System.err.println("warmup " + (this.options.warmup + second) + "/" + this.options.warmup + " s");
+                continue;
+            }
+
+            long count = this.totalCount.get();
+            long errors = this.totalErrors.get();
+            this.timeline.add(new long[]{second, count - lastCount, errors - lastErrors});
+            System.err.println("second " + second + ": " + (count - lastCount) + " ops/s, "
+                + (errors - lastErrors) + " errors/s, " + this.pool.size() + " files");
+            lastCount = count;
+            lastErrors = errors;
+        }
+    }
+
+    void report(PrintWriter writer) {
+        String format = this.options.format;
+        if (format.equals("csv")) {
+            this.reportCsv(writer);
+        } else if (format.equals("json")) {
+            this.reportJson(writer);
+        } else {
+            this.reportText(writer);
+        }
+        writer.flush();
+    }
+
+    private void reportText(PrintWriter writer) {
+        writer.println("mode=" + (this.options.openLoop ? "open" : "closed") + ", threads=" + this.options.threads
+            + ", rate=" + this.options.rate + ", duration=" + this.options.duration + "s, mix=" + this.options.mix
+            + ", size=" + this.options.size);
+        writer.println(String.format(Locale.ROOT, "%-9s %10s %8s %10s %8s %9s %9s %9s %9s %9s %9s %9s",
+            "op", "count", "errors", "ops/s", "MB/s", "mean", "p50", "p90", "p99", "p99.9", "p99.99", "max"));
+        for (OpStats opStats : this.stats) {
+            if (opStats.count.get() == 0) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-9s %10d %8d %10.1f %8.2f %9.3f",
+                opStats.name, opStats.count.get(), opStats.errors.get(),
+                opStats.count.get() / (double)this.options.duration,
+                opStats.bytes.get() / (double)this.options.duration / (1024 * 1024), opStats.latency.getMean() / 1000));
+            for (double percentile : PERCENTILES) {
+                sb.append(String.format(Locale.ROOT, " %9.3f", opStats.latency.getValueAtPercentile(percentile) / 1000.0));
+            }
+            sb.append(String.format(Locale.ROOT, " %9.3f", opStats.latency.getMaxValue() / 1000.0));
+            writer.println(sb);
+        }
+        writer.println("latency in ms" + (this.options.openLoop ? " from the intended send time" : ""));
+        writer.println("total: " + this.totalCount.get() + " ops, " + this.totalErrors.get() + " errors, "
+            + String.format(Locale.ROOT, "%.1f", this.totalCount.get() / (double)this.options.duration) + " ops/s");
+    }
+
+    private void reportCsv(PrintWriter writer) {
+        StringBuilder sb = new StringBuilder("op,count,errors,ops_per_sec,bytes_per_sec,latency,mean_us");
+        for (String name : PERCENTILE_NAMES) {
+            sb.append(',').append(name).append("_us");
+        }
+        sb.append(",max_us");
+        writer.println(sb);
+        for (OpStats opStats : this.stats) {
+            if (opStats.count.get() == 0) {
+                continue;
+            }
+            this.csvRow(writer, opStats, "latency", opStats.latency);
+            this.csvRow(writer, opStats, "service_time", opStats.serviceTime);
+        }
+    }
+
+    private void csvRow(PrintWriter writer, OpStats opStats, String type, LatencyHistogram histogram) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(opStats.name).append(',').append(opStats.count.get()).append(',').append(opStats.errors.get())
+            .append(',').append(String.format(Locale.ROOT, "%.1f", opStats.count.get() / (double)this.options.duration))
+            .append(',').append(opStats.bytes.get() / this.options.duration).append(',').append(type)
+            .append(',').append(String.format(Locale.ROOT, "%.1f", histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+            sb.append(',').append(histogram.getValueAtPercentile(percentile));
+        }
+        sb.append(',').append(histogram.getMaxValue());
+        writer.println(sb);
+    }
+
+    private void reportJson(PrintWriter writer) {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"config\": {\"mode\": \"").append(this.options.openLoop ? "open" : "closed")
+            .append("\", \"threads\": ").append(this.options.threads)
+            .append(", \"rate\": ").append(this.options.rate)
+            .append(", \"duration\": ").append(this.options.duration)
+            .append(", \"warmup\": ").append(this.options.warmup)
+            .append(", \"mix\": \"").append(this.options.mix)
+            .append("\", \"size\": \"").append(this.options.size)
+            .append("\", \"seed\": ").append(this.options.seed).append("},\n");
+        sb.append("  \"operations\": [");
+        boolean first = true;
+        for (OpStats opStats : this.stats) {
+            if (opStats.count.get() == 0) {
+                continue;
+            }
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    {\"op\": \"").append(opStats.name)
+                .append("\", \"count\": ").append(opStats.count.get())
+                .append(", \"errors\": ").append(opStats.errors.get())
+                .append(", \"ops_per_sec\": ").append(String.format(Locale.ROOT, "%.1f",
+                    opStats.count.get() / (double)this.options.duration))
+                .append(", \"bytes_per_sec\": ").append(opStats.bytes.get() / this.options.duration)
+                .append(", \"latency_us\": ");
+            jsonHistogram(sb, opStats.latency);
+            sb.append(", \"service_time_us\": ");
+            jsonHistogram(sb, opStats.serviceTime);
+            sb.append('}');
+        }
+        sb.append("\n  ],\n  \"timeline\": [");
+        for (int i = 0; i < this.timeline.size(); i++) {
+            long[] item = this.timeline.get(i);
+            sb.append(i == 0 ? "\n" : ",\n").append("    {\"second\": ").append(item[0])
+                .append(", \"ops\": ").append(item[1]).append(", \"errors\": ").append(item[2]).append('}');
+        }
+        sb.append("\n  ]\n}");
+        writer.println(sb);
+    }
+
+    private static void jsonHistogram(StringBuilder sb, LatencyHistogram histogram) {
+        sb.append("{\"mean\": ").append(String.format(Locale.ROOT, "%.1f", histogram.getMean()));
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            sb.append(", \"").append(PERCENTILE_NAMES[i]).append("\": ").append(histogram.getValueAtPercentile(PERCENTILES[i]));
+        }
+        sb.append(", \"max\": ").append(histogram.getMaxValue()).append('}');
+    }
+
+    /**
+     * entry point
+     * @param args comand arguments
+     *     <ul><li>args[0]: config filename, or mock for the in-process mock servers</li>
+     *     <li>args[1..]: options, see the class comment</li></ul>
+     */
+    public static void main(String args[]) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Error: Must have 1 parameter: config filename");
+            return;
+        }
+
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Error: " + ex.getMessage());
+            return;
+        }
+
+        MockStorageServer storage = null;
+        MockTrackerServer tracker = null;
+        if (options.config.equals("mock")) {
+            storage = new MockStorageServer("group1");
+            storage.start();
+            if (options.mockLatency > 0) {
+                FaultInjector faults = new FaultInjector(options.seed);
+                faults.forAll().setLatency(FaultInjector.exponential(options.mockLatency));
+                storage.setFaultInjector(faults);
+            }
+            tracker = new MockTrackerServer(storage);
+            tracker.start();
+            tracker.configureClient();
+        } else {
+            ClientGlobal.init(options.config);
+        }
+        System.err.println("java.version=" + System.getProperty("java.version")
+            + ", network_timeout=" + ClientGlobal.g_network_timeout + "ms, charset=" + ClientGlobal.g_charset);
+
+        TraceRecorder recorder = null;
+        try {
+            TestLoad load = new TestLoad(options);
+            load.preload();
+            if (options.trace != null) {
+                recorder = new TraceRecorder(options.trace, null);
+                ClientGlobal.g_operation_listener = recorder;
+            }
+            load.run();
+            PrintWriter writer = options.out == null ? new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"))
+                : new PrintWriter(new OutputStreamWriter(new FileOutputStream(options.out), "UTF-8"));
+            load.report(writer);
+            if (options.out != null) {
+                writer.close();
+            }
+        } finally {
+            if (recorder != null) {
+                ClientGlobal.g_operation_listener = null;
+                recorder.close();
+            }
+            if (tracker != null) {
+                tracker.stop();
+                storage.stop();
+            }
+        }
     }
-  }
-  
-	private TestLoad()
-	{
-	}
-	
-	/**
-	* entry point
-	* @param args comand arguments
-	*     <ul><li>args[0]: config filename</li></ul>
-	*/
-  public static void main(String args[])
-  {
-  	if (args.length < 1)
-  	{
-  		System.out.println("Error: Must have 1 parameter: config filename");
-  		return;
-  	}
-  	
-  	System.out.println("java.version=" + System.getProperty("java.version"));
-  	  
-  	try
-  	{
-  		ClientGlobal.init(args[0]);
-  		System.out.println("network_timeout=" + ClientGlobal.g_network_timeout + "ms");
-  		System.out.println("charset=" + ClientGlobal.g_charset);
-  		  		
-  		file_ids = new java.util.concurrent.ConcurrentLinkedQueue();
-  		
-  		for (int i=0; i<10; i++)
-  		{
-  			(new UploadThread(i)).start();
-  		}
-  		
-  		for (int i=0; i<20; i++)
-  		{
-  			(new DownloadThread(i)).start();
-  		}
-		}
-  	catch(Exception ex)
-  	{
-  		ex.printStackTrace();
-  	}
-  }
 }
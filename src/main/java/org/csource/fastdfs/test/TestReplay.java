@@ -0,0 +1,457 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.test;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.csource.common.LatencyHistogram;
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.ClientGlobal;
+import org.csource.fastdfs.DownloadCallback;
+import org.csource.fastdfs.ProtoCommon;
+import org.csource.fastdfs.StorageClient;
+import org.csource.fastdfs.StorageClient1;
+import org.csource.fastdfs.TraceRecorder;
+import org.csource.fastdfs.TrackerClient;
+import org.csource.fastdfs.TrackerServer;
+
+/**
+ * replay a trace recorded by TraceRecorder at the recorded times divided by the speed,
+ * then compare the latency and the throughput with the trace.
+ * <pre>
+ * usage: TestReplay &lt;config filename | mock&gt; &lt;trace filename&gt; [--option=value ...]
+ *   --speed=1             time compression, 2 replays twice as fast
+ *   --threads=32          worker threads, must be enough for the concurrency of the trace
+ *   --mock-latency=0      mean latency in ms added by the mock storage server
+ * </pre>
+ * the files referenced before being uploaded in the trace are uploaded before the replay
+ * with the sizes seen in the trace, the uploads of the trace are sent to the group chosen
+ * by the tracker. the file content is generated, the metadata has the recorded size.
+ * the replay latency is measured from the scheduled time, so a slow replay is not hidden.
+ */
+public class TestReplay {
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p99", "p99.9"};
+
+    /**
+     * one line of the trace
+     */
+    static class Record {
+        long time;
+        byte cmd;
+        String group_name;
+        String file;
+        long file_offset;
+        long request_bytes;
+        long response_bytes;
+        long elapsed;
+        int errno;
+    }
+
+    /**
+     * the file of a hashed file id in the replay
+     */
+    static class FileRef {
+        final CountDownLatch ready = new CountDownLatch(1);
+        volatile String file_id;
+        boolean appender;
+        long size;
+
+        void set(String file_id) {
+            this.file_id = file_id;
+            this.ready.countDown();
+        }
+    }
+
+    /**
+     * the latencies of one command in the trace and in the replay
+     */
+    static class CommandStats {
+        final LatencyHistogram traced = new LatencyHistogram();
+        final LatencyHistogram replayed = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final AtomicLong tracedErrors = new AtomicLong();
+        final AtomicLong replayedErrors = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+    }
+
+    private final List<Record> records = new ArrayList<Record>();
+    private final Map<String, FileRef> files = new HashMap<String, FileRef>();
+    private final Map<String, CommandStats> stats = new LinkedHashMap<String, CommandStats>();
+    private final Map<String, Byte> commands = new HashMap<String, Byte>();
+    private final ThreadLocal<TrackerServer> trackerServers = new ThreadLocal<TrackerServer>();
+    private byte[] payload;
+    private long replayNanos;
+
+    TestReplay() {
+        for (int i = 0; i < 128; i++) {
+            String caption = ProtoCommon.getStorageCommandCaption((byte)i);
+            if (!caption.equals("UNKNOWN")) {
+                this.commands.put(caption, (byte)i);
+            }
+        }
+    }
+
+    void load(String filename) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+        try {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (line.length() == 0 || line.startsWith("#") || line.equals(TraceRecorder.HEADER)) {
+                    continue;
+                }
+
+                String[] cols = line.split("\t");
+                Byte cmd = cols.length == 9 ? this.commands.get(cols[1]) : null;
+                if (cmd == null) {
+                    throw new IOException("invalid line " + lineNo + ": " + line);
+                }
+                Record record = new Record();
+                record.time = Long.parseLong(cols[0]);
+                record.cmd = cmd;
+                record.group_name = cols[2];
+                record.file = cols[3];
+                record.file_offset = Long.parseLong(cols[4]);
+                record.request_bytes = Long.parseLong(cols[5]);
+                record.response_bytes = Long.parseLong(cols[6]);
+                record.elapsed = Long.parseLong(cols[7]);
+                record.errno = Integer.parseInt(cols[8]);
+                this.records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+
+        //the lines are written when the requests complete, replay them in the start order
+        Collections.sort(this.records, new Comparator<Record>() {
+            public int compare(Record r1, Record r2) {
+                return r1.time < r2.time ? -1 : (r1.time == r2.time ? 0 : 1);
+            }
+        });
+    }
+
+    private static boolean isUpload(byte cmd) {
+        return cmd == ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE || cmd == ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_SLAVE_FILE
+            || cmd == ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE;
+    }
+
+    private static boolean isAppenderCommand(byte cmd) {
+        return cmd == ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE || cmd == ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE
+            || cmd == ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE || cmd == ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE;
+    }
+
+    /**
+     * find the files to upload before the replay and the payload size
+     * @return the files to upload before the replay
+     */
+    List<FileRef> plan() {
+        List<FileRef> preload = new ArrayList<FileRef>();
+        long maxSize = 1;
+        for (Record record : this.records) {
+            maxSize = Math.max(maxSize, Math.max(record.request_bytes, record.file_offset + record.response_bytes));
+            String caption = ProtoCommon.getStorageCommandCaption(record.cmd);
+            if (!this.stats.containsKey(caption)) {
+                this.stats.put(caption, new CommandStats());
+            }
+            if (record.file.equals("-")) {
+                continue;
+            }
+
+            FileRef ref = this.files.get(record.file);
+            if (ref == null) {
+                ref = new FileRef();
+                this.files.put(record.file, ref);
+                if (!isUpload(record.cmd) && record.errno == 0) {
+                    preload.add(ref);
+                }
+            }
+            ref.appender |= isAppenderCommand(record.cmd);
+            if (record.cmd == ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE && record.errno == 0) {
+                ref.size = Math.max(ref.size, record.file_offset + record.response_bytes);
+            } else if (record.cmd == ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE) {
+                ref.size = Math.max(ref.size, record.file_offset);
+            }
+        }
+
+        this.payload = new byte[(int)Math.min(maxSize, 64 * 1024 * 1024)];
+        Arrays.fill(this.payload, (byte)'x');
+        return preload;
+    }
+
+    void preload(List<FileRef> preload) throws Exception {
+        StorageClient1 client = this.client();
+        for (FileRef ref : preload) {
+            int size = (int)Math.min(Math.max(ref.size, 1), this.payload.length);
+            String file_id = ref.appender ? client.upload_appender_file1(null, size,
+                new StorageClient.UploadBuff(this.payload, 0, size), "bin", null)
+                : client.upload_file1(null, size, new StorageClient.UploadBuff(this.payload, 0, size), "bin", null);
+            if (file_id == null) {
+                throw new IOException("preload upload fail, error code: " + client.getErrorCode());
+            }
+            ref.set(file_id);
+        }
+        System.err.println("preloaded " + preload.size() + " files");
+    }
+
+    private StorageClient1 client() throws IOException {
+        TrackerServer trackerServer = this.trackerServers.get();
+        if (trackerServer == null) {
+            trackerServer = new TrackerClient().getConnection();
+            this.trackerServers.set(trackerServer);
+        }
+        StorageClient1 client = new StorageClient1(trackerServer, null);
+        client.setOperationListener(null);
+        return client;
+    }
+
+    void replay(double speed, int threads) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long start = System.nanoTime();
+        long firstTime = this.records.isEmpty() ? 0 : this.records.get(0).time;
+        for (final Record record : this.records) {
+            final long scheduled = start + (long)((record.time - firstTime) * 1000 / speed);
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            executor.execute(new Runnable() {
+                public void run() {
+                    execute(record, scheduled);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        this.replayNanos = System.nanoTime() - start;
+    }
+
+    void execute(Record record, long scheduled) {
+        CommandStats commandStats = this.stats.get(ProtoCommon.getStorageCommandCaption(record.cmd));
+        FileRef ref = record.file.equals("-") ? null : this.files.get(record.file);
+        String file_id = null;
+        if (!isUpload(record.cmd)) {
+            if (ref != null) {
+                try {
+                    ref.ready.await(ClientGlobal.g_network_timeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                file_id = ref.file_id;
+            }
+            if (file_id == null) {
+                commandStats.skipped.incrementAndGet();
+                return;
+            }
+        }
+
+        long begin = System.nanoTime();
+        int errno;
+        try {
+            errno = this.send(record, file_id, ref);
+        } catch (Exception ex) {
+            errno = ProtoCommon.ERR_NO_EIO;
+            TrackerServer trackerServer = this.trackerServers.get();
+            this.trackerServers.remove();
+            try {
+                trackerServer.close();
+            } catch (Exception e) {
+                //ignore
+            }
+        }
+        long end = System.nanoTime();
+
+        commandStats.traced.record(record.elapsed);
+        commandStats.replayed.record((end - scheduled) / 1000);
+        commandStats.serviceTime.record((end - begin) / 1000);
+        if (record.errno != 0) {
+            commandStats.tracedErrors.incrementAndGet();
+        }
+        if (errno != 0) {
+            commandStats.replayedErrors.incrementAndGet();
+        }
+    }
+
+    private int send(Record record, String file_id, FileRef ref) throws Exception {
+        StorageClient1 client = this.client();
+        int size = (int)Math.min(record.request_bytes, this.payload.length);
+        switch (record.cmd) {
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_SLAVE_FILE:
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE:
+                StorageClient.UploadBuff buff = new StorageClient.UploadBuff(this.payload, 0, size);
+                String new_file_id = record.cmd == ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE
+                    ? client.upload_appender_file1(null, size, buff, "bin", null)
+                    : client.upload_file1(null, size, buff, "bin", null);
+                if (ref != null) {
+                    ref.set(new_file_id);
+                }
+                return new_file_id != null ? 0 : client.getErrorCode();
+            case ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE:
+                return client.download_file1(file_id, record.file_offset, record.response_bytes, new DownloadCallback() {
+                    public int recv(long file_size, byte[] data, int bytes) {
+                        return 0;
+                    }
+                });
+            case ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE:
+                return client.delete_file1(file_id);
+            case ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA:
+                char[] value = new char[(int)Math.max(0, Math.min(record.request_bytes - 2, 64 * 1024))];
+                Arrays.fill(value, 'x');
+                return client.set_metadata1(file_id, new NameValuePair[]{new NameValuePair("t", new String(value))},
+                    ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE);
+            case ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA:
+                client.get_metadata1(file_id);
+                return client.getErrorCode();
+            case ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO:
+                client.query_file_info1(file_id);
+                return client.getErrorCode();
+            case ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE:
+                return client.append_file1(file_id, this.payload, 0, size);
+            case ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE:
+                return client.modify_file1(file_id, record.file_offset, this.payload, 0, size);
+            case ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE:
+                return client.truncate_file1(file_id, record.file_offset);
+            default:
+                return ProtoCommon.ERR_NO_EINVAL;
+        }
+    }
+
+    void report(double speed) {
+        long firstTime = this.records.isEmpty() ? 0 : this.records.get(0).time;
+        long lastTime = firstTime;
+        for (Record record : this.records) {
+            lastTime = Math.max(lastTime, record.time + record.elapsed);
+        }
+        double traceSeconds = Math.max(1, lastTime - firstTime) / 1000000.0;
+        double replaySeconds = this.replayNanos / 1000000000.0;
+
+        StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "%-28s %8s %7s %7s %8s",
+            "cmd", "count", "errors", "skipped", "mean"));
+        for (String name : PERCENTILE_NAMES) {
+            header.append(String.format(Locale.ROOT, " %9s", name));
+        }
+        System.out.println(header);
+
+        long count = 0;
+        for (Map.Entry<String, CommandStats> entry : this.stats.entrySet()) {
+            CommandStats commandStats = entry.getValue();
+            count += commandStats.replayed.getTotalCount();
+            this.printRow(entry.getKey() + " trace", commandStats.traced, commandStats.tracedErrors.get(), -1, null);
+            this.printRow(entry.getKey() + " replay", commandStats.replayed, commandStats.replayedErrors.get(),
+                commandStats.skipped.get(), commandStats.traced);
+            this.printRow(entry.getKey() + " service", commandStats.serviceTime, commandStats.replayedErrors.get(),
+                commandStats.skipped.get(), commandStats.traced);
+        }
+        System.out.println("latency in ms, replay from the scheduled time, service from the sent time,"
+            + " delta to the trace in brackets");
+        System.out.println(String.format(Locale.ROOT,
+            "throughput: trace %.1f ops/s over %.1f s, replay %.1f ops/s over %.1f s at speed %s (expected %.1f ops/s)",
+            this.records.size() / traceSeconds, traceSeconds, count / replaySeconds, replaySeconds,
+            speed, this.records.size() / traceSeconds * speed));
+    }
+
+    private void printRow(String name, LatencyHistogram histogram, long errors, long skipped, LatencyHistogram base) {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-28s %8d %7d %7s %8.3f", name,
+            histogram.getTotalCount(), errors, skipped < 0 ? "" : String.valueOf(skipped), histogram.getMean() / 1000));
+        for (double percentile : PERCENTILES) {
+            long value = histogram.getValueAtPercentile(percentile);
+            sb.append(String.format(Locale.ROOT, " %9.3f", value / 1000.0));
+            if (base != null) {
+                long baseValue = base.getValueAtPercentile(percentile);
+                sb.append(baseValue > 0 ? String.format(Locale.ROOT, " (%+.0f%%)", (value - baseValue) * 100.0 / baseValue)
+                    : " (n/a)");
+            }
+        }
+        System.out.println(sb);
+    }
+
+    /**
+     * entry point
+     * @param args comand arguments
+     *     <ul><li>args[0]: config filename, or mock for the in-process mock servers</li>
+     *     <li>args[1]: trace filename</li>
+     *     <li>args[2..]: options, see the class comment</li></ul>
+     */
+    public static void main(String args[]) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Error: Must have 2 parameters: config filename and trace filename");
+            return;
+        }
+
+        double speed = 1;
+        int threads = 32;
+        double mockLatency = 0;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--speed=")) {
+                speed = Double.parseDouble(args[i].substring("--speed=".length()));
+            } else if (args[i].startsWith("--threads=")) {
+                threads = Integer.parseInt(args[i].substring("--threads=".length()));
+            } else if (args[i].startsWith("--mock-latency=")) {
+                mockLatency = Double.parseDouble(args[i].substring("--mock-latency=".length()));
+            } else {
+                System.out.println("Error: invalid option: " + args[i]);
+                return;
+            }
+        }
+        if (speed <= 0 || threads <= 0) {
+            System.out.println("Error: speed and threads must be positive");
+            return;
+        }
+
+        MockStorageServer storage = null;
+        MockTrackerServer tracker = null;
+        if (args[0].equals("mock")) {
+            storage = new MockStorageServer("group1");
+            storage.start();
+            if (mockLatency > 0) {
+                FaultInjector faults = new FaultInjector(1);
+                faults.forAll().setLatency(FaultInjector.exponential(mockLatency));
+                storage.setFaultInjector(faults);
+            }
+            tracker = new MockTrackerServer(storage);
+            tracker.start();
+            tracker.configureClient();
+        } else {
+            ClientGlobal.init(args[0]);
+        }
+
+        try {
+            TestReplay replay = new TestReplay();
+            replay.load(args[1]);
+            replay.preload(replay.plan());
+            System.err.println("replaying " + replay.records.size() + " requests at speed " + speed);
+            replay.replay(speed, threads);
+            replay.report(speed);
+        } finally {
+            if (tracker != null) {
+                tracker.stop();
+                storage.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Base64Codec.FDFS round trips random bytes and matches Base64 with the same alphabet
+ * bit for bit, the padded and the unpadded forms.
+ */
+public class Base64CodecTest {
+    private static final Base64 base64 = new Base64('-', '_', '.', 0);
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(20081016L);
+        for (int n = 0; n < 10000; n++) {
+            byte[] bs = new byte[random.nextInt(64)];
+            random.nextBytes(bs);
+
+            //Base64.encode always pads with '='
+            String encoded = Base64Codec.FDFS.encode(bs);
+            assertEquals("encode " + n, base64.encode(bs).replace('=', '.'), encoded);
+            assertEquals(Base64Codec.encodedLength(bs.length), encoded.length());
+
+            String unpadded = encoded;
+            while (unpadded.endsWith(".")) {
+                unpadded = unpadded.substring(0, unpadded.length() - 1);
+            }
+            for (String input : new String[]{encoded, unpadded}) {
+                byte[] decoded = Base64Codec.FDFS.decode(input);
+                assertArrayEquals("decode " + n + ": " + input, bs, decoded);
+                assertArrayEquals("decodeAuto " + n + ": " + input, base64.decodeAuto(input), decoded);
+            }
+        }
+    }
+
+    @Test
+    public void testOffsets() {
+        Random random = new Random(1);
+        byte[] bs = new byte[50];
+        random.nextBytes(bs);
+
+        char[] chars = new char[Base64Codec.encodedLength(40) + 3];
+        int len = Base64Codec.FDFS.encode(bs, 5, 40, chars, 3, false);
+        String unpadded = new String(chars, 3, len);
+        assertEquals(Base64Codec.FDFS.encode(bs, 5, 40).replace(".", ""), unpadded);
+
+        String text = "ab" + unpadded + "cd";
+        byte[] buff = new byte[Base64Codec.maxDecodedLength(len) + 2];
+        assertEquals(40, Base64Codec.FDFS.decode(text, 2, len, buff, 2));
+        assertArrayEquals(Arrays.copyOfRange(bs, 5, 45), Arrays.copyOfRange(buff, 2, 42));
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.csource.fastdfs.test.FaultInjector;
+import org.csource.fastdfs.test.MockStorageServer;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * The ByteBuffer upload and the ByteBuffer, caller buffer and channel downloads against
+ * MockStorageServer: the position and limit of the buffers, the capacity check before the
+ * request and the response bytes reported to the OperationListener.
+ */
+public class ByteBufferTransferTest {
+    private static final byte CMD_DOWNLOAD = ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE;
+
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    private StorageClient client;
+    private byte[] content;
+    private String group_name;
+    private String remote_filename;
+    private Listener listener;
+
+    /**
+     * keeps the response bytes of the last download
+     */
+    private static class Listener implements OperationListener {
+        long responseBytes = -1;
+        int errno;
+
+        public void operationCompleted(byte cmd, String group_name, String remote_filename, long file_offset,
+                                       long request_bytes, long response_bytes, long elapsed_nanos, int errno) {
+            if (cmd == CMD_DOWNLOAD) {
+                this.responseBytes = response_bytes;
+                this.errno = errno;
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        cluster.reset();
+        this.listener = new Listener();
+        ClientGlobal.g_operation_listener = this.listener;
+        this.client = new StorageClient();
+        this.content = new byte[300000];
+        new Random(1).nextBytes(this.content);
+        String[] results = this.client.upload_file(this.content, "bin", null);
+        assertNotNull(results);
+        this.group_name = results[0];
+        this.remote_filename = results[1];
+    }
+
+    @Test
+    public void testUploadHeap() throws Exception {
+        ByteBuffer buff = ByteBuffer.wrap(this.content);
+        buff.position(10).limit(1010);
+        String[] results = this.client.upload_file(buff, "bin", null);
+        assertNotNull(results);
+        assertEquals("position not changed", 10, buff.position());
+        assertEquals(1010, buff.limit());
+        assertArrayEquals(Arrays.copyOfRange(this.content, 10, 1010), this.client.download_file(results[0], results[1]));
+    }
+
+    @Test
+    public void testUploadDirect() throws Exception {
+        ByteBuffer buff = ByteBuffer.allocateDirect(this.content.length);
+        buff.put(this.content).flip();
+        buff.position(100);
+        String[] results = this.client.upload_file(buff, "bin", null);
+        assertNotNull(results);
+        assertEquals(100, buff.position());
+        assertArrayEquals(Arrays.copyOfRange(this.content, 100, this.content.length),
+            this.client.download_file(results[0], results[1]));
+    }
+
+    @Test
+    public void testDownloadPartialBuffer() throws Exception {
+        ByteBuffer target = ByteBuffer.allocate(1000);
+        target.position(7);
+        assertEquals(0, this.client.download_file(this.group_name, this.remote_filename, 100, 500, target));
+        assertEquals("advanced by the downloaded bytes", 507, target.position());
+        assertArrayEquals(Arrays.copyOfRange(this.content, 100, 600), Arrays.copyOfRange(target.array(), 7, 507));
+        assertEquals(500, this.listener.responseBytes);
+    }
+
+    @Test
+    public void testDownloadDirect() throws Exception {
+        ByteBuffer target = ByteBuffer.allocateDirect(this.content.length + 10);
+        assertEquals(0, this.client.download_file(this.group_name, this.remote_filename, target));
+        assertEquals(this.content.length, target.position());
+        byte[] downloaded = new byte[this.content.length];
+        target.flip();
+        target.get(downloaded);
+        assertArrayEquals(this.content, downloaded);
+        assertEquals(this.content.length, this.listener.responseBytes);
+    }
+
+    /**
+     * the capacity is checked by get_file_info, no download request is sent
+     */
+    @Test
+    public void testDownloadTooSmall() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        long downloads = storage.getRequestCount(CMD_DOWNLOAD);
+        ByteBuffer target = ByteBuffer.allocate(this.content.length);
+        target.position(1);
+        assertEquals(ProtoCommon.ERR_NO_ENOSPC,
+            this.client.download_file(this.group_name, this.remote_filename, target));
+        assertEquals(1, target.position());
+        assertEquals(downloads, storage.getRequestCount(CMD_DOWNLOAD));
+
+        byte[] buff = new byte[this.content.length];
+        assertEquals(-1, this.client.download_file(this.group_name, this.remote_filename, 0, 0, buff, 1));
+        assertEquals(ProtoCommon.ERR_NO_ENOSPC, this.client.getErrorCode());
+        assertEquals(downloads, storage.getRequestCount(CMD_DOWNLOAD));
+
+        assertEquals("range fits", 100,
+            this.client.download_file(this.group_name, this.remote_filename, 0, 100, buff, 1));
+        assertEquals(downloads + 1, storage.getRequestCount(CMD_DOWNLOAD));
+    }
+
+    @Test
+    public void testDownloadCallerBuffer() throws Exception {
+        byte[] buff = new byte[1000];
+        Arrays.fill(buff, (byte)-1);
+        assertEquals(300, this.client.download_file(this.group_name, this.remote_filename, 50, 300, buff, 20));
+        assertArrayEquals(Arrays.copyOfRange(this.content, 50, 350), Arrays.copyOfRange(buff, 20, 320));
+        assertEquals("before the offset", -1, buff[19]);
+        assertEquals("after the bytes", -1, buff[320]);
+
+        byte[] whole = new byte[this.content.length + 5];
+        assertEquals(this.content.length, this.client.download_file(this.group_name, this.remote_filename,
+            0, 0, whole, 5));
+        assertArrayEquals(this.content, Arrays.copyOfRange(whole, 5, whole.length));
+        assertEquals(this.content.length, this.listener.responseBytes);
+    }
+
+    @Test
+    public void testDownloadChannel() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, this.client.download_file(this.group_name, this.remote_filename, Channels.newChannel(out)));
+        assertArrayEquals(this.content, out.toByteArray());
+        assertEquals(this.content.length, this.listener.responseBytes);
+
+        out.reset();
+        assertEquals(0, this.client.download_file(this.group_name, this.remote_filename, 1000, 2000,
+            Channels.newChannel(out)));
+        assertArrayEquals(Arrays.copyOfRange(this.content, 1000, 3000), out.toByteArray());
+        assertEquals(2000, this.listener.responseBytes);
+    }
+
+    /**
+     * the bytes passed to the callback before it aborts are reported, not the body length
+     */
+    @Test
+    public void testCallbackAbort() throws Exception {
+        final long[] received = new long[1];
+        int result = this.client.download_file(this.group_name, this.remote_filename, new DownloadCallback() {
+            public int recv(long file_size, byte[] data, int bytes) {
+                received[0] += bytes;
+                return received[0] >= 100000 ? 1 : 0;
+            }
+        });
+        assertTrue(result != 0);
+        assertTrue(received[0] < this.content.length);
+        assertEquals(received[0], this.listener.responseBytes);
+    }
+
+    /**
+     * the bytes received before the connection reset are reported
+     */
+    @Test
+    public void testPartialFailure() throws Exception {
+        FaultInjector faults = new FaultInjector(1);
+        faults.forCommand(CMD_DOWNLOAD).setResetProbability(1.0).setResetAfterBytes(100000);
+        cluster.getStorage().setFaultInjector(faults);
+        ByteBuffer target = ByteBuffer.allocate(this.content.length);
+        try {
+            this.client.download_file(this.group_name, this.remote_filename, target);
+            fail("connection reset");
+        } catch (IOException ex) {
+        }
+        assertTrue(target.position() < this.content.length);
+        assertEquals(target.position(), this.listener.responseBytes);
+        assertEquals(ProtoCommon.ERR_NO_EIO, this.listener.errno);
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.csource.fastdfs.test.MockStorageServer;
+import org.csource.fastdfs.test.MockTrackerServer;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * MappedFileCache against the mock servers: hits, ranges, invalidation, recovery,
+ * the copies and the pinned slices read while the segments are recycled, the directory lock and close.
+ */
+public class DiskCacheTest {
+    private static final byte CMD_DOWNLOAD = ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE;
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        cluster.reset();
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        File dir = this.folder.newFolder();
+        MappedFileCache cache = new MappedFileCache(dir.getPath(), 4 * SEGMENT_SIZE, SEGMENT_SIZE);
+        ClientGlobal.g_disk_cache = cache;
+        StorageClient1 client = new StorageClient1();
+
+        byte[] content = fill(new byte[10000], 1);
+        String file_id = client.upload_file1(content, "bin", null);
+        assertArrayEquals(content, client.download_file1(file_id));
+        assertEquals(1, cache.getFileCount());
+        assertEquals(content.length, cache.getTotalBytes());
+        long downloads = storage.getRequestCount(CMD_DOWNLOAD);
+        assertArrayEquals(content, client.download_file1(file_id));
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 150), client.download_file1(file_id, 100, 50));
+        assertArrayEquals(Arrays.copyOfRange(content, 9990, 10000), client.download_file1(file_id, 9990, 0));
+        assertEquals("no request", downloads, storage.getRequestCount(CMD_DOWNLOAD));
+
+        byte[] copy = cache.get(file_id);
+        copy[0] = (byte)~copy[0];
+        assertArrayEquals("copy", content, cache.get(file_id));
+
+        DownloadBuffer buffer = client.download_file_buffer1(file_id);
+        ByteBuffer slice = buffer.getBuffer();
+        assertTrue("zero copy hit", buffer.isMapped());
+        assertTrue(slice.isDirect());
+        assertTrue(slice.isReadOnly());
+        assertArrayEquals(content, toArray(slice));
+        assertEquals("no request", downloads, storage.getRequestCount(CMD_DOWNLOAD));
+        assertEquals(1, cache.getPinnedSegmentCount());
+        buffer.close();
+        buffer.close();
+        assertEquals(0, cache.getPinnedSegmentCount());
+
+        assertFalse("locked", open(dir));
+        cache.close();
+        assertNull("closed", cache.get(file_id));
+        assertFalse(cache.put("x", content, 0, 10));
+
+        cache = new MappedFileCache(dir.getPath(), 4 * SEGMENT_SIZE, SEGMENT_SIZE);
+        ClientGlobal.g_disk_cache = cache;
+        assertArrayEquals("recovered", content, cache.get(file_id));
+        client = new StorageClient1();
+        assertEquals(0, client.delete_file1(file_id));
+        assertNull("invalidated", cache.get(file_id));
+        assertNull(client.download_file1(file_id));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.getErrorCode());
+    }
+
+    /**
+     * read the files while another thread recycles the segments, the copies and the pinned slices
+     * must never mix the files
+     */
+    @Test
+    public void testRecycle() throws Exception {
+        final MappedFileCache cache = new MappedFileCache(this.folder.newFolder().getPath(),
+            2 * SEGMENT_SIZE, SEGMENT_SIZE);
+        final int fileCount = 64;
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        Thread writer = new Thread() {
+            public void run() {
+                byte[] content = new byte[8 * 1024];
+                for (int i = 0; !stop.get(); i++) {
+                    int id = i % fileCount;
+                    cache.put("group1/file" + id, fill(content, id), 0, content.length);
+                }
+            }
+        };
+        writer.start();
+
+        int hits = 0;
+        int mixed = 0;
+        try {
+            long deadline = System.currentTimeMillis() + 1000;
+            while (System.currentTimeMillis() < deadline) {
+                for (int id = 0; id < fileCount; id++) {
+                    byte[] content;
+                    if (id % 2 == 0) {
+                        content = cache.get("group1/file" + id);
+                    } else {
+                        DownloadBuffer buffer = cache.pin("group1/file" + id);
+                        if (buffer == null) {
+                            continue;
+                        }
+                        Thread.yield();  //let the writer run while the slice is pinned
+                        content = toArray(buffer.getBuffer());
+                        buffer.close();
+                    }
+                    if (content == null) {
+                        continue;
+                    }
+                    hits++;
+                    if (!Arrays.equals(content, fill(new byte[content.length], id))) {
+                        mixed++;
+                    }
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+
+        assertTrue("recycled " + cache.getEvictionCount(), cache.getEvictionCount() > 0);
+        assertTrue("hits " + hits, hits > 0);
+        assertEquals("mixed", 0, mixed);
+        cache.close();
+    }
+
+    /**
+     * a pinned segment is not recycled, the put is refused until the slice is closed
+     */
+    @Test
+    public void testPin() throws Exception {
+        MappedFileCache cache = new MappedFileCache(this.folder.newFolder().getPath(),
+            2 * SEGMENT_SIZE, SEGMENT_SIZE);
+        byte[] content = new byte[8 * 1024];
+        cache.put("group1/file0", fill(content, 0), 0, content.length);
+        DownloadBuffer buffer = cache.pin("group1/file0");
+
+        //segment 0 holds 7 files, segment 1 the next 7, then segment 0 is recycled
+        int id;
+        for (id = 1; id < 20; id++) {
+            if (!cache.put("group1/file" + id, fill(content, id), 0, content.length)) {
+                break;
+            }
+        }
+        assertEquals("refused", 14, id);
+        assertEquals(0, cache.getEvictionCount());
+        assertArrayEquals(fill(new byte[content.length], 0), toArray(buffer.getBuffer()));
+
+        buffer.close();
+        assertTrue("recycled after close", cache.put("group1/file" + id, fill(content, id), 0, content.length));
+        assertTrue(cache.getEvictionCount() > 0);
+        assertNull(cache.get("group1/file0"));
+
+        buffer = cache.pin("group1/file" + id);
+        cache.close();
+        assertArrayEquals("pinned after cache closed", fill(new byte[content.length], id),
+            toArray(buffer.getBuffer()));
+        buffer.close();
+    }
+
+    /**
+     * ClientGlobal.init closes the disk cache of the last init, so the path can be opened again
+     */
+    @Test
+    public void testInit() throws Exception {
+        MockTrackerServer trackerServer = cluster.getTracker();
+        File dir = this.folder.newFolder();
+        File conf = this.folder.newFile();
+        FileWriter writer = new FileWriter(conf);
+        writer.write("tracker_server = " + trackerServer.getIpAddr() + ":" + trackerServer.getPort() + "\n"
+            + "disk_cache_path = " + dir.getPath() + "\n"
+            + "disk_cache_size = 1\n");
+        writer.close();
+
+        ClientGlobal.init(conf.getPath());
+        MappedFileCache first = ClientGlobal.g_disk_cache;
+        ClientGlobal.init(conf.getPath());
+        assertNull("init closed", first.get("x"));
+        assertNotSame(first, ClientGlobal.g_disk_cache);
+    }
+
+    private static boolean open(File dir) {
+        try {
+            new MappedFileCache(dir.getPath(), 4 * SEGMENT_SIZE, SEGMENT_SIZE).close();
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] content = new byte[buffer.remaining()];
+        buffer.duplicate().get(content);
+        return content;
+    }
+
+    private static byte[] fill(byte[] content, int seed) {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte)(seed * 31 + i);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.csource.fastdfs.test.MockStorageServer;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * DownloadCache against the mock servers: hits without a request, ranges,
+ * the copies returned, appender files not cached, the size limits, eviction and invalidation.
+ */
+public class DownloadCacheTest {
+    private static final byte CMD_DOWNLOAD = ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE;
+
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    @Before
+    public void setUp() {
+        cluster.reset();
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        DownloadCache cache = new DownloadCache(1024 * 1024, 64 * 1024);
+        ClientGlobal.g_download_cache = cache;
+        StorageClient1 client = new StorageClient1();
+
+        byte[] content = fill(new byte[10000], 1);
+        String file_id = client.upload_file1(content, "bin", null);
+        assertArrayEquals(content, client.download_file1(file_id));
+        assertEquals(1, cache.getFileCount());
+        assertEquals(content.length, cache.getTotalBytes());
+
+        long downloads = storage.getRequestCount(CMD_DOWNLOAD);
+        byte[] hit = client.download_file1(file_id);
+        assertArrayEquals(content, hit);
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 150), client.download_file1(file_id, 100, 50));
+        assertArrayEquals(Arrays.copyOfRange(content, 9990, 10000), client.download_file1(file_id, 9990, 0));
+        assertEquals("no request", downloads, storage.getRequestCount(CMD_DOWNLOAD));
+
+        hit[0] = (byte)~hit[0];
+        assertArrayEquals("copy", content, client.download_file1(file_id));
+
+        DownloadBuffer buffer = client.download_file_buffer1(file_id);
+        ByteBuffer bb = buffer.getBuffer();
+        assertFalse(buffer.isMapped());
+        assertTrue(bb.isReadOnly());
+        byte[] result = new byte[bb.remaining()];
+        bb.get(result);
+        assertArrayEquals(content, result);
+        buffer.close();
+        assertEquals("no request", downloads, storage.getRequestCount(CMD_DOWNLOAD));
+
+        downloads = storage.getRequestCount(CMD_DOWNLOAD);
+        assertEquals(0, client.delete_file1(file_id));
+        assertEquals("invalidated", 0, cache.getFileCount());
+        assertEquals(0, cache.getTotalBytes());
+        assertNull(client.download_file1(file_id));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.getErrorCode());
+        assertEquals(downloads + 1, storage.getRequestCount(CMD_DOWNLOAD));
+        assertEquals(5, cache.getHitCount());
+    }
+
+    @Test
+    public void testNotCached() throws Exception {
+        DownloadCache cache = new DownloadCache(1024 * 1024, 64 * 1024);
+        ClientGlobal.g_download_cache = cache;
+        StorageClient1 client = new StorageClient1();
+
+        byte[] content = fill(new byte[10000], 1);
+        String appender_id = client.upload_appender_file1(content, "log", null);
+        assertArrayEquals(content, client.download_file1(appender_id));
+        assertEquals("appender not cached", 0, cache.getFileCount());
+        assertEquals(0, client.append_file1(appender_id, new byte[]{1, 2, 3}));
+        assertEquals("appender changed", content.length + 3, client.download_file1(appender_id).length);
+
+        byte[] large = fill(new byte[100 * 1024], 2);
+        String large_id = client.upload_file1(large, "bin", null);
+        assertArrayEquals(large, client.download_file1(large_id));
+        assertEquals("large not cached", 0, cache.getFileCount());
+    }
+
+    /**
+     * the least recently used files are evicted, the total bytes never exceed the max
+     */
+    @Test
+    public void testEvict() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        DownloadCache cache = new DownloadCache(32 * 1024, 8 * 1024);
+        ClientGlobal.g_download_cache = cache;
+        StorageClient1 client = new StorageClient1();
+
+        String[] file_ids = new String[8];
+        for (int i = 0; i < file_ids.length; i++) {
+            file_ids[i] = client.upload_file1(fill(new byte[6 * 1024], i), "bin", null);
+            client.download_file1(file_ids[i]);
+            client.download_file1(file_ids[0]);  //keep the first file recently used
+        }
+
+        assertEquals(3, cache.getEvictionCount());
+        assertEquals(5, cache.getFileCount());
+        assertTrue(cache.getTotalBytes() <= cache.getMaxBytes());
+        long downloads = storage.getRequestCount(CMD_DOWNLOAD);
+        assertArrayEquals("recent kept", fill(new byte[6 * 1024], 0), client.download_file1(file_ids[0]));
+        assertArrayEquals("recent kept", fill(new byte[6 * 1024], 7), client.download_file1(file_ids[7]));
+        assertEquals(downloads, storage.getRequestCount(CMD_DOWNLOAD));
+        assertArrayEquals("eldest evicted", fill(new byte[6 * 1024], 1), client.download_file1(file_ids[1]));
+        assertEquals(downloads + 1, storage.getRequestCount(CMD_DOWNLOAD));
+
+        cache.clear();
+        assertEquals(0, cache.getFileCount());
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    private static byte[] fill(byte[] content, int seed) {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte)(seed * 31 + i);
+        }
+        return content;
+    }
+}
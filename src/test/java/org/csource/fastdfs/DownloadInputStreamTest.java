@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.csource.fastdfs.test.MockStorageServer;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * DownloadInputStream against the mock servers: single byte, bulk and mixed reads
+ * with and without readahead, skip, the connection kept or discarded by close,
+ * and the bytes reported to the metrics and the operation listener when the stream is closed.
+ */
+public class DownloadInputStreamTest {
+    private static final byte CMD_DOWNLOAD = ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE;
+    private static final int FILE_SIZE = 100000;
+
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    private Random random;
+    private byte[] content;
+    private String file_id;
+
+    /**
+     * keep the last download reported
+     */
+    private static class Listener implements OperationListener {
+        int count;
+        long file_offset;
+        long response_bytes;
+        int errno;
+
+        public void operationCompleted(byte cmd, String group_name, String remote_filename, long file_offset,
+                                       long request_bytes, long response_bytes, long elapsed_nanos, int errno) {
+            if (cmd == CMD_DOWNLOAD) {
+                this.count++;
+                this.file_offset = file_offset;
+                this.response_bytes = response_bytes;
+                this.errno = errno;
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        cluster.reset();
+        ClientGlobal.g_client_metrics = new ClientMetrics();
+        this.random = new Random(1);
+        this.content = new byte[FILE_SIZE];
+        this.random.nextBytes(this.content);
+        this.file_id = new StorageClient1().upload_file1(this.content, "bin", null);
+        assertNotNull(this.file_id);
+    }
+
+    @Test
+    public void testReadBytes() throws Exception {
+        StorageClient1 client = new StorageClient1();
+        int[] readaheads = new int[]{0, 4096, DownloadInputStream.DEFAULT_READAHEAD_SIZE};
+        for (int readahead : readaheads) {
+            DownloadInputStream in = client.open_input_stream1(this.file_id, 0, 0, readahead);
+            byte[] result = new byte[FILE_SIZE];
+            int i = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                result[i++] = (byte)b;
+            }
+            assertEquals("readahead " + readahead, FILE_SIZE, i);
+            assertArrayEquals("readahead " + readahead, this.content, result);
+            assertTrue(in.isFullyConsumed());
+            assertEquals(-1, in.read());
+            assertEquals(-1, in.read(result, 0, 10));
+            in.close();
+        }
+    }
+
+    /**
+     * bulk reads, single bytes and skips mixed
+     */
+    @Test
+    public void testMixedReads() throws Exception {
+        StorageClient1 client = new StorageClient1();
+        int[] readaheads = new int[]{0, 4096, DownloadInputStream.DEFAULT_READAHEAD_SIZE};
+        for (int readahead : readaheads) {
+            DownloadInputStream in = client.open_input_stream1(this.file_id, 0, 0, readahead);
+            byte[] result = new byte[FILE_SIZE];
+            int position = 0;
+            while (position < FILE_SIZE) {
+                int op = this.random.nextInt(4);
+                if (op == 0) {
+                    assertEquals("position " + position, this.content[position] & 0xFF, in.read());
+                    position++;
+                } else if (op == 1) {
+                    long n = in.skip(this.random.nextInt(5000));
+                    assertTrue("skip " + n + " at " + position, n >= 0 && position + n <= FILE_SIZE);
+                    position += n;
+                } else {
+                    int len = this.random.nextInt(op == 2 ? 100 : 3 * 4096) + 1;
+                    int n = in.read(result, 0, len);
+                    assertTrue("read " + n + " at " + position, n > 0);
+                    assertArrayEquals("position " + position,
+                        Arrays.copyOfRange(this.content, position, position + n), Arrays.copyOf(result, n));
+                    position += n;
+                }
+            }
+            assertEquals(FILE_SIZE, position);
+            assertTrue(in.isFullyConsumed());
+            assertEquals(0, in.skip(10));
+            assertEquals(0, in.available());
+            in.close();
+        }
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        DownloadInputStream in = new StorageClient1().open_input_stream1(this.file_id, 1000, 5000);
+        byte[] result = new byte[5000];
+        int total = 0;
+        int n;
+        while ((n = in.read(result, total, result.length - total)) > 0) {
+            total += n;
+        }
+        assertEquals(5000, in.getFileSize());
+        assertEquals(5000, total);
+        assertArrayEquals(Arrays.copyOfRange(this.content, 1000, 6000), result);
+        in.close();
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        DownloadInputStream in = new StorageClient1().open_input_stream1(this.file_id, 0, 0);
+        assertEquals(FILE_SIZE - 10, in.skip(FILE_SIZE - 10));
+        assertEquals(this.content[FILE_SIZE - 10] & 0xFF, in.read());
+        assertEquals(9, in.skip(100));
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        DownloadInputStream in = new StorageClient1().open_input_stream1(this.file_id, 0, 0);
+        in.read();
+        in.close();
+        in.close();
+        try {
+            in.read();
+            fail("read closed");
+        } catch (IOException ex) {
+        }
+        assertEquals(0, in.available());
+
+        try {
+            in.skip(10);
+            fail("skip closed");
+        } catch (IOException ex) {
+        }
+    }
+
+    @Test
+    public void testMissing() throws Exception {
+        StorageClient1 client = new StorageClient1();
+        String missing_id = this.file_id.substring(0, this.file_id.length() - 4) + "_x.bin";
+        assertNull(client.open_input_stream1(missing_id, 0, 0));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.getErrorCode());
+    }
+
+    /**
+     * the download is completed when the stream is closed, with the body bytes read from the socket
+     */
+    @Test
+    public void testReport() throws Exception {
+        StorageClient1 client = new StorageClient1();
+        Listener listener = new Listener();
+        client.setOperationListener(listener);
+
+        DownloadInputStream in = client.open_input_stream1(this.file_id, 100, 0, 0);
+        byte[] buff = new byte[1000];
+        int total = 0;
+        while (total < buff.length) {
+            total += in.read(buff, total, buff.length - total);
+        }
+        assertEquals("not reported while open", 0, listener.count);
+        assertNull(ClientGlobal.g_client_metrics.getCommandMetrics(CMD_DOWNLOAD));
+        in.close();
+        ClientMetrics.CommandMetrics metrics = ClientGlobal.g_client_metrics.getCommandMetrics(CMD_DOWNLOAD);
+        assertEquals(1, listener.count);
+        assertEquals(100, listener.file_offset);
+        assertEquals(1000, listener.response_bytes);
+        assertEquals(0, listener.errno);
+        assertEquals(1, metrics.getCount());
+        assertEquals(1000, metrics.getBytesIn());
+
+        in = client.open_input_stream1(this.file_id, 0, 0);
+        total = 0;
+        int n;
+        while ((n = in.read(buff)) > 0) {
+            total += n;
+        }
+        in.close();
+        in.close();
+        assertEquals(FILE_SIZE, total);
+        assertEquals(2, listener.count);
+        assertEquals(FILE_SIZE, listener.response_bytes);
+        assertEquals(0, listener.errno);
+        assertEquals(2, metrics.getCount());
+        assertEquals(1000 + FILE_SIZE, metrics.getBytesIn());
+        assertEquals(0, metrics.getErrorCount());
+    }
+
+    /**
+     * the bound client keeps the connection when the stream is fully consumed,
+     * an early close discards it because the rest of the body is still in the socket
+     */
+    @Test
+    public void testConnection() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        StorageServer storageServer = new StorageServer(storage.getIpAddr(), storage.getPort(), 0);
+        StorageClient1 client = new StorageClient1(null, storageServer);
+        Socket sock = storageServer.getSocket();
+        try {
+            DownloadInputStream in = client.open_input_stream1(this.file_id, 0, 0);
+            byte[] result = new byte[FILE_SIZE];
+            int total = 0;
+            int n;
+            while ((n = in.read(result, total, result.length - total)) > 0) {
+                total += n;
+            }
+            in.close();
+            assertSame("consumed keeps connection", sock, storageServer.getSocket());
+            assertFalse(sock.isClosed());
+            assertArrayEquals(this.content, client.download_file1(this.file_id));
+            assertSame(sock, storageServer.getSocket());
+
+            in = client.open_input_stream1(this.file_id, 0, 0);
+            in.read(result, 0, 10);
+            in.close();
+            assertTrue("early close discards connection", sock.isClosed());
+            assertArrayEquals(this.content, client.download_file1(this.file_id));
+        } finally {
+            storageServer.close();
+        }
+    }
+}
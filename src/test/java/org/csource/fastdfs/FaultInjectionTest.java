@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import org.csource.fastdfs.test.FaultInjector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * The client against MockStorageServer with a FaultInjector: how the client sees latency,
+ * bandwidth caps, fragmented headers, connection resets and error codes.
+ */
+public class FaultInjectionTest {
+    private static final byte CMD_DOWNLOAD = ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE;
+
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    private TrackerServer trackerServer;
+    private StorageClient1 client;
+    private byte[] content;
+    private String file_id;
+    private FaultInjector faults;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster.reset();
+        ClientGlobal.g_network_timeout = 1000;
+        this.trackerServer = new TrackerClient().getConnection();
+        this.client = new StorageClient1(this.trackerServer, null);
+        this.content = new byte[32 * 1024];
+        new Random(1).nextBytes(this.content);
+        this.file_id = this.client.upload_file1(this.content, "bin", null);
+        assertNotNull(this.file_id);
+
+        this.faults = new FaultInjector(42);
+        cluster.getStorage().setFaultInjector(this.faults);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.trackerServer.close();
+    }
+
+    @Test
+    public void testError() throws Exception {
+        this.faults.forCommand(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE).setError(1.0, ProtoCommon.ERR_NO_ENOSPC);
+        assertNull(this.client.upload_file1(this.content, "bin", null));
+        assertEquals(ProtoCommon.ERR_NO_ENOSPC, this.client.getErrorCode());
+        this.faults.forCommand(CMD_DOWNLOAD).setError(1.0, ProtoCommon.ERR_NO_EBUSY);
+        assertNull(this.client.download_file1(this.file_id));
+        assertEquals(ProtoCommon.ERR_NO_EBUSY, this.client.getErrorCode());
+        assertNotNull("other commands not affected", this.client.query_file_info1(this.file_id));
+        assertEquals(2, this.faults.getErrorCount());
+
+        this.faults.clear();
+        assertArrayEquals("recovered", this.content, this.client.download_file1(this.file_id));
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        this.faults.forCommand(CMD_DOWNLOAD).setLatency(FaultInjector.fixed(200));
+        long start = System.currentTimeMillis();
+        assertArrayEquals(this.content, this.client.download_file1(this.file_id));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("fixed latency " + elapsed + " ms", elapsed >= 200);
+        assertEquals(1, this.faults.getDelayCount());
+
+        this.faults.forCommand(CMD_DOWNLOAD).setLatency(null).setBandwidth(64 * 1024);
+        start = System.currentTimeMillis();
+        assertArrayEquals(this.content, this.client.download_file1(this.file_id));
+        elapsed = System.currentTimeMillis() - start;
+        assertTrue("bandwidth 64KB/s " + elapsed + " ms", elapsed >= 450);
+    }
+
+    @Test
+    public void testFragmentedHeader() throws Exception {
+        this.faults.forCommand(CMD_DOWNLOAD).setFragmentHeader(true, 5);
+        assertArrayEquals(this.content, this.client.download_file1(this.file_id));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        this.faults.forCommand(CMD_DOWNLOAD).setLatency(FaultInjector.fixed(3000));
+        try {
+            this.client.download_file1(this.file_id);
+            fail("network timeout");
+        } catch (SocketTimeoutException ex) {
+        }
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        this.faults.forCommand(CMD_DOWNLOAD).setResetProbability(1.0);
+        this.expectIOException("reset before response");
+        this.faults.forCommand(CMD_DOWNLOAD).setResetAfterBytes(1024);
+        this.expectIOException("reset in the body");
+        assertEquals(2, this.faults.getResetCount());
+
+        this.faults.clear();
+        assertArrayEquals("recovered", this.content, this.client.download_file1(this.file_id));
+    }
+
+    private void expectIOException(String message) throws Exception {
+        try {
+            this.client.download_file1(this.file_id);
+            fail(message);
+        } catch (IOException ex) {
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The JFR events of some requests against the mock servers, the delete events are disabled
+ * by the recording settings. Needs JDK 11 or later.
+ */
+public class FlightEventsTest {
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Recording recording;
+
+    @Before
+    public void setUp() {
+        cluster.reset();
+        this.recording = new Recording();
+        this.recording.enable("org.csource.fastdfs.TrackerQuery");
+        this.recording.enable("org.csource.fastdfs.Connect");
+        this.recording.enable("org.csource.fastdfs.Upload");
+        this.recording.enable("org.csource.fastdfs.Download");
+        this.recording.enable("org.csource.fastdfs.Metadata");
+        this.recording.disable("org.csource.fastdfs.Delete");
+    }
+
+    @After
+    public void tearDown() {
+        this.recording.close();
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        this.recording.start();
+        StorageClient1 client = new StorageClient1();
+        byte[] content = new byte[10000];
+        String file_id = client.upload_file1(content, "bin", null);
+        assertNotNull(file_id);
+        assertArrayEquals(content, client.download_file1(file_id));
+        assertNotNull(client.get_metadata1(file_id));
+        assertEquals(0, client.delete_file1(file_id));
+        assertNull(client.download_file1(file_id));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.getErrorCode());
+        this.recording.stop();
+
+        File file = this.folder.newFile("fastdfs.jfr");
+        this.recording.dump(file.toPath());
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+
+        String storageAddress = "127.0.0.1:" + cluster.getStorage().getInetSocketAddress().getPort();
+        RecordedEvent upload = null;
+        int downloads = 0;
+        int failedDownloads = 0;
+        int trackerQueries = 0;
+        int connects = 0;
+        int metadata = 0;
+        int deletes = 0;
+        for (RecordedEvent event : events) {
+            String name = event.getEventType().getName();
+            if ("org.csource.fastdfs.Upload".equals(name)) {
+                upload = event;
+            } else if ("org.csource.fastdfs.Download".equals(name)) {
+                downloads++;
+                if (event.getInt("errno") == ProtoCommon.ERR_NO_ENOENT) {
+                    failedDownloads++;
+                }
+            } else if ("org.csource.fastdfs.TrackerQuery".equals(name)) {
+                trackerQueries++;
+            } else if ("org.csource.fastdfs.Connect".equals(name)) {
+                connects++;
+            } else if ("org.csource.fastdfs.Metadata".equals(name)) {
+                metadata++;
+            } else if ("org.csource.fastdfs.Delete".equals(name)) {
+                deletes++;
+            }
+        }
+
+        assertNotNull("upload event", upload);
+        assertEquals("UPLOAD_FILE", upload.getString("cmd"));
+        assertEquals(file_id.substring(0, file_id.indexOf('/')), upload.getString("group"));
+        assertEquals(storageAddress, upload.getString("server"));
+        assertEquals(content.length, upload.getLong("requestBytes"));
+        assertEquals(0, upload.getInt("errno"));
+        assertTrue(upload.getDuration().toNanos() > 0);
+        assertEquals("download events", 2, downloads);
+        assertEquals(1, failedDownloads);
+        assertEquals("metadata events", 1, metadata);
+        assertEquals("tracker query events", 5, trackerQueries);
+        assertEquals("connect events", 10, connects);
+        assertEquals("delete disabled", 0, deletes);
+    }
+}
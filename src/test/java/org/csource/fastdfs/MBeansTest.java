@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * ClientMBeans is registered, some requests run against the mock servers and a dead tracker
+ * address, then the MBeans are read and written through the platform MBean server.
+ */
+public class MBeansTest {
+    private static final String DOMAIN = ClientMBeans.DOMAIN;
+
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private InetSocketAddress deadAddress;
+    private ClientMBeans mbeans;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster.reset();
+        ServerSocket closed = new ServerSocket(0);
+        this.deadAddress = new InetSocketAddress("127.0.0.1", closed.getLocalPort());
+        closed.close();
+        ClientGlobal.g_tracker_group = new TrackerGroup(new InetSocketAddress[]{
+            ClientGlobal.g_tracker_group.tracker_servers[0], this.deadAddress});
+        ClientGlobal.g_client_metrics = new ClientMetrics();
+        ClientGlobal.g_download_cache = new DownloadCache(1024 * 1024);
+
+        this.mbeans = new ClientMBeans();
+        this.mbeans.register();
+    }
+
+    @After
+    public void tearDown() {
+        this.mbeans.close();
+    }
+
+    @Test
+    public void testAttributes() throws Exception {
+        ObjectName download = new ObjectName(DOMAIN + ":type=Cache,name=download");
+        ObjectName dead = new ObjectName(DOMAIN + ":type=Tracker,address="
+            + ObjectName.quote("127.0.0.1:" + this.deadAddress.getPort()));
+        assertTrue(this.server.isRegistered(download));
+        assertTrue(this.server.isRegistered(dead));
+        assertTrue("no hit ratio", Double.isNaN((Double)this.server.getAttribute(download, "HitRatio")));
+
+        StorageClient1 client = new StorageClient1();
+        byte[] content = new byte[10000];
+        String file_id = client.upload_file1(content, "bin", null);
+        assertNotNull(file_id);
+        assertArrayEquals(content, client.download_file1(file_id));
+        assertArrayEquals("cached", content, client.download_file1(file_id));
+
+        assertEquals(0.5, (Double)this.server.getAttribute(download, "HitRatio"), 0);
+        assertEquals((long)content.length, this.server.getAttribute(download, "TotalBytes"));
+        this.server.invoke(download, "clear", null, null);
+        assertEquals(0, this.server.getAttribute(download, "FileCount"));
+        assertEquals("negative disabled", false, this.server.getAttribute(
+            new ObjectName(DOMAIN + ":type=Cache,name=negative"), "Enabled"));
+
+        assertTrue("tracker fail count", (Long)this.server.getAttribute(dead, "FailCount") > 0);
+        assertTrue((Long)this.server.getAttribute(dead, "LastFailTime") > 0);
+        assertEquals("tracker not current", false, this.server.getAttribute(dead, "Current"));
+
+        this.mbeans.refresh();
+        ObjectName trackerName = new ObjectName(DOMAIN + ":type=Server,address="
+            + ObjectName.quote("127.0.0.1:" + ClientGlobal.g_tracker_group.tracker_servers[0].getPort()));
+        assertTrue(this.server.isRegistered(trackerName));
+        assertTrue((Long)this.server.getAttribute(trackerName, "ConnectCount") > 0);
+        assertEquals(3, this.server.queryNames(new ObjectName(DOMAIN + ":type=Server,*"), null).size());
+    }
+
+    @Test
+    public void testSettings() throws Exception {
+        ObjectName settings = new ObjectName(DOMAIN + ":type=Settings");
+        ObjectName pool = new ObjectName(DOMAIN + ":type=BufferPool");
+        assertTrue(this.server.isRegistered(settings));
+
+        this.server.setAttribute(settings, new Attribute("NetworkTimeout", 12345));
+        assertEquals(12345, ClientGlobal.g_network_timeout);
+        Object maxIdle = this.server.getAttribute(pool, "MaxIdle");
+        this.server.setAttribute(settings, new Attribute("DownloadBufferPoolMaxIdle", 8));
+        assertEquals(8, this.server.getAttribute(pool, "MaxIdle"));
+        this.server.setAttribute(settings, new Attribute("DownloadBufferPoolMaxIdle", maxIdle));
+        String charset = ClientGlobal.g_charset;
+        try {
+            this.server.setAttribute(settings, new Attribute("Charset", "no-such-charset"));
+            fail("invalid charset");
+        } catch (Exception ex) {
+            assertEquals(charset, ClientGlobal.g_charset);
+        }
+        this.server.setAttribute(settings, new Attribute("ClientMetrics", false));
+        assertNull(ClientGlobal.g_client_metrics);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        assertFalse(this.mbeans.getObjectNames().isEmpty());
+        this.mbeans.close();
+        assertTrue(this.server.queryNames(new ObjectName(DOMAIN + ":*"), null).isEmpty());
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.test.MockStorageServer;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * MetadataCache against the mock servers: a random sequence of MERGE and OVERWRITE
+ * sets is replayed, after each set the cached metadata must equal the metadata of the storage
+ * server, without a get request unless a name was duplicated.
+ * Also the copies, null items, delete and the TTL.
+ */
+public class MetadataCacheTest {
+    private static final byte CMD_GET_METADATA = ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA;
+    private static final String[] NAMES = {"width", "height", "author", "type", "crc"};
+
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    @Before
+    public void setUp() {
+        cluster.reset();
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        Random random = new Random(1);
+        MetadataCache cache = new MetadataCache(16, 60 * 1000);
+        ClientGlobal.g_metadata_cache = cache;
+        StorageClient1 client = new StorageClient1();
+        StorageClient1 server = new StorageClient1();
+        server.setMetadataCache(null);
+
+        String file_id = client.upload_file1(new byte[100], "bin",
+            new NameValuePair[]{new NameValuePair("width", "800")});
+        assertNotNull(file_id);
+        long requests = storage.getRequestCount(CMD_GET_METADATA);
+        assertEquals("cached by upload", toMap(server.get_metadata1(file_id)), toMap(client.get_metadata1(file_id)));
+        assertEquals(requests + 1, storage.getRequestCount(CMD_GET_METADATA));
+
+        requests = storage.getRequestCount(CMD_GET_METADATA);
+        long hits = cache.getHitCount();
+        int steps = 200;
+        int rereads = 0;
+        boolean storedDuplicate = false;
+        for (int i = 0; i < steps; i++) {
+            byte op_flag = random.nextInt(4) == 0 ? ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE
+                : ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE;
+            NameValuePair[] meta_list = new NameValuePair[random.nextInt(3) + 1];
+            int first = random.nextInt(NAMES.length);
+            for (int k = 0; k < meta_list.length; k++) {
+                meta_list[k] = new NameValuePair(NAMES[(first + k) % NAMES.length], "v" + random.nextInt(100));
+            }
+            boolean duplicate = meta_list.length > 1 && random.nextInt(10) == 0;
+            if (duplicate) {
+                meta_list[meta_list.length - 1].setName(meta_list[0].getName());
+            }
+
+            assertEquals("set " + i, 0, client.set_metadata1(file_id, meta_list, op_flag));
+
+            //the duplicate names invalidate the cached metadata
+            boolean reread = duplicate
+                || (storedDuplicate && op_flag == ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE);
+            long cachedRequests = storage.getRequestCount(CMD_GET_METADATA);
+            NameValuePair[] cached = client.get_metadata1(file_id);
+            assertEquals("get " + i, cachedRequests + (reread ? 1 : 0), storage.getRequestCount(CMD_GET_METADATA));
+            if (reread) {
+                rereads++;
+            }
+            NameValuePair[] stored = server.get_metadata1(file_id);
+            assertEquals("step " + i, toMap(stored), toMap(cached));
+            storedDuplicate = toMap(stored).size() < stored.length;
+        }
+
+        assertEquals("hit count", steps - rereads, cache.getHitCount() - hits);
+        assertEquals(requests + steps + rereads, storage.getRequestCount(CMD_GET_METADATA));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        ClientGlobal.g_metadata_cache = new MetadataCache(16, 60 * 1000);
+        StorageClient1 client = new StorageClient1();
+
+        String file_id = client.upload_file1(new byte[100], "bin",
+            new NameValuePair[]{new NameValuePair("width", "800")});
+        NameValuePair[] meta_list = client.get_metadata1(file_id);
+        meta_list[0].setValue("changed");
+        assertEquals("copy", "800", client.get_metadata1(file_id)[0].getValue());
+
+        long requests = storage.getRequestCount(CMD_GET_METADATA);
+        assertEquals(0, client.set_metadata1(file_id, new NameValuePair[]{new NameValuePair(null, "1")},
+            ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE));
+        Map<String, String> reread = toMap(client.get_metadata1(file_id));
+        assertEquals("null name invalidated", requests + 1, storage.getRequestCount(CMD_GET_METADATA));
+        assertEquals("800", reread.get("width"));
+        assertEquals("1", reread.get("null"));
+
+        requests = storage.getRequestCount(CMD_GET_METADATA);
+        assertEquals(0, client.set_metadata1(file_id, new NameValuePair[]{new NameValuePair("author", null)},
+            ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE));
+        reread = toMap(client.get_metadata1(file_id));
+        assertEquals("null value invalidated", requests + 1, storage.getRequestCount(CMD_GET_METADATA));
+        assertEquals(1, reread.size());
+        assertEquals("null", reread.get("author"));
+
+        assertEquals(0, client.delete_file1(file_id));
+        requests = storage.getRequestCount(CMD_GET_METADATA);
+        assertNull("deleted", client.get_metadata1(file_id));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.getErrorCode());
+        assertEquals(requests + 1, storage.getRequestCount(CMD_GET_METADATA));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.set_metadata1(file_id,
+            new NameValuePair[]{new NameValuePair("a", "b")}, ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE));
+        assertNull("missing not cached", client.get_metadata1(file_id));
+        assertEquals(requests + 2, storage.getRequestCount(CMD_GET_METADATA));
+    }
+
+    /**
+     * the metadata set by other clients is seen after the TTL
+     */
+    @Test
+    public void testExpire() throws Exception {
+        ClientGlobal.g_metadata_cache = new MetadataCache(16, 200);
+        StorageClient1 client = new StorageClient1();
+        StorageClient1 other = new StorageClient1();
+        other.setMetadataCache(null);
+
+        String file_id = client.upload_file1(new byte[100], "bin",
+            new NameValuePair[]{new NameValuePair("width", "800")});
+        client.get_metadata1(file_id);
+        other.set_metadata1(file_id, new NameValuePair[]{new NameValuePair("width", "1024")},
+            ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE);
+        assertEquals("stale within TTL", "800", client.get_metadata1(file_id)[0].getValue());
+        Thread.sleep(300);
+        assertEquals("fresh after TTL", "1024", client.get_metadata1(file_id)[0].getValue());
+    }
+
+    private static Map<String, String> toMap(NameValuePair[] meta_list) {
+        Map<String, String> map = new TreeMap<String, String>();
+        if (meta_list != null) {
+            for (NameValuePair item : meta_list) {
+                map.put(item.getName(), item.getValue());
+            }
+        }
+        return map;
+    }
+}
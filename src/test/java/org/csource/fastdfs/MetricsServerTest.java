@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * Some requests against the mock servers with the client metrics enabled, then
+ * MetricsHttpServer is scraped and the exported metrics are checked.
+ */
+public class MetricsServerTest {
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    private MetricsHttpServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster.reset();
+        ClientGlobal.g_client_metrics = new ClientMetrics();
+        ClientGlobal.g_download_cache = new DownloadCache(1024 * 1024);
+        StorageStatsSampler sampler = new StorageStatsSampler(null, 60, 2);
+        this.server = new MetricsHttpServer(new InetSocketAddress("127.0.0.1", 0), null, sampler);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        StorageClient1 client = new StorageClient1();
+        byte[] content = new byte[10000];
+        String file_id = client.upload_file1(content, "bin", null);
+        assertNotNull(file_id);
+        assertArrayEquals(content, client.download_file1(file_id));
+        assertArrayEquals("cached", content, client.download_file1(file_id));
+        assertEquals(0, client.delete_file1(file_id));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.delete_file1(file_id));
+
+        ClientMetrics metrics = ClientGlobal.g_client_metrics;
+        ClientMetrics.CommandMetrics upload = metrics.getCommandMetrics(ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE);
+        assertEquals(1, upload.getCount());
+        assertEquals(content.length, upload.getBytesOut());
+        assertEquals(1, upload.getPhaseLatency(ClientMetrics.PHASE_WAIT).getTotalCount());
+        ClientMetrics.CommandMetrics delete = metrics.getCommandMetrics(ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE);
+        assertEquals(2, delete.getCount());
+        assertEquals(1, delete.getErrorCount(ProtoCommon.ERR_NO_ENOENT));
+        assertNotNull("tracker query",
+            metrics.getCommandMetrics(ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ONE));
+        assertEquals("tracker and storage", 2, metrics.getServerMetrics().size());
+        assertTrue(metrics.getServerMetrics().get(0).getConnectCount() > 0);
+
+        assertTrue("sample cluster", this.server.sampleCluster());
+        String text = this.scrape();
+        assertTrue(text, text.contains("fastdfs_client_requests_total{cmd=\"UPLOAD_FILE\"} 1\n"));
+        assertTrue(text, text.contains(
+            "fastdfs_client_request_errors_total{cmd=\"DELETE_FILE\",errno=\"2\"} 1\n"));
+        assertTrue(text, text.contains(
+            "fastdfs_client_request_bytes_total{cmd=\"UPLOAD_FILE\",direction=\"out\"} 10000\n"));
+        assertTrue(text, text.contains(
+            "fastdfs_client_request_duration_seconds_count{cmd=\"DOWNLOAD_FILE\"} 1\n"));
+        assertTrue(text, text.contains(
+            "fastdfs_client_request_phase_duration_seconds{cmd=\"UPLOAD_FILE\",phase=\"wait\",quantile=\"0.99\"}"));
+        assertTrue(text, text.contains("# TYPE fastdfs_client_connect_duration_seconds summary\n"));
+        assertTrue(text, text.contains("fastdfs_client_cache_hits_total{cache=\"download\"} 1\n"));
+        assertTrue(text, text.contains("fastdfs_group_storages{group=\"group1\"} 1\n"));
+        assertTrue(text, text.contains("fastdfs_storage_status{group=\"group1\""));
+        assertTrue(text, text.contains("fastdfs_cluster_sample_success 1\n"));
+        assertTrue(text, text.contains("fastdfs_storage_sync_lag_seconds{group=\"group1\""));
+        assertEquals("one type per family", 1, countOf(text, "# TYPE fastdfs_storage_operations_total "));
+    }
+
+    @Test
+    public void testPostRejected() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection)this.url().openConnection();
+        try {
+            conn.setRequestMethod("POST");
+            assertEquals(405, conn.getResponseCode());
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private URL url() throws Exception {
+        InetSocketAddress address = this.server.getAddress();
+        return new URL("http://" + address.getHostString() + ":" + address.getPort() + "/metrics");
+    }
+
+    private String scrape() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection)this.url().openConnection();
+        try {
+            assertEquals(200, conn.getResponseCode());
+            assertEquals(MetricsHttpServer.CONTENT_TYPE, conn.getContentType());
+            InputStream in = conn.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buff = new byte[4096];
+            int bytes;
+            while ((bytes = in.read(buff)) >= 0) {
+                out.write(buff, 0, bytes);
+            }
+            in.close();
+            return new String(out.toByteArray(), "UTF-8");
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static int countOf(String text, String part) {
+        int count = 0;
+        for (int index = text.indexOf(part); index >= 0; index = text.indexOf(part, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import org.csource.fastdfs.test.MockStorageServer;
+import org.csource.fastdfs.test.MockTrackerServer;
+import org.junit.rules.ExternalResource;
+
+/**
+ * Shared fixture of the tests: a mock tracker server and its mock storage servers,
+ * ClientGlobal points to the tracker while the fixture is active.
+ * Use it as a ClassRule and call reset() before each test, which restores the ClientGlobal
+ * settings and the fault injectors changed by the previous test.
+ * <pre>
+ * &#64;ClassRule
+ * public static final MockCluster cluster = new MockCluster();
+ *
+ * &#64;Before
+ * public void setUp() {
+ *     cluster.reset();
+ * }
+ * </pre>
+ */
+public class MockCluster extends ExternalResource {
+    private final MockStorageServer[] storages;
+    private MockTrackerServer tracker;
+
+    /**
+     * one storage server of group1
+     */
+    public MockCluster() {
+        this(new MockStorageServer("group1"));
+    }
+
+    /**
+     * @param storages the storage servers, started with the tracker server
+     */
+    public MockCluster(MockStorageServer... storages) {
+        this.storages = storages;
+    }
+
+    protected void before() throws Throwable {
+        try {
+            for (MockStorageServer storage : this.storages) {
+                storage.start();
+            }
+            this.tracker = new MockTrackerServer(this.storages);
+            this.tracker.start();
+        } catch (Throwable ex) {
+            this.after();
+            throw ex;
+        }
+        this.reset();
+    }
+
+    protected void after() {
+        resetClientGlobal();
+        ClientGlobal.g_tracker_group = null;
+        if (this.tracker != null) {
+            this.tracker.stop();
+            this.tracker = null;
+        }
+        for (MockStorageServer storage : this.storages) {
+            storage.stop();
+        }
+    }
+
+    /**
+     * point ClientGlobal to the tracker server with no caches, metrics and listener,
+     * and remove the fault injectors of the servers
+     */
+    public void reset() {
+        resetClientGlobal();
+        ClientGlobal.g_connect_timeout = ClientGlobal.DEFAULT_CONNECT_TIMEOUT * 1000;
+        ClientGlobal.g_network_timeout = ClientGlobal.DEFAULT_NETWORK_TIMEOUT * 1000;
+        this.tracker.configureClient();
+        this.tracker.setFaultInjector(null);
+        for (MockStorageServer storage : this.storages) {
+            storage.setFaultInjector(null);
+        }
+    }
+
+    private static void resetClientGlobal() {
+        ClientGlobal.g_download_cache = null;
+        if (ClientGlobal.g_disk_cache != null) {
+            ClientGlobal.g_disk_cache.close();
+            ClientGlobal.g_disk_cache = null;
+        }
+        ClientGlobal.g_metadata_cache = null;
+        ClientGlobal.g_negative_cache = null;
+        ClientGlobal.g_coalesce_requests = false;
+        ClientGlobal.g_operation_listener = null;
+        ClientGlobal.g_client_metrics = null;
+    }
+
+    public MockTrackerServer getTracker() {
+        return this.tracker;
+    }
+
+    /**
+     * @return the first storage server
+     */
+    public MockStorageServer getStorage() {
+        return this.storages[0];
+    }
+
+    public MockStorageServer getStorage(int index) {
+        return this.storages[index];
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.test.MockStorageServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * The client against MockTrackerServer and MockStorageServer, no cluster is needed:
+ * two groups, the first one with two store paths.
+ */
+public class MockServerTest {
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster(new MockStorageServer("group1", 2),
+        new MockStorageServer("group2"));
+
+    private TrackerClient tracker;
+    private TrackerServer trackerServer;
+    private StorageClient1 client;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster.reset();
+        this.tracker = new TrackerClient();
+        this.trackerServer = this.tracker.getConnection();
+        this.client = new StorageClient1(this.trackerServer, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.trackerServer.close();
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        byte[] content = "hello fastdfs".getBytes(ClientGlobal.g_charset);
+        String file_id = this.client.upload_file1("group1", content, "txt", null);
+        assertNotNull(file_id);
+        assertTrue(file_id, file_id.startsWith("group1/M0"));
+        assertArrayEquals(content, this.client.download_file1(file_id));
+        assertArrayEquals(Arrays.copyOfRange(content, 6, 9), this.client.download_file1(file_id, 6, 3));
+
+        FileInfo decoded = this.client.get_file_info1(file_id);
+        FileInfo queried = this.client.query_file_info1(file_id);
+        assertEquals(content.length, decoded.getFileSize());
+        assertEquals(content.length, queried.getFileSize());
+        assertEquals(queried.getCrc32(), decoded.getCrc32());
+        assertEquals("127.0.0.1", decoded.getSourceIpAddr());
+
+        String slave_id = this.client.upload_file1(file_id, "-small", "hi".getBytes(ClientGlobal.g_charset),
+            "txt", null);
+        assertNotNull(slave_id);
+        assertTrue(slave_id, slave_id.contains("-small"));
+        assertEquals(1, this.tracker.getFetchStorages1(this.trackerServer, file_id).length);
+
+        assertEquals(0, this.client.delete_file1(file_id));
+        assertNull(this.client.download_file1(file_id));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, this.client.getErrorCode());
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, this.client.delete_file1(file_id));
+    }
+
+    @Test
+    public void testMetadata() throws Exception {
+        String file_id = this.client.upload_file1("group1", new byte[10], "txt", null);
+        NameValuePair[] meta_list = new NameValuePair[]{new NameValuePair("width", "800"),
+            new NameValuePair("height", "600")};
+        assertEquals(0, this.client.set_metadata1(file_id, meta_list,
+            ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE));
+        assertEquals(0, this.client.set_metadata1(file_id, new NameValuePair[]{new NameValuePair("height", "480")},
+            ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE));
+        NameValuePair[] meta = this.client.get_metadata1(file_id);
+        assertEquals(2, meta.length);
+        assertEquals("480", meta[1].getValue());
+    }
+
+    @Test
+    public void testAppender() throws Exception {
+        String appender_id = this.client.upload_appender_file1("group2", "abc".getBytes(ClientGlobal.g_charset),
+            "log", null);
+        assertNotNull(appender_id);
+        assertTrue(appender_id, appender_id.startsWith("group2/"));
+        assertEquals(0, this.client.append_file1(appender_id, "def".getBytes(ClientGlobal.g_charset)));
+        assertEquals(0, this.client.modify_file1(appender_id, 1, "XY".getBytes(ClientGlobal.g_charset)));
+        assertEquals("aXYdef", new String(this.client.download_file1(appender_id), ClientGlobal.g_charset));
+        assertEquals(0, this.client.truncate_file1(appender_id, 2));
+        assertEquals("aX", new String(this.client.download_file1(appender_id), ClientGlobal.g_charset));
+
+        String file_id = this.client.upload_file1("group2", new byte[10], "txt", null);
+        assertEquals("append to normal file", ProtoCommon.ERR_NO_EINVAL,
+            this.client.append_file1(file_id, new byte[10]));
+    }
+
+    @Test
+    public void testList() throws Exception {
+        StructGroupStat[] groupStats = this.tracker.listGroups(this.trackerServer);
+        assertEquals(2, groupStats.length);
+        assertEquals("group1", groupStats[0].getGroupName());
+        assertEquals(2, groupStats[0].getStorePathCount());
+
+        StructStorageStat[] storageStats = this.tracker.listStorages(this.trackerServer, "group1");
+        assertEquals(1, storageStats.length);
+        assertEquals(ProtoCommon.FDFS_STORAGE_STATUS_ACTIVE, storageStats[0].getStatus());
+        long uploads = storageStats[0].getSuccessUploadCount();
+        this.client.upload_file1("group1", new byte[10], "txt", null);
+        storageStats = this.tracker.listStorages(this.trackerServer, "group1");
+        assertEquals(uploads + 1, storageStats[0].getSuccessUploadCount());
+    }
+}
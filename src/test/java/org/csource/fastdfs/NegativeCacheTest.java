@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import org.csource.common.MyException;
+import org.csource.fastdfs.test.MockStorageServer;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * NegativeCache against the mock servers: a file returned ERR_NO_ENOENT by a download is answered
+ * by every download and metadata path without a request, until the TTL expires or the file
+ * is uploaded. get_metadata does not record the file. In the filter mode the file stays missing
+ * after the upload, but not longer than the TTL.
+ */
+public class NegativeCacheTest {
+    private static final byte CMD_DOWNLOAD = ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE;
+    private static final byte CMD_GET_METADATA = ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA;
+
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private String master_id;
+
+    /**
+     * a lookup of the file by one of the paths of the client
+     */
+    private static abstract class Lookup {
+        final String name;
+
+        Lookup(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return true if the file is reported missing
+         */
+        abstract boolean missing(StorageClient1 client, String file_id) throws IOException, MyException;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        cluster.reset();
+        this.master_id = new StorageClient1().upload_file1(new byte[100], "bin", null);
+        assertNotNull(this.master_id);
+    }
+
+    @Test
+    public void testExact() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        NegativeCache cache = new NegativeCache(100, 60 * 1000);
+        ClientGlobal.g_negative_cache = cache;
+        StorageClient1 client = new StorageClient1();
+
+        //the slave file is looked up before it is uploaded
+        String file_id = ProtoCommon.genSlaveFilename(this.master_id, "_s", "bin");
+        long downloads = storage.getRequestCount(CMD_DOWNLOAD);
+        assertNull(client.download_file1(file_id));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.getErrorCode());
+        assertEquals(downloads + 1, storage.getRequestCount(CMD_DOWNLOAD));
+
+        long metadata = storage.getRequestCount(CMD_GET_METADATA);
+        Lookup[] lookups = lookups(this.folder.newFile());
+        for (Lookup lookup : lookups) {
+            assertTrue(lookup.name, lookup.missing(client, file_id));
+            assertEquals(lookup.name, ProtoCommon.ERR_NO_ENOENT, client.getErrorCode());
+            assertEquals(lookup.name, downloads + 1, storage.getRequestCount(CMD_DOWNLOAD));
+            assertEquals(lookup.name, metadata, storage.getRequestCount(CMD_GET_METADATA));
+        }
+        assertEquals("hit count", lookups.length, cache.getHitCount());
+
+        byte[] content = new byte[]{1, 2, 3};
+        assertEquals(file_id, client.upload_file1(this.master_id, "_s", content, "bin", null));
+        assertArrayEquals("removed by upload", content, client.download_file1(file_id));
+        assertEquals(downloads + 2, storage.getRequestCount(CMD_DOWNLOAD));
+
+        //the delete does not record the file, the next lookup does
+        assertEquals(0, client.delete_file1(file_id));
+        assertNull(client.download_file1(file_id));
+        assertEquals(downloads + 3, storage.getRequestCount(CMD_DOWNLOAD));
+        assertNull("cached again", client.get_metadata1(file_id));
+        assertEquals(metadata, storage.getRequestCount(CMD_GET_METADATA));
+
+        cache.clear();
+        assertNull(client.get_metadata1(file_id));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.getErrorCode());
+        assertEquals(metadata + 1, storage.getRequestCount(CMD_GET_METADATA));
+
+        //ERR_NO_ENOENT of get_metadata may mean no metadata, the file is not recorded
+        assertNull(client.get_metadata1(file_id));
+        assertEquals("metadata not recorded", metadata + 2, storage.getRequestCount(CMD_GET_METADATA));
+        assertNull(client.download_file1(file_id));
+        assertEquals(downloads + 4, storage.getRequestCount(CMD_DOWNLOAD));
+    }
+
+    /**
+     * the file is looked up again after the TTL
+     */
+    @Test
+    public void testExpire() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        ClientGlobal.g_negative_cache = new NegativeCache(100, 200);
+        StorageClient1 client = new StorageClient1();
+        String file_id = ProtoCommon.genSlaveFilename(this.master_id, "_t", "bin");
+
+        long downloads = storage.getRequestCount(CMD_DOWNLOAD);
+        client.download_file1(file_id);
+        assertNull(client.download_file1(file_id));
+        assertEquals("within TTL", downloads + 1, storage.getRequestCount(CMD_DOWNLOAD));
+        Thread.sleep(300);
+        assertNull(client.download_file1(file_id));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.getErrorCode());
+        assertEquals("after TTL", downloads + 2, storage.getRequestCount(CMD_DOWNLOAD));
+    }
+
+    /**
+     * the upload does not remove the file in the filter mode, it is missing until the TTL
+     * even when the filter rotates late because of no calls
+     */
+    @Test
+    public void testFilter() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        long ttl = 1000;
+        NegativeCache cache = new NegativeCache(1000, 0.01, ttl);
+        ClientGlobal.g_negative_cache = cache;
+        long startTime = System.currentTimeMillis();
+        StorageClient1 client = new StorageClient1();
+        String file_id = ProtoCommon.genSlaveFilename(this.master_id, "_f", "bin");
+
+        long downloads = storage.getRequestCount(CMD_DOWNLOAD);
+        assertTrue(cache.isFilterMode());
+        assertNull(client.download_file1(file_id));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.getErrorCode());
+        byte[] content = new byte[]{4, 5, 6};
+        assertEquals(file_id, client.upload_file1(this.master_id, "_f", content, "bin", null));
+        assertNull("not removed", client.download_file1(file_id));
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.getErrorCode());
+        assertEquals(downloads + 1, storage.getRequestCount(CMD_DOWNLOAD));
+
+        //the first rotation is late, the file must still expire at the TTL
+        Thread.sleep(startTime + ttl - 50 - System.currentTimeMillis());
+        cache.contains("group1/other");
+        Thread.sleep(startTime + ttl + 200 - System.currentTimeMillis());
+        assertArrayEquals("after TTL", content, client.download_file1(file_id));
+        assertEquals(downloads + 2, storage.getRequestCount(CMD_DOWNLOAD));
+    }
+
+    private static Lookup[] lookups(final File local) {
+        return new Lookup[]{
+            new Lookup("download") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.download_file1(file_id) == null;
+                }
+            },
+            new Lookup("download range") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.download_file1(file_id, 1, 2) == null;
+                }
+            },
+            new Lookup("local file") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.download_file1(file_id, local.getPath()) == ProtoCommon.ERR_NO_ENOENT;
+                }
+            },
+            new Lookup("callback") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.download_file1(file_id, new DownloadCallback() {
+                        public int recv(long file_size, byte[] data, int bytes) {
+                            return 0;
+                        }
+                    }) == ProtoCommon.ERR_NO_ENOENT;
+                }
+            },
+            new Lookup("byte buffer callback") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.download_file1(file_id, new DownloadByteBufferCallback() {
+                        public int recv(long file_size, ByteBuffer data) {
+                            return 0;
+                        }
+                    }) == ProtoCommon.ERR_NO_ENOENT;
+                }
+            },
+            new Lookup("byte buffer") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.download_file1(file_id, ByteBuffer.allocate(100)) == ProtoCommon.ERR_NO_ENOENT;
+                }
+            },
+            new Lookup("caller buffer") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.download_file1(file_id, new byte[100]) < 0;
+                }
+            },
+            new Lookup("channel") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.download_file1(file_id, Channels.newChannel(new ByteArrayOutputStream()))
+                        == ProtoCommon.ERR_NO_ENOENT;
+                }
+            },
+            new Lookup("stream") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.open_input_stream1(file_id, 0, 0) == null;
+                }
+            },
+            new Lookup("metadata") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.get_metadata1(file_id) == null;
+                }
+            },
+            new Lookup("metadata visitor") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.get_metadata1(file_id, new MetadataVisitor() {
+                        public boolean visit(String name, String value) {
+                            return true;
+                        }
+                    }) == ProtoCommon.ERR_NO_ENOENT;
+                }
+            },
+            new Lookup("file info") {
+                boolean missing(StorageClient1 client, String file_id) throws IOException, MyException {
+                    return client.query_file_info1(file_id) == null;
+                }
+            }
+        };
+    }
+}
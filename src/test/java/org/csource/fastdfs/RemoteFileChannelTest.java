@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.csource.common.MyException;
+import org.csource.fastdfs.test.MockStorageServer;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * RemoteFileChannel against the mock servers: sequential reads with prefetch,
+ * seeks, the cached blocks reused after eviction, the end of the file and close.
+ */
+public class RemoteFileChannelTest {
+    private static final byte CMD_DOWNLOAD = ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE;
+    private static final int BLOCK_SIZE = 4096;
+    private static final int CACHE_BLOCKS = 8;
+    private static final int PREFETCH_BLOCKS = 4;
+    private static final int FILE_SIZE = 100000;  //25 blocks, the last one is partial
+
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    private Random random;
+    private byte[] content;
+    private String group_name;
+    private String remote_filename;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster.reset();
+        this.random = new Random(1);
+        this.content = new byte[FILE_SIZE];
+        this.random.nextBytes(this.content);
+        String[] results = new StorageClient().upload_file(this.content, "bin", null);
+        assertNotNull(results);
+        this.group_name = results[0];
+        this.remote_filename = results[1];
+    }
+
+    /**
+     * the first block is fetched alone, the following ones PREFETCH_BLOCKS at a time
+     */
+    @Test
+    public void testSequential() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        long downloads = storage.getRequestCount(CMD_DOWNLOAD);
+        RemoteFileChannel channel = new RemoteFileChannel(null, this.group_name, this.remote_filename,
+            BLOCK_SIZE, CACHE_BLOCKS, PREFETCH_BLOCKS);
+        assertEquals(FILE_SIZE, channel.size());
+
+        ByteBuffer buff = ByteBuffer.allocate(1000);
+        byte[] result = new byte[FILE_SIZE];
+        int totalBytes = 0;
+        int n;
+        while ((n = channel.read(buff)) > 0) {
+            buff.flip();
+            buff.get(result, totalBytes, n);
+            buff.clear();
+            totalBytes += n;
+        }
+        assertEquals(-1, n);
+        assertEquals(FILE_SIZE, totalBytes);
+        assertArrayEquals(this.content, result);
+        assertEquals(FILE_SIZE, channel.position());
+
+        int blocks = (FILE_SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long fetches = 1 + (blocks - 1 + PREFETCH_BLOCKS - 1) / PREFETCH_BLOCKS;
+        assertEquals("prefetched", downloads + fetches, storage.getRequestCount(CMD_DOWNLOAD));
+        assertEquals(fetches, channel.getMissCount());
+        long lookups = 0;  //the blocks touched by each read
+        for (int position = 0; position < FILE_SIZE; position += 1000) {
+            lookups += (Math.min(position + 1000, FILE_SIZE) - 1) / BLOCK_SIZE - position / BLOCK_SIZE + 1;
+        }
+        assertEquals(lookups - fetches, channel.getHitCount());
+        channel.close();
+    }
+
+    /**
+     * random reads through the LRU, the blocks of evicted entries are reused
+     */
+    @Test
+    public void testSeek() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        RemoteFileChannel channel = new RemoteFileChannel(null, this.group_name, this.remote_filename,
+            BLOCK_SIZE, CACHE_BLOCKS, PREFETCH_BLOCKS);
+
+        long downloads = storage.getRequestCount(CMD_DOWNLOAD);
+        this.read(channel, 50000, 100);
+        assertEquals("seek fetched one block", downloads + 1, storage.getRequestCount(CMD_DOWNLOAD));
+        this.read(channel, 50010, 50);
+        this.read(channel, 49152, 4096);
+        assertEquals("reread hit", downloads + 1, storage.getRequestCount(CMD_DOWNLOAD));
+        assertEquals(2, channel.getHitCount());
+        this.read(channel, 4000, 200);
+
+        for (int i = 0; i < 500; i++) {
+            int position = this.random.nextInt(FILE_SIZE);
+            int length = this.random.nextInt(3 * BLOCK_SIZE) + 1;
+            this.read(channel, position, Math.min(length, FILE_SIZE - position));
+        }
+        assertTrue("misses " + channel.getMissCount(), channel.getMissCount() > CACHE_BLOCKS);
+
+        ByteBuffer buff = ByteBuffer.allocate(100);
+        channel.position(FILE_SIZE - 10);
+        assertEquals(10, channel.read(buff));
+        assertEquals(FILE_SIZE, channel.position());
+        buff.clear();
+        assertEquals("end of file", -1, channel.read(buff));
+        channel.position(FILE_SIZE + 100);
+        assertEquals("beyond end of file", -1, channel.read(buff));
+        assertEquals(FILE_SIZE + 100, channel.position());
+
+        try {
+            channel.position(-1);
+            fail("negative position");
+        } catch (IllegalArgumentException ex) {
+        }
+
+        try {
+            channel.write(ByteBuffer.allocate(1));
+            fail("read only");
+        } catch (NonWritableChannelException ex) {
+        }
+        channel.close();
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        RemoteFileChannel channel = new RemoteFileChannel(null, this.group_name, this.remote_filename);
+        assertTrue(channel.isOpen());
+        channel.close();
+        channel.close();
+        assertFalse(channel.isOpen());
+
+        try {
+            channel.read(ByteBuffer.allocate(1));
+            fail("read closed");
+        } catch (ClosedChannelException ex) {
+        }
+    }
+
+    @Test
+    public void testMissingFile() throws Exception {
+        try {
+            new RemoteFileChannel(null, this.group_name, this.remote_filename + ".missing");
+            fail("missing file");
+        } catch (MyException ex) {
+        } catch (IOException ex) {
+        }
+    }
+
+    /**
+     * read length bytes at position and compare with the content
+     */
+    private void read(RemoteFileChannel channel, int position, int length) throws IOException {
+        ByteBuffer buff = ByteBuffer.allocate(length);
+        channel.position(position);
+        while (buff.hasRemaining()) {
+            assertTrue("read " + length + " at " + position, channel.read(buff) >= 0);
+        }
+        assertArrayEquals("read " + length + " at " + position,
+            Arrays.copyOfRange(this.content, position, position + length), buff.array());
+        assertEquals(position + length, channel.position());
+    }
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.csource.common.MyException;
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.test.FaultInjector;
+import org.csource.fastdfs.test.MockStorageServer;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * The request coalescing against the mock servers: concurrent downloads and metadata
+ * queries of the same file fan out from one request, the errno and the failures of the
+ * leading call reach every waiter, and the waiters get their own copies.
+ * The storage server delays the responses so the callers overlap.
+ */
+public class SingleFlightTest {
+    private static final int THREAD_COUNT = 8;
+    private static final long LATENCY = 300;  //ms
+
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    private byte[] content;
+    private String file_id;
+
+    /**
+     * the concurrent callers, each one with its own client
+     */
+    private static abstract class Caller extends Thread {
+        final StorageClient1 client = new StorageClient1();
+        final CountDownLatch start;
+        Object result;
+        byte errno;
+        Throwable failure;
+
+        Caller(CountDownLatch start) {
+            this.start = start;
+        }
+
+        abstract Object call() throws IOException, MyException;
+
+        public void run() {
+            try {
+                this.start.await();
+                this.result = this.call();
+                this.errno = this.client.getErrorCode();
+            } catch (Throwable ex) {
+                this.failure = ex;
+            }
+        }
+    }
+
+    private interface CallerFactory {
+        Caller newCaller(CountDownLatch start, int index);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        cluster.reset();
+        ClientGlobal.g_coalesce_requests = true;
+        this.content = new byte[10000];
+        for (int i = 0; i < this.content.length; i++) {
+            this.content[i] = (byte)(i * 7);
+        }
+        this.file_id = new StorageClient1().upload_file1(this.content, "bin",
+            new NameValuePair[]{new NameValuePair("width", "800")});
+        assertNotNull(this.file_id);
+
+        FaultInjector injector = new FaultInjector(1);
+        injector.forCommand(ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE).setLatency(FaultInjector.fixed(LATENCY));
+        injector.forCommand(ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA).setLatency(FaultInjector.fixed(LATENCY));
+        cluster.getStorage().setFaultInjector(injector);
+    }
+
+    @Test
+    public void testDownload() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        byte cmd = ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE;
+        long requests = storage.getRequestCount(cmd);
+        Caller[] callers = run(new CallerFactory() {
+            public Caller newCaller(CountDownLatch start, int index) {
+                return new Caller(start) {
+                    Object call() throws IOException, MyException {
+                        return this.client.download_file1(file_id);
+                    }
+                };
+            }
+        });
+
+        assertEquals("coalesced", requests + 1, storage.getRequestCount(cmd));
+        for (int i = 0; i < callers.length; i++) {
+            assertNull(callers[i].failure);
+            assertEquals(0, callers[i].errno);
+            assertArrayEquals(this.content, (byte[])callers[i].result);
+            for (int k = 0; k < i; k++) {
+                assertNotSame("copies", callers[k].result, callers[i].result);
+            }
+        }
+    }
+
+    @Test
+    public void testRangesNotCoalesced() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        byte cmd = ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE;
+        long requests = storage.getRequestCount(cmd);
+        run(new CallerFactory() {
+            public Caller newCaller(CountDownLatch start, final int index) {
+                return new Caller(start) {
+                    Object call() throws IOException, MyException {
+                        return this.client.download_file1(file_id, index, 10);
+                    }
+                };
+            }
+        });
+        assertEquals(requests + THREAD_COUNT, storage.getRequestCount(cmd));
+    }
+
+    @Test
+    public void testCoalesceOff() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        ClientGlobal.g_coalesce_requests = false;
+        byte cmd = ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE;
+        long requests = storage.getRequestCount(cmd);
+        run(new CallerFactory() {
+            public Caller newCaller(CountDownLatch start, int index) {
+                return new Caller(start) {
+                    Object call() throws IOException, MyException {
+                        return this.client.download_file1(file_id);
+                    }
+                };
+            }
+        });
+        assertEquals(requests + THREAD_COUNT, storage.getRequestCount(cmd));
+    }
+
+    @Test
+    public void testMetadata() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        byte cmd = ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA;
+        long requests = storage.getRequestCount(cmd);
+        Caller[] callers = run(new CallerFactory() {
+            public Caller newCaller(CountDownLatch start, int index) {
+                return new Caller(start) {
+                    Object call() throws IOException, MyException {
+                        return this.client.get_metadata1(file_id);
+                    }
+                };
+            }
+        });
+
+        assertEquals("coalesced", requests + 1, storage.getRequestCount(cmd));
+        for (Caller caller : callers) {
+            assertNull(caller.failure);
+            NameValuePair[] meta_list = (NameValuePair[])caller.result;
+            assertEquals(1, meta_list.length);
+            assertEquals("width", meta_list[0].getName());
+            assertEquals("800", meta_list[0].getValue());
+        }
+
+        ((NameValuePair[])callers[0].result)[0].setValue("changed");
+        assertEquals("copies", "800", ((NameValuePair[])callers[1].result)[0].getValue());
+    }
+
+    /**
+     * the errno of the leading call is shared
+     */
+    @Test
+    public void testMissing() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        final String missing_id = this.file_id.substring(0, this.file_id.length() - 4) + "_x.bin";
+        byte cmd = ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE;
+        long requests = storage.getRequestCount(cmd);
+        Caller[] callers = run(new CallerFactory() {
+            public Caller newCaller(CountDownLatch start, int index) {
+                return new Caller(start) {
+                    Object call() throws IOException, MyException {
+                        return this.client.download_file1(missing_id);
+                    }
+                };
+            }
+        });
+
+        assertEquals("coalesced", requests + 1, storage.getRequestCount(cmd));
+        for (Caller caller : callers) {
+            assertNull(caller.failure);
+            assertNull(caller.result);
+            assertEquals(ProtoCommon.ERR_NO_ENOENT, caller.errno);
+        }
+    }
+
+    /**
+     * the exceptions and errors thrown by the leading task are rethrown to every waiter
+     */
+    @Test
+    public void testLeaderFailure() throws Exception {
+        final SingleFlight inflight = new SingleFlight();
+        final StorageClient client = new StorageClient();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Error error = new AssertionError("leader failed");
+
+        Caller leader = new Caller(new CountDownLatch(0)) {
+            Object call() throws IOException, MyException {
+                return inflight.execute("key", client, new SingleFlight.Task<byte[]>() {
+                    public byte[] call() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw error;
+                    }
+                });
+            }
+        };
+        leader.start();
+        started.await();
+
+        Caller[] waiters = new Caller[THREAD_COUNT - 1];
+        for (int i = 0; i < waiters.length; i++) {
+            waiters[i] = new Caller(new CountDownLatch(0)) {
+                Object call() throws IOException, MyException {
+                    return inflight.execute("key", client, new SingleFlight.Task<byte[]>() {
+                        public byte[] call() {
+                            return new byte[0];  //not run while the leader is in flight
+                        }
+                    });
+                }
+            };
+            waiters[i].start();
+        }
+        while (waitingCount(waiters) < waiters.length) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        leader.join();
+        assertSame(error, leader.failure);
+        for (Caller waiter : waiters) {
+            waiter.join();
+            assertSame("rethrown to waiters", error, waiter.failure);
+        }
+        assertEquals("no in-flight call", 0, inflight.getInflightCount());
+    }
+
+    private static int waitingCount(Caller[] callers) {
+        int count = 0;
+        for (Caller caller : callers) {
+            if (caller.getState() == Thread.State.WAITING) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Caller[] run(CallerFactory factory) throws InterruptedException {
+        Caller[] callers = new Caller[THREAD_COUNT];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = factory.newCaller(start, i);
+            callers[i].start();
+        }
+        start.countDown();
+        for (Caller caller : callers) {
+            caller.join();
+        }
+        return callers;
+    }
+}
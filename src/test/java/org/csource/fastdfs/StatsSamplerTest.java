@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.csource.fastdfs.test.MockStorageServer;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * The stats of MockStorageServer are sampled around some requests, then the rates,
+ * the success ratios and the sync lag computed by StorageStatsSampler are checked.
+ */
+public class StatsSamplerTest {
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster();
+
+    @Before
+    public void setUp() {
+        cluster.reset();
+    }
+
+    @Test
+    public void testSample() throws Exception {
+        MockStorageServer storage = cluster.getStorage();
+        StorageStatsSampler sampler = new StorageStatsSampler(null, 60, 3);
+        assertTrue("first sample", sampler.sample());
+        StorageStatsSampler.StorageSeries series = sampler.getSeries("group1", storage.getIpAddr());
+        assertNotNull(series);
+        assertEquals(1, series.size());
+        assertTrue("no rate of one sample", Double.isNaN(series.getRate(StorageStatsSampler.UPLOAD, false, 60)));
+
+        StorageClient1 client = new StorageClient1();
+        byte[] content = new byte[1000];
+        final int count = 20;
+        String[] file_ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            file_ids[i] = client.upload_file1(content, "bin", null);
+        }
+        for (int i = 0; i < count; i++) {
+            client.delete_file1(file_ids[i]);
+        }
+        assertEquals(ProtoCommon.ERR_NO_ENOENT, client.delete_file1(file_ids[0]));
+        Thread.sleep(1000);
+
+        assertTrue("second sample", sampler.sample());
+        assertSame(series, sampler.getSeries("group1", storage.getIpAddr()));
+        assertEquals(2, series.size());
+        long[] times = series.getTimes();
+        double seconds = (times[1] - times[0]) / 1000.0;
+        assertEquals("upload rate", count / seconds, series.getRate(StorageStatsSampler.UPLOAD, true, 60), 0.01);
+        assertEquals("upload bytes rate", count * content.length / seconds,
+            series.getRate(StorageStatsSampler.UPLOAD_BYTES, true, 60), 1);
+        assertEquals("delete success ratio", (double)count / (count + 1),
+            series.getSuccessRatio(StorageStatsSampler.DELETE, 60), 0.0001);
+        assertTrue("no download", Double.isNaN(series.getSuccessRatio(StorageStatsSampler.DOWNLOAD, 60)));
+        assertEquals(1, series.getRates(StorageStatsSampler.UPLOAD, false).length);
+        long[] values = series.getValues(StorageStatsSampler.UPLOAD, false);
+        assertEquals(count, values[1] - values[0]);
+        assertTrue("sync lag " + series.getSyncLag(), series.getSyncLag() >= 0 && series.getSyncLag() <= 2);
+
+        sampler.sample();
+        assertEquals("window", 0, series.getRate(StorageStatsSampler.UPLOAD, false, 0), 0);
+        sampler.sample();
+        assertEquals("ring capacity", 3, series.size());
+        assertEquals(3, series.getTimes().length);
+
+        assertEquals(1, sampler.getGroups().length);
+        assertEquals("group1", sampler.getGroups()[0].getGroupName());
+        assertTrue(sampler.isLastSampleSuccess());
+        assertTrue(sampler.getLastSampleTime() > 0);
+    }
+}
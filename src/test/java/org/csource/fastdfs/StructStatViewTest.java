@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Random;
+
+import org.csource.fastdfs.test.MockStorageServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * StructStorageStatView and StructGroupStatView decode the same values as StructStorageStat
+ * and StructGroupStat, every getter of the view is compared with the getter of the same name,
+ * for the LIST_STORAGE and LIST_GROUP responses of MockTrackerServer and for random records.
+ */
+public class StructStatViewTest {
+    @ClassRule
+    public static final MockCluster cluster = new MockCluster(new MockStorageServer("group1", 2),
+        new MockStorageServer("group2"));
+
+    private TrackerClient tracker;
+    private TrackerServer trackerServer;
+
+    @Before
+    public void setUp() throws Exception {
+        cluster.reset();
+        this.tracker = new TrackerClient();
+        this.trackerServer = this.tracker.getConnection();
+
+        //non zero counters
+        StorageClient1 client = new StorageClient1(this.trackerServer, null);
+        String file_id = client.upload_file1("group1", new byte[1000], "bin", null);
+        client.download_file1(file_id);
+        client.delete_file1(file_id);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.trackerServer.close();
+    }
+
+    @Test
+    public void testListStorages() throws Exception {
+        StructStorageStat[] stats = this.tracker.listStorages(this.trackerServer, "group1");
+        StructStorageStatView[] views = this.tracker.listStorages(this.trackerServer, "group1", null,
+            StructStorageStatView.FACTORY);
+        assertNotNull(stats);
+        assertNotNull(views);
+        assertEquals(stats.length, views.length);
+        assertTrue(stats[0].getSuccessUploadCount() > 0);
+        for (int i = 0; i < stats.length; i++) {
+            assertSameValues(views[i], stats[i]);
+            assertSameValues(views[i], views[i].toStat());
+        }
+    }
+
+    @Test
+    public void testListGroups() throws Exception {
+        StructGroupStat[] stats = this.tracker.listGroups(this.trackerServer);
+        StructGroupStatView[] views = this.tracker.listGroups(this.trackerServer, StructGroupStatView.FACTORY);
+        assertNotNull(stats);
+        assertNotNull(views);
+        assertEquals(2, views.length);
+        assertEquals(stats.length, views.length);
+        for (int i = 0; i < stats.length; i++) {
+            assertSameValues(views[i], stats[i]);
+            assertSameValues(views[i], views[i].toStat());
+        }
+    }
+
+    /**
+     * every field is non zero, a wrong offset or size in the view is seen
+     */
+    @Test
+    public void testRandomRecords() throws Exception {
+        Random random = new Random(1);
+        for (int n = 0; n < 100; n++) {
+            byte[] bs = new byte[StructStorageStat.getFieldsTotalSize() + 3];
+            random.nextBytes(bs);
+            StructStorageStat stat = new StructStorageStat();
+            stat.setFields(bs, 3);
+            StructStorageStatView view = new StructStorageStatView();
+            view.setFields(bs, 3);
+            assertSameValues(view, stat);
+
+            bs = new byte[StructGroupStat.getFieldsTotalSize() + 3];
+            random.nextBytes(bs);
+            StructGroupStat groupStat = new StructGroupStat();
+            groupStat.setFields(bs, 3);
+            StructGroupStatView groupView = new StructGroupStatView();
+            groupView.setFields(bs, 3);
+            assertSameValues(groupView, groupStat);
+        }
+    }
+
+    /**
+     * compare the public getters of the view with the getters of the same name of the stat
+     */
+    private static void assertSameValues(Object view, Object stat) throws Exception {
+        int count = 0;
+        for (Method getter : view.getClass().getDeclaredMethods()) {
+            String name = getter.getName();
+            if (!Modifier.isPublic(getter.getModifiers()) || Modifier.isStatic(getter.getModifiers())
+                || getter.getParameterTypes().length > 0 || !(name.startsWith("get") || name.startsWith("is"))) {
+                continue;
+            }
+
+            Method expect = stat.getClass().getMethod(name);
+            assertEquals(name, expect.invoke(stat), getter.invoke(view));
+            count++;
+        }
+        assertTrue("getters of " + view.getClass().getSimpleName(), count >= 10);
+    }
+}
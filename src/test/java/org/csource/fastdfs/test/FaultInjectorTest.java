@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2008 Happy Fish / YuQing
+ *
+ * FastDFS Java Client may be copied only under the terms of the GNU Lesser
+ * General Public License (LGPL).
+ * Please visit the FastDFS Home Page http://www.csource.org/ for more detail.
+ */
+
+package org.csource.fastdfs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * The latency samples of FaultInjector are reproducible from the seed.
+ */
+public class FaultInjectorTest {
+    @Test
+    public void testSameSeedSameLatency() {
+        assertArrayEquals(sample(7), sample(7));
+        assertFalse(Arrays.equals(sample(7), sample(8)));
+    }
+
+    private static long[] sample(long seed) {
+        FaultInjector faults = new FaultInjector(seed);
+        FaultInjector.Rule rule = faults.forAll().setLatency(FaultInjector.bimodal(FaultInjector.lognormal(2, 0.5),
+            FaultInjector.exponential(100), 0.05));
+        long[] delays = new long[1000];
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = faults.nextDelayMillis(rule, 0);
+        }
+        return delays;
+    }
+}